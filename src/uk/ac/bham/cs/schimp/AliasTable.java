@@ -0,0 +1,121 @@
+package uk.ac.bham.cs.schimp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Samples the elements of a discrete probability distribution in constant time, using Vose's alias method: each of the
+ * n elements owns a column of height 1/n, which is split between the element itself and (if the element's probability
+ * is less than 1/n) an alias whose probability is more than 1/n. A sample is taken by choosing a column uniformly at
+ * random, and then either the column's element or its alias.
+ *
+ * Probabilities are approximated by doubles, so sampling is only as exact as floating-point arithmetic.
+ */
+public class AliasTable<T> {
+	
+	private final List<T> elements;
+	
+	// the normalised probability of each element
+	private final double[] weights;
+	
+	// the probability of choosing each column's own element rather than its alias, and the index of its alias
+	private final double[] probabilities;
+	private final int[] aliases;
+	
+	public AliasTable(List<T> elements, double[] weights) {
+		int n = elements.size();
+		this.elements = new ArrayList<>(elements);
+		this.weights = new double[n];
+		probabilities = new double[n];
+		aliases = new int[n];
+		
+		double total = 0;
+		for (double w : weights) total += w;
+		for (int i = 0; i < n; i++) this.weights[i] = weights[i] / total;
+		
+		// the columns whose scaled probabilities are less than 1 (small) and at least 1 (large), used as stacks
+		double[] scaled = new double[n];
+		int[] small = new int[n];
+		int[] large = new int[n];
+		int smallCount = 0;
+		int largeCount = 0;
+		for (int i = 0; i < n; i++) {
+			scaled[i] = weights[i] * n / total;
+			if (scaled[i] < 1) {
+				small[smallCount++] = i;
+			} else {
+				large[largeCount++] = i;
+			}
+		}
+		
+		// each small column is filled up by a large one, which becomes small itself once it has given away enough
+		while (smallCount > 0 && largeCount > 0) {
+			int s = small[--smallCount];
+			int l = large[--largeCount];
+			probabilities[s] = scaled[s];
+			aliases[s] = l;
+			scaled[l] = (scaled[l] + scaled[s]) - 1;
+			if (scaled[l] < 1) {
+				small[smallCount++] = l;
+			} else {
+				large[largeCount++] = l;
+			}
+		}
+		
+		// whatever is left over is only due to rounding errors, so those columns are full
+		while (largeCount > 0) probabilities[large[--largeCount]] = 1;
+		while (smallCount > 0) probabilities[small[--smallCount]] = 1;
+	}
+	
+	public static <T> AliasTable<T> fromProbabilityMassFunction(ProbabilityMassFunction<T> pmf) {
+		List<T> elements = new ArrayList<>(pmf.elements());
+		double[] weights = new double[elements.size()];
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] = pmf.probabilityOf(elements.get(i)).doubleValue();
+		}
+		return new AliasTable<>(elements, weights);
+	}
+	
+	public T sample(SplittableRandom random) {
+		return elements.get(sampleIndex(random));
+	}
+	
+	// the index of a sampled element, in the order in which the elements were given
+	public int sampleIndex(SplittableRandom random) {
+		int i = random.nextInt(probabilities.length);
+		return random.nextDouble() < probabilities[i] ? i : aliases[i];
+	}
+	
+	/**
+	 * Returns the probability of choosing the given column's own element rather than its alias, once the column has been
+	 * chosen (see sampleIndex()).
+	 */
+	public double getColumnProbability(int column) {
+		return probabilities[column];
+	}
+	
+	/**
+	 * Returns the index of the given column's alias.
+	 */
+	public int getAlias(int column) {
+		return aliases[column];
+	}
+	
+	public T get(int index) {
+		return elements.get(index);
+	}
+	
+	public List<T> getElements() {
+		return elements;
+	}
+	
+	public double getProbability(int index) {
+		return weights[index];
+	}
+	
+	public int size() {
+		return elements.size();
+	}
+	
+}
@@ -0,0 +1,79 @@
+package uk.ac.bham.cs.schimp;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.math3.fraction.BigFraction;
+
+/**
+ * A ProbabilityMassFunction whose probabilities are doubles rather than BigFractions, so that accumulating them doesn't
+ * need any BigInteger arithmetic. Along with each probability, it keeps a (first-order) bound on its relative rounding
+ * error: converting a BigFraction to a double rounds it up to three times (the numerator, the denominator and their
+ * quotient), and each accumulation rounds the sum once more.
+ */
+public class DoubleProbabilityMassFunction<T> {
+	
+	// the unit roundoff of double-precision arithmetic
+	public static final double UNIT_ROUNDOFF = 0x1p-53;
+	
+	// the index of each element in probabilities and relativeErrors
+	private Map<T, Integer> indices = new LinkedHashMap<>();
+	private double[] probabilities = new double[4];
+	private double[] relativeErrors = new double[4];
+	
+	public static <T> DoubleProbabilityMassFunction<T> fromProbabilityMassFunction(ProbabilityMassFunction<T> pmf) {
+		DoubleProbabilityMassFunction<T> dpmf = new DoubleProbabilityMassFunction<>();
+		for (T element : pmf.elements()) dpmf.add(element, pmf.probabilityOf(element));
+		return dpmf;
+	}
+	
+	// adding an element that is already present accumulates its probability, as in ProbabilityMassFunction
+	public void add(T element, double probability, double relativeError) {
+		Integer i = indices.get(element);
+		if (i == null) {
+			i = indices.size();
+			indices.put(element, i);
+			if (i == probabilities.length) {
+				probabilities = Arrays.copyOf(probabilities, i * 2);
+				relativeErrors = Arrays.copyOf(relativeErrors, i * 2);
+			}
+			probabilities[i] = probability;
+			relativeErrors[i] = relativeError;
+		} else {
+			// the relative error of a sum of non-negative numbers is no more than the largest of theirs, before rounding
+			probabilities[i] += probability;
+			relativeErrors[i] = Math.max(relativeErrors[i], relativeError) + UNIT_ROUNDOFF;
+		}
+	}
+	
+	public void add(T element, BigFraction probability) {
+		add(element, probability.doubleValue(), 3 * UNIT_ROUNDOFF);
+	}
+	
+	public Set<T> elements() {
+		return indices.keySet();
+	}
+	
+	public double probabilityOf(T element) {
+		Integer i = indices.get(element);
+		return i == null ? 0 : probabilities[i];
+	}
+	
+	public double relativeErrorOf(T element) {
+		Integer i = indices.get(element);
+		return i == null ? 0 : relativeErrors[i];
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder();
+		for (Map.Entry<T, Integer> e : indices.entrySet()) {
+			if (s.length() > 0) s.append(", ");
+			s.append(e.getKey() + " -> " + probabilities[e.getValue()]);
+		}
+		return s.toString();
+	}
+	
+}
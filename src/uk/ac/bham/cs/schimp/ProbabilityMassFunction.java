@@ -3,6 +3,7 @@ package uk.ac.bham.cs.schimp;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.SplittableRandom;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
@@ -16,19 +17,18 @@ public class ProbabilityMassFunction<T> {
 		pmf = new LinkedHashMap<T, BigFraction>();
 	}
 	
+	// adding an element that is already present accumulates its probability: this happens, e.g., when two outcomes of a
+	// probabilistic choice lead to ProgramExecutionContexts that are structurally equal
 	public void add(T element, BigFraction probability) {
-		// TODO: don't allow existing elements to be overwritten: this is a syntax error
-		pmf.put(element, probability);
+		pmf.merge(element, probability, BigFraction::add);
 	}
 	
 	public void add(T element, int probability) {
-		// TODO: don't allow existing elements to be overwritten: this is a syntax error
-		pmf.put(element, new BigFraction(probability));
+		add(element, new BigFraction(probability));
 	}
 	
 	public void add(T element, int probabilityNumerator, int probabilityDenominator) {
-		// TODO: don't allow existing elements to be overwritten: this is a syntax error
-		pmf.put(element, new BigFraction(probabilityNumerator, probabilityDenominator));
+		add(element, new BigFraction(probabilityNumerator, probabilityDenominator));
 	}
 	
 	public Set<T> elements() {
@@ -39,6 +39,21 @@ public class ProbabilityMassFunction<T> {
 		return pmf.getOrDefault(element, new BigFraction(0));
 	}
 	
+	// chooses one element at random according to the (floating-point approximations of the) probabilities; for repeated
+	// sampling from the same distribution, an AliasTable is faster
+	public T sample(SplittableRandom random) {
+		if (pmf.size() == 1) return pmf.keySet().iterator().next();
+		
+		double r = random.nextDouble();
+		T element = null;
+		for (Map.Entry<T, BigFraction> e : pmf.entrySet()) {
+			element = e.getKey();
+			r -= e.getValue().doubleValue();
+			if (r < 0) break;
+		}
+		return element;
+	}
+	
 	private String indentation(int indent) {
 		return StringUtils.repeat("  ", indent);
 	}
@@ -0,0 +1,498 @@
+package uk.ac.bham.cs.schimp.exec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.math3.fraction.BigFraction;
+
+import explicit.DTMC;
+import uk.ac.bham.cs.schimp.DoubleProbabilityMassFunction;
+
+/**
+ * Computes the probability of a discrete-time markov chain eventually being absorbed into each of its absorbing states
+ * (i.e., states whose only transition is a self-loop, such as the terminating states of a schimp program's execution),
+ * starting from its initial state.
+ *
+ * Models of terminating schimp programs are acyclic apart from these self-loops, so the probabilities are normally
+ * computed in a single forward pass that propagates probability mass along the transitions leaving each state, in
+ * topological order. Any cycles are found as the strongly-connected components of the model. The probability mass
+ * entering a cycle that can be left is propagated out of it directly, by solving the linear equations for the
+ * probability mass passing through each of the cycle's states (see eliminateCycle()), so cycles don't stop the
+ * probabilities being computed exactly. The probability mass entering a cycle that can't be left (i.e., an infinite
+ * loop) remains in the states through which it entered the cycle.
+ *
+ * Solving a cycle's equations can fill in transitions between most pairs of its states, so for cycles with very many
+ * states, the probability mass can instead be propagated around each cycle iteratively until (almost) all of it has
+ * left (if iterateCycles is true). If some of the probability mass entering a cycle still hasn't left it after
+ * MAX_ITERATIONS propagations, it isn't absorbed into any state: it's recorded as unpropagated instead, so that callers
+ * can tell that the probabilities don't account for it.
+ *
+ * The probabilities are computed once the whole model has been built, rather than while it's being built: states are
+ * explored breadth-first, which isn't a topological order, so the probability mass entering a state isn't known until
+ * every state has been explored (AnytimeExplorer propagates probability mass as it explores instead, if bounds on the
+ * probabilities are needed before then).
+ */
+public class AbsorptionProbabilities {
+	
+	// if cycles are propagated iteratively, probability mass is propagated around a cycle until less than this much of
+	// it remains in the cycle, or until it has been propagated around the cycle this many times
+	private static final double EPSILON = 1e-15;
+	private static final int MAX_ITERATIONS = 1000000;
+	
+	// indexed by state
+	private final double[] probabilities;
+	
+	private double unpropagatedProbability = 0;
+	
+	// whether propagating probability mass around any cycle stopped after MAX_ITERATIONS propagations with at least
+	// EPSILON of it remaining
+	private boolean stoppedEarly = false;
+	
+	private AbsorptionProbabilities(int stateCount) {
+		probabilities = new double[stateCount];
+	}
+	
+	/**
+	 * Returns the probability of being absorbed into each state (which is 0 for states that aren't absorbing), indexed by
+	 * state.
+	 */
+	public double[] getProbabilities() {
+		return probabilities;
+	}
+	
+	/**
+	 * Returns the probability mass that was still left in cycles when propagating it around them stopped, and so isn't
+	 * included in any of the probabilities (which is 0 if all of it was absorbed).
+	 */
+	public double getUnpropagatedProbability() {
+		return unpropagatedProbability;
+	}
+	
+	/**
+	 * Returns true if propagating probability mass around some cycle iteratively stopped after MAX_ITERATIONS
+	 * propagations rather than because (almost) all of it had left, in which case the probabilities are noticeably lower
+	 * than they should be (this is never the case unless cycles are propagated iteratively).
+	 */
+	public boolean hasSignificantUnpropagatedProbability() {
+		return stoppedEarly;
+	}
+	
+	/**
+	 * Accumulates first-order bounds on the absolute errors in the probabilities computed by compute(), given bounds on
+	 * the relative errors in the transition probabilities: each product of a state's probability mass and a transition
+	 * probability, and each sum of the probability mass entering a state, is rounded to the nearest double, and the errors
+	 * already in its operands are carried forward.
+	 */
+	static class ErrorBounds {
+		
+		// indexed by state
+		double[] absorbed;
+		
+	}
+	
+	/**
+	 * Computes the probability of the given DTMC being absorbed into each of its states.
+	 */
+	public static AbsorptionProbabilities compute(DTMC dtmc) {
+		return compute(dtmc, false);
+	}
+	
+	/**
+	 * As compute(DTMC), but if iterateCycles is true, probability mass is propagated around cycles iteratively rather than
+	 * out of them directly.
+	 */
+	public static AbsorptionProbabilities compute(DTMC dtmc, boolean iterateCycles) {
+		int stateCount = dtmc.getNumStates();
+		int[] transitionOffsets = new int[stateCount + 1];
+		int[] transitionTargets = new int[dtmc.getNumTransitions()];
+		double[] transitionProbabilities = new double[transitionTargets.length];
+		
+		int transition = 0;
+		for (int s = 0; s < stateCount; s++) {
+			transitionOffsets[s] = transition;
+			Iterator<Map.Entry<Integer, Double>> i = dtmc.getTransitionsIterator(s);
+			while (i.hasNext()) {
+				Map.Entry<Integer, Double> t = i.next();
+				transitionTargets[transition] = t.getKey();
+				transitionProbabilities[transition] = t.getValue();
+				transition++;
+			}
+		}
+		transitionOffsets[stateCount] = transition;
+		
+		return compute(stateCount, dtmc.getFirstInitialState(), transitionOffsets, transitionTargets, transitionProbabilities, iterateCycles);
+	}
+	
+	// the transitions leaving state s are at indices transitionOffsets[s] (inclusive) to transitionOffsets[s + 1]
+	// (exclusive) of transitionTargets and transitionProbabilities
+	static AbsorptionProbabilities compute(int stateCount, int initialState, int[] transitionOffsets, int[] transitionTargets, double[] transitionProbabilities, boolean iterateCycles) {
+		return compute(stateCount, initialState, transitionOffsets, transitionTargets, transitionProbabilities, null, null, iterateCycles);
+	}
+	
+	// as above, but if errorBounds is non-null, bounds on the errors in the probabilities are accumulated into it, given
+	// the bound on the relative error in each transition probability in transitionRelativeErrors; the errors in
+	// probability mass propagated out of a cycle directly aren't bounded (so their bounds are NaN)
+	static AbsorptionProbabilities compute(int stateCount, int initialState, int[] transitionOffsets, int[] transitionTargets, double[] transitionProbabilities, double[] transitionRelativeErrors, ErrorBounds errorBounds, boolean iterateCycles) {
+		StronglyConnectedComponents components = new StronglyConnectedComponents(stateCount, initialState, transitionOffsets, transitionTargets);
+		
+		// the probability mass that has entered each state but not yet left it, and the probability mass that has been
+		// absorbed into each state (and the bounds on the errors in both, if they're being accumulated)
+		AbsorptionProbabilities result = new AbsorptionProbabilities(stateCount);
+		double[] mass = new double[stateCount];
+		double[] absorbed = result.probabilities;
+		mass[initialState] = 1;
+		double[] massErrors = errorBounds != null ? new double[stateCount] : null;
+		if (errorBounds != null) errorBounds.absorbed = new double[stateCount];
+		
+		// components are found in reverse topological order, so they're visited in the opposite order to that
+		for (int c = components.count - 1; c >= 0; c--) {
+			int start = c == 0 ? 0 : components.ends[c - 1];
+			int end = components.ends[c];
+			
+			boolean selfLoop = false;
+			boolean leavable = false;
+			for (int i = start; i < end; i++) {
+				int s = components.states[i];
+				for (int t = transitionOffsets[s]; t < transitionOffsets[s + 1]; t++) {
+					if (transitionTargets[t] == s) selfLoop = true;
+					if (components.component[transitionTargets[t]] != c) leavable = true;
+				}
+			}
+			
+			if (!leavable) {
+				// an absorbing state, or an infinite loop
+				for (int i = start; i < end; i++) {
+					int s = components.states[i];
+					absorbed[s] = mass[s];
+					mass[s] = 0;
+					if (errorBounds != null) errorBounds.absorbed[s] = massErrors[s];
+				}
+			} else if ((end - start > 1 || selfLoop) && !iterateCycles) {
+				// a cycle that will be left eventually
+				eliminateCycle(components, c, transitionOffsets, transitionTargets, transitionProbabilities, mass);
+				if (errorBounds != null) {
+					for (int i = start; i < end; i++) {
+						int s = components.states[i];
+						massErrors[s] = 0;
+						for (int t = transitionOffsets[s]; t < transitionOffsets[s + 1]; t++) {
+							if (components.component[transitionTargets[t]] != c) massErrors[transitionTargets[t]] = Double.NaN;
+						}
+					}
+				}
+			} else {
+				// a transient state (in which case the loop below runs once), or a cycle that will be left eventually
+				double remaining;
+				int iterations = 0;
+				do {
+					remaining = 0;
+					for (int i = start; i < end; i++) {
+						int s = components.states[i];
+						double m = mass[s];
+						if (m == 0) continue;
+						mass[s] = 0;
+						if (errorBounds != null) {
+							propagateErrors(s, m, massErrors, transitionOffsets, transitionTargets, transitionProbabilities, transitionRelativeErrors, mass);
+							continue;
+						}
+						for (int t = transitionOffsets[s]; t < transitionOffsets[s + 1]; t++) {
+							mass[transitionTargets[t]] += m * transitionProbabilities[t];
+						}
+					}
+					if (end - start > 1 || selfLoop) {
+						for (int i = start; i < end; i++) {
+							remaining += mass[components.states[i]];
+						}
+					}
+				} while (remaining >= EPSILON && ++iterations < MAX_ITERATIONS);
+				result.unpropagatedProbability += remaining;
+				if (remaining >= EPSILON) result.stoppedEarly = true;
+			}
+		}
+		
+		return result;
+	}
+	
+	// propagates the probability mass m that has left state s along its transitions, as compute() does, and the bounds
+	// on the errors in it
+	private static void propagateErrors(int s, double m, double[] massErrors, int[] transitionOffsets, int[] transitionTargets, double[] transitionProbabilities, double[] transitionRelativeErrors, double[] mass) {
+		double error = massErrors[s];
+		massErrors[s] = 0;
+		for (int t = transitionOffsets[s]; t < transitionOffsets[s + 1]; t++) {
+			int target = transitionTargets[t];
+			double p = transitionProbabilities[t];
+			double product = m * p;
+			mass[target] += product;
+			massErrors[target] +=
+				error * p +
+				product * (transitionRelativeErrors[t] + DoubleProbabilityMassFunction.UNIT_ROUNDOFF) +
+				mass[target] * DoubleProbabilityMassFunction.UNIT_ROUNDOFF;
+		}
+	}
+	
+	// propagates the probability mass that has entered the states of component c (a cycle that can be left) out of it,
+	// by eliminating the cycle's states one at a time: a state's mass, and the transitions into it from the cycle's
+	// states that haven't been eliminated yet, are redirected along the transitions leaving it, scaled by 1 / (1 - p)
+	// for a self-loop of probability p (which accounts for the self-loop being followed any number of times; 1 - p is
+	// computed as the sum of the other transitions' probabilities, which doesn't cancel when p is close to 1). this is
+	// gaussian elimination on the equations for the probability mass passing through each of the cycle's states, without
+	// pivoting (which these equations never need, since each state's mass eventually leaves the cycle); once every state
+	// has been eliminated, all of the probability mass that entered the cycle has left it
+	private static void eliminateCycle(StronglyConnectedComponents components, int c, int[] transitionOffsets, int[] transitionTargets, double[] transitionProbabilities, double[] mass) {
+		int start = c == 0 ? 0 : components.ends[c - 1];
+		int end = components.ends[c];
+		
+		// the transitions leaving each of the cycle's states (by target) and the cycle's states with transitions into each
+		// of them, both indexed by the state's position in the cycle (and each state's position, by state)
+		Map<Integer, Integer> positions = new HashMap<>();
+		List<Map<Integer, Double>> successors = new ArrayList<>(end - start);
+		List<Set<Integer>> predecessors = new ArrayList<>(end - start);
+		for (int i = start; i < end; i++) {
+			int s = components.states[i];
+			positions.put(s, i - start);
+			Map<Integer, Double> out = new LinkedHashMap<>();
+			for (int t = transitionOffsets[s]; t < transitionOffsets[s + 1]; t++) {
+				out.merge(transitionTargets[t], transitionProbabilities[t], Double::sum);
+			}
+			successors.add(out);
+			predecessors.add(new LinkedHashSet<>());
+		}
+		for (int i = 0; i < end - start; i++) {
+			for (int target : successors.get(i).keySet()) {
+				Integer j = positions.get(target);
+				if (j != null && j != i) predecessors.get(j).add(i);
+			}
+		}
+		
+		for (int i = 0; i < end - start; i++) {
+			int s = components.states[start + i];
+			Map<Integer, Double> out = successors.get(i);
+			double scale = 1;
+			if (out.remove(s) != null) {
+				double leaving = 0;
+				for (double p : out.values()) leaving += p;
+				scale = 1 / leaving;
+			}
+			
+			double m = mass[s];
+			mass[s] = 0;
+			if (m != 0) {
+				for (Map.Entry<Integer, Double> e : out.entrySet()) {
+					mass[e.getKey()] += m * scale * e.getValue();
+				}
+			}
+			
+			// the states before this one have already been eliminated, so nothing refers to them
+			for (int j : predecessors.get(i)) {
+				if (j < i) continue;
+				Map<Integer, Double> predecessorOut = successors.get(j);
+				double p = predecessorOut.remove(s) * scale;
+				for (Map.Entry<Integer, Double> e : out.entrySet()) {
+					predecessorOut.merge(e.getKey(), p * e.getValue(), Double::sum);
+					Integer k = positions.get(e.getKey());
+					if (k != null && k != j) predecessors.get(k).add(j);
+				}
+			}
+			successors.set(i, null);
+			predecessors.set(i, null);
+		}
+	}
+	
+	/**
+	 * Returns the exact probability of being absorbed into each state, as compute() does, or null if iterateCycles is
+	 * true and the states reachable from the initial state contain a cycle that can be left (in which case the
+	 * probabilities are only computed iteratively, by compute()).
+	 */
+	static BigFraction[] computeExact(int stateCount, int initialState, int[] transitionOffsets, int[] transitionTargets, BigFraction[] transitionProbabilities, boolean iterateCycles) {
+		StronglyConnectedComponents components = new StronglyConnectedComponents(stateCount, initialState, transitionOffsets, transitionTargets);
+		
+		// as in compute(), but null represents 0
+		BigFraction[] mass = new BigFraction[stateCount];
+		BigFraction[] absorbed = new BigFraction[stateCount];
+		mass[initialState] = BigFraction.ONE;
+		
+		for (int c = components.count - 1; c >= 0; c--) {
+			int start = c == 0 ? 0 : components.ends[c - 1];
+			int end = components.ends[c];
+			
+			boolean selfLoop = false;
+			boolean leavable = false;
+			for (int i = start; i < end; i++) {
+				int s = components.states[i];
+				for (int t = transitionOffsets[s]; t < transitionOffsets[s + 1]; t++) {
+					if (transitionTargets[t] == s) selfLoop = true;
+					if (components.component[transitionTargets[t]] != c) leavable = true;
+				}
+			}
+			
+			if (!leavable) {
+				for (int i = start; i < end; i++) {
+					int s = components.states[i];
+					absorbed[s] = mass[s];
+					mass[s] = null;
+				}
+			} else if (end - start > 1 || selfLoop) {
+				if (iterateCycles) return null;
+				eliminateCycle(components, c, transitionOffsets, transitionTargets, transitionProbabilities, mass);
+			} else {
+				int s = components.states[start];
+				BigFraction m = mass[s];
+				mass[s] = null;
+				if (m == null) continue;
+				for (int t = transitionOffsets[s]; t < transitionOffsets[s + 1]; t++) {
+					BigFraction p = m.multiply(transitionProbabilities[t]);
+					int target = transitionTargets[t];
+					mass[target] = mass[target] == null ? p : mass[target].add(p);
+				}
+			}
+		}
+		
+		for (int s = 0; s < stateCount; s++) {
+			if (absorbed[s] == null) absorbed[s] = BigFraction.ZERO;
+		}
+		return absorbed;
+	}
+	
+	// as above, but in exact arithmetic (with null representing 0 in mass)
+	private static void eliminateCycle(StronglyConnectedComponents components, int c, int[] transitionOffsets, int[] transitionTargets, BigFraction[] transitionProbabilities, BigFraction[] mass) {
+		int start = c == 0 ? 0 : components.ends[c - 1];
+		int end = components.ends[c];
+		
+		Map<Integer, Integer> positions = new HashMap<>();
+		List<Map<Integer, BigFraction>> successors = new ArrayList<>(end - start);
+		List<Set<Integer>> predecessors = new ArrayList<>(end - start);
+		for (int i = start; i < end; i++) {
+			int s = components.states[i];
+			positions.put(s, i - start);
+			Map<Integer, BigFraction> out = new LinkedHashMap<>();
+			for (int t = transitionOffsets[s]; t < transitionOffsets[s + 1]; t++) {
+				out.merge(transitionTargets[t], transitionProbabilities[t], BigFraction::add);
+			}
+			successors.add(out);
+			predecessors.add(new LinkedHashSet<>());
+		}
+		for (int i = 0; i < end - start; i++) {
+			for (int target : successors.get(i).keySet()) {
+				Integer j = positions.get(target);
+				if (j != null && j != i) predecessors.get(j).add(i);
+			}
+		}
+		
+		for (int i = 0; i < end - start; i++) {
+			int s = components.states[start + i];
+			Map<Integer, BigFraction> out = successors.get(i);
+			BigFraction selfLoop = out.remove(s);
+			BigFraction scale = selfLoop == null ? BigFraction.ONE : BigFraction.ONE.subtract(selfLoop).reciprocal();
+			
+			BigFraction m = mass[s];
+			mass[s] = null;
+			if (m != null) {
+				m = m.multiply(scale);
+				for (Map.Entry<Integer, BigFraction> e : out.entrySet()) {
+					BigFraction p = m.multiply(e.getValue());
+					int target = e.getKey();
+					mass[target] = mass[target] == null ? p : mass[target].add(p);
+				}
+			}
+			
+			for (int j : predecessors.get(i)) {
+				if (j < i) continue;
+				Map<Integer, BigFraction> predecessorOut = successors.get(j);
+				BigFraction p = predecessorOut.remove(s).multiply(scale);
+				for (Map.Entry<Integer, BigFraction> e : out.entrySet()) {
+					predecessorOut.merge(e.getKey(), p.multiply(e.getValue()), BigFraction::add);
+					Integer k = positions.get(e.getKey());
+					if (k != null && k != j) predecessors.get(k).add(j);
+				}
+			}
+			successors.set(i, null);
+			predecessors.set(i, null);
+		}
+	}
+	
+	// the strongly-connected components of the states reachable from the initial state, found by an iterative version
+	// of tarjan's algorithm
+	private static class StronglyConnectedComponents {
+		
+		// the states in each component, grouped by component in the order in which the components were found (which is a
+		// reverse topological order); component c contains states[ends[c - 1]] (inclusive, or states[0] if c is 0) to
+		// states[ends[c]] (exclusive)
+		private int[] states;
+		private int[] ends;
+		private int count = 0;
+		
+		// the component containing each state (or -1 if the state isn't reachable)
+		private int[] component;
+		
+		private StronglyConnectedComponents(int stateCount, int initialState, int[] transitionOffsets, int[] transitionTargets) {
+			states = new int[stateCount];
+			ends = new int[stateCount];
+			component = new int[stateCount];
+			Arrays.fill(component, -1);
+			int statesLength = 0;
+			
+			// the order in which each state was visited (beginning at 1; 0 if it hasn't been visited yet), and the lowest
+			// such order of the states reachable from it that are still on the stack
+			int[] order = new int[stateCount];
+			int[] lowLink = new int[stateCount];
+			int nextOrder = 1;
+			
+			// the stack of visited states that haven't been assigned to a component yet, and the stack of states whose
+			// transitions are still being followed (along with the next transition to be followed from each state)
+			int[] stack = new int[stateCount];
+			boolean[] onStack = new boolean[stateCount];
+			int stackSize = 0;
+			int[] path = new int[stateCount];
+			int[] nextTransition = new int[stateCount];
+			int pathLength = 0;
+			
+			order[initialState] = lowLink[initialState] = nextOrder++;
+			stack[stackSize++] = initialState;
+			onStack[initialState] = true;
+			path[pathLength++] = initialState;
+			nextTransition[initialState] = transitionOffsets[initialState];
+			
+			while (pathLength > 0) {
+				int s = path[pathLength - 1];
+				if (nextTransition[s] < transitionOffsets[s + 1]) {
+					int t = transitionTargets[nextTransition[s]++];
+					if (order[t] == 0) {
+						order[t] = lowLink[t] = nextOrder++;
+						stack[stackSize++] = t;
+						onStack[t] = true;
+						path[pathLength++] = t;
+						nextTransition[t] = transitionOffsets[t];
+					} else if (onStack[t]) {
+						lowLink[s] = Math.min(lowLink[s], order[t]);
+					}
+				} else {
+					pathLength--;
+					if (pathLength > 0) {
+						int p = path[pathLength - 1];
+						lowLink[p] = Math.min(lowLink[p], lowLink[s]);
+					}
+					
+					// s is the root of a component: every state above it on the stack belongs to it
+					if (lowLink[s] == order[s]) {
+						int t;
+						do {
+							t = stack[--stackSize];
+							onStack[t] = false;
+							component[t] = count;
+							states[statesLength++] = t;
+						} while (t != s);
+						ends[count++] = statesLength;
+					}
+				}
+			}
+		}
+		
+	}
+	
+}
@@ -0,0 +1,314 @@
+package uk.ac.bham.cs.schimp.exec;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.math3.fraction.BigFraction;
+
+import prism.PrismException;
+import uk.ac.bham.cs.schimp.ProbabilityMassFunction;
+
+/**
+ * Explores a schimp program's state space best-first, so that bounds on the Bayes vulnerability of its tracked initial
+ * variables are available at any time, and converge on the vulnerability as exploration goes on.
+ *
+ * Probability mass flows forwards from the initial ProgramExecutionContext: each ProgramExecutionContext holds the mass
+ * that has reached it but hasn't yet been passed on to its successors, and the frontier is a priority queue of the
+ * ProgramExecutionContexts holding any, in descending order of the mass held. Exploring the first one computes its
+ * successors (only the first time, after which they're remembered) and passes its mass on to them, so a
+ * ProgramExecutionContext that is reached again along another path is explored again, but its next command isn't
+ * executed again. Mass that reaches a terminating ProgramExecutionContext stays there.
+ *
+ * The sum over each class of the highest joint probability reached so far is a lower bound on the vulnerability, and
+ * adding the mass still held by the frontier (whichever terminating states it would eventually reach) gives an upper
+ * bound. Exploration stops when the frontier is empty or the bounds are close enough together, or when the time or
+ * memory budget runs out, and the bounds reached by then are reported. Probabilities are approximated by doubles, so the
+ * bounds are only as exact as floating-point arithmetic.
+ */
+public class AnytimeExplorer {
+	
+	private static final long PROGRESS_INTERVAL_MILLIS = 1000;
+	
+	// how often (in explored ProgramExecutionContexts) the clock and the heap are checked
+	private static final int BUDGET_CHECK_INTERVAL = 256;
+	
+	private static final byte UNKNOWN = 0;
+	private static final byte NON_TERMINATING = 1;
+	private static final byte TERMINATING = 2;
+	
+	private PRISMModelGenerator schimpModelGenerator;
+	
+	// indexed by ProgramExecutionContext id - 1: the mass held by each ProgramExecutionContext, whether it's terminating
+	// (if known yet), and the successors of each non-terminating ProgramExecutionContext that has been explored
+	private double[] masses = new double[1024];
+	private byte[] kinds = new byte[1024];
+	private int[][] successors = new int[1024][];
+	private double[][] successorProbabilities = new double[1024][];
+	
+	// the frontier, as a binary max-heap of ProgramExecutionContext ids ordered by mass, and the position of each id in
+	// it (+ 1, or 0 if it isn't in the heap)
+	private int[] frontier = new int[1024];
+	private int frontierSize = 0;
+	private int[] frontierPositions = new int[1024];
+	
+	// the joint probabilities reached so far: each terminating ProgramExecutionContext is assigned a cell for its class
+	// and combination of initial variable values, keyed as for BayesVulnerability.fromSampledProbabilities()
+	private int[] terminatingCells = new int[1024];
+	private Map<List<Object>, Integer> classIndices = new HashMap<>();
+	private List<Map<List<Integer>, Integer>> classCells = new ArrayList<>();
+	private List<List<Object>> cellClasses = new ArrayList<>();
+	private List<List<Integer>> cellValues = new ArrayList<>();
+	private double[] cellMasses = new double[1024];
+	private int[] cellClassIndices = new int[1024];
+	private double[] classMaximumMasses = new double[1024];
+	
+	private double terminatedMass = 0;
+	private double lowerBound = 0;
+	private long explorations = 0;
+	private int contexts = 0;
+	private String stopReason;
+	private long elapsedMillis = 0;
+	
+	public AnytimeExplorer(PRISMModelGenerator schimpModelGenerator) {
+		this.schimpModelGenerator = schimpModelGenerator;
+	}
+	
+	/**
+	 * Explores the program's state space until the frontier is empty, the bounds on the vulnerability are no further
+	 * apart than twice the given precision, the given number of milliseconds have elapsed or the heap holds more than the
+	 * given number of bytes (a budget of 0 is unlimited), printing the bounds reached to the given stream (if non-null)
+	 * every second, and returns the vulnerability reached (whose getUpperBound() is the upper bound).
+	 */
+	public BayesVulnerability run(double precision, long timeBudgetMillis, long memoryBudgetBytes, PrintStream progress) throws PrismException {
+		long start = System.currentTimeMillis();
+		long nextProgress = start + PROGRESS_INTERVAL_MILLIS;
+		
+		int initialContextID = schimpModelGenerator.exploreInitialContext();
+		discover(initialContextID);
+		addMass(initialContextID, 1);
+		
+		stopReason = "the whole state space was explored";
+		while (frontierSize > 0) {
+			if (precision > 0 && getUpperBound() - lowerBound <= 2 * precision) {
+				stopReason = "the requested precision was reached";
+				break;
+			}
+			if (explorations % BUDGET_CHECK_INTERVAL == 0) {
+				long now = System.currentTimeMillis();
+				if (timeBudgetMillis > 0 && now - start >= timeBudgetMillis) {
+					stopReason = "the time budget ran out";
+					break;
+				}
+				if (memoryBudgetBytes > 0 && usedMemory() > memoryBudgetBytes) {
+					// the heap may just be full of garbage, so collect it before giving up
+					System.gc();
+					if (usedMemory() > memoryBudgetBytes) {
+						stopReason = "the memory budget ran out";
+						break;
+					}
+				}
+				if (progress != null && now >= nextProgress) {
+					progress.println("After " + (now - start) + " ms: " + describeProgress());
+					nextProgress = now + PROGRESS_INTERVAL_MILLIS;
+				}
+			}
+			
+			explore(pollFrontier());
+		}
+		
+		elapsedMillis = System.currentTimeMillis() - start;
+		
+		Map<List<Object>, Map<List<Integer>, BigFraction>> probabilities = new HashMap<>();
+		for (int cell = 0; cell < cellValues.size(); cell++) {
+			probabilities.computeIfAbsent(cellClasses.get(cell), k -> new HashMap<>()).put(cellValues.get(cell), new BigFraction(cellMasses[cell]));
+		}
+		return BayesVulnerability.fromExploredProbabilities(probabilities, new BigFraction(getUnexploredMass()), schimpModelGenerator);
+	}
+	
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+	
+	// passes the mass held by the given non-terminating ProgramExecutionContext on to its successors
+	private void explore(int contextID) throws PrismException {
+		explorations++;
+		if (successors[contextID - 1] == null) {
+			ProbabilityMassFunction<Integer> succeedingContextIDs = schimpModelGenerator.exploreSucceedingContexts(contextID);
+			int[] ids = new int[succeedingContextIDs.elements().size()];
+			double[] probabilities = new double[ids.length];
+			int i = 0;
+			for (int succeedingContextID : succeedingContextIDs.elements()) {
+				discover(succeedingContextID);
+				ids[i] = succeedingContextID;
+				probabilities[i] = succeedingContextIDs.probabilityOf(succeedingContextID).doubleValue();
+				i++;
+			}
+			successors[contextID - 1] = ids;
+			successorProbabilities[contextID - 1] = probabilities;
+		}
+		
+		double mass = masses[contextID - 1];
+		masses[contextID - 1] = 0;
+		int[] ids = successors[contextID - 1];
+		double[] probabilities = successorProbabilities[contextID - 1];
+		for (int i = 0; i < ids.length; i++) addMass(ids[i], mass * probabilities[i]);
+	}
+	
+	// makes room for the given ProgramExecutionContext and works out whether it's terminating, the first time it's
+	// reached
+	private void discover(int contextID) {
+		if (contextID > masses.length) {
+			int length = Math.max(contextID, masses.length * 2);
+			masses = Arrays.copyOf(masses, length);
+			kinds = Arrays.copyOf(kinds, length);
+			successors = Arrays.copyOf(successors, length);
+			successorProbabilities = Arrays.copyOf(successorProbabilities, length);
+			frontierPositions = Arrays.copyOf(frontierPositions, length);
+			terminatingCells = Arrays.copyOf(terminatingCells, length);
+		}
+		if (kinds[contextID - 1] != UNKNOWN) return;
+		contexts++;
+		
+		ProgramExecutionContext context = schimpModelGenerator.getSCHIMPExecutionContext(contextID);
+		if (!context.isTerminating()) {
+			kinds[contextID - 1] = NON_TERMINATING;
+			return;
+		}
+		kinds[contextID - 1] = TERMINATING;
+		
+		List<Object> classKey = Arrays.asList(
+			context.observations,
+			schimpModelGenerator.stateHasTime() ? context.elapsedTime : -1,
+			schimpModelGenerator.stateHasPower() ? context.totalPowerConsumption : -1
+		);
+		int initialVariableCount = schimpModelGenerator.stateInitialVariableNames().size();
+		List<Integer> values = new ArrayList<>(initialVariableCount);
+		for (int v = 0; v < initialVariableCount; v++) {
+			values.add(schimpModelGenerator.getInitialVariableValue(context, v));
+		}
+		
+		Integer classIndex = classIndices.get(classKey);
+		if (classIndex == null) {
+			classIndex = classCells.size();
+			classIndices.put(classKey, classIndex);
+			classCells.add(new HashMap<>());
+			if (classIndex == classMaximumMasses.length) classMaximumMasses = Arrays.copyOf(classMaximumMasses, classIndex * 2);
+		}
+		Integer cell = classCells.get(classIndex).get(values);
+		if (cell == null) {
+			cell = cellValues.size();
+			classCells.get(classIndex).put(values, cell);
+			cellClasses.add(classKey);
+			cellValues.add(values);
+			if (cell == cellMasses.length) {
+				cellMasses = Arrays.copyOf(cellMasses, cell * 2);
+				cellClassIndices = Arrays.copyOf(cellClassIndices, cell * 2);
+			}
+			cellClassIndices[cell] = classIndex;
+		}
+		terminatingCells[contextID - 1] = cell;
+	}
+	
+	private void addMass(int contextID, double mass) {
+		if (mass == 0) return;
+		
+		if (kinds[contextID - 1] == TERMINATING) {
+			int cell = terminatingCells[contextID - 1];
+			int classIndex = cellClassIndices[cell];
+			cellMasses[cell] += mass;
+			terminatedMass += mass;
+			// the lower bound only grows when a class's highest joint probability does
+			if (cellMasses[cell] > classMaximumMasses[classIndex]) {
+				lowerBound += cellMasses[cell] - classMaximumMasses[classIndex];
+				classMaximumMasses[classIndex] = cellMasses[cell];
+			}
+			return;
+		}
+		
+		masses[contextID - 1] += mass;
+		if (frontierPositions[contextID - 1] == 0) {
+			if (frontierSize == frontier.length) frontier = Arrays.copyOf(frontier, frontierSize * 2);
+			frontier[frontierSize++] = contextID;
+			frontierPositions[contextID - 1] = frontierSize;
+		}
+		siftUp(frontierPositions[contextID - 1] - 1);
+	}
+	
+	//==========================================================================
+	// the frontier's heap operations (a ProgramExecutionContext's mass only ever grows while it's in the frontier)
+	
+	private int pollFrontier() {
+		int contextID = frontier[0];
+		frontierPositions[contextID - 1] = 0;
+		frontierSize--;
+		if (frontierSize > 0) {
+			setFrontier(0, frontier[frontierSize]);
+			siftDown(0);
+		}
+		return contextID;
+	}
+	
+	private void siftUp(int i) {
+		int contextID = frontier[i];
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (masses[frontier[parent] - 1] >= masses[contextID - 1]) break;
+			setFrontier(i, frontier[parent]);
+			i = parent;
+		}
+		setFrontier(i, contextID);
+	}
+	
+	private void siftDown(int i) {
+		int contextID = frontier[i];
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= frontierSize) break;
+			if (child + 1 < frontierSize && masses[frontier[child + 1] - 1] > masses[frontier[child] - 1]) child++;
+			if (masses[frontier[child] - 1] <= masses[contextID - 1]) break;
+			setFrontier(i, frontier[child]);
+			i = child;
+		}
+		setFrontier(i, contextID);
+	}
+	
+	private void setFrontier(int i, int contextID) {
+		frontier[i] = contextID;
+		frontierPositions[contextID - 1] = i + 1;
+	}
+	
+	//==========================================================================
+	
+	public double getLowerBound() {
+		return lowerBound;
+	}
+	
+	public double getUpperBound() {
+		return Math.min(1, lowerBound + getUnexploredMass());
+	}
+	
+	// the mass that hasn't reached a terminating ProgramExecutionContext yet, which is all held by the frontier
+	public double getUnexploredMass() {
+		return frontierSize == 0 ? 0 : Math.max(0, 1 - terminatedMass);
+	}
+	
+	private String describeProgress() {
+		return
+			contexts + " execution contexts discovered, " + explorations + " explored, " + frontierSize + " in the frontier; " +
+			"unexplored probability mass " + getUnexploredMass() + ", vulnerability bounds [" + lowerBound + ", " + getUpperBound() + "]";
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder();
+		s.append("Explored for " + elapsedMillis + " ms, until " + stopReason + "\n");
+		s.append(describeProgress() + "\n");
+		return s.toString();
+	}
+	
+}
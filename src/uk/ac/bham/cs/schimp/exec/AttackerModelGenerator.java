@@ -3,12 +3,13 @@ package uk.ac.bham.cs.schimp.exec;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import explicit.DTMC;
-import explicit.DTMCModelChecker;
-import explicit.StateValues;
 import parser.State;
 import parser.Values;
 import parser.VarList;
@@ -26,6 +27,7 @@ import prism.PrismLangException;
 public class AttackerModelGenerator implements ModelGenerator {
 	
 	private Prism prism;
+	private DTMC schimpModel;
 	private PRISMModelGenerator schimpModelGenerator;
 	
 	// the indices of various pieces of information in the prism State object's variables array:
@@ -65,6 +67,11 @@ public class AttackerModelGenerator implements ModelGenerator {
 	// a cartesian product iterator for the possible values of initial variables recorded in prism State objects
 	private VariableValueCartesianProduct varValueProduct;
 	
+	// the guesses offered to the attacker in each observation class (i.e., the phase-1 states with the same observable
+	// variables, which must all offer the same choices), keyed by the observable variables; see chooseGuesses()
+	private Map<List<Integer>, ObservationClassGuesses> observationClassGuesses = new HashMap<>();
+	private ObservationClassGuesses exploringGuesses;
+	
 	// barebones prism State objects used as the basis for creating phase-1 and phase-2 State objects
 	private State emptyProgramTerminatedState;
 	private State emptyAttackerGuessedState;
@@ -72,11 +79,16 @@ public class AttackerModelGenerator implements ModelGenerator {
 	//==========================================================================
 	
 	public static AttackerModelGenerator fromSCHIMPModel(Prism prism, PRISMModelGenerator schimpModelGenerator) {
-		return new AttackerModelGenerator(prism, schimpModelGenerator);
+		return new AttackerModelGenerator(prism, (DTMC)prism.getBuiltModelExplicit(), schimpModelGenerator);
+	}
+	
+	public static AttackerModelGenerator fromSCHIMPModel(Prism prism, DTMC schimpModel, PRISMModelGenerator schimpModelGenerator) {
+		return new AttackerModelGenerator(prism, schimpModel, schimpModelGenerator);
 	}
 	
-	private AttackerModelGenerator(Prism prism, PRISMModelGenerator schimpModelGenerator) {
+	private AttackerModelGenerator(Prism prism, DTMC schimpModel, PRISMModelGenerator schimpModelGenerator) {
 		this.prism = prism;
+		this.schimpModel = schimpModel;
 		this.schimpModelGenerator = schimpModelGenerator;
 		
 		stateInitialVars = schimpModelGenerator.stateInitialVariableNames();
@@ -127,11 +139,7 @@ public class AttackerModelGenerator implements ModelGenerator {
 			.map(v -> TypeInt.getInstance())
 			.collect(Collectors.toList());
 		
-		varValueProduct = new VariableValueCartesianProduct(
-			schimpModelGenerator.getProgram().getInitialCommands().stream()
-				.filter(c -> stateInitialVars.indexOf(c.getVariableReference().getName()) != -1)
-				.collect(Collectors.toList())
-		);
+		varValueProduct = schimpModelGenerator.getStateInitialVariableValueProduct();
 		
 		// the barebones State object for "_phase" = 1 contains the phase id 1 and -1 everywhere else; the variables
 		// representing the SCHIMPExecutionContext's observations id, time and power consumption and initial variable
@@ -356,8 +364,16 @@ public class AttackerModelGenerator implements ModelGenerator {
 			// - if _phase = 0, this is the initial state; the succeeding states are the terminating states of the
 			//   schimp program from the model built by the PRISMModelGenerator
 			case 0:
-				DTMCModelChecker modelChecker = new DTMCModelChecker(prism);
-				StateValues steadyState = modelChecker.doTransient((DTMC)prism.getBuiltModelExplicit(), schimpModelGenerator.getMaximumTimeStep());
+				// the probability of the schimp program terminating in each state of the generated prism model (this is a
+				// single forward pass over the model, rather than a transient analysis over its longest execution)
+				AbsorptionProbabilities absorption = AbsorptionProbabilities.compute(schimpModel, schimpModelGenerator.iteratesCycles());
+				double[] stateProbabilities = absorption.getProbabilities();
+				if (absorption.hasSignificantUnpropagatedProbability()) {
+					System.err.println(
+						"warning: probability mass " + absorption.getUnpropagatedProbability() +
+						" could not be propagated out of the model's cycles and is missing from the terminating states"
+					);
+				}
 				
 				// iterate over each of the terminating states in the generated prism model, and create new states for
 				// this model based on them; the variables in each state are the same with the exception of the first,
@@ -365,8 +381,7 @@ public class AttackerModelGenerator implements ModelGenerator {
 				// the guess correctness indicators for each initial variable (which are meaningless in phase 0, as the
 				// attacker doesn't make their guesses until the phase 1->2 transition)
 				PRISMStateMap stateMap = new PRISMStateMap();
-				List<State> states = prism.getBuiltModelExplicit().getStatesList();
-				double[] stateProbabilities = steadyState.getDoubleArray();
+				List<State> states = schimpModel.getStatesList();
 				int stateCommonSubsetLength = states.get(0).varValues.length - 1;
 				for (int i = 0; i < stateProbabilities.length; i++) {
 					if (stateProbabilities[i] > 0) {
@@ -390,6 +405,7 @@ public class AttackerModelGenerator implements ModelGenerator {
 				succeedingStateProbabilities = stateMap.getProbabilities();
 				succeedingChoices = 1;
 				succeedingTransitions = succeedingStates.size();
+				chooseGuesses();
 				break;
 			// - if _phase = 1, this is a schimp terminating state; the non-probabilistic choices leaving this state are
 			//   the attacker's possible guesses for each of the initial variables, and the succeeding states contain
@@ -397,7 +413,8 @@ public class AttackerModelGenerator implements ModelGenerator {
 			case 1:
 				succeedingStates = null;
 				succeedingStateProbabilities = null;
-				succeedingChoices = varValueProduct.size();
+				exploringGuesses = observationClassGuesses.get(getObservationClass(exploringState));
+				succeedingChoices = exploringGuesses.values.size();
 				succeedingTransitions = 1;
 				break;
 			// - if _phase = 2, the attacker has finished guessing; nothing more needs to be done
@@ -410,25 +427,137 @@ public class AttackerModelGenerator implements ModelGenerator {
 		}
 	}
 	
-	private State createStateFromAttackerGuesses(State state, VariableScopeFrame guesses) {
+	private State createStateFromAttackerGuesses(State state, List<Integer> guesses) {
 		State newState = new State(emptyAttackerGuessedState);
 		
 		for (int i = 0; i < stateInitialVarGuessesOffset - stateInitialVarsOffset; i++) {
-			try {
-				newState.setValue(stateInitialVarGuessesOffset + i,
-					guesses.evaluate(prismVarNames.get(stateInitialVarsOffset + i)).toFraction().intValue() == (int)state.varValues[stateInitialVarsOffset + i] ?
-					1 : // correct guess for the value of this initial variable
-					0   // incorrect guess for the value of this initial variable
-				);
-			} catch (ProgramExecutionException e) {
-				// evaluate() throws a ProgramExecutionException if the given string is not a defined variable name, but
-				// this should never happen here
-			}
+			newState.setValue(stateInitialVarGuessesOffset + i,
+				guesses.get(i) == (int)state.varValues[stateInitialVarsOffset + i] ?
+				1 : // correct guess for the value of this initial variable
+				0   // incorrect guess for the value of this initial variable
+			);
 		}
 		
 		return newState;
 	}
 	
+	// the observable variables of a phase-1 state that distinguish it from phase-1 states in other observation classes
+	private List<Integer> getObservationClass(State state) {
+		return Arrays.asList(
+			(int)state.varValues[stateObservationsIDIndex],
+			stateTimeIndex == -1 ? -1 : (int)state.varValues[stateTimeIndex],
+			statePowerIndex == -1 ? -1 : (int)state.varValues[statePowerIndex]
+		);
+	}
+	
+	private static class ObservationClassGuesses {
+		
+		// the values of the initial variables guessed in each choice (in the same order as stateInitialVars), and the
+		// choice's action label
+		private List<List<Integer>> values = new ArrayList<>();
+		private List<String> actions = new ArrayList<>();
+		
+	}
+	
+	// offering every element of varValueProduct as a choice in every phase-1 state would make the number of choices the
+	// size of the initial variables' whole domain, so in each observation class the attacker is only offered the guesses
+	// that are consistent with at least one of the class's states (i.e., have a non-zero posterior probability), and of
+	// those, only the guesses that aren't dominated by another guess: a guess is dominated if another guess is at least
+	// as likely to be entirely correct and at least as likely to be correct for each initial variable individually, and
+	// strictly more likely to be one of these; this doesn't change the maximum probability of the attacker's guesses
+	// being correct, for all of the initial variables or for any one of them
+	private void chooseGuesses() {
+		int varCount = stateInitialVars.size();
+		
+		// the joint probability of each observation class and each combination of initial variable values
+		Map<List<Integer>, Map<List<Integer>, Double>> classValueProbabilities = new LinkedHashMap<>();
+		for (int i = 0; i < succeedingStates.size(); i++) {
+			State s = succeedingStates.get(i);
+			List<Integer> values = new ArrayList<>(varCount);
+			for (int v = 0; v < varCount; v++) {
+				values.add((int)s.varValues[stateInitialVarsOffset + v]);
+			}
+			classValueProbabilities.computeIfAbsent(getObservationClass(s), k -> new LinkedHashMap<>())
+				.merge(values, succeedingStateProbabilities.get(i), Double::sum);
+		}
+		
+		observationClassGuesses.clear();
+		for (Map.Entry<List<Integer>, Map<List<Integer>, Double>> c : classValueProbabilities.entrySet()) {
+			Map<List<Integer>, Double> valueProbabilities = c.getValue();
+			
+			// the probability of each initial variable having each value in this class
+			List<Map<Integer, Double>> marginals = new ArrayList<>(varCount);
+			for (int v = 0; v < varCount; v++) {
+				Map<Integer, Double> marginal = new HashMap<>();
+				for (Map.Entry<List<Integer>, Double> e : valueProbabilities.entrySet()) {
+					marginal.merge(e.getKey().get(v), e.getValue(), Double::sum);
+				}
+				marginals.add(marginal);
+			}
+			
+			// the index in varValueProduct of the first guess of each combination of values in this class that can be
+			// guessed (computed only for these combinations, rather than for the whole product)
+			Map<List<Integer>, Integer> guessIndices = new LinkedHashMap<>();
+			for (List<Integer> values : valueProbabilities.keySet()) {
+				int guessIndex = varValueProduct.indexOf(stateInitialVars, values);
+				if (guessIndex != -1) guessIndices.put(values, guessIndex);
+			}
+			
+			// each candidate guess's probabilities of being entirely correct and of being correct for each initial
+			// variable, considered in descending order of their sum: any guess that dominates another has a greater sum,
+			// so a guess is dominated if and only if one of the undominated guesses before it dominates it
+			List<List<Integer>> candidates = new ArrayList<>(guessIndices.keySet());
+			Map<List<Integer>, double[]> scores = new HashMap<>();
+			for (List<Integer> values : candidates) {
+				double[] score = new double[varCount + 2];
+				score[0] = valueProbabilities.get(values);
+				for (int v = 0; v < varCount; v++) {
+					score[v + 1] = marginals.get(v).get(values.get(v));
+					score[varCount + 1] += score[v + 1];
+				}
+				score[varCount + 1] += score[0];
+				scores.put(values, score);
+			}
+			candidates.sort((v1, v2) -> Double.compare(scores.get(v2)[varCount + 1], scores.get(v1)[varCount + 1]));
+			
+			List<List<Integer>> undominated = new ArrayList<>();
+			for (List<Integer> candidate : candidates) {
+				double[] score = scores.get(candidate);
+				boolean dominated = false;
+				for (List<Integer> other : undominated) {
+					double[] otherScore = scores.get(other);
+					boolean atLeast = true;
+					boolean greater = false;
+					for (int j = 0; j <= varCount; j++) {
+						if (otherScore[j] < score[j]) atLeast = false;
+						if (otherScore[j] > score[j]) greater = true;
+					}
+					if (atLeast && greater) {
+						dominated = true;
+						break;
+					}
+				}
+				if (!dominated) undominated.add(candidate);
+			}
+			
+			// the choices are offered in the same order as in varValueProduct, so that the action labels are in a
+			// predictable order; if none of the combinations of values in this class can be guessed (which should never
+			// happen), the attacker is offered a single guess that is always incorrect
+			undominated.sort((v1, v2) -> Integer.compare(guessIndices.get(v1), guessIndices.get(v2)));
+			
+			ObservationClassGuesses guesses = new ObservationClassGuesses();
+			for (List<Integer> values : undominated) {
+				guesses.values.add(values);
+				guesses.actions.add(varValueProduct.get(guessIndices.get(values)).toShortString());
+			}
+			if (undominated.isEmpty()) {
+				guesses.values.add(Collections.nCopies(varCount, Integer.MIN_VALUE));
+				guesses.actions.add(varValueProduct.get(0).toShortString());
+			}
+			observationClassGuesses.put(c.getKey(), guesses);
+		}
+	}
+	
 	//==========================================================================
 	// non-deterministic choice is only used in transition from phase 1 to phase 2, when the schimp program has
 	// terminated; in this situation, the non-deterministic choice is the attacker's guess for the value of each initial
@@ -443,7 +572,7 @@ public class AttackerModelGenerator implements ModelGenerator {
 	@Override
 	public Object getChoiceAction(int i) throws PrismException {
 		return (int)exploringState.varValues[0] == 1 ?
-			varValueProduct.get(i).toShortString() :
+			exploringGuesses.actions.get(i) :
 			null;
 	}
 	
@@ -463,7 +592,7 @@ public class AttackerModelGenerator implements ModelGenerator {
 	@Override
 	public State computeTransitionTarget(int i, int offset) throws PrismException {
 		return (int)exploringState.varValues[0] == 1 ?
-			createStateFromAttackerGuesses(exploringState, varValueProduct.get(i)) :
+			createStateFromAttackerGuesses(exploringState, exploringGuesses.values.get(i)) :
 			succeedingStates.get(offset);
 	}
 	
@@ -477,7 +606,7 @@ public class AttackerModelGenerator implements ModelGenerator {
 	@Override
 	public Object getTransitionAction(int i) throws PrismException {
 		return (int)exploringState.varValues[0] == 1 ?
-			varValueProduct.get(i).toShortString() :
+			exploringGuesses.actions.get(i) :
 			null;
 	}
 
@@ -0,0 +1,382 @@
+package uk.ac.bham.cs.schimp.exec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.apache.commons.math3.fraction.BigFraction;
+
+import explicit.DTMC;
+import parser.State;
+
+/**
+ * Computes the Bayes vulnerability of a schimp program's tracked initial variables: the probability that an attacker
+ * who sees everything observable about the program when it terminates (its observations, and its elapsed time and
+ * power consumption if they're tracked) guesses the values of all of the tracked initial variables correctly in one
+ * try. The attacker's best guess for each class of indistinguishable terminating states is the combination of values
+ * with the highest joint probability, so the vulnerability is the sum of these highest joint probabilities.
+ *
+ * This is the maximum probability computed by prism for the model built by AttackerModelGenerator (its Pmax property),
+ * but it's computed in a single pass over the terminating states of the program's execution instead of by solving a
+ * POMDP, and exactly whenever the execution model is acyclic.
+ *
+ * If the model was built with a pruning threshold, the probability mass that was diverted into its sink state is
+ * missing from the joint probabilities, but every terminating state's probability is still exact (or a lower bound),
+ * and adding the missing mass anywhere could increase the vulnerability by at most the mass itself: the vulnerability of
+ * the whole program lies between getProbability() and getUpperBound().
+ */
+public class BayesVulnerability {
+	
+	/**
+	 * A class of terminating states that the attacker can't tell apart, and the attacker's best guess in them.
+	 */
+	public static class ObservationClass {
+		
+		private final int observationsID;
+		private final int time;
+		private final int power;
+		
+		// the joint probability of each combination of initial variable values (in the order in which they're tracked)
+		// occurring in this class
+		private final Map<List<Integer>, BigFraction> valueProbabilities = new LinkedHashMap<>();
+		
+		private VariableScopeFrame guess;
+		private BigFraction guessProbability = BigFraction.ZERO;
+		
+		private ObservationClass(int observationsID, int time, int power) {
+			this.observationsID = observationsID;
+			this.time = time;
+			this.power = power;
+		}
+		
+		public int getObservationsID() {
+			return observationsID;
+		}
+		
+		// -1 if the elapsed time isn't tracked
+		public int getTime() {
+			return time;
+		}
+		
+		// -1 if the power consumption isn't tracked
+		public int getPower() {
+			return power;
+		}
+		
+		// the joint probability of this class occurring and the tracked initial variables having each combination of
+		// values (in the order in which the variables are tracked)
+		public Map<List<Integer>, BigFraction> getValueProbabilities() {
+			return Collections.unmodifiableMap(valueProbabilities);
+		}
+		
+		public VariableScopeFrame getGuess() {
+			return guess;
+		}
+		
+		// the joint probability of this class occurring and the guess being correct
+		public BigFraction getGuessProbability() {
+			return guessProbability;
+		}
+		
+	}
+	
+	private PRISMModelGenerator schimpModelGenerator;
+	private boolean exact;
+	
+	private Map<List<Integer>, ObservationClass> observationClasses = new LinkedHashMap<>();
+	private BigFraction probability = BigFraction.ZERO;
+	
+	// the probability of reaching the sink state of a pruned model
+	private BigFraction prunedProbability = BigFraction.ZERO;
+	
+	// the number of combinations of initial variable values that the attacker can guess
+	private int guessCount;
+	
+	// a bound on the rounding errors in the probability, which is 0 if it was computed exactly and NaN if it wasn't
+	// bounded
+	private double roundingErrorBound;
+	
+	// the probability mass left in cycles of the model when computing the termination probabilities stopped
+	private double unpropagatedProbability = 0;
+	private boolean significantUnpropagatedProbability = false;
+	
+	//==========================================================================
+	
+	/**
+	 * Computes the Bayes vulnerability from a model built by PRISMModelGenerator.buildExplicitModel().
+	 */
+	public static BayesVulnerability fromSCHIMPModel(ExplicitSCHIMPModel schimpModel, PRISMModelGenerator schimpModelGenerator) {
+		return fromSCHIMPModel(schimpModel, schimpModelGenerator, false);
+	}
+	
+	/**
+	 * Computes the Bayes vulnerability from a model built by PRISMModelGenerator.buildExplicitModel(), and if
+	 * boundRoundingErrors is true and the probabilities can't be computed exactly, a bound on the rounding errors in it
+	 * (see getRoundingErrorBound()).
+	 */
+	public static BayesVulnerability fromSCHIMPModel(ExplicitSCHIMPModel schimpModel, PRISMModelGenerator schimpModelGenerator, boolean boundRoundingErrors) {
+		BigFraction[] exactProbabilities = schimpModel.computeExactTerminationProbabilities();
+		AbsorptionProbabilities.ErrorBounds errorBounds = exactProbabilities == null && boundRoundingErrors ? new AbsorptionProbabilities.ErrorBounds() : null;
+		AbsorptionProbabilities absorption = null;
+		if (exactProbabilities == null) {
+			absorption = errorBounds != null ?
+				schimpModel.computeTerminationProbabilities(errorBounds) :
+				schimpModel.computeTerminationProbabilities();
+		}
+		double[] probabilities = absorption != null ? absorption.getProbabilities() : null;
+		BayesVulnerability vulnerability = new BayesVulnerability(schimpModelGenerator, exactProbabilities != null);
+		if (absorption != null) {
+			vulnerability.unpropagatedProbability = absorption.getUnpropagatedProbability();
+			vulnerability.significantUnpropagatedProbability = absorption.hasSignificantUnpropagatedProbability();
+		}
+		
+		// the joint probabilities are converted to BigFractions exactly, so the only rounding errors are the ones in the
+		// termination probabilities; each class's highest joint probability can be out by no more than the sum of the
+		// errors in the termination probabilities of its states
+		if (errorBounds != null) {
+			vulnerability.roundingErrorBound = vulnerability.unpropagatedProbability;
+			for (double e : errorBounds.absorbed) vulnerability.roundingErrorBound += e;
+		}
+		
+		int[] values = new int[schimpModelGenerator.stateInitialVariableNames().size()];
+		for (int s = 0; s < schimpModel.getNumStates(); s++) {
+			BigFraction p = exactProbabilities != null ?
+				exactProbabilities[s] :
+				(probabilities[s] == 0 ? BigFraction.ZERO : new BigFraction(probabilities[s]));
+			if (s == schimpModel.getSinkState()) {
+				vulnerability.prunedProbability = p;
+				continue;
+			}
+			if (p.equals(BigFraction.ZERO)) continue;
+			
+			for (int v = 0; v < values.length; v++) {
+				values[v] = schimpModel.getInitialVariableValue(s, v);
+			}
+			vulnerability.addTerminatingState(
+				schimpModel.getObservationsID(s),
+				schimpModelGenerator.stateHasTime() ? schimpModel.getTime(s) : -1,
+				schimpModelGenerator.stateHasPower() ? schimpModel.getPower(s) : -1,
+				values,
+				p
+			);
+		}
+		
+		vulnerability.chooseGuesses();
+		return vulnerability;
+	}
+	
+	/**
+	 * Computes the Bayes vulnerability from a model built by prism from a PRISMModelGenerator (the probabilities in
+	 * which are only approximate).
+	 */
+	public static BayesVulnerability fromSCHIMPModel(DTMC schimpModel, PRISMModelGenerator schimpModelGenerator) {
+		AbsorptionProbabilities absorption = AbsorptionProbabilities.compute(schimpModel, schimpModelGenerator.iteratesCycles());
+		double[] probabilities = absorption.getProbabilities();
+		BayesVulnerability vulnerability = new BayesVulnerability(schimpModelGenerator, false);
+		vulnerability.unpropagatedProbability = absorption.getUnpropagatedProbability();
+		vulnerability.significantUnpropagatedProbability = absorption.hasSignificantUnpropagatedProbability();
+		
+		List<State> states = schimpModel.getStatesList();
+		int[] values = new int[schimpModelGenerator.stateInitialVariableNames().size()];
+		for (int s = 0; s < probabilities.length; s++) {
+			if (probabilities[s] == 0) continue;
+			
+			Object[] varValues = states.get(s).varValues;
+			for (int v = 0; v < values.length; v++) {
+				values[v] = (int)varValues[schimpModelGenerator.getStateInitialVariablesOffset() + v];
+			}
+			vulnerability.addTerminatingState(
+				(int)varValues[schimpModelGenerator.getStateObservationsIDIndex()],
+				schimpModelGenerator.stateHasTime() ? (int)varValues[schimpModelGenerator.getStateTimeIndex()] : -1,
+				schimpModelGenerator.stateHasPower() ? (int)varValues[schimpModelGenerator.getStatePowerIndex()] : -1,
+				values,
+				new BigFraction(probabilities[s])
+			);
+		}
+		
+		vulnerability.chooseGuesses();
+		return vulnerability;
+	}
+	
+	/**
+	 * Estimates the Bayes vulnerability from sampled executions of the program (see MonteCarloSimulator and
+	 * ImportanceSamplingSimulator), given the estimated joint probability of each class and combination of initial
+	 * variable values. The probabilities are keyed by the observations made and the elapsed time and power consumption
+	 * (-1 if they aren't tracked), and then by the initial variable values.
+	 */
+	static BayesVulnerability fromSampledProbabilities(Map<List<Object>, Map<List<Integer>, BigFraction>> probabilities, PRISMModelGenerator schimpModelGenerator) {
+		BayesVulnerability vulnerability = new BayesVulnerability(schimpModelGenerator, false);
+		
+		int[] values = new int[schimpModelGenerator.stateInitialVariableNames().size()];
+		for (Map.Entry<List<Object>, Map<List<Integer>, BigFraction>> c : probabilities.entrySet()) {
+			int observationsID = schimpModelGenerator.getObservationsID((Observation)c.getKey().get(0));
+			for (Map.Entry<List<Integer>, BigFraction> e : c.getValue().entrySet()) {
+				for (int v = 0; v < values.length; v++) {
+					values[v] = e.getKey().get(v);
+				}
+				vulnerability.addTerminatingState(
+					observationsID,
+					(Integer)c.getKey().get(1),
+					(Integer)c.getKey().get(2),
+					values,
+					e.getValue()
+				);
+			}
+		}
+		
+		vulnerability.chooseGuesses();
+		return vulnerability;
+	}
+	
+	/**
+	 * Computes the Bayes vulnerability from the part of the program's state space explored by AnytimeExplorer, given the
+	 * joint probabilities reached so far (keyed as for fromSampledProbabilities()) and the probability mass that hasn't
+	 * reached a terminating state yet, which is treated in the same way as the mass pruned from a model.
+	 */
+	static BayesVulnerability fromExploredProbabilities(Map<List<Object>, Map<List<Integer>, BigFraction>> probabilities, BigFraction unexploredProbability, PRISMModelGenerator schimpModelGenerator) {
+		BayesVulnerability vulnerability = fromSampledProbabilities(probabilities, schimpModelGenerator);
+		vulnerability.prunedProbability = unexploredProbability;
+		return vulnerability;
+	}
+	
+	private BayesVulnerability(PRISMModelGenerator schimpModelGenerator, boolean exact) {
+		this.schimpModelGenerator = schimpModelGenerator;
+		this.exact = exact;
+		roundingErrorBound = exact ? 0 : Double.NaN;
+	}
+	
+	private void addTerminatingState(int observationsID, int time, int power, int[] values, BigFraction p) {
+		ObservationClass c = observationClasses.computeIfAbsent(
+			Arrays.asList(observationsID, time, power),
+			k -> new ObservationClass(observationsID, time, power)
+		);
+		c.valueProbabilities.merge(Arrays.stream(values).boxed().collect(Collectors.toList()), p, BigFraction::add);
+	}
+	
+	// the attacker can only guess the combinations of initial variable values that the program can produce, which are
+	// the same ones that the AttackerModelGenerator offers as choices; ties between equally-good guesses are broken in
+	// favour of the guess that comes first in that order
+	private void chooseGuesses() {
+		List<String> stateInitialVars = schimpModelGenerator.stateInitialVariableNames();
+		VariableValueCartesianProduct guesses = schimpModelGenerator.getStateInitialVariableValueProduct();
+		guessCount = guesses.countValues(stateInitialVars);
+		
+		for (ObservationClass c : observationClasses.values()) {
+			int bestGuessIndex = -1;
+			for (Map.Entry<List<Integer>, BigFraction> e : c.valueProbabilities.entrySet()) {
+				// the first guess with this combination of initial variable values
+				int guessIndex = guesses.indexOf(stateInitialVars, e.getKey());
+				if (guessIndex == -1) continue;
+				
+				int comparison = e.getValue().compareTo(c.guessProbability);
+				if (bestGuessIndex == -1 || comparison > 0 || (comparison == 0 && guessIndex < bestGuessIndex)) {
+					bestGuessIndex = guessIndex;
+					c.guessProbability = e.getValue();
+				}
+			}
+			
+			// if none of the combinations of values in this class can be guessed, any guess is as bad as any other
+			c.guess = guesses.get(bestGuessIndex == -1 ? 0 : bestGuessIndex);
+			probability = probability.add(c.guessProbability);
+		}
+	}
+	
+	//==========================================================================
+	
+	/**
+	 * Returns the probability of the attacker guessing the values of all of the tracked initial variables correctly.
+	 */
+	public BigFraction getProbability() {
+		return probability;
+	}
+	
+	/**
+	 * Returns the probability mass that was pruned while building the model, or left unexplored by AnytimeExplorer (which
+	 * is 0 if nothing was).
+	 */
+	public BigFraction getPrunedProbability() {
+		return prunedProbability;
+	}
+	
+	/**
+	 * Returns an upper bound on the probability of the attacker guessing the values correctly, accounting for the
+	 * probability mass that was pruned while building the model (which is the probability itself if it wasn't pruned).
+	 */
+	public BigFraction getUpperBound() {
+		return probability.add(prunedProbability);
+	}
+	
+	/**
+	 * Returns the joint probability of the tracked initial variables having each combination of values before the program
+	 * runs (keyed as in ObservationClass.getValueProbabilities()). This is computed from the program's initial commands
+	 * alone, so unlike the joint probabilities in the observation classes, it's exact even if probability mass was pruned.
+	 */
+	public Map<List<Integer>, BigFraction> getPriorProbabilities() {
+		return schimpModelGenerator.computeInitialVariableDistribution();
+	}
+	
+	/**
+	 * Returns the number of combinations of initial variable values that the attacker can guess.
+	 */
+	public int getGuessCount() {
+		return guessCount;
+	}
+	
+	/**
+	 * Returns true if the probability was computed exactly, or false if it was computed using floating-point
+	 * arithmetic.
+	 */
+	public boolean isExact() {
+		return exact;
+	}
+	
+	/**
+	 * Returns a worst-case bound on the rounding errors in the probability (i.e., the probability computed exactly lies
+	 * within this much of it), which is 0 if it was computed exactly, or NaN if it wasn't but the rounding errors weren't
+	 * bounded. The bound is a first-order one (see AbsorptionProbabilities.ErrorBounds).
+	 */
+	public double getRoundingErrorBound() {
+		return roundingErrorBound;
+	}
+	
+	/**
+	 * Returns the probability mass that computing the termination probabilities couldn't propagate out of the model's
+	 * cycles, and so isn't accounted for in the probability (see AbsorptionProbabilities.getUnpropagatedProbability()).
+	 */
+	public double getUnpropagatedProbability() {
+		return unpropagatedProbability;
+	}
+	
+	/**
+	 * Returns true if enough probability mass was left unpropagated that the probability is noticeably too low (see
+	 * AbsorptionProbabilities.hasSignificantUnpropagatedProbability()).
+	 */
+	public boolean hasSignificantUnpropagatedProbability() {
+		return significantUnpropagatedProbability;
+	}
+	
+	/**
+	 * Returns the classes of indistinguishable terminating states, in the order in which they were first encountered,
+	 * along with the attacker's best guess in each of them.
+	 */
+	public List<ObservationClass> getObservationClasses() {
+		return new ArrayList<>(observationClasses.values());
+	}
+	
+	/**
+	 * Returns a description of the given class's observable information, in the same form as the observable variables
+	 * of the states in the model built by AttackerModelGenerator.
+	 */
+	public String describe(ObservationClass c, boolean showObservations) {
+		StringBuilder s = new StringBuilder();
+		s.append("_oid=" + (showObservations ? schimpModelGenerator.getObservations(c.observationsID) : c.observationsID));
+		if (schimpModelGenerator.stateHasTime()) s.append(",_time=" + c.time);
+		if (schimpModelGenerator.stateHasPower()) s.append(",_power=" + c.power);
+		return s.toString();
+	}
+	
+}
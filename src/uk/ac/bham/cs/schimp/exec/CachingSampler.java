@@ -0,0 +1,185 @@
+package uk.ac.bham.cs.schimp.exec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import uk.ac.bham.cs.schimp.AliasTable;
+import uk.ac.bham.cs.schimp.ProbabilityMassFunction;
+import uk.ac.bham.cs.schimp.lang.Program;
+
+/**
+ * A Sampler that remembers the distribution over the ProgramExecutionContexts succeeding each one it reaches, so that an
+ * execution reaching a ProgramExecutionContext that an earlier one (on the same thread) already reached draws its
+ * successor from an AliasTable instead of executing the command again. The cache is a graph whose nodes are
+ * ProgramExecutionContexts, deduplicated by their structural equality when they're first reached, and whose edges are
+ * followed directly, so an execution inside the cache never looks a ProgramExecutionContext up or compares it with
+ * another; the graph is stored in primitive arrays indexed by node and by the columns of the nodes' alias tables, so
+ * following an edge only reads a few array elements. Each edge also skips over the deterministic commands following the
+ * choice it represents (up to the next choice, or the end of the execution), recording how many commands it stands for,
+ * so an execution inside the cache only takes one step per random choice: this pays off whenever executions keep
+ * revisiting the same states, as they do in programs with small state spaces.
+ *
+ * The ProgramExecutionContexts in the cache are shared between executions, so they're never modified in place. Once the
+ * cache holds as many ProgramExecutionContexts as its capacity, an execution that reaches one whose successors haven't
+ * been cached carries on with Command.sample() (on a clone of it) until it terminates.
+ */
+public class CachingSampler extends Sampler {
+	
+	private final int capacity;
+	
+	// the nodes, numbered in the order in which the cache first reaches their ProgramExecutionContexts (so the program's
+	// initial ProgramExecutionContext is node 0)
+	private final Map<ProgramExecutionContext, Integer> nodes = new HashMap<>();
+	private final List<ProgramExecutionContext> contexts = new ArrayList<>();
+	private final List<ProgramExecutionContext> terminatingContexts = new ArrayList<>();
+	
+	// for each node, the index of its ProgramExecutionContext among the terminating ones in the cache (or -1 if it isn't
+	// terminating), and the first of the consecutive columns of its alias table and how many there are (the first is -1
+	// until its successors have been cached)
+	private int[] terminatingIndices = new int[16];
+	private int[] firstColumns = new int[16];
+	private int[] columnCounts = new int[16];
+	
+	// for each column, the probability of following its own edge rather than its alias's; column c's own edge is edge 2c
+	// and its alias's is edge 2c + 1, and each edge leads to a node after executing a number of commands
+	private int columnCount = 0;
+	private double[] columnProbabilities = new double[16];
+	private int[] edgeTargets = new int[32];
+	private int[] edgeSteps = new int[32];
+	
+	private int terminatingIndex = -1;
+	
+	public CachingSampler(SplittableRandom random, int capacity) {
+		super(random);
+		this.capacity = capacity;
+	}
+	
+	/**
+	 * As Sampler.sampleExecution(), but a CachingSampler must only ever be given the same program.
+	 */
+	@Override
+	public ProgramExecutionContext sampleExecution(Program program, int maxSteps) throws ProgramExecutionException {
+		if (contexts.isEmpty()) node(ProgramExecutionContext.initialContext(program));
+		int node = 0;
+		int steps = 0;
+		terminatingIndex = -1;
+		while (terminatingIndices[node] < 0) {
+			if (firstColumns[node] < 0) {
+				if (contexts.size() >= capacity) break;
+				cacheSuccessors(node, maxSteps);
+			}
+			int column = firstColumns[node] + random.nextInt(columnCounts[node]);
+			int edge = random.nextDouble() < columnProbabilities[column] ? 2 * column : 2 * column + 1;
+			// the execution runs out of steps somewhere along this edge
+			if (steps + edgeSteps[edge] > maxSteps) return null;
+			steps += edgeSteps[edge];
+			node = edgeTargets[edge];
+		}
+		
+		if (terminatingIndices[node] >= 0) {
+			terminatingIndex = terminatingIndices[node];
+			return contexts.get(node);
+		}
+		
+		// the rest of the execution is sampled without the cache, on a clone of the ProgramExecutionContext that left it
+		ProgramExecutionContext context = contexts.get(node).clone();
+		while (!context.isTerminating()) {
+			if (steps++ == maxSteps) return null;
+			context = context.executingCommand.sample(context, this);
+		}
+		return context;
+	}
+	
+	private int node(ProgramExecutionContext context) {
+		Integer node = nodes.get(context);
+		if (node != null) return node;
+		
+		node = contexts.size();
+		nodes.put(context, node);
+		contexts.add(context);
+		if (node == terminatingIndices.length) {
+			terminatingIndices = Arrays.copyOf(terminatingIndices, 2 * node);
+			firstColumns = Arrays.copyOf(firstColumns, 2 * node);
+			columnCounts = Arrays.copyOf(columnCounts, 2 * node);
+		}
+		firstColumns[node] = -1;
+		if (context.isTerminating()) {
+			terminatingIndices[node] = terminatingContexts.size();
+			terminatingContexts.add(context);
+		} else {
+			terminatingIndices[node] = -1;
+		}
+		return node;
+	}
+	
+	// each edge follows deterministic commands for no more than maxSteps commands in total, so that it can't run forever
+	private void cacheSuccessors(int node, int maxSteps) throws ProgramExecutionException {
+		ProgramExecutionContext context = contexts.get(node);
+		ProbabilityMassFunction<ProgramExecutionContext> pmf = context.executingCommand.execute(context);
+		int n = pmf.elements().size();
+		List<Integer> targets = new ArrayList<>(n);
+		double[] weights = new double[n];
+		int[] steps = new int[n];
+		for (ProgramExecutionContext c : pmf.elements()) {
+			weights[targets.size()] = pmf.probabilityOf(c).doubleValue();
+			
+			int s = 1;
+			ProgramExecutionContext target = c;
+			while (!target.isTerminating() && s < maxSteps) {
+				ProbabilityMassFunction<ProgramExecutionContext> next = target.executingCommand.execute(target);
+				if (next.elements().size() != 1) break;
+				target = next.elements().iterator().next();
+				s++;
+			}
+			steps[targets.size()] = s;
+			targets.add(node(target));
+		}
+		
+		AliasTable<Integer> successors = new AliasTable<>(targets, weights);
+		if (columnCount + n > columnProbabilities.length) {
+			int length = Math.max(2 * columnProbabilities.length, columnCount + n);
+			columnProbabilities = Arrays.copyOf(columnProbabilities, length);
+			edgeTargets = Arrays.copyOf(edgeTargets, 2 * length);
+			edgeSteps = Arrays.copyOf(edgeSteps, 2 * length);
+		}
+		for (int i = 0; i < n; i++) {
+			int column = columnCount + i;
+			int alias = successors.getAlias(i);
+			columnProbabilities[column] = successors.getColumnProbability(i);
+			edgeTargets[2 * column] = targets.get(i);
+			edgeSteps[2 * column] = steps[i];
+			edgeTargets[2 * column + 1] = targets.get(alias);
+			edgeSteps[2 * column + 1] = steps[alias];
+		}
+		firstColumns[node] = columnCount;
+		columnCounts[node] = n;
+		columnCount += n;
+	}
+	
+	/**
+	 * Returns the index of the terminating ProgramExecutionContext returned by the last call to sampleExecution() among
+	 * the terminating ProgramExecutionContexts in the cache (see getTerminatingContext()), or -1 if it doesn't belong to
+	 * the cache or the execution didn't terminate. Indices are allocated from 0, in the order in which the cache first
+	 * reaches the ProgramExecutionContexts, so they're small enough to index arrays with.
+	 */
+	public int getTerminatingIndex() {
+		return terminatingIndex;
+	}
+	
+	public ProgramExecutionContext getTerminatingContext(int index) {
+		return terminatingContexts.get(index);
+	}
+	
+	public int getTerminatingContextCount() {
+		return terminatingContexts.size();
+	}
+	
+	public int getCacheSize() {
+		return contexts.size();
+	}
+	
+}
@@ -2,6 +2,7 @@ package uk.ac.bham.cs.schimp.exec;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Field;
 import java.net.URL;
 import java.util.ArrayList;
@@ -11,7 +12,9 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.apache.commons.collections4.ListUtils;
+import org.apache.commons.math3.fraction.BigFraction;
 
+import explicit.DTMC;
 import explicit.graphviz.Decorator;
 import joptsimple.OptionException;
 import joptsimple.OptionParser;
@@ -27,6 +30,9 @@ import uk.ac.bham.cs.schimp.exec.graphviz.AttackerModelStateDecorator;
 import uk.ac.bham.cs.schimp.exec.graphviz.SCHIMPModelStateDecorator;
 import uk.ac.bham.cs.schimp.lang.Program;
 import uk.ac.bham.cs.schimp.source.FunctionModelSourceFile;
+import uk.ac.bham.cs.schimp.source.PartialEvaluator;
+import uk.ac.bham.cs.schimp.source.ProgramSlicer;
+import uk.ac.bham.cs.schimp.source.ProgramTransformation;
 import uk.ac.bham.cs.schimp.source.SourceFile;
 import uk.ac.bham.cs.schimp.source.SyntaxException;
 
@@ -91,15 +97,21 @@ public class CommandLine {
 		
 		File sourceArg = (File)options.nonOptionArguments().get(0);
 		Program program = null;
+		
+		// the program is partially evaluated before it's sliced, since that can remove dependences between its commands
+		List<ProgramTransformation> transformations = new ArrayList<>();
+		if (options.has("partial-eval")) transformations.add(new PartialEvaluator());
+		if (options.has("slice")) transformations.add(new ProgramSlicer());
 		try {
 			SourceFile source = new SourceFile(sourceArg);
 			program = options.has("fnmodel-file") ?
-				source.parse(((FunctionModelSourceFile)options.valueOf("fnmodel-file")).parse()) :
-				source.parse(null);
+				source.parse(((FunctionModelSourceFile)options.valueOf("fnmodel-file")).parse(), transformations) :
+				source.parse(null, transformations);
 		} catch (IOException | SyntaxException e) {
 			e.printStackTrace();
 			System.exit(1);
 		}
+		for (ProgramTransformation t : transformations) System.out.println(t.toString());
 		System.out.println(program.toString());
 		
 		List<String> requestedInitialVariables = options.valuesOf("initial-vars").stream()
@@ -140,16 +152,160 @@ public class CommandLine {
 			options.has("time-var"),
 			options.has("power-var"),
 			trackedInitialVariables,
-			!options.has("show-all-transitions")
+			!options.has("show-all-transitions"),
+			new PRISMModelGenerator.ExplorationOptions()
+				.debugContextHashes(options.has("debug-context-hashes"))
+				.threads((Integer)options.valueOf("threads"))
+				.contextStoreDirectory((File)options.valueOf("context-store-dir"))
+				.sweepLine(options.has("sweep-line"))
+				.reduceDeadVariables(!options.has("keep-dead-variables"))
+				.summariseFunctions(options.has("summarise-functions"))
+				.pruningThreshold(options.has("prune") ? (Double)options.valueOf("prune") : 0)
+				.floatingPoint(options.has("floating-point"))
+				.iterateCycles(options.has("iterate-cycles"))
 		);
-		prismSchimpExecution.loadModelGenerator(schimpModelGenerator);
+		// the model of the schimp program's execution is built by schimp itself by default, which is much faster than
+		// letting prism drive the PRISMModelGenerator; when simulating or exploring anytime, no model is built at all
+		ExplicitSCHIMPModel explicitSchimpExecutionModel = null;
+		DTMC schimpExecutionModel = null;
+		MonteCarloSimulator simulator = null;
+		ImportanceSamplingSimulator importanceSimulator = null;
+		AnytimeExplorer anytimeExplorer = null;
 		try {
-			prismSchimpExecution.buildModelIfRequired();
-		} catch (PrismException e) {
+			if (options.has("anytime")) {
+				anytimeExplorer = new AnytimeExplorer(schimpModelGenerator);
+			} else if (options.has("importance-sampling")) {
+				importanceSimulator = new ImportanceSamplingSimulator(
+					schimpModelGenerator,
+					(Integer)options.valueOf("threads"),
+					options.has("seed") ? (Long)options.valueOf("seed") : System.nanoTime(),
+					(Integer)options.valueOf("max-steps")
+				);
+				if (options.has("proposal-file")) importanceSimulator.readProposals((File)options.valueOf("proposal-file"));
+			} else if (options.has("simulate")) {
+				simulator = new MonteCarloSimulator(
+					schimpModelGenerator,
+					(Integer)options.valueOf("threads"),
+					options.has("seed") ? (Long)options.valueOf("seed") : System.nanoTime(),
+					(Integer)options.valueOf("max-steps")
+				);
+			} else if (options.has("prism-model-builder")) {
+				prismSchimpExecution.loadModelGenerator(schimpModelGenerator);
+				prismSchimpExecution.buildModelIfRequired();
+				schimpExecutionModel = (DTMC)prismSchimpExecution.getBuiltModelExplicit();
+			} else {
+				explicitSchimpExecutionModel = schimpModelGenerator.buildExplicitModel();
+				schimpExecutionModel = explicitSchimpExecutionModel.toDTMC();
+				if (options.has("prune")) {
+					System.out.println("Pruned transitions: " + schimpModelGenerator.getPrunedTransitions());
+				}
+			}
+		} catch (PrismException | IOException | UncheckedIOException | SyntaxException e) {
 			e.printStackTrace();
 			System.exit(1);
 		}
 			
+		List<String> dotFilePaths = null;
+		if (options.has("dot-file")) {
+			dotFilePaths = options.hasArgument("dot-file") ?
+				options.valuesOf("dot-file").stream().map(f -> ((File)f).getPath()).collect(Collectors.toList()) :
+				Stream.of(new String[] { ".exec.dot", ".attacker.dot" }).map(f -> sourceArg.getPath() + f).collect(Collectors.toList());
+			
+			ArrayList<Decorator> schimpExecutionDecorators = new ArrayList<>();
+			schimpExecutionDecorators.add(new SCHIMPModelStateDecorator(schimpExecutionModel.getStatesList(), schimpModelGenerator, options.has("show-outputs")));
+			PrismLog schimpExecutionDotFile = new PrismFileLog(dotFilePaths.get(0));
+			schimpExecutionModel.exportToDotFile(schimpExecutionDotFile, schimpExecutionDecorators);
+			schimpExecutionDotFile.flush();
+		}
+		
+		// the attacker's best guesses are computed directly from the terminating states of the schimp program's execution
+		// by default; the attacker model (a pomdp) is only built and model-checked by prism if requested
+		BayesVulnerability vulnerability = null;
+		if (anytimeExplorer != null) {
+			try {
+				vulnerability = anytimeExplorer.run(
+					options.has("precision") ? (Double)options.valueOf("precision") : 0,
+					options.has("time-budget") ? Math.round((Double)options.valueOf("time-budget") * 1000) : 0,
+					options.has("memory-budget") ? (Long)options.valueOf("memory-budget") * 1024 * 1024 : 0,
+					System.out
+				);
+			} catch (PrismException e) {
+				e.printStackTrace();
+				System.exit(1);
+			}
+			System.out.print(anytimeExplorer);
+		} else if (importanceSimulator != null) {
+			try {
+				vulnerability = importanceSimulator.run(
+					(Integer)options.valueOf("ce-iterations"),
+					(Long)options.valueOf("ce-samples"),
+					(Double)options.valueOf("precision"),
+					(Double)options.valueOf("confidence"),
+					(Long)options.valueOf("max-samples")
+				);
+			} catch (ProgramExecutionException e) {
+				e.printStackTrace();
+				System.exit(1);
+			}
+			System.out.print(importanceSimulator);
+		} else if (simulator != null) {
+			try {
+				vulnerability = simulator.run(
+					(Double)options.valueOf("precision"),
+					(Double)options.valueOf("confidence"),
+					(Long)options.valueOf("max-samples")
+				);
+			} catch (ProgramExecutionException e) {
+				e.printStackTrace();
+				System.exit(1);
+			}
+			System.out.print(simulator);
+		} else if (!options.has("pomdp") || options.has("leakage")) {
+			vulnerability = explicitSchimpExecutionModel != null ?
+				BayesVulnerability.fromSCHIMPModel(explicitSchimpExecutionModel, schimpModelGenerator, options.has("rounding-error-bound")) :
+				BayesVulnerability.fromSCHIMPModel(schimpExecutionModel, schimpModelGenerator);
+			if (vulnerability.hasSignificantUnpropagatedProbability()) {
+				System.err.println(
+					"warning: probability mass " + vulnerability.getUnpropagatedProbability() +
+					" could not be propagated out of the model's cycles and is missing from the result"
+				);
+			}
+			if (options.has("prune")) {
+				System.out.println(
+					"Pruned probability mass: " + vulnerability.getPrunedProbability().doubleValue() +
+					(vulnerability.isExact() ? " (exactly " + vulnerability.getPrunedProbability() + ")" : "")
+				);
+			}
+		}
+		
+		if (options.has("leakage")) {
+			List<GainFunction> gainFunctions = new ArrayList<>();
+			try {
+				for (Object f : options.valuesOf("gain-file")) {
+					gainFunctions.add(GainFunction.fromFile((File)f, trackedInitialVariables.size()));
+				}
+			} catch (IOException | SyntaxException e) {
+				e.printStackTrace();
+				System.exit(1);
+			}
+			System.out.print(new LeakageMetrics(vulnerability, (Integer)options.valueOf("max-tries"), gainFunctions));
+		}
+		
+		if (!options.has("pomdp")) {
+			System.out.println(
+				"Result: " + vulnerability.getProbability().doubleValue() +
+				(vulnerability.isExact() ? " (exactly " + vulnerability.getProbability() + ")" : "") +
+				(!Double.isNaN(vulnerability.getRoundingErrorBound()) && !vulnerability.isExact() ?
+					" (rounding error bound " + vulnerability.getRoundingErrorBound() + ")" : "") +
+				(vulnerability.getPrunedProbability().compareTo(BigFraction.ZERO) > 0 ?
+					", certified bounds [" + vulnerability.getProbability().doubleValue() + ", " + vulnerability.getUpperBound().doubleValue() + "]" : "")
+			);
+			for (BayesVulnerability.ObservationClass c : vulnerability.getObservationClasses()) {
+				System.out.println(vulnerability.describe(c, options.has("show-outputs")) + ":" + c.getGuess().toShortString());
+			}
+			return;
+		}
+		
 		Prism prismAttackerGuesses = new Prism(prismStdout);
 		try {
 			prismAttackerGuesses.initialise();
@@ -165,6 +321,7 @@ public class CommandLine {
 		
 		AttackerModelGenerator attackerModelGenerator = AttackerModelGenerator.fromSCHIMPModel(
 			prismSchimpExecution,
+			schimpExecutionModel,
 			schimpModelGenerator
 		);
 		prismAttackerGuesses.loadModelGenerator(attackerModelGenerator);
@@ -175,17 +332,7 @@ public class CommandLine {
 			System.exit(1);
 		}
 		
-		if (options.has("dot-file")) {
-			List<String> dotFilePaths = options.hasArgument("dot-file") ?
-				options.valuesOf("dot-file").stream().map(f -> ((File)f).getPath()).collect(Collectors.toList()) :
-				Stream.of(new String[] { ".exec.dot", ".attacker.dot" }).map(f -> sourceArg.getPath() + f).collect(Collectors.toList());
-				
-			ArrayList<Decorator> schimpExecutionDecorators = new ArrayList<>();
-			schimpExecutionDecorators.add(new SCHIMPModelStateDecorator(prismSchimpExecution.getBuiltModelExplicit().getStatesList(), schimpModelGenerator, options.has("show-outputs")));
-			PrismLog schimpExecutionDotFile = new PrismFileLog(dotFilePaths.get(0));
-			prismSchimpExecution.getBuiltModelExplicit().exportToDotFile(schimpExecutionDotFile, schimpExecutionDecorators);
-			schimpExecutionDotFile.flush();
-			
+		if (dotFilePaths != null) {
 			ArrayList<Decorator> attackerGuessesDecorators = new ArrayList<>();
 			attackerGuessesDecorators.add(new AttackerModelStateDecorator(prismAttackerGuesses.getBuiltModelExplicit().getStatesList(), attackerModelGenerator, options.has("show-outputs")));
 			PrismLog attackerGuessesDotFile = new PrismFileLog(dotFilePaths.get(1));
@@ -253,6 +400,10 @@ public class CommandLine {
 			
 		});
 		
+		// --dot-file (optional): write the models of the program's execution and of the attacker to the given graphviz
+		// files (default: the source file's path followed by .exec.dot and .attacker.dot); each state of the program's
+		// execution stands for every execution context that only differs from it in the values of dead variables (which
+		// are shown as 0) unless --keep-dead-variables is also given, which restores one state per execution context
 		parser.acceptsAll(Arrays.asList("d", "dot-file")).withOptionalArg().ofType(File.class).withValuesSeparatedBy(':');
 		
 		parser.acceptsAll(Arrays.asList("T", "time-var"));
@@ -267,6 +418,137 @@ public class CommandLine {
 		
 		parser.acceptsAll(Arrays.asList("g", "grid-resolution")).withRequiredArg().ofType(Integer.class).defaultsTo(8);
 		
+		// --leakage (optional): also print the prior and posterior shannon entropy, vulnerability, guessing entropy and
+		// k-tries vulnerability of the tracked initial variables, along with the leakage measured by each
+		parser.accepts("leakage");
+		
+		// --max-tries (optional): print the k-tries vulnerability for each k from 1 to the given number (default: 1)
+		parser.accepts("max-tries").withRequiredArg().ofType(Integer.class).defaultsTo(1);
+		
+		// --gain-file (optional): also print the g-vulnerability and g-leakage for the gain function in each of the given
+		// files (see GainFunction for their format)
+		parser.accepts("gain-file").withRequiredArg().ofType(File.class).withValuesSeparatedBy(':');
+		
+		// --pomdp (optional): compute the attacker's best guesses by building a model of the attacker (a pomdp) and
+		// letting prism model-check it, rather than directly from the model of the program's execution (much slower, and
+		// only approximate; --grid-resolution only applies to this)
+		parser.accepts("pomdp");
+		
+		// --debug-context-hashes (optional): deduplicate program execution contexts using MD5 hashes of their string
+		// representations instead of their structure (much slower; only useful for debugging)
+		parser.accepts("debug-context-hashes");
+		
+		// --prism-model-builder (optional): build the model of the program's execution by letting prism explore it one
+		// state at a time, rather than with schimp's own model builder (much slower; only useful for debugging)
+		parser.accepts("prism-model-builder");
+		
+		// --threads (optional): explore the program's state space with the given number of threads (default: 1)
+		parser.accepts("threads").withRequiredArg().ofType(Integer.class).defaultsTo(1);
+		
+		// --context-store-dir (optional): store the program's explored execution contexts off the heap, in memory-mapped
+		// files in the given (scratch) directory, so that the state space isn't limited by the size of the heap
+		parser.accepts("context-store-dir").withRequiredArg().ofType(File.class);
+		
+		// --sweep-line (optional): explore the program's state space in order of elapsed time, discarding the execution
+		// contexts of each time point once it has been explored, so that only the contexts of the time points still
+		// being explored (and terminating contexts) are kept in memory
+		parser.accepts("sweep-line");
+		
+		// --partial-eval (optional): before exploring the program's state space, replace its constant variables with their
+		// values, fold its constant expressions, unroll the loops in it whose iterations are known and remove the commands
+		// in it that can never be executed, and print what was removed
+		parser.accepts("partial-eval");
+		
+		// --slice (optional): before exploring the program's state space, remove the commands in its functions that can't
+		// affect its outputs or the resource consumption of its non-atomic functions, and print what was removed
+		parser.accepts("slice");
+		
+		// --keep-dead-variables (optional): don't merge execution contexts that only differ in the values of variables that
+		// will never be read again (which makes the model of the program's execution larger, but restores the states and
+		// variable values that --dot-file and anything else displaying the model's states showed before dead variables
+		// were merged; without it, dead variables are shown as 0)
+		parser.accepts("keep-dead-variables");
+		
+		// --summarise-functions (optional): execute each function invocation in a single step, using a summary of the
+		// invocation's effects computed the first time the function is invoked with the same arguments and global
+		// variables (which leaves the states inside function invocations out of the model of the program's execution)
+		parser.accepts("summarise-functions");
+		
+		// --prune (optional): while exploring the program's state space, divert transitions into new states whose
+		// probability of being reached is less than the given value into a single sink state, and print certified bounds
+		// on the vulnerability (and leakage metrics) that account for the probability mass diverted into it
+		parser.accepts("prune").withRequiredArg().ofType(Double.class);
+		
+		// --simulate (optional): estimate the vulnerability by sampling executions of the program (with --threads
+		// threads) rather than exploring its whole state space, and print a confidence interval for it; --leakage then
+		// prints estimates computed from the sampled executions
+		parser.accepts("simulate");
+		
+		// --precision (optional): when simulating, sample until the vulnerability's confidence interval is no wider than
+		// twice the given value (default: 0.01); with --anytime, stop exploring once the vulnerability's bounds are no
+		// further apart than twice the given value (default: explore until they meet)
+		parser.accepts("precision").withRequiredArg().ofType(Double.class).defaultsTo(0.01);
+		
+		// --confidence (optional): the confidence level of the intervals printed when simulating (default: 0.95)
+		parser.accepts("confidence").withRequiredArg().ofType(Double.class).defaultsTo(0.95);
+		
+		// --max-samples (optional): when simulating, stop after sampling the given number of executions, even if the
+		// requested precision hasn't been reached (default: 100000000)
+		parser.accepts("max-samples").withRequiredArg().ofType(Long.class).defaultsTo(100000000L);
+		
+		// --max-steps (optional): when simulating, give up on an execution that hasn't terminated after executing the
+		// given number of commands (default: 1000000)
+		parser.accepts("max-steps").withRequiredArg().ofType(Integer.class).defaultsTo(1000000);
+		
+		// --seed (optional): the seed for the random number generator used when simulating (default: the current time)
+		parser.accepts("seed").withRequiredArg().ofType(Long.class);
+		
+		// --importance-sampling (optional): when simulating, make the program's probabilistic choices according to
+		// proposal distributions that make rare observation classes more likely, and correct the estimates with likelihood
+		// ratios
+		parser.accepts("importance-sampling");
+		
+		// --proposal-file (optional): when importance sampling, read the initial proposal distributions from the given
+		// file, rather than starting from the program's own distributions
+		parser.accepts("proposal-file").withRequiredArg().ofType(File.class);
+		
+		// --ce-iterations (optional): when importance sampling, the number of cross-entropy iterations used to learn the
+		// proposal distributions (default: 5)
+		parser.accepts("ce-iterations").withRequiredArg().ofType(Integer.class).defaultsTo(5);
+		
+		// --ce-samples (optional): when importance sampling, the number of executions sampled in each cross-entropy
+		// iteration (default: 100000)
+		parser.accepts("ce-samples").withRequiredArg().ofType(Long.class).defaultsTo(100000L);
+		
+		// --floating-point (optional): build the model of the program's execution with floating-point rather than exact
+		// transition probabilities, and compute its termination probabilities in floating-point arithmetic, which is much
+		// faster for programs whose exact probabilities have very large denominators
+		parser.accepts("floating-point");
+		
+		// --rounding-error-bound (optional): when the vulnerability is computed in floating-point arithmetic (with
+		// --floating-point, or with --iterate-cycles if the program may loop), also print a worst-case bound on its
+		// rounding errors (which is NaN if the program may loop and only --floating-point is given)
+		parser.accepts("rounding-error-bound");
+		
+		// --iterate-cycles (optional): if the program may loop, compute the probability of it terminating in each state by
+		// propagating probability mass around its loops in floating-point arithmetic until (almost) all of it has left
+		// them, rather than by solving for it exactly; only worthwhile for loops spanning so many states that solving for
+		// them is too slow
+		parser.accepts("iterate-cycles");
+		
+		// --anytime (optional): explore the program's state space best-first, in descending order of the probability of
+		// reaching each execution context, printing bounds on the vulnerability every second, until it has all been
+		// explored or --precision, --time-budget or --memory-budget is reached; the vulnerability (and leakage metrics)
+		// are then printed with the bounds reached
+		parser.accepts("anytime");
+		
+		// --time-budget (optional): with --anytime, stop exploring after the given number of seconds
+		parser.accepts("time-budget").withRequiredArg().ofType(Double.class);
+		
+		// --memory-budget (optional): with --anytime, stop exploring once the heap holds more than the given number of
+		// megabytes
+		parser.accepts("memory-budget").withRequiredArg().ofType(Long.class);
+		
 		// --help (optional): show program help and exit
 		parser.accepts("help");
 		
@@ -281,6 +563,113 @@ public class CommandLine {
 		// supplied for a valid option, or required options were missing
 		OptionSet options = getOptionParser().parse(args);
 		
+		if ((Integer)options.valueOf("threads") < 1) {
+			throw new OptionValueException("option 'threads' requires a positive integer argument");
+		}
+		
+		if ((Integer)options.valueOf("max-tries") < 1) {
+			throw new OptionValueException("option 'max-tries' requires a positive integer argument");
+		}
+		
+		if (options.has("context-store-dir") && !((File)options.valueOf("context-store-dir")).isDirectory()) {
+			throw new OptionValueException("option 'context-store-dir' requires an existing directory argument");
+		}
+		
+		if (options.has("sweep-line")) {
+			for (String option : Arrays.asList("prism-model-builder", "debug-context-hashes")) {
+				if (options.has(option)) throw new OptionValueException("option 'sweep-line' can't be used with option '" + option + "'");
+			}
+			if ((Integer)options.valueOf("threads") > 1) {
+				throw new OptionValueException("option 'sweep-line' can't be used with more than one thread");
+			}
+		}
+		
+		if (options.has("prune")) {
+			double threshold = (Double)options.valueOf("prune");
+			if (threshold <= 0 || threshold >= 1) {
+				throw new OptionValueException("option 'prune' requires an argument between 0 and 1");
+			}
+			for (String option : Arrays.asList("pomdp", "dot-file", "prism-model-builder", "sweep-line", "simulate")) {
+				if (options.has(option)) throw new OptionValueException("option 'prune' can't be used with option '" + option + "'");
+			}
+			if ((Integer)options.valueOf("threads") > 1) {
+				throw new OptionValueException("option 'prune' can't be used with more than one thread");
+			}
+		}
+		
+		for (String option : Arrays.asList("floating-point", "rounding-error-bound")) {
+			if (!options.has(option)) continue;
+			for (String exclusive : Arrays.asList("prism-model-builder", "simulate", "anytime")) {
+				if (options.has(exclusive)) throw new OptionValueException("option '" + option + "' can't be used with option '" + exclusive + "'");
+			}
+		}
+		
+		for (String option : Arrays.asList("time-budget", "memory-budget")) {
+			if (options.has(option) && !options.has("anytime")) {
+				throw new OptionValueException("option '" + option + "' requires option 'anytime'");
+			}
+		}
+		if (options.has("anytime")) {
+			for (String option : Arrays.asList("pomdp", "dot-file", "prism-model-builder", "sweep-line", "simulate", "prune")) {
+				if (options.has(option)) throw new OptionValueException("option 'anytime' can't be used with option '" + option + "'");
+			}
+			if ((Integer)options.valueOf("threads") > 1) {
+				throw new OptionValueException("option 'anytime' can't be used with more than one thread");
+			}
+			if (options.has("precision")) {
+				double precision = (Double)options.valueOf("precision");
+				if (precision <= 0 || precision >= 1) {
+					throw new OptionValueException("option 'precision' requires an argument between 0 and 1");
+				}
+			}
+			if (options.has("time-budget") && (Double)options.valueOf("time-budget") <= 0) {
+				throw new OptionValueException("option 'time-budget' requires a positive argument");
+			}
+			if (options.has("memory-budget") && (Long)options.valueOf("memory-budget") < 1) {
+				throw new OptionValueException("option 'memory-budget' requires a positive integer argument");
+			}
+		}
+		
+		if (options.has("simulate")) {
+			for (String option : Arrays.asList("pomdp", "dot-file", "prism-model-builder", "sweep-line")) {
+				if (options.has(option)) throw new OptionValueException("option 'simulate' can't be used with option '" + option + "'");
+			}
+			double precision = (Double)options.valueOf("precision");
+			if (precision <= 0 || precision >= 1) {
+				throw new OptionValueException("option 'precision' requires an argument between 0 and 1");
+			}
+			double confidence = (Double)options.valueOf("confidence");
+			if (confidence <= 0 || confidence >= 1) {
+				throw new OptionValueException("option 'confidence' requires an argument between 0 and 1");
+			}
+			if ((Long)options.valueOf("max-samples") < 1) {
+				throw new OptionValueException("option 'max-samples' requires a positive integer argument");
+			}
+			if ((Integer)options.valueOf("max-steps") < 1) {
+				throw new OptionValueException("option 'max-steps' requires a positive integer argument");
+			}
+		}
+		
+		for (String option : Arrays.asList("proposal-file", "ce-iterations", "ce-samples")) {
+			if (options.has(option) && !options.has("importance-sampling")) {
+				throw new OptionValueException("option '" + option + "' requires option 'importance-sampling'");
+			}
+		}
+		if (options.has("importance-sampling")) {
+			if (!options.has("simulate")) {
+				throw new OptionValueException("option 'importance-sampling' requires option 'simulate'");
+			}
+			if (options.has("proposal-file") && !((File)options.valueOf("proposal-file")).isFile()) {
+				throw new OptionValueException("option 'proposal-file' requires an existing file argument");
+			}
+			if ((Integer)options.valueOf("ce-iterations") < 0) {
+				throw new OptionValueException("option 'ce-iterations' requires a non-negative integer argument");
+			}
+			if ((Long)options.valueOf("ce-samples") < 1) {
+				throw new OptionValueException("option 'ce-samples' requires a positive integer argument");
+			}
+		}
+		
 		return options;
 	}
 
@@ -23,6 +23,10 @@ public class CommandTable {
 		}
 	}
 	
+	public Command getCommand(int id) {
+		return commands.get(id);
+	}
+	
 	public String toString() {
 		return "CommandTable (lastCommandID=" + lastCommandID + ") {\n" +
 			commands.keySet().stream()
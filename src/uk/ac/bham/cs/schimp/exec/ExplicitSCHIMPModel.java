@@ -0,0 +1,283 @@
+package uk.ac.bham.cs.schimp.exec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.math3.fraction.BigFraction;
+
+import explicit.DTMCSimple;
+import parser.State;
+import uk.ac.bham.cs.schimp.DoubleProbabilityMassFunction;
+
+/**
+ * An explicit-state discrete-time markov chain modelling the execution of a schimp program, as built by
+ * PRISMModelGenerator.buildExplicitModel().
+ *
+ * States are numbered from 0 in the order in which they were explored (state i represents the ProgramExecutionContext
+ * with id i + 1), and their transitions are stored in compressed sparse row form: the transitions leaving state i are
+ * at indices getTransitionsStart(i) (inclusive) to getTransitionsEnd(i) (exclusive). Terminating states have a single
+ * self-loop transition.
+ *
+ * A model built with floating-point probabilities (see PRISMModelGenerator) only stores the double approximation of each
+ * transition probability, along with a bound on its relative rounding error, so its termination probabilities can't be
+ * computed exactly.
+ *
+ * If the model was built with a pruning threshold, the transitions that were pruned lead to a sink state (the last
+ * state, see getSinkState()), which also has a single self-loop transition, but doesn't represent a
+ * ProgramExecutionContext.
+ */
+public class ExplicitSCHIMPModel {
+	
+	private boolean stateTime;
+	private boolean statePower;
+	private int stateInitialVarCount;
+	
+	private int stateCount = 0;
+	private int transitionCount = 0;
+	
+	// the transitions leaving each state (see above); transitionOffsets has one more element than there are states
+	private int[] transitionOffsets = new int[1024];
+	private int[] transitionTargets = new int[1024];
+	private double[] transitionProbabilities = new double[1024];
+	private BigFraction[] exactTransitionProbabilities;
+	private double[] transitionRelativeErrors;
+	
+	// the information that would appear in the prism State object for each state (apart from its ProgramExecutionContext
+	// id, which is implied by the state's index); the value of each initial variable is stored in its own array, in the
+	// order in which the initial variables are tracked by the PRISMModelGenerator that built this model
+	private int[] stateObservationsIDs = new int[1024];
+	private int[] stateTimes = new int[1024];
+	private int[] statePowers = new int[1024];
+	private int[][] stateInitialVarValues;
+	
+	private int sinkState = -1;
+	
+	// whether termination probabilities are computed by propagating probability mass around cycles iteratively (see
+	// AbsorptionProbabilities)
+	private boolean iterateCycles;
+	
+	ExplicitSCHIMPModel(boolean stateTime, boolean statePower, int stateInitialVarCount) {
+		this(stateTime, statePower, stateInitialVarCount, true, false);
+	}
+	
+	ExplicitSCHIMPModel(boolean stateTime, boolean statePower, int stateInitialVarCount, boolean exact, boolean iterateCycles) {
+		this.stateTime = stateTime;
+		this.iterateCycles = iterateCycles;
+		this.statePower = statePower;
+		this.stateInitialVarCount = stateInitialVarCount;
+		stateInitialVarValues = new int[stateInitialVarCount][1024];
+		if (exact) {
+			exactTransitionProbabilities = new BigFraction[1024];
+		} else {
+			transitionRelativeErrors = new double[1024];
+		}
+	}
+	
+	// adds a new state to the model; the transitions added after this call (and before the next call to addState())
+	// leave this state
+	void addState(int observationsID, int time, int power, int[] initialVarValues) {
+		if (stateCount == stateObservationsIDs.length) {
+			int capacity = stateCount * 2;
+			stateObservationsIDs = Arrays.copyOf(stateObservationsIDs, capacity);
+			stateTimes = Arrays.copyOf(stateTimes, capacity);
+			statePowers = Arrays.copyOf(statePowers, capacity);
+			for (int v = 0; v < stateInitialVarCount; v++) {
+				stateInitialVarValues[v] = Arrays.copyOf(stateInitialVarValues[v], capacity);
+			}
+		}
+		if (stateCount + 1 == transitionOffsets.length) {
+			transitionOffsets = Arrays.copyOf(transitionOffsets, transitionOffsets.length * 2);
+		}
+		
+		stateObservationsIDs[stateCount] = observationsID;
+		stateTimes[stateCount] = time;
+		statePowers[stateCount] = power;
+		for (int v = 0; v < stateInitialVarCount; v++) {
+			stateInitialVarValues[v][stateCount] = initialVarValues[v];
+		}
+		
+		transitionOffsets[stateCount] = transitionCount;
+		transitionOffsets[++stateCount] = transitionCount;
+	}
+	
+	// adds a transition leaving the most recently-added state
+	void addTransition(int target, BigFraction probability) {
+		if (exactTransitionProbabilities == null) {
+			addTransition(target, probability.doubleValue(), 3 * DoubleProbabilityMassFunction.UNIT_ROUNDOFF);
+			return;
+		}
+		growTransitions();
+		transitionTargets[transitionCount] = target;
+		transitionProbabilities[transitionCount] = probability.doubleValue();
+		exactTransitionProbabilities[transitionCount] = probability;
+		transitionOffsets[stateCount] = ++transitionCount;
+	}
+	
+	// adds a transition leaving the most recently-added state to a model built with floating-point probabilities
+	void addTransition(int target, double probability, double relativeError) {
+		growTransitions();
+		transitionTargets[transitionCount] = target;
+		transitionProbabilities[transitionCount] = probability;
+		transitionRelativeErrors[transitionCount] = relativeError;
+		transitionOffsets[stateCount] = ++transitionCount;
+	}
+	
+	private void growTransitions() {
+		if (transitionCount < transitionTargets.length) return;
+		int capacity = transitionCount * 2;
+		transitionTargets = Arrays.copyOf(transitionTargets, capacity);
+		transitionProbabilities = Arrays.copyOf(transitionProbabilities, capacity);
+		if (exactTransitionProbabilities != null) {
+			exactTransitionProbabilities = Arrays.copyOf(exactTransitionProbabilities, capacity);
+		} else {
+			transitionRelativeErrors = Arrays.copyOf(transitionRelativeErrors, capacity);
+		}
+	}
+	
+	// changes the target of a transition that has already been added
+	void setTransitionTarget(int transition, int target) {
+		transitionTargets[transition] = target;
+	}
+	
+	// adds the sink state, which has no observations, no elapsed time or power consumption and no initial variable
+	// values, and returns it
+	int addSinkState() {
+		int[] initialVarValues = new int[stateInitialVarCount];
+		Arrays.fill(initialVarValues, Integer.MIN_VALUE);
+		addState(-1, 0, 0, initialVarValues);
+		addTransition(stateCount - 1, BigFraction.ONE);
+		sinkState = stateCount - 1;
+		return sinkState;
+	}
+	
+	public int getNumStates() {
+		return stateCount;
+	}
+	
+	public int getNumTransitions() {
+		return transitionCount;
+	}
+	
+	public int getContextID(int state) {
+		return state + 1;
+	}
+	
+	// -1 if no transitions were pruned
+	public int getSinkState() {
+		return sinkState;
+	}
+	
+	public int getTransitionsStart(int state) {
+		return transitionOffsets[state];
+	}
+	
+	public int getTransitionsEnd(int state) {
+		return transitionOffsets[state + 1];
+	}
+	
+	public int getTransitionTarget(int transition) {
+		return transitionTargets[transition];
+	}
+	
+	public double getTransitionProbability(int transition) {
+		return transitionProbabilities[transition];
+	}
+	
+	// null if the model was built with floating-point probabilities
+	public BigFraction getExactTransitionProbability(int transition) {
+		return exactTransitionProbabilities == null ? null : exactTransitionProbabilities[transition];
+	}
+	
+	public boolean isExact() {
+		return exactTransitionProbabilities != null;
+	}
+	
+	public int getObservationsID(int state) {
+		return stateObservationsIDs[state];
+	}
+	
+	public int getTime(int state) {
+		return stateTimes[state];
+	}
+	
+	public int getPower(int state) {
+		return statePowers[state];
+	}
+	
+	public int getInitialVariableValue(int state, int initialVar) {
+		return stateInitialVarValues[initialVar][state];
+	}
+	
+	/**
+	 * Computes the probability of the program terminating in each state (which is 0 for non-terminating states), along
+	 * with the probability mass left unpropagated in cycles (see AbsorptionProbabilities).
+	 */
+	public AbsorptionProbabilities computeTerminationProbabilities() {
+		return AbsorptionProbabilities.compute(stateCount, 0, transitionOffsets, transitionTargets, transitionProbabilities, iterateCycles);
+	}
+	
+	/**
+	 * As computeTerminationProbabilities(), but also accumulates bounds on the errors in the probabilities into the given
+	 * ErrorBounds (see AbsorptionProbabilities.ErrorBounds).
+	 */
+	AbsorptionProbabilities computeTerminationProbabilities(AbsorptionProbabilities.ErrorBounds errorBounds) {
+		double[] relativeErrors = transitionRelativeErrors != null ? transitionRelativeErrors : exactTransitionRelativeErrors();
+		return AbsorptionProbabilities.compute(stateCount, 0, transitionOffsets, transitionTargets, transitionProbabilities, relativeErrors, errorBounds, iterateCycles);
+	}
+	
+	// the transition probabilities of an exact model are each rounded once by BigFraction.doubleValue()
+	private double[] exactTransitionRelativeErrors() {
+		double[] relativeErrors = new double[transitionCount];
+		Arrays.fill(relativeErrors, 3 * DoubleProbabilityMassFunction.UNIT_ROUNDOFF);
+		return relativeErrors;
+	}
+	
+	/**
+	 * Returns the exact probability of the program terminating in each state, or null if the model was built with
+	 * floating-point probabilities, or to propagate probability mass around cycles iteratively and contains a cycle that
+	 * can be left, in which case only computeTerminationProbabilities() can be used.
+	 */
+	public BigFraction[] computeExactTerminationProbabilities() {
+		if (exactTransitionProbabilities == null) return null;
+		return AbsorptionProbabilities.computeExact(stateCount, 0, transitionOffsets, transitionTargets, exactTransitionProbabilities, iterateCycles);
+	}
+	
+	/**
+	 * Creates the prism State object for each state in this model; the variables in each State object are the same as
+	 * the ones in the State objects created by the PRISMModelGenerator that built this model.
+	 */
+	public List<State> createStatesList() {
+		List<State> states = new ArrayList<>(stateCount);
+		for (int s = 0; s < stateCount; s++) {
+			State state = new State(2 + (stateTime ? 1 : 0) + (statePower ? 1 : 0) + stateInitialVarCount);
+			int nextIndex = 0;
+			state.setValue(nextIndex++, getContextID(s));
+			state.setValue(nextIndex++, stateObservationsIDs[s]);
+			if (stateTime) state.setValue(nextIndex++, stateTimes[s]);
+			if (statePower) state.setValue(nextIndex++, statePowers[s]);
+			for (int v = 0; v < stateInitialVarCount; v++) {
+				state.setValue(nextIndex++, stateInitialVarValues[v][s]);
+			}
+			states.add(state);
+		}
+		return states;
+	}
+	
+	/**
+	 * Converts this model into a prism DTMC whose initial state is state 0. If a state has more than one transition into
+	 * the same target, the DTMC's single transition into it carries their total probability.
+	 */
+	public DTMCSimple toDTMC() {
+		DTMCSimple dtmc = new DTMCSimple(stateCount);
+		for (int s = 0; s < stateCount; s++) {
+			for (int t = transitionOffsets[s]; t < transitionOffsets[s + 1]; t++) {
+				dtmc.addToProbability(s, transitionTargets[t], transitionProbabilities[t]);
+			}
+		}
+		dtmc.addInitialState(0);
+		dtmc.setStatesList(createStatesList());
+		return dtmc;
+	}
+	
+}
@@ -0,0 +1,40 @@
+package uk.ac.bham.cs.schimp.exec;
+
+/**
+ * Helpers for building the 64-bit fingerprints that ProgramExecutionContexts (and the structures they contain) use as
+ * hash codes. Fingerprints are only ever used to find candidate duplicates quickly: two objects with the same
+ * fingerprint are still compared structurally before they are treated as equal.
+ */
+public final class Fingerprint {
+	
+	private Fingerprint() {}
+	
+	/**
+	 * Spreads every bit of the given value across the whole 64-bit result (this is the finalisation step of the 64-bit
+	 * variant of MurmurHash3).
+	 */
+	public static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+	
+	/**
+	 * Combines a running fingerprint with the next value in an ordered sequence of values; the result depends on the
+	 * order in which values are combined.
+	 */
+	public static long combine(long seed, long value) {
+		return mix(seed * 0x9e3779b97f4a7c15L + mix(value));
+	}
+	
+	/**
+	 * Folds a 64-bit fingerprint into a 32-bit hash code.
+	 */
+	public static int toHashCode(long fingerprint) {
+		return (int)(fingerprint ^ (fingerprint >>> 32));
+	}
+	
+}
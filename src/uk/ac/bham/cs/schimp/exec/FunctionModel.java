@@ -1,13 +1,16 @@
 package uk.ac.bham.cs.schimp.exec;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.NoSuchElementException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import org.apache.commons.math3.fraction.BigFraction;
 import org.javatuples.Pair;
 
+import uk.ac.bham.cs.schimp.AliasTable;
 import uk.ac.bham.cs.schimp.ProbabilityMassFunction;
 import uk.ac.bham.cs.schimp.lang.Syntax;
 import uk.ac.bham.cs.schimp.lang.expression.arith.ArithmeticConstant;
@@ -17,15 +20,62 @@ import uk.ac.bham.cs.schimp.source.SyntaxException;
 public class FunctionModel extends Syntax {
 	
 	private static ProbabilityMassFunction<Pair<Integer, Integer>> noConsumptionPMF;
+	private static AliasTable<Pair<Integer, Integer>> noConsumptionAliasTable;
 	
 	static {
 		noConsumptionPMF = new ProbabilityMassFunction<>();
 		noConsumptionPMF.add(new Pair<Integer, Integer>(0, 0), new BigFraction(1));
+		noConsumptionAliasTable = AliasTable.fromProbabilityMassFunction(noConsumptionPMF);
+	}
+	
+	// a decision tree over the rows whose invocation parameters include wildcards: each level of the tree matches one
+	// parameter, either exactly or with a wildcard, and each leaf holds the index of the first row that reaches it
+	private static class RowTree {
+		
+		private Map<ArithmeticConstant, RowTree> children = new HashMap<>();
+		private RowTree wildcardChild = null;
+		private int row = -1;
+		
+		private void add(List<ArithmeticConstant> invokeParameters, int row) {
+			RowTree node = this;
+			for (ArithmeticConstant p : invokeParameters) {
+				if (p == null) {
+					if (node.wildcardChild == null) node.wildcardChild = new RowTree();
+					node = node.wildcardChild;
+				} else {
+					node = node.children.computeIfAbsent(p, k -> new RowTree());
+				}
+			}
+			if (node.row == -1) node.row = row;
+		}
+		
+		// returns the index of the first row matching the given invocation parameters (beginning at parameter i) that
+		// comes before the given row, or the given row if there isn't one
+		private int find(List<ArithmeticConstant> invokeParameters, int i, int before) {
+			if (i == invokeParameters.size()) return row != -1 && row < before ? row : before;
+			RowTree child = children.get(invokeParameters.get(i));
+			if (child != null) before = child.find(invokeParameters, i + 1, before);
+			if (wildcardChild != null) before = wildcardChild.find(invokeParameters, i + 1, before);
+			return before;
+		}
+		
 	}
 	
 	private String name;
 	private int arity;
-	private List<Pair<List<ArithmeticConstant>, ProbabilityMassFunction<Pair<Integer, Integer>>>> model = new LinkedList<>();
+	private List<Pair<List<ArithmeticConstant>, ProbabilityMassFunction<Pair<Integer, Integer>>>> model = new ArrayList<>();
+	
+	// the first row for each combination of invocation parameters with no wildcards, and the rows with wildcards; the
+	// first matching row is the earliest one found in either
+	private Map<List<ArithmeticConstant>, Integer> exactRows = new HashMap<>();
+	private RowTree wildcardRows = new RowTree();
+	
+	// an AliasTable for sampling the resource consumption in each row
+	private List<AliasTable<Pair<Integer, Integer>>> aliasTables = new ArrayList<>();
+	
+	// the row looked up for each combination of invocation parameters so far (-1 if no row matches); this is accessed
+	// concurrently by parallel state space exploration
+	private Map<List<ArithmeticConstant>, Integer> matchingRows = new ConcurrentHashMap<>();
 	
 	public FunctionModel(String name, int arity) {
 		this.name = name;
@@ -42,6 +92,14 @@ public class FunctionModel extends Syntax {
 	
 	public void add(List<ArithmeticConstant> invokeParameters, ProbabilityMassFunction<Pair<Integer, Integer>> resourceUsage) {
 		model.add(new Pair<>(invokeParameters, resourceUsage));
+		aliasTables.add(AliasTable.fromProbabilityMassFunction(resourceUsage));
+		
+		if (invokeParameters.contains(null)) {
+			wildcardRows.add(invokeParameters, model.size() - 1);
+		} else {
+			exactRows.putIfAbsent(invokeParameters, model.size() - 1);
+		}
+		matchingRows.clear();
 	}
 
 	@Override
@@ -49,23 +107,35 @@ public class FunctionModel extends Syntax {
 		// TODO: can't have duplicate invokeParameters on lhs
 	}
 	
+	// the resource consumption in the first row whose invocation parameters match the given ones (where a wildcard
+	// matches any value), or no consumption if no row matches
 	public ProbabilityMassFunction<Pair<Integer, Integer>> getResourceConsumption(List<ArithmeticConstant> invokeParameters) {
-		try {
-			return model.stream()
-				.filter(tp -> {
-					for (int i = 0; i < invokeParameters.size(); i++) {
-						if (tp.getValue0().get(i) != null && tp.getValue0().get(i).toFraction().compareTo(invokeParameters.get(i).toFraction()) != 0) {
-							return false;
-						}
-					}
-					return true;
-				})
-				.findFirst()
-				.get()
-				.getValue1();
-		} catch (NoSuchElementException e) {
-			return noConsumptionPMF;
-		}
+		int row = getMatchingRow(invokeParameters);
+		return row == -1 ? noConsumptionPMF : model.get(row).getValue1();
+	}
+	
+	// an AliasTable for sampling the same resource consumption as getResourceConsumption()
+	public AliasTable<Pair<Integer, Integer>> getResourceConsumptionAliasTable(List<ArithmeticConstant> invokeParameters) {
+		int row = getMatchingRow(invokeParameters);
+		return row == -1 ? noConsumptionAliasTable : aliasTables.get(row);
+	}
+	
+	public int getRowCount() {
+		return model.size();
+	}
+	
+	// the AliasTable for sampling the resource consumption in the given row (numbered from 0, in the order in which the
+	// rows were added)
+	public AliasTable<Pair<Integer, Integer>> getRowAliasTable(int row) {
+		return aliasTables.get(row);
+	}
+	
+	private int getMatchingRow(List<ArithmeticConstant> invokeParameters) {
+		return matchingRows.computeIfAbsent(invokeParameters, k -> {
+			Integer exactRow = exactRows.get(k);
+			int row = wildcardRows.find(k, 0, exactRow == null ? model.size() : exactRow);
+			return row == model.size() ? -1 : row;
+		});
 	}
 
 	@Override
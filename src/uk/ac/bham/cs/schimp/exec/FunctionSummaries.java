@@ -0,0 +1,278 @@
+package uk.ac.bham.cs.schimp.exec;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.math3.fraction.BigFraction;
+
+import uk.ac.bham.cs.schimp.ProbabilityMassFunction;
+import uk.ac.bham.cs.schimp.lang.Block;
+import uk.ac.bham.cs.schimp.lang.Function;
+import uk.ac.bham.cs.schimp.lang.Program;
+import uk.ac.bham.cs.schimp.lang.command.Command;
+import uk.ac.bham.cs.schimp.lang.command.InvokeCommand;
+import uk.ac.bham.cs.schimp.lang.command.VariableAssignmentCommand;
+import uk.ac.bham.cs.schimp.lang.expression.arith.ArithmeticConstant;
+import uk.ac.bham.cs.schimp.lang.expression.arith.ArithmeticExpression;
+import uk.ac.bham.cs.schimp.lang.expression.arith.VariableReference;
+
+/**
+ * Memoised summaries of the effects of a schimp program's function invocations. Everything an invocation does that is
+ * visible once it returns is determined by the function being invoked, its arguments, the values of the global
+ * variables that the function (or any function it invokes) reads or writes, and whether a non-atomic function is
+ * already being executed: the invocation returns with a probability distribution over the values of those global
+ * variables, the time elapsed and power consumed while the function was executed, and the observations made in the
+ * meantime. The first time a function is invoked with a particular combination of these, the distribution is computed
+ * by executing the function's body to completion from the invoking ProgramExecutionContext and stored; that invocation,
+ * and every later one with the same combination, then returns in a single step.
+ *
+ * A function invocation isn't summarised if executing it can reach the same ProgramExecutionContext twice (e.g., in a
+ * loop that repeats a probabilistic choice until it succeeds), since the distribution of its effects can't be computed
+ * by summing over the finitely many ways of executing it; its body is then executed command by command as usual. The
+ * program's initial invocation is never summarised, since its summary could never be reused.
+ *
+ * Summarising removes the states inside the summarised invocations from the model of the program's execution, so the
+ * model's terminating states (and everything computed from them) are unaffected, but its other states are not the same.
+ * Summaries may be computed concurrently.
+ */
+public class FunctionSummaries {
+	
+	// the effects of one way of executing a function invocation, relative to the invoking ProgramExecutionContext
+	private static class Effects {
+		
+		// the values of the global variables the function reads or writes, in the same order as in globalSlots
+		private final ArithmeticConstant[] globals;
+		private final int time;
+		private final int power;
+		// beginning at time 0 with no power consumed (or null, if nothing was observed)
+		private final Observation observations;
+		
+		private Effects(ProgramExecutionContext context, int[] globalSlots) {
+			globals = new ArithmeticConstant[globalSlots.length];
+			for (int i = 0; i < globalSlots.length; i++) {
+				globals[i] = context.variableBindings.evaluate(VariableBindings.GLOBAL_SCOPE_DEPTH, globalSlots[i]);
+			}
+			time = context.elapsedTime;
+			power = context.totalPowerConsumption;
+			observations = context.observations;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Effects)) return false;
+			Effects e = (Effects)o;
+			return time == e.time && power == e.power && Arrays.equals(globals, e.globals) && Objects.equals(observations, e.observations);
+		}
+		
+		@Override
+		public int hashCode() {
+			return Objects.hash(Arrays.hashCode(globals), time, power, observations);
+		}
+		
+	}
+	
+	// stored in place of the summary of an invocation that can't be summarised
+	private static final ProbabilityMassFunction<Effects> UNSUMMARISABLE = new ProbabilityMassFunction<>();
+	
+	private InvokeCommand initialInvokeCommand;
+	
+	// the global variables (by slot, in ascending order) that each function reads or writes, including in the functions
+	// it invokes
+	private Map<Function, int[]> globalSlots = new HashMap<>();
+	
+	// keyed by the function, whether a non-atomic function is already being executed, the arguments and the values of
+	// the function's global variables
+	private Map<List<Object>, ProbabilityMassFunction<Effects>> summaries = new ConcurrentHashMap<>();
+	
+	public FunctionSummaries(Program program) {
+		initialInvokeCommand = program.getInitialInvokeCommand();
+		
+		Map<Function, BitSet> globals = new HashMap<>();
+		Map<Function, Set<Function>> invokedFunctions = new HashMap<>();
+		for (Function f : program.getFunctions()) {
+			globals.put(f, new BitSet());
+			invokedFunctions.put(f, new HashSet<>());
+			addCommands(f, globals.get(f), invokedFunctions.get(f));
+		}
+		
+		// a function's global variables include those of every function it invokes
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (Function f : program.getFunctions()) {
+				BitSet g = globals.get(f);
+				int cardinality = g.cardinality();
+				for (Function i : invokedFunctions.get(f)) g.or(globals.get(i));
+				if (g.cardinality() != cardinality) changed = true;
+			}
+		}
+		
+		for (Function f : program.getFunctions()) globalSlots.put(f, globals.get(f).stream().toArray());
+	}
+	
+	private static void addCommands(Block block, BitSet globals, Set<Function> invokedFunctions) {
+		for (Command c : block.getCommands()) {
+			List<VariableReference> references = new ArrayList<>();
+			c.collectReadVariableReferences(references);
+			if (c instanceof VariableAssignmentCommand) references.add(((VariableAssignmentCommand)c).getVariableReference());
+			for (VariableReference v : references) {
+				if (v.getScopeDepth() == VariableBindings.GLOBAL_SCOPE_DEPTH) globals.set(v.getSlot());
+			}
+			
+			if (c instanceof InvokeCommand) invokedFunctions.add(((InvokeCommand)c).getFunction());
+			
+			for (Block b : c.getBlocks()) addCommands(b, globals, invokedFunctions);
+		}
+	}
+	
+	/**
+	 * Returns the number of function invocations that have been summarised.
+	 */
+	public int size() {
+		return (int)summaries.values().stream().filter(s -> s != UNSUMMARISABLE).count();
+	}
+	
+	//==========================================================================
+	
+	/**
+	 * Executes the given ProgramExecutionContext's next command, summarising it if it's an InvokeCommand.
+	 */
+	public ProbabilityMassFunction<ProgramExecutionContext> execute(ProgramExecutionContext context) throws ProgramExecutionException {
+		return execute(context, new HashSet<>());
+	}
+	
+	// summarising is the given set of invocations (which are being summarised further up the call stack, and so can't be
+	// summarised again until their summaries are complete)
+	private ProbabilityMassFunction<ProgramExecutionContext> execute(ProgramExecutionContext context, Set<List<Object>> summarising) throws ProgramExecutionException {
+		if (context.executingCommand instanceof InvokeCommand && context.executingCommand != initialInvokeCommand) {
+			InvokeCommand invoke = (InvokeCommand)context.executingCommand;
+			List<Object> key = key(invoke, context);
+			
+			ProbabilityMassFunction<Effects> summary = summaries.get(key);
+			if (summary == null && summarising.add(key)) {
+				summary = summarise(context, summarising);
+				summarising.remove(key);
+				summaries.putIfAbsent(key, summary);
+			}
+			
+			if (summary != null && summary != UNSUMMARISABLE) return apply(summary, invoke, context);
+		}
+		
+		return context.executingCommand.execute(context);
+	}
+	
+	private List<Object> key(InvokeCommand invoke, ProgramExecutionContext context) throws ProgramExecutionException {
+		Function f = invoke.getFunction();
+		List<Object> key = new ArrayList<>();
+		key.add(f);
+		key.add(context.executingNonAtomicFunction);
+		try {
+			for (ArithmeticExpression e : invoke.getArguments()) key.add(e.evaluate(context));
+		} catch (EvaluationException e) {
+			throw new ProgramExecutionException(e.getMessage(), e);
+		}
+		for (int slot : globalSlots.get(f)) key.add(context.variableBindings.evaluate(VariableBindings.GLOBAL_SCOPE_DEPTH, slot));
+		return key;
+	}
+	
+	// executes the invocation that the given ProgramExecutionContext is about to execute, beginning at time 0 with no
+	// power consumed and nothing observed, and returns the distribution of its effects once it returns (or
+	// UNSUMMARISABLE); the ProgramExecutionContexts reached while doing so are explored depth-first, and the effects of
+	// the invocation from each of them are computed once all of its succeeding ProgramExecutionContexts' are known
+	private ProbabilityMassFunction<Effects> summarise(ProgramExecutionContext context, Set<List<Object>> summarising) throws ProgramExecutionException {
+		int[] slots = globalSlots.get(((InvokeCommand)context.executingCommand).getFunction());
+		int invocationDepth = context.invocationStack.size();
+		
+		ProgramExecutionContext invokingContext = context.clone();
+		invokingContext.elapsedTime = 0;
+		invokingContext.totalPowerConsumption = 0;
+		invokingContext.observations = null;
+		
+		Map<ProgramExecutionContext, ProbabilityMassFunction<Effects>> effects = new HashMap<>();
+		Set<ProgramExecutionContext> onPath = new HashSet<>();
+		Deque<ProgramExecutionContext> path = new ArrayDeque<>();
+		Deque<ProbabilityMassFunction<ProgramExecutionContext>> successors = new ArrayDeque<>();
+		
+		// the invoking ProgramExecutionContext's InvokeCommand is executed directly, so that it isn't summarised again
+		path.push(invokingContext);
+		onPath.add(invokingContext);
+		successors.push(invokingContext.executingCommand.execute(invokingContext));
+		
+		while (!path.isEmpty()) {
+			ProgramExecutionContext c = path.peek();
+			ProbabilityMassFunction<ProgramExecutionContext> s = successors.peek();
+			
+			ProgramExecutionContext unexplored = null;
+			for (ProgramExecutionContext d : s.elements()) {
+				if (effects.containsKey(d)) continue;
+				if (onPath.contains(d)) return UNSUMMARISABLE;
+				
+				// the invocation has returned once the invocation stack is no deeper than it was before it
+				if (d.invocationStack.size() <= invocationDepth) {
+					ProbabilityMassFunction<Effects> returned = new ProbabilityMassFunction<>();
+					returned.add(new Effects(d, slots), BigFraction.ONE);
+					effects.put(d, returned);
+					continue;
+				}
+				
+				unexplored = d;
+				break;
+			}
+			
+			if (unexplored != null) {
+				path.push(unexplored);
+				onPath.add(unexplored);
+				successors.push(execute(unexplored, summarising));
+				continue;
+			}
+			
+			ProbabilityMassFunction<Effects> e = new ProbabilityMassFunction<>();
+			for (ProgramExecutionContext d : s.elements()) {
+				BigFraction p = s.probabilityOf(d);
+				ProbabilityMassFunction<Effects> f = effects.get(d);
+				for (Effects g : f.elements()) e.add(g, p.multiply(f.probabilityOf(g)));
+			}
+			effects.put(c, e);
+			path.pop();
+			onPath.remove(c);
+			successors.pop();
+		}
+		
+		return effects.get(invokingContext);
+	}
+	
+	private ProbabilityMassFunction<ProgramExecutionContext> apply(ProbabilityMassFunction<Effects> summary, InvokeCommand invoke, ProgramExecutionContext context) throws ProgramExecutionException {
+		int[] slots = globalSlots.get(invoke.getFunction());
+		
+		ProbabilityMassFunction<ProgramExecutionContext> succeedingPMF = new ProbabilityMassFunction<>();
+		for (Effects e : summary.elements()) {
+			ProgramExecutionContext succeedingContext = context.clone();
+			
+			for (int i = 0; i < slots.length; i++) {
+				succeedingContext.variableBindings.assign(VariableBindings.GLOBAL_SCOPE_DEPTH, slots[i], e.globals[i]);
+			}
+			if (e.observations != null) {
+				succeedingContext.observations = e.observations.appendTo(context.observations, context.elapsedTime, context.totalPowerConsumption);
+			}
+			succeedingContext.elapsedTime += e.time;
+			succeedingContext.totalPowerConsumption += e.power;
+			
+			invoke.skipInvocation(succeedingContext);
+			
+			succeedingPMF.add(succeedingContext, summary.probabilityOf(e));
+		}
+		
+		return succeedingPMF;
+	}
+	
+}
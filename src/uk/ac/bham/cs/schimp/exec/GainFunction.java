@@ -0,0 +1,154 @@
+package uk.ac.bham.cs.schimp.exec;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.math3.fraction.BigFraction;
+
+import uk.ac.bham.cs.schimp.source.SyntaxException;
+
+/**
+ * A gain function for g-leakage: the gain an attacker receives by making each of a set of guesses when the tracked
+ * initial variables of a schimp program have each combination of values.
+ *
+ * Gain functions are read from text files in which each line has the form
+ *
+ *     guess : values = gain
+ *
+ * where guess and values are comma-separated lists of integers, one for each tracked initial variable (in the order in
+ * which they're defined in the program), and gain is an integer, a fraction (e.g. 1/2) or a decimal. The guesses
+ * available to the attacker are all of the guesses that appear in the file, and any combination of a guess and values
+ * that doesn't appear in the file has a gain of 0. Blank lines, and anything after a #, are ignored.
+ */
+public class GainFunction {
+	
+	private String name;
+	
+	// the gain of each combination of values for each guess, in the order in which the guesses appear in the file
+	private Map<List<Integer>, Map<List<Integer>, BigFraction>> gains = new LinkedHashMap<>();
+	
+	public GainFunction(String name) {
+		this.name = name;
+	}
+	
+	public static GainFunction fromFile(File file, int variableCount) throws IOException, SyntaxException {
+		GainFunction g = new GainFunction(file.getPath());
+		List<String> lines = Files.readAllLines(file.toPath());
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i).replaceAll("#.*$", "").trim();
+			if (line.isEmpty()) continue;
+			
+			String error = file.getPath() + ":" + (i + 1) + ": ";
+			String[] guessAndRest = line.split(":", -1);
+			String[] valuesAndGain = guessAndRest.length == 2 ? guessAndRest[1].split("=", -1) : null;
+			if (valuesAndGain == null || valuesAndGain.length != 2) {
+				throw new SyntaxException(error + "expected 'guess : values = gain'");
+			}
+			
+			List<Integer> guess = parseValues(guessAndRest[0], variableCount, error);
+			List<Integer> values = parseValues(valuesAndGain[0], variableCount, error);
+			BigFraction gain;
+			try {
+				gain = parseGain(valuesAndGain[1].trim());
+			} catch (NumberFormatException e) {
+				throw new SyntaxException(error + "invalid gain '" + valuesAndGain[1].trim() + "'");
+			}
+			g.set(guess, values, gain);
+		}
+		return g;
+	}
+	
+	private static List<Integer> parseValues(String s, int variableCount, String error) throws SyntaxException {
+		List<Integer> values = new ArrayList<>();
+		try {
+			for (String v : s.split(",", -1)) {
+				values.add(Integer.parseInt(v.trim()));
+			}
+		} catch (NumberFormatException e) {
+			throw new SyntaxException(error + "invalid list of integers '" + s.trim() + "'");
+		}
+		if (values.size() != variableCount) {
+			throw new SyntaxException(error + "expected " + variableCount + " value" + (variableCount == 1 ? "" : "s") + ", but found " + values.size());
+		}
+		return values;
+	}
+	
+	private static BigFraction parseGain(String s) {
+		int slash = s.indexOf('/');
+		if (slash != -1) {
+			return new BigFraction(Integer.parseInt(s.substring(0, slash).trim()), Integer.parseInt(s.substring(slash + 1).trim()));
+		}
+		// decimals are converted exactly, rather than via double
+		BigDecimal d = new BigDecimal(s);
+		return d.scale() > 0 ?
+			new BigFraction(d.unscaledValue(), BigInteger.TEN.pow(d.scale())) :
+			new BigFraction(d.toBigIntegerExact());
+	}
+	
+	//==========================================================================
+	
+	public String getName() {
+		return name;
+	}
+	
+	public void set(List<Integer> guess, List<Integer> values, BigFraction gain) {
+		gains.computeIfAbsent(guess, k -> new LinkedHashMap<>()).put(values, gain);
+	}
+	
+	public List<List<Integer>> getGuesses() {
+		return new ArrayList<>(gains.keySet());
+	}
+	
+	public BigFraction getGain(List<Integer> guess, List<Integer> values) {
+		Map<List<Integer>, BigFraction> guessGains = gains.get(guess);
+		BigFraction gain = guessGains == null ? null : guessGains.get(values);
+		return gain == null ? BigFraction.ZERO : gain;
+	}
+	
+	// the lowest and highest gains of any guess for any combination of values, including the gain of 0 for the
+	// combinations that don't appear
+	public BigFraction getMinimumGain() {
+		BigFraction min = BigFraction.ZERO;
+		for (Map<List<Integer>, BigFraction> guessGains : gains.values()) {
+			for (BigFraction gain : guessGains.values()) {
+				if (gain.compareTo(min) < 0) min = gain;
+			}
+		}
+		return min;
+	}
+	
+	public BigFraction getMaximumGain() {
+		BigFraction max = BigFraction.ZERO;
+		for (Map<List<Integer>, BigFraction> guessGains : gains.values()) {
+			for (BigFraction gain : guessGains.values()) {
+				if (gain.compareTo(max) > 0) max = gain;
+			}
+		}
+		return max;
+	}
+	
+	/**
+	 * Returns the highest expected gain of any guess, for the given (not necessarily normalised) distribution of
+	 * combinations of values.
+	 */
+	public BigFraction getVulnerability(Map<List<Integer>, BigFraction> valueProbabilities) {
+		BigFraction vulnerability = null;
+		for (Map<List<Integer>, BigFraction> guessGains : gains.values()) {
+			BigFraction expectedGain = BigFraction.ZERO;
+			for (Map.Entry<List<Integer>, BigFraction> e : guessGains.entrySet()) {
+				BigFraction p = valueProbabilities.get(e.getKey());
+				if (p != null) expectedGain = expectedGain.add(p.multiply(e.getValue()));
+			}
+			if (vulnerability == null || expectedGain.compareTo(vulnerability) > 0) vulnerability = expectedGain;
+		}
+		return vulnerability == null ? BigFraction.ZERO : vulnerability;
+	}
+	
+}
@@ -0,0 +1,119 @@
+package uk.ac.bham.cs.schimp.exec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import uk.ac.bham.cs.schimp.AliasTable;
+import uk.ac.bham.cs.schimp.lang.Program;
+
+/**
+ * A Sampler that chooses from proposal distributions in place of some of the AliasTables that commands sample from
+ * (those for the probabilistic assignments in AssignCommands and InitialCommands, and the resource consumption in each
+ * row of a non-atomic function's model), and keeps track of the likelihood ratio of the execution being sampled: the
+ * product, over every choice made, of the probability of the choice in the AliasTable divided by its probability in
+ * the proposal. Weighting each sampled execution by its likelihood ratio corrects for the proposals, so that estimates
+ * made from them are estimates for the program itself.
+ *
+ * The choices made during each execution can also be recorded, so that the proposals can be learned (see
+ * ImportanceSamplingSimulator).
+ */
+public class ImportanceSampler extends Sampler {
+	
+	/**
+	 * A proposal distribution over the same elements as an AliasTable.
+	 */
+	public static class Proposal {
+		
+		private final AliasTable<?> table;
+		
+		// the log of the likelihood ratio of choosing each element
+		private final double[] logLikelihoodRatios;
+		
+		public Proposal(AliasTable<?> original, double[] weights) {
+			table = new AliasTable<>(original.getElements(), weights);
+			logLikelihoodRatios = new double[weights.length];
+			for (int i = 0; i < weights.length; i++) {
+				logLikelihoodRatios[i] = Math.log(original.getProbability(i)) - Math.log(table.getProbability(i));
+			}
+		}
+		
+	}
+	
+	// keyed by the AliasTables they replace (by identity); only read while executions are being sampled, so they can be
+	// shared between threads
+	private Map<AliasTable<?>, Proposal> proposals;
+	
+	private double logLikelihoodRatio = 0;
+	
+	// the AliasTables chosen from during the current execution, and the index of the element chosen each time (AliasTables
+	// with only one element are left out, since there's no choice to make)
+	private boolean recording = false;
+	private List<AliasTable<?>> chosenTables = new ArrayList<>();
+	private int[] chosenIndices = new int[64];
+	
+	public ImportanceSampler(SplittableRandom random, Map<AliasTable<?>, Proposal> proposals) {
+		super(random);
+		this.proposals = proposals;
+	}
+	
+	public void setProposals(Map<AliasTable<?>, Proposal> proposals) {
+		this.proposals = proposals;
+	}
+	
+	public void setRecording(boolean recording) {
+		this.recording = recording;
+	}
+	
+	@Override
+	public <T> T sample(AliasTable<T> table) {
+		Proposal proposal = proposals.get(table);
+		int i;
+		if (proposal == null) {
+			i = table.sampleIndex(random);
+		} else {
+			i = proposal.table.sampleIndex(random);
+			logLikelihoodRatio += proposal.logLikelihoodRatios[i];
+		}
+		
+		if (recording && table.size() > 1) {
+			int n = chosenTables.size();
+			if (n == chosenIndices.length) chosenIndices = Arrays.copyOf(chosenIndices, n * 2);
+			chosenTables.add(table);
+			chosenIndices[n] = i;
+		}
+		
+		return table.get(i);
+	}
+	
+	@Override
+	public ProgramExecutionContext sampleExecution(Program program, int maxSteps) throws ProgramExecutionException {
+		logLikelihoodRatio = 0;
+		chosenTables.clear();
+		return super.sampleExecution(program, maxSteps);
+	}
+	
+	//==========================================================================
+	
+	/**
+	 * Returns the likelihood ratio of the execution sampled most recently.
+	 */
+	public double getLikelihoodRatio() {
+		return Math.exp(logLikelihoodRatio);
+	}
+	
+	public int getChoiceCount() {
+		return chosenTables.size();
+	}
+	
+	public AliasTable<?> getChosenTable(int choice) {
+		return chosenTables.get(choice);
+	}
+	
+	public int getChosenIndex(int choice) {
+		return chosenIndices[choice];
+	}
+	
+}
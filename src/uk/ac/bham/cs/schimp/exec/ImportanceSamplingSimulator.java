@@ -0,0 +1,507 @@
+package uk.ac.bham.cs.schimp.exec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.apache.commons.math3.distribution.NormalDistribution;
+import org.apache.commons.math3.fraction.BigFraction;
+
+import uk.ac.bham.cs.schimp.AliasTable;
+import uk.ac.bham.cs.schimp.lang.Function;
+import uk.ac.bham.cs.schimp.lang.Program;
+import uk.ac.bham.cs.schimp.lang.command.Command;
+import uk.ac.bham.cs.schimp.lang.command.VariableAssignmentCommand;
+import uk.ac.bham.cs.schimp.source.SyntaxException;
+
+/**
+ * Estimates the Bayes vulnerability of a schimp program's tracked initial variables by importance sampling: like
+ * MonteCarloSimulator, but the probabilistic choices made by AssignCommands, InitialCommands and non-atomic
+ * InvokeCommands are made according to proposal distributions (see ImportanceSampler), and each sampled execution is
+ * weighted by its likelihood ratio. This makes it possible to estimate the vulnerability of programs that only leak on
+ * executions that are too unlikely to be sampled often enough otherwise.
+ *
+ * Proposals can be given by the user (see readProposals()) and/or learned by the cross-entropy method: executions are
+ * sampled for a number of iterations, and after each one, each proposal is moved towards the distribution of the
+ * choices made in the sampled executions, weighted according to a target distribution over executions. Half of the
+ * target is the program's own distribution, and the other half makes every observation class that has been sampled so
+ * far equally likely, while keeping the distribution of the initial variable values within each class the same as in
+ * the program (which is exactly what's needed to estimate the attacker's best guess in each class); rare classes are
+ * then sampled often, without starving the likely classes that usually make up most of the vulnerability. Each learned
+ * proposal is also mixed with the original distribution, so that no choice becomes impossible and the likelihood ratios
+ * stay bounded.
+ *
+ * Once the proposals have been learned, executions are sampled in rounds of increasing size (with the proposals fixed)
+ * until the vulnerability is known to within the requested precision with the requested confidence, or the maximum
+ * number of samples is reached. The estimates are self-normalised (i.e., the weighted sums are divided by the total
+ * weight, rather than the number of samples), and the confidence interval is a normal approximation using the
+ * delta-method standard error of the ratio; as in MonteCarloSimulator, its lower end is computed from guesses chosen
+ * before each round was sampled, and its upper end from the attacker's best guesses after sampling. Unlike
+ * MonteCarloSimulator's Hoeffding bounds, these intervals are only asymptotically correct, and can be badly wrong if a
+ * class with a large probability is never sampled; the effective sample size (the number of unweighted samples that
+ * would give estimates of the same variance) is printed as a warning sign.
+ *
+ * Proposal files contain lines of the form
+ *
+ *     choice : weights
+ *
+ * where choice is either the ID of a command making a probabilistic assignment (as shown in the program's listing), or
+ * the name and arity of a non-atomic function and the number of a row in its model (counting from 1), e.g.
+ * 'run_clock/1 3'; weights is a comma-separated list of non-negative weights (integers, fractions or decimals) for the
+ * elements of the assignment's pmf or row's resource consumption, in the order in which they appear in the source.
+ * Blank lines, and anything after a #, are ignored.
+ */
+public class ImportanceSamplingSimulator {
+	
+	// the weighted samples of one round or iteration on one thread
+	private static class Tally {
+		
+		// keyed by the observations made and the elapsed time and power consumption (-1 if they aren't tracked), and then
+		// by the tracked initial variable values; each holds the sum of the sampled executions' weights and of their
+		// squares
+		private Map<List<Object>, Map<List<Integer>, double[]>> weights = new HashMap<>();
+		private long samples = 0;
+		private long nonTerminating = 0;
+		private double nonTerminatingWeight = 0;
+		private double totalWeight = 0;
+		private double totalSquaredWeight = 0;
+		private double maxWeight = 0;
+		
+		// the sums of the weights (and their squares) of the sampled executions in which the attacker's guess was correct
+		private double correctWeight = 0;
+		private double correctSquaredWeight = 0;
+		
+		// keyed by the same classes as weights, and then by the AliasTables chosen from; each holds, for each element, the
+		// sum of the weights of the sampled executions in the class, multiplied by the number of times they chose it
+		private Map<List<Object>, Map<AliasTable<?>, double[]>> choices = new HashMap<>();
+		
+		private void add(Tally t) {
+			for (Map.Entry<List<Object>, Map<List<Integer>, double[]>> c : t.weights.entrySet()) {
+				Map<List<Integer>, double[]> valueWeights = weights.computeIfAbsent(c.getKey(), k -> new HashMap<>());
+				for (Map.Entry<List<Integer>, double[]> e : c.getValue().entrySet()) {
+					double[] w = valueWeights.computeIfAbsent(e.getKey(), k -> new double[2]);
+					w[0] += e.getValue()[0];
+					w[1] += e.getValue()[1];
+				}
+			}
+			samples += t.samples;
+			nonTerminating += t.nonTerminating;
+			nonTerminatingWeight += t.nonTerminatingWeight;
+			totalWeight += t.totalWeight;
+			totalSquaredWeight += t.totalSquaredWeight;
+			maxWeight = Math.max(maxWeight, t.maxWeight);
+			correctWeight += t.correctWeight;
+			correctSquaredWeight += t.correctSquaredWeight;
+			
+			for (Map.Entry<List<Object>, Map<AliasTable<?>, double[]>> c : t.choices.entrySet()) {
+				Map<AliasTable<?>, double[]> classChoices = choices.computeIfAbsent(c.getKey(), k -> new IdentityHashMap<>());
+				for (Map.Entry<AliasTable<?>, double[]> e : c.getValue().entrySet()) {
+					double[] w = classChoices.computeIfAbsent(e.getKey(), k -> new double[k.size()]);
+					for (int i = 0; i < w.length; i++) w[i] += e.getValue()[i];
+				}
+			}
+		}
+		
+	}
+	
+	private static final int INITIAL_ROUND_SIZE = 1 << 10;
+	private static final int MAXIMUM_ROUND_SIZE = 1 << 20;
+	
+	// the weight of the original distribution in each learned proposal
+	private static final double DEFENSIVE_MIXTURE = 0.1;
+	
+	private PRISMModelGenerator schimpModelGenerator;
+	private Program program;
+	private int threads;
+	private int maxSteps;
+	private ImportanceSampler[] samplers;
+	
+	// keyed by the AliasTables they replace (by identity)
+	private Map<AliasTable<?>, ImportanceSampler.Proposal> proposals = new IdentityHashMap<>();
+	private int userProposals = 0;
+	
+	// the samples taken while learning the proposals, and once they were fixed
+	private List<Tally> iterations = new ArrayList<>();
+	private Tally total = new Tally();
+	
+	private double confidence;
+	private double estimate = 0;
+	private double standardError = 0;
+	private double lowerBound = 0;
+	private double upperBound = 1;
+	private long elapsedMillis = 0;
+	
+	public ImportanceSamplingSimulator(PRISMModelGenerator schimpModelGenerator, int threads, long seed, int maxSteps) {
+		this.schimpModelGenerator = schimpModelGenerator;
+		this.threads = threads;
+		this.maxSteps = maxSteps;
+		program = schimpModelGenerator.getProgram();
+		
+		SplittableRandom random = new SplittableRandom(seed);
+		samplers = new ImportanceSampler[threads];
+		for (int i = 0; i < threads; i++) samplers[i] = new ImportanceSampler(random.split(), proposals);
+	}
+	
+	/**
+	 * Reads proposals from the given file (see above), which are used from the start (and then refined, if any
+	 * cross-entropy iterations are run).
+	 */
+	public void readProposals(File file) throws IOException, SyntaxException {
+		List<String> lines = Files.readAllLines(file.toPath());
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i).replaceAll("#.*$", "").trim();
+			if (line.isEmpty()) continue;
+			
+			String error = file.getPath() + ":" + (i + 1) + ": ";
+			String[] choiceAndWeights = line.split(":", -1);
+			if (choiceAndWeights.length != 2) throw new SyntaxException(error + "expected 'choice : weights'");
+			
+			AliasTable<?> table = findAliasTable(choiceAndWeights[0].trim(), error);
+			proposals.put(table, new ImportanceSampler.Proposal(table, parseWeights(choiceAndWeights[1], table, error)));
+			userProposals++;
+		}
+	}
+	
+	private AliasTable<?> findAliasTable(String choice, String error) throws SyntaxException {
+		String[] parts = choice.split("\\s+");
+		try {
+			if (parts.length == 1) {
+				Command c = program.getCommandTable().getCommand(Integer.parseInt(parts[0]));
+				if (!(c instanceof VariableAssignmentCommand)) {
+					throw new SyntaxException(error + "command " + parts[0] + " isn't an assignment");
+				}
+				AliasTable<?> table = ((VariableAssignmentCommand)c).getArithmeticExpressionProbabilityMassFunction().getAliasTable();
+				if (table == null) {
+					throw new SyntaxException(error + "the probabilities in command " + parts[0] + " depend on variables");
+				}
+				return table;
+			}
+			
+			int slash = parts[0].lastIndexOf('/');
+			if (parts.length == 2 && slash != -1) {
+				String name = parts[0].substring(0, slash);
+				int arity = Integer.parseInt(parts[0].substring(slash + 1));
+				int row = Integer.parseInt(parts[1]);
+				for (Function f : program.getFunctions()) {
+					if (!f.getName().equals(name) || f.getArity() != arity) continue;
+					FunctionModel model = f.getResourceConsumptionModel();
+					if (model == null) throw new SyntaxException(error + "function " + parts[0] + " is atomic");
+					if (row < 1 || row > model.getRowCount()) {
+						throw new SyntaxException(error + "the model of function " + parts[0] + " has no row " + row);
+					}
+					return model.getRowAliasTable(row - 1);
+				}
+				throw new SyntaxException(error + "program does not define function " + parts[0]);
+			}
+		} catch (NumberFormatException e) {}
+		throw new SyntaxException(error + "expected a command ID or 'function/arity row'");
+	}
+	
+	private static double[] parseWeights(String s, AliasTable<?> table, String error) throws SyntaxException {
+		String[] parts = s.split(",", -1);
+		if (parts.length != table.size()) {
+			throw new SyntaxException(error + "expected " + table.size() + " weight" + (table.size() == 1 ? "" : "s") + ", but found " + parts.length);
+		}
+		
+		double[] weights = new double[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			String w = parts[i].trim();
+			try {
+				int slash = w.indexOf('/');
+				weights[i] = slash == -1 ?
+					Double.parseDouble(w) :
+					Double.parseDouble(w.substring(0, slash).trim()) / Double.parseDouble(w.substring(slash + 1).trim());
+			} catch (NumberFormatException e) {
+				throw new SyntaxException(error + "invalid weight '" + w + "'");
+			}
+			// the proposal can't rule out anything the program can do, or the estimates would be biased
+			if (!(weights[i] >= 0) || Double.isInfinite(weights[i]) || (weights[i] == 0 && table.getProbability(i) > 0)) {
+				throw new SyntaxException(error + "weight " + (i + 1) + " must be positive");
+			}
+		}
+		return weights;
+	}
+	
+	//==========================================================================
+	
+	/**
+	 * Learns the proposals with the given number of cross-entropy iterations of the given number of samples each, then
+	 * samples executions of the program until the vulnerability is known to within the given precision with the given
+	 * confidence, or until the given number of executions have been sampled (not counting those sampled while learning),
+	 * and returns the estimated vulnerability.
+	 */
+	public BayesVulnerability run(int ceIterations, long ceSamples, double precision, double confidence, long maxSamples) throws ProgramExecutionException {
+		this.confidence = confidence;
+		long start = System.currentTimeMillis();
+		double z = new NormalDistribution().inverseCumulativeProbability(1 - (1 - confidence) / 2);
+		
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			for (int i = 0; i < ceIterations; i++) {
+				Tally iteration = sample(pool, ceSamples, true, new HashMap<>());
+				iterations.add(iteration);
+				updateProposals(iteration);
+			}
+			
+			int roundSize = INITIAL_ROUND_SIZE;
+			while (total.samples < maxSamples && upperBound - lowerBound > 2 * precision) {
+				long samples = Math.min((long)roundSize * threads, maxSamples - total.samples);
+				total.add(sample(pool, samples, false, chooseGuesses()));
+				computeBounds(z);
+				roundSize = Math.min(roundSize * 2, MAXIMUM_ROUND_SIZE);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ProgramExecutionException("simulation was interrupted");
+		} catch (ExecutionException e) {
+			// exceptions thrown by worker threads may have been wrapped more than once on their way here
+			for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+				if (cause instanceof ProgramExecutionException) throw (ProgramExecutionException)cause;
+			}
+			throw new ProgramExecutionException(e.getCause().toString());
+		} finally {
+			pool.shutdown();
+		}
+		
+		elapsedMillis = System.currentTimeMillis() - start;
+		
+		// the weights are converted exactly, so the probabilities sum to the fraction of the total weight of the executions
+		// that terminated
+		BigFraction totalWeight = new BigFraction(total.totalWeight);
+		Map<List<Object>, Map<List<Integer>, BigFraction>> probabilities = new HashMap<>();
+		for (Map.Entry<List<Object>, Map<List<Integer>, double[]>> c : total.weights.entrySet()) {
+			Map<List<Integer>, BigFraction> valueProbabilities = probabilities.computeIfAbsent(c.getKey(), k -> new HashMap<>());
+			for (Map.Entry<List<Integer>, double[]> e : c.getValue().entrySet()) {
+				if (e.getValue()[0] > 0) valueProbabilities.put(e.getKey(), new BigFraction(e.getValue()[0]).divide(totalWeight));
+			}
+		}
+		return BayesVulnerability.fromSampledProbabilities(probabilities, schimpModelGenerator);
+	}
+	
+	// samples the given number of executions, divided between the threads as evenly as possible
+	private Tally sample(ForkJoinPool pool, long samples, boolean recording, Map<List<Object>, List<Integer>> guesses) throws InterruptedException, ExecutionException {
+		// each sampler is given its own copy of the proposals, since they're about to change
+		Map<AliasTable<?>, ImportanceSampler.Proposal> roundProposals = new IdentityHashMap<>(proposals);
+		
+		List<Future<Tally>> tallies = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			ImportanceSampler sampler = samplers[i];
+			sampler.setProposals(roundProposals);
+			sampler.setRecording(recording);
+			long threadSamples = samples / threads + (i < samples % threads ? 1 : 0);
+			tallies.add(pool.submit(() -> sample(threadSamples, sampler, guesses)));
+		}
+		
+		Tally tally = new Tally();
+		for (Future<Tally> t : tallies) tally.add(t.get());
+		return tally;
+	}
+	
+	// runs on a worker thread
+	private Tally sample(long samples, ImportanceSampler sampler, Map<List<Object>, List<Integer>> guesses) throws ProgramExecutionException {
+		Tally tally = new Tally();
+		int initialVariableCount = schimpModelGenerator.stateInitialVariableNames().size();
+		
+		for (long s = 0; s < samples; s++) {
+			tally.samples++;
+			
+			ProgramExecutionContext context = sampler.sampleExecution(program, maxSteps);
+			double w = sampler.getLikelihoodRatio();
+			tally.totalWeight += w;
+			tally.totalSquaredWeight += w * w;
+			tally.maxWeight = Math.max(tally.maxWeight, w);
+			if (context == null) {
+				tally.nonTerminating++;
+				tally.nonTerminatingWeight += w;
+				continue;
+			}
+			
+			List<Object> key = Arrays.asList(
+				context.observations,
+				schimpModelGenerator.stateHasTime() ? context.elapsedTime : -1,
+				schimpModelGenerator.stateHasPower() ? context.totalPowerConsumption : -1
+			);
+			List<Integer> values = new ArrayList<>(initialVariableCount);
+			for (int v = 0; v < initialVariableCount; v++) {
+				values.add(schimpModelGenerator.getInitialVariableValue(context, v));
+			}
+			
+			double[] valueWeights = tally.weights.computeIfAbsent(key, k -> new HashMap<>()).computeIfAbsent(values, k -> new double[2]);
+			valueWeights[0] += w;
+			valueWeights[1] += w * w;
+			if (values.equals(guesses.get(key))) {
+				tally.correctWeight += w;
+				tally.correctSquaredWeight += w * w;
+			}
+			
+			if (sampler.getChoiceCount() > 0) {
+				Map<AliasTable<?>, double[]> classChoices = tally.choices.computeIfAbsent(key, k -> new IdentityHashMap<>());
+				for (int c = 0; c < sampler.getChoiceCount(); c++) {
+					classChoices.computeIfAbsent(sampler.getChosenTable(c), k -> new double[k.size()])[sampler.getChosenIndex(c)] += w;
+				}
+			}
+		}
+		
+		return tally;
+	}
+	
+	// moves each proposal chosen from during the given iteration to the distribution of the choices made, weighted by the
+	// target probability of each execution divided by its probability under the proposals, and mixes in the original
+	// distribution; the target probability of an execution in class y is half its probability in the program and half
+	// its probability in the program divided by the number of classes times the (estimated) probability of y
+	private void updateProposals(Tally iteration) {
+		Map<List<Object>, Double> classWeights = new HashMap<>();
+		for (Map.Entry<List<Object>, Map<List<Integer>, double[]>> c : iteration.weights.entrySet()) {
+			double classWeight = 0;
+			for (double[] w : c.getValue().values()) classWeight += w[0];
+			if (classWeight > 0) classWeights.put(c.getKey(), classWeight);
+		}
+		
+		Map<AliasTable<?>, double[]> targets = new IdentityHashMap<>();
+		for (Map.Entry<List<Object>, Map<AliasTable<?>, double[]>> c : iteration.choices.entrySet()) {
+			Double classWeight = classWeights.get(c.getKey());
+			if (classWeight == null) continue;
+			double scale = 1 / iteration.totalWeight + 1 / (classWeights.size() * classWeight);
+			
+			for (Map.Entry<AliasTable<?>, double[]> e : c.getValue().entrySet()) {
+				double[] target = targets.computeIfAbsent(e.getKey(), k -> new double[k.size()]);
+				for (int i = 0; i < target.length; i++) target[i] += e.getValue()[i] * scale;
+			}
+		}
+		
+		for (Map.Entry<AliasTable<?>, double[]> e : targets.entrySet()) {
+			AliasTable<?> table = e.getKey();
+			double[] target = e.getValue();
+			double targetWeight = 0;
+			for (double t : target) targetWeight += t;
+			if (targetWeight == 0) continue;
+			
+			double[] weights = new double[target.length];
+			for (int i = 0; i < weights.length; i++) {
+				weights[i] = (1 - DEFENSIVE_MIXTURE) * target[i] / targetWeight + DEFENSIVE_MIXTURE * table.getProbability(i);
+			}
+			proposals.put(table, new ImportanceSampler.Proposal(table, weights));
+		}
+	}
+	
+	// the most likely initial variable values in each class sampled so far, according to all of the samples taken so far
+	// (each iteration's or round's weights are normalised separately, since they were sampled from different proposals)
+	private Map<List<Object>, List<Integer>> chooseGuesses() {
+		List<Tally> tallies = new ArrayList<>(iterations);
+		tallies.add(total);
+		
+		Map<List<Object>, Map<List<Integer>, Double>> probabilities = new HashMap<>();
+		for (Tally t : tallies) {
+			if (t.totalWeight == 0) continue;
+			for (Map.Entry<List<Object>, Map<List<Integer>, double[]>> c : t.weights.entrySet()) {
+				Map<List<Integer>, Double> valueProbabilities = probabilities.computeIfAbsent(c.getKey(), k -> new HashMap<>());
+				for (Map.Entry<List<Integer>, double[]> e : c.getValue().entrySet()) {
+					valueProbabilities.merge(e.getKey(), e.getValue()[0] / t.totalWeight, Double::sum);
+				}
+			}
+		}
+		
+		Map<List<Object>, List<Integer>> guesses = new HashMap<>();
+		for (Map.Entry<List<Object>, Map<List<Integer>, Double>> c : probabilities.entrySet()) {
+			double best = -1;
+			for (Map.Entry<List<Integer>, Double> e : c.getValue().entrySet()) {
+				if (e.getValue() > best) {
+					best = e.getValue();
+					guesses.put(c.getKey(), e.getKey());
+				}
+			}
+		}
+		return guesses;
+	}
+	
+	private void computeBounds(double z) {
+		// the attacker's best guess in each class, according to the samples taken with the proposals fixed
+		double bestWeight = 0;
+		double bestSquaredWeight = 0;
+		for (Map<List<Integer>, double[]> valueWeights : total.weights.values()) {
+			double[] best = null;
+			for (double[] w : valueWeights.values()) {
+				if (best == null || w[0] > best[0]) best = w;
+			}
+			bestWeight += best[0];
+			bestSquaredWeight += best[1];
+		}
+		
+		estimate = bestWeight / total.totalWeight;
+		standardError = ratioStandardError(bestWeight, bestSquaredWeight);
+		lowerBound = Math.max(0, total.correctWeight / total.totalWeight - z * ratioStandardError(total.correctWeight, total.correctSquaredWeight));
+		upperBound = Math.min(1, estimate + z * standardError);
+	}
+	
+	// the delta-method standard error of the self-normalised estimate of the probability of an event, given the sum of the
+	// weights of the samples in which it occurred and of their squares
+	private double ratioStandardError(double eventWeight, double eventSquaredWeight) {
+		double r = eventWeight / total.totalWeight;
+		double variance = eventSquaredWeight * (1 - 2 * r) + r * r * total.totalSquaredWeight;
+		return Math.sqrt(Math.max(0, variance)) / total.totalWeight;
+	}
+	
+	//==========================================================================
+	
+	public long getSamples() {
+		return total.samples;
+	}
+	
+	public double getEstimate() {
+		return estimate;
+	}
+	
+	public double getLowerBound() {
+		return lowerBound;
+	}
+	
+	public double getUpperBound() {
+		return upperBound;
+	}
+	
+	// the number of unweighted samples that would give estimates with the same variance
+	public double getEffectiveSampleSize() {
+		return total.totalWeight * total.totalWeight / total.totalSquaredWeight;
+	}
+	
+	@Override
+	public String toString() {
+		long learningSamples = iterations.stream().mapToLong(t -> t.samples).sum();
+		
+		StringBuilder s = new StringBuilder();
+		s.append("Sampled " + (learningSamples + total.samples) + " executions in " + elapsedMillis + " ms");
+		if (elapsedMillis > 0) s.append(" (" + Math.round((learningSamples + total.samples) * 1000.0 / elapsedMillis) + " per second)");
+		s.append("\n");
+		s.append("Proposals: " + proposals.size() + " (" + userProposals + " given");
+		if (!iterations.isEmpty()) {
+			s.append(
+				", then " + iterations.size() + " cross-entropy iteration" + (iterations.size() == 1 ? "" : "s") +
+				" of " + iterations.get(0).samples + " executions"
+			);
+		}
+		s.append(")\n");
+		s.append("Observation classes sampled: " + total.weights.size() + "\n");
+		s.append(
+			"Effective sample size: " + Math.round(getEffectiveSampleSize()) + " of " + total.samples +
+			" (largest weight " + total.maxWeight + ")\n"
+		);
+		s.append(
+			"Termination within " + maxSteps + " steps: " + (1 - total.nonTerminatingWeight / total.totalWeight) +
+			" (" + total.nonTerminating + " sampled executions didn't terminate)\n"
+		);
+		s.append("Vulnerability estimate: " + estimate + " (standard error " + standardError + ")\n");
+		s.append("Vulnerability " + confidence * 100 + "% confidence interval: [" + lowerBound + ", " + upperBound + "]\n");
+		return s.toString();
+	}
+	
+}
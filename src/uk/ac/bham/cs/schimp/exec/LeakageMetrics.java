@@ -0,0 +1,324 @@
+package uk.ac.bham.cs.schimp.exec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.math3.fraction.BigFraction;
+
+/**
+ * Measures how much information about a schimp program's tracked initial variables leaks to an attacker who observes
+ * the program's execution, using several information-theoretic metrics. The metrics are all computed in a single pass
+ * over the joint distribution of the initial variables' values and the attacker's observations (i.e., the observation
+ * classes of a BayesVulnerability), comparing the attacker's uncertainty about the initial variables before the program
+ * runs (their prior distribution) with their uncertainty afterwards (their posterior distribution, given the
+ * observations):
+ *
+ * - shannon entropy (in bits) and mutual information
+ * - vulnerability (the probability of guessing the values correctly in one try) and min-entropy leakage (in bits)
+ * - guessing entropy (the expected number of guesses needed to guess the values correctly)
+ * - k-tries vulnerability (the probability of guessing the values correctly in k tries), for k = 1 to maxTries
+ * - g-vulnerability and g-leakage (in bits), for each of a number of gain functions
+ *
+ * Every metric other than shannon entropy, mutual information and the leakages is computed exactly if the joint
+ * distribution is exact (see BayesVulnerability.isExact()); otherwise, the metrics are only as exact as the joint
+ * distribution, and are only described by their floating-point values.
+ *
+ * If probability mass was pruned while building the model of the program's execution (or left unexplored by
+ * AnytimeExplorer), the prior metrics are still exact, since they're computed from the initial variables' distribution
+ * rather than from the explored mass. Each posterior metric other than shannon entropy is reported as the lower end of
+ * certified bounds that hold whatever the pruned mass would have done: adding mass m to the joint distribution increases
+ * each vulnerability by between 0 and m, each guessing entropy by between m and m times the number of possible guesses,
+ * and each g-vulnerability by between m times the lowest gain and m times the highest gain (taking absent gains as 0).
+ * The posterior shannon entropy (and so the mutual information) is computed from the explored mass only.
+ */
+public class LeakageMetrics {
+	
+	private double priorShannonEntropy;
+	private double posteriorShannonEntropy;
+	
+	private BigFraction priorVulnerability;
+	private BigFraction posteriorVulnerability = BigFraction.ZERO;
+	
+	private BigFraction priorGuessingEntropy;
+	private BigFraction posteriorGuessingEntropy = BigFraction.ZERO;
+	
+	// indexed by k - 1
+	private BigFraction[] priorKTriesVulnerabilities;
+	private BigFraction[] posteriorKTriesVulnerabilities;
+	
+	// indexed in the same order as the gain functions
+	private List<GainFunction> gainFunctions;
+	private BigFraction[] priorGVulnerabilities;
+	private BigFraction[] posteriorGVulnerabilities;
+	
+	private BigFraction prunedProbability;
+	private int guessCount;
+	
+	// whether the posterior and prior metrics were computed from exact probabilities
+	private boolean exact;
+	private boolean priorExact;
+	
+	public LeakageMetrics(BayesVulnerability vulnerability, int maxTries, List<GainFunction> gainFunctions) {
+		this.gainFunctions = gainFunctions;
+		prunedProbability = vulnerability.getPrunedProbability();
+		exact = vulnerability.isExact();
+		guessCount = vulnerability.getGuessCount();
+		posteriorKTriesVulnerabilities = new BigFraction[maxTries];
+		Arrays.fill(posteriorKTriesVulnerabilities, BigFraction.ZERO);
+		posteriorGVulnerabilities = new BigFraction[gainFunctions.size()];
+		Arrays.fill(posteriorGVulnerabilities, BigFraction.ZERO);
+		
+		// the prior distribution is the marginal distribution of the initial variables' values, which is accumulated
+		// while the posterior metrics are computed for each observation class
+		Map<List<Integer>, BigFraction> prior = new LinkedHashMap<>();
+		
+		// the shannon entropy of the initial variables given the observations is H(X, Y) - H(Y)
+		double jointEntropy = 0;
+		double observationEntropy = 0;
+		
+		for (BayesVulnerability.ObservationClass c : vulnerability.getObservationClasses()) {
+			Map<List<Integer>, BigFraction> joint = c.getValueProbabilities();
+			BigFraction classProbability = BigFraction.ZERO;
+			for (Map.Entry<List<Integer>, BigFraction> e : joint.entrySet()) {
+				prior.merge(e.getKey(), e.getValue(), BigFraction::add);
+				classProbability = classProbability.add(e.getValue());
+				jointEntropy -= entropyTerm(e.getValue());
+			}
+			observationEntropy -= entropyTerm(classProbability);
+			
+			// the posterior metrics are the expectations of the prior metrics over the observation classes, and the joint
+			// probabilities are the posterior probabilities multiplied by the probability of the class, so each metric
+			// (except shannon entropy) can be computed from the joint probabilities in the same way as for the prior
+			List<BigFraction> sorted = sortDescending(joint);
+			posteriorVulnerability = posteriorVulnerability.add(sorted.get(0));
+			posteriorGuessingEntropy = posteriorGuessingEntropy.add(guessingEntropy(sorted));
+			addKTriesVulnerabilities(posteriorKTriesVulnerabilities, sorted);
+			for (int g = 0; g < gainFunctions.size(); g++) {
+				posteriorGVulnerabilities[g] = posteriorGVulnerabilities[g].add(gainFunctions.get(g).getVulnerability(joint));
+			}
+		}
+		
+		posteriorShannonEntropy = jointEntropy - observationEntropy;
+		
+		// if probability mass was pruned, the explored mass is missing part of the prior distribution, so it's computed
+		// from the initial variables' distribution instead
+		boolean pruned = !prunedProbability.equals(BigFraction.ZERO);
+		if (pruned) prior = vulnerability.getPriorProbabilities();
+		priorExact = exact || pruned;
+		
+		priorShannonEntropy = 0;
+		for (BigFraction p : prior.values()) {
+			priorShannonEntropy -= entropyTerm(p);
+		}
+		List<BigFraction> sorted = sortDescending(prior);
+		priorVulnerability = sorted.isEmpty() ? BigFraction.ZERO : sorted.get(0);
+		priorGuessingEntropy = guessingEntropy(sorted);
+		priorKTriesVulnerabilities = new BigFraction[maxTries];
+		Arrays.fill(priorKTriesVulnerabilities, BigFraction.ZERO);
+		addKTriesVulnerabilities(priorKTriesVulnerabilities, sorted);
+		priorGVulnerabilities = new BigFraction[gainFunctions.size()];
+		for (int g = 0; g < gainFunctions.size(); g++) {
+			priorGVulnerabilities[g] = gainFunctions.get(g).getVulnerability(prior);
+		}
+		
+		// the posterior metrics computed from the explored mass are raised to their lower bounds: the pruned mass takes
+		// at least one guess, and gains at least the lowest gain (the vulnerabilities are already lower bounds)
+		if (pruned) {
+			posteriorGuessingEntropy = posteriorGuessingEntropy.add(prunedProbability);
+			for (int g = 0; g < gainFunctions.size(); g++) {
+				posteriorGVulnerabilities[g] = posteriorGVulnerabilities[g].add(prunedProbability.multiply(gainFunctions.get(g).getMinimumGain()));
+			}
+		}
+	}
+	
+	// p log2 p, which is 0 when p is 0
+	private static double entropyTerm(BigFraction p) {
+		double d = p.doubleValue();
+		return d == 0 ? 0 : d * Math.log(d) / Math.log(2);
+	}
+	
+	private static List<BigFraction> sortDescending(Map<List<Integer>, BigFraction> distribution) {
+		List<BigFraction> sorted = new ArrayList<>(distribution.values());
+		sorted.sort((p1, p2) -> p2.compareTo(p1));
+		return sorted;
+	}
+	
+	// the attacker guesses the values in descending order of probability, so the i-th most likely values (beginning at
+	// 1) take i guesses
+	private static BigFraction guessingEntropy(List<BigFraction> sorted) {
+		BigFraction guessingEntropy = BigFraction.ZERO;
+		for (int i = 0; i < sorted.size(); i++) {
+			guessingEntropy = guessingEntropy.add(sorted.get(i).multiply(i + 1));
+		}
+		return guessingEntropy;
+	}
+	
+	// adds the probability of the k most likely values to kTriesVulnerabilities[k - 1], for each k
+	private static void addKTriesVulnerabilities(BigFraction[] kTriesVulnerabilities, List<BigFraction> sorted) {
+		BigFraction cumulative = BigFraction.ZERO;
+		for (int k = 1; k <= kTriesVulnerabilities.length; k++) {
+			if (k <= sorted.size()) cumulative = cumulative.add(sorted.get(k - 1));
+			kTriesVulnerabilities[k - 1] = kTriesVulnerabilities[k - 1].add(cumulative);
+		}
+	}
+	
+	// NaN if the prior is 0 (i.e., if the program never terminates)
+	private static double log2Ratio(BigFraction posterior, BigFraction prior) {
+		if (prior.equals(BigFraction.ZERO)) return Double.NaN;
+		return Math.log(posterior.divide(prior).doubleValue()) / Math.log(2);
+	}
+	
+	//==========================================================================
+	
+	public double getPriorShannonEntropy() {
+		return priorShannonEntropy;
+	}
+	
+	public double getPosteriorShannonEntropy() {
+		return posteriorShannonEntropy;
+	}
+	
+	public double getMutualInformation() {
+		return priorShannonEntropy - posteriorShannonEntropy;
+	}
+	
+	public BigFraction getPriorVulnerability() {
+		return priorVulnerability;
+	}
+	
+	public BigFraction getPosteriorVulnerability() {
+		return posteriorVulnerability;
+	}
+	
+	public double getMinEntropyLeakage() {
+		return getMinEntropyLeakageBounds()[0];
+	}
+	
+	public BigFraction getPriorGuessingEntropy() {
+		return priorGuessingEntropy;
+	}
+	
+	public BigFraction getPosteriorGuessingEntropy() {
+		return posteriorGuessingEntropy;
+	}
+	
+	public int getMaxTries() {
+		return priorKTriesVulnerabilities.length;
+	}
+	
+	public BigFraction getPriorKTriesVulnerability(int k) {
+		return priorKTriesVulnerabilities[k - 1];
+	}
+	
+	public BigFraction getPosteriorKTriesVulnerability(int k) {
+		return posteriorKTriesVulnerabilities[k - 1];
+	}
+	
+	public List<GainFunction> getGainFunctions() {
+		return gainFunctions;
+	}
+	
+	public BigFraction getPriorGVulnerability(int gainFunction) {
+		return priorGVulnerabilities[gainFunction];
+	}
+	
+	public BigFraction getPosteriorGVulnerability(int gainFunction) {
+		return posteriorGVulnerabilities[gainFunction];
+	}
+	
+	public double getGLeakage(int gainFunction) {
+		return getGLeakageBounds(gainFunction)[0];
+	}
+	
+	//==========================================================================
+	// certified bounds on the posterior metrics (whose values are their lower bounds), which are the same as the metrics
+	// themselves if no probability mass was pruned; the prior metrics are always exact
+	
+	public BigFraction getPrunedProbability() {
+		return prunedProbability;
+	}
+	
+	public BigFraction[] getPosteriorVulnerabilityBounds() {
+		return vulnerabilityBounds(posteriorVulnerability);
+	}
+	
+	public BigFraction[] getPosteriorKTriesVulnerabilityBounds(int k) {
+		return vulnerabilityBounds(posteriorKTriesVulnerabilities[k - 1]);
+	}
+	
+	private BigFraction[] vulnerabilityBounds(BigFraction vulnerability) {
+		return new BigFraction[] { vulnerability, vulnerability.add(prunedProbability) };
+	}
+	
+	public BigFraction[] getPosteriorGuessingEntropyBounds() {
+		return new BigFraction[] {
+			posteriorGuessingEntropy,
+			posteriorGuessingEntropy.add(prunedProbability.multiply(Math.max(guessCount, 1) - 1))
+		};
+	}
+	
+	public BigFraction[] getPosteriorGVulnerabilityBounds(int gainFunction) {
+		GainFunction f = gainFunctions.get(gainFunction);
+		return new BigFraction[] {
+			posteriorGVulnerabilities[gainFunction],
+			posteriorGVulnerabilities[gainFunction].add(prunedProbability.multiply(f.getMaximumGain().subtract(f.getMinimumGain())))
+		};
+	}
+	
+	public double[] getMinEntropyLeakageBounds() {
+		return leakageBounds(priorVulnerability, getPosteriorVulnerabilityBounds());
+	}
+	
+	public double[] getGLeakageBounds(int gainFunction) {
+		return leakageBounds(priorGVulnerabilities[gainFunction], getPosteriorGVulnerabilityBounds(gainFunction));
+	}
+	
+	// the prior is exact, so the lowest leakage has the lowest posterior, and vice versa; leakage is never negative,
+	// though, since observations can't make the attacker's guesses worse
+	private static double[] leakageBounds(BigFraction prior, BigFraction[] posterior) {
+		return new double[] { Math.max(0, log2Ratio(posterior[0], prior)), log2Ratio(posterior[1], prior) };
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder();
+		boolean pruned = !prunedProbability.equals(BigFraction.ZERO);
+		if (pruned) {
+			s.append("Pruned or unexplored probability mass: " + describe(prunedProbability, exact) + " (posterior metrics are certified lower bounds, and the posterior Shannon entropy and mutual information are computed from the explored mass only)\n");
+		}
+		s.append("Prior Shannon entropy: " + priorShannonEntropy + " bits\n");
+		s.append("Posterior Shannon entropy: " + posteriorShannonEntropy + " bits\n");
+		s.append("Mutual information: " + getMutualInformation() + " bits\n");
+		s.append("Prior vulnerability: " + describe(priorVulnerability, priorExact) + "\n");
+		s.append("Posterior vulnerability: " + describe(posteriorVulnerability, exact) + (pruned ? describeBounds(getPosteriorVulnerabilityBounds()) : "") + "\n");
+		s.append("Min-entropy leakage: " + getMinEntropyLeakage() + " bits" + (pruned ? describeBounds(getMinEntropyLeakageBounds()) : "") + "\n");
+		s.append("Prior guessing entropy: " + describe(priorGuessingEntropy, priorExact) + "\n");
+		s.append("Posterior guessing entropy: " + describe(posteriorGuessingEntropy, exact) + (pruned ? describeBounds(getPosteriorGuessingEntropyBounds()) : "") + "\n");
+		for (int k = 1; k <= getMaxTries(); k++) {
+			s.append(k + "-tries vulnerability: prior " + describe(getPriorKTriesVulnerability(k), priorExact) + ", posterior " + describe(getPosteriorKTriesVulnerability(k), exact) + (pruned ? describeBounds(getPosteriorKTriesVulnerabilityBounds(k)) : "") + "\n");
+		}
+		for (int g = 0; g < gainFunctions.size(); g++) {
+			s.append("g-vulnerability (" + gainFunctions.get(g).getName() + "): prior " + describe(priorGVulnerabilities[g], priorExact) + ", posterior " + describe(posteriorGVulnerabilities[g], exact) + (pruned ? describeBounds(getPosteriorGVulnerabilityBounds(g)) : "") + "\n");
+			s.append("g-leakage (" + gainFunctions.get(g).getName() + "): " + getGLeakage(g) + " bits" + (pruned ? describeBounds(getGLeakageBounds(g)) : "") + "\n");
+		}
+		return s.toString();
+	}
+	
+	// a value computed from inexact probabilities is only as exact as its floating-point value, so its fraction would be
+	// misleading
+	private static String describe(BigFraction f, boolean exact) {
+		return f.doubleValue() + (exact ? " (" + f + ")" : "");
+	}
+	
+	private static String describeBounds(BigFraction[] bounds) {
+		return describeBounds(new double[] { bounds[0].doubleValue(), bounds[1].doubleValue() });
+	}
+	
+	private static String describeBounds(double[] bounds) {
+		return ", certified bounds [" + bounds[0] + ", " + bounds[1] + "]";
+	}
+	
+}
@@ -0,0 +1,287 @@
+package uk.ac.bham.cs.schimp.exec;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.bham.cs.schimp.lang.Block;
+import uk.ac.bham.cs.schimp.lang.Function;
+import uk.ac.bham.cs.schimp.lang.Program;
+import uk.ac.bham.cs.schimp.lang.command.Command;
+import uk.ac.bham.cs.schimp.lang.command.InvokeCommand;
+import uk.ac.bham.cs.schimp.lang.command.VariableAssignmentCommand;
+import uk.ac.bham.cs.schimp.lang.expression.arith.VariableReference;
+
+/**
+ * A liveness analysis of the variables of a schimp program, over its resolved control flow. A variable is live before a
+ * command is executed if the value it has then may be read later in the program's execution (before the variable is
+ * assigned to again); the values of dead variables can't affect the rest of the execution, so ProgramExecutionContexts
+ * that only differ in them are equivalent.
+ *
+ * Local variables (those in function and block scope frames) are analysed separately in each function, over the
+ * commands' successors within the function; a local variable is identified by its level (0 for the function scope
+ * frame, 1 for a block scope frame directly inside it, and so on) and its slot in that scope frame. Global variables are
+ * analysed over the whole program, in which an InvokeCommand is followed by the first command of the function it
+ * invokes, and the end of a function is followed by whatever follows every InvokeCommand that invokes it.
+ *
+ * The analysis is conservative: a variable is only considered dead if no path through the control flow graph reads it
+ * before assigning to it.
+ */
+public class LiveVariables {
+	
+	private static class CommandInfo {
+		
+		private final Command command;
+		
+		// the function this command belongs to (null for the program's top-level commands), and the number of block
+		// scope frames inside the function's scope frame while it's executed (-1 for top-level commands, which are
+		// executed with no function scope frame)
+		private final Function function;
+		private final int depth;
+		
+		// the local variables (see localKey()) and global variables (by slot) read and written by this command
+		private final BitSet readLocals = new BitSet();
+		private final BitSet writtenLocals = new BitSet();
+		private final BitSet readGlobals = new BitSet();
+		private final BitSet writtenGlobals = new BitSet();
+		
+		// the live local and global variables before this command is executed, and (for InvokeCommands) the live local
+		// variables after the invoked function returns
+		private final BitSet liveLocals = new BitSet();
+		private final BitSet liveLocalsOut = new BitSet();
+		private final BitSet liveGlobals = new BitSet();
+		
+		// liveLocals and liveLocalsOut as slots in each of this command's function and block scope frames, from the
+		// innermost one outwards (the same order as in VariableBindings.getScopeFrames())
+		private BitSet[] liveSlots;
+		private BitSet[] liveSlotsOut;
+		
+		private CommandInfo(Command command, Function function, int depth) {
+			this.command = command;
+			this.function = function;
+			this.depth = depth;
+		}
+		
+	}
+	
+	private static final BitSet NO_SLOTS = new BitSet();
+	
+	// indexed by command id
+	private CommandInfo[] commands;
+	private List<CommandInfo> commandList = new ArrayList<>();
+	
+	// the number of distinct slots a local variable at each level may occupy
+	private int slotsPerLevel = 1;
+	
+	// the live global variables after each function returns
+	private Map<Function, BitSet> liveGlobalsAfterReturn = new HashMap<>();
+	
+	public LiveVariables(Program program) {
+		for (Command c : program.getInitialCommands()) addCommand(c, null, -1);
+		for (Command c : program.getNewCommands()) addCommand(c, null, -1);
+		addCommand(program.getInitialInvokeCommand(), null, -1);
+		for (Function f : program.getFunctions()) {
+			addCommands(f, f, 0);
+			liveGlobalsAfterReturn.put(f, new BitSet());
+		}
+		
+		commands = new CommandInfo[commandList.stream().mapToInt(i -> i.command.getID()).max().getAsInt() + 1];
+		for (CommandInfo i : commandList) {
+			commands[i.command.getID()] = i;
+			addVariableReferences(i);
+		}
+		
+		computeLiveLocals();
+		computeLiveGlobals();
+		
+		for (CommandInfo i : commandList) {
+			i.liveSlots = toSlots(i.liveLocals, i.depth);
+			i.liveSlotsOut = toSlots(i.liveLocalsOut, i.depth);
+		}
+	}
+	
+	private void addCommands(Block block, Function function, int depth) {
+		for (Command c : block.getCommands()) {
+			addCommand(c, function, depth);
+			for (Block b : c.getBlocks()) addCommands(b, function, depth + 1);
+		}
+	}
+	
+	private void addCommand(Command command, Function function, int depth) {
+		commandList.add(new CommandInfo(command, function, depth));
+		
+		// the widest scope frame determines how many slots each level needs
+		List<VariableReference> references = new ArrayList<>();
+		command.collectReadVariableReferences(references);
+		if (command instanceof VariableAssignmentCommand) references.add(((VariableAssignmentCommand)command).getVariableReference());
+		for (VariableReference v : references) slotsPerLevel = Math.max(slotsPerLevel, v.getSlot() + 1);
+	}
+	
+	private void addVariableReferences(CommandInfo i) {
+		List<VariableReference> reads = new ArrayList<>();
+		i.command.collectReadVariableReferences(reads);
+		for (VariableReference v : reads) {
+			if (v.getScopeDepth() == VariableBindings.GLOBAL_SCOPE_DEPTH) {
+				i.readGlobals.set(v.getSlot());
+			} else {
+				i.readLocals.set(localKey(i.depth - v.getScopeDepth(), v.getSlot()));
+			}
+		}
+		
+		if (i.command instanceof VariableAssignmentCommand) {
+			VariableReference v = ((VariableAssignmentCommand)i.command).getVariableReference();
+			if (v.getScopeDepth() == VariableBindings.GLOBAL_SCOPE_DEPTH) {
+				i.writtenGlobals.set(v.getSlot());
+			} else {
+				i.writtenLocals.set(localKey(i.depth - v.getScopeDepth(), v.getSlot()));
+			}
+		}
+	}
+	
+	private int localKey(int level, int slot) {
+		return level * slotsPerLevel + slot;
+	}
+	
+	private CommandInfo info(Command c) {
+		return commands[c.getID()];
+	}
+	
+	// a backwards may-analysis over each function's commands, iterated (in reverse order, which roughly follows the
+	// control flow backwards) until nothing changes
+	private void computeLiveLocals() {
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int c = commandList.size() - 1; c >= 0; c--) {
+				CommandInfo i = commandList.get(c);
+				
+				BitSet out = new BitSet();
+				for (Command s : i.command.getSuccessors()) {
+					if (s != null) out.or(info(s).liveLocals);
+				}
+				i.liveLocalsOut.or(out);
+				
+				out.andNot(i.writtenLocals);
+				out.or(i.readLocals);
+				if (!isSubset(out, i.liveLocals)) {
+					i.liveLocals.or(out);
+					changed = true;
+				}
+			}
+		}
+	}
+	
+	// as computeLiveLocals(), but across function invocations: the live global variables after an InvokeCommand are
+	// those before the first command of the invoked function, and the live global variables after a function returns
+	// are those after every InvokeCommand that invokes it
+	private void computeLiveGlobals() {
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int c = commandList.size() - 1; c >= 0; c--) {
+				CommandInfo i = commandList.get(c);
+				
+				BitSet out = new BitSet();
+				if (i.command instanceof InvokeCommand) {
+					InvokeCommand invoke = (InvokeCommand)i.command;
+					out.or(info(invoke.getFunction().getFirstCommand()).liveGlobals);
+					
+					BitSet afterReturn = liveGlobalsAfterReturn.get(invoke.getFunction());
+					BitSet returnedTo = liveGlobalsAfter(i, invoke.getSuccessors().get(0));
+					if (!isSubset(returnedTo, afterReturn)) {
+						afterReturn.or(returnedTo);
+						changed = true;
+					}
+				} else {
+					for (Command s : i.command.getSuccessors()) out.or(liveGlobalsAfter(i, s));
+				}
+				
+				out.andNot(i.writtenGlobals);
+				out.or(i.readGlobals);
+				if (!isSubset(out, i.liveGlobals)) {
+					i.liveGlobals.or(out);
+					changed = true;
+				}
+			}
+		}
+	}
+	
+	// the live global variables before the given successor of the given command, or after the command's function
+	// returns if the successor is null (nothing is read after the program's initial function returns)
+	private BitSet liveGlobalsAfter(CommandInfo i, Command successor) {
+		if (successor != null) return info(successor).liveGlobals;
+		return i.function == null ? NO_SLOTS : liveGlobalsAfterReturn.get(i.function);
+	}
+	
+	private static boolean isSubset(BitSet a, BitSet b) {
+		BitSet d = (BitSet)a.clone();
+		d.andNot(b);
+		return d.isEmpty();
+	}
+	
+	private BitSet[] toSlots(BitSet locals, int depth) {
+		BitSet[] slots = new BitSet[depth + 1];
+		for (int j = 0; j < slots.length; j++) {
+			int level = depth - j;
+			slots[j] = locals.get(localKey(level, 0), localKey(level + 1, 0));
+		}
+		return slots;
+	}
+	
+	//==========================================================================
+	
+	/**
+	 * Returns the slots of the live variables in each of the given scope frames of the given context (which must be in
+	 * the order returned by VariableBindings.getScopeFrames()), or null if the scope frames don't have the structure
+	 * that the analysis expects at the context's executing command and invocation stack, in which case every variable
+	 * must be assumed to be live.
+	 */
+	BitSet[] liveSlots(ProgramExecutionContext context, VariableScopeFrame[] scopeFrames) {
+		BitSet[] liveSlots = new BitSet[scopeFrames.length];
+		int globalFrame = scopeFrames.length - 1;
+		
+		// nothing is read once the program has terminated
+		if (context.isTerminating()) {
+			if (globalFrame != 0) return null;
+			liveSlots[0] = NO_SLOTS;
+			return liveSlots;
+		}
+		
+		CommandInfo executing = infoOrNull(context.executingCommand);
+		if (executing == null) return null;
+		
+		// the innermost scope frames belong to the executing command's function, and the ones outside them belong to the
+		// functions suspended at each InvokeCommand on the invocation stack, from the top downwards
+		int frame = copySlots(executing.liveSlots, liveSlots, 0, scopeFrames);
+		for (InvokeCommand invoke : context.invocationStack) {
+			if (frame == -1) return null;
+			CommandInfo suspended = infoOrNull(invoke);
+			if (suspended == null) return null;
+			frame = copySlots(suspended.liveSlotsOut, liveSlots, frame, scopeFrames);
+		}
+		if (frame != globalFrame) return null;
+		
+		liveSlots[globalFrame] = executing.liveGlobals;
+		return liveSlots;
+	}
+	
+	private CommandInfo infoOrNull(Command c) {
+		int id = c.getID();
+		return id >= 0 && id < commands.length ? commands[id] : null;
+	}
+	
+	// copies one function's slots into liveSlots, beginning at the given scope frame, and returns the index of the scope
+	// frame after them, or -1 if the scope frames there aren't the function's block scope frames and function scope frame
+	private static int copySlots(BitSet[] functionSlots, BitSet[] liveSlots, int frame, VariableScopeFrame[] scopeFrames) {
+		if (frame + functionSlots.length > scopeFrames.length - 1) return -1;
+		for (int j = 0; j < functionSlots.length; j++) {
+			VariableScopeFrame.Type expectedType = j == functionSlots.length - 1 ? VariableScopeFrame.Type.FUNCTION : VariableScopeFrame.Type.BLOCK;
+			if (scopeFrames[frame + j].getType() != expectedType) return -1;
+			liveSlots[frame + j] = functionSlots[j];
+		}
+		return frame + functionSlots.length;
+	}
+	
+}
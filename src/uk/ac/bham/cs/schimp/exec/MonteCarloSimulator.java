@@ -0,0 +1,284 @@
+package uk.ac.bham.cs.schimp.exec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.apache.commons.math3.distribution.NormalDistribution;
+import org.apache.commons.math3.fraction.BigFraction;
+
+import uk.ac.bham.cs.schimp.lang.Program;
+
+/**
+ * Estimates the Bayes vulnerability of a schimp program's tracked initial variables (and the joint distribution of
+ * their values and the attacker's observations) by sampling complete executions of the program, rather than exploring
+ * its whole state space: each execution repeatedly chooses one of the ProgramExecutionContexts succeeding the current
+ * one at random (see Command.sample()). Executions are sampled concurrently, each thread with its own CachingSampler,
+ * whose SplittableRandom is split from one seeded generator, so the same seed and number of threads always give the
+ * same estimate; each CachingSampler caches the successors of the ProgramExecutionContexts it reaches, so executions
+ * that revisit them don't execute their commands again.
+ *
+ * Executions are sampled in rounds of increasing size until the vulnerability is known to within the requested
+ * precision with the requested confidence, or the maximum number of samples is reached. The bounds on the
+ * vulnerability V after n samples are both Hoeffding bounds, with half of the allowed error probability each:
+ * - the estimate (the fraction of samples in which the most frequent values of their class occurred) overestimates V
+ *   on average, so it's an upper bound once the Hoeffding margin is added to it
+ * - the attacker's guesses for each round are chosen from the samples of the rounds before it, so the fraction of
+ *   samples in which they were correct underestimates V on average (and is a martingale), so it's a lower bound once
+ *   the margin is subtracted from it
+ * The probability that the program terminates within the maximum number of steps is reported with a Wilson score
+ * interval; executions that don't terminate in time are counted as samples in which the attacker's guess was wrong.
+ */
+public class MonteCarloSimulator {
+	
+	// the samples of one round on one thread
+	private static class Tally {
+		
+		// keyed by the observations made and the elapsed time and power consumption (-1 if they aren't tracked), and then
+		// by the tracked initial variable values
+		private Map<List<Object>, Map<List<Integer>, long[]>> counts = new HashMap<>();
+		private long samples = 0;
+		private long correctGuesses = 0;
+		private long nonTerminating = 0;
+		
+		private void add(Tally t) {
+			for (Map.Entry<List<Object>, Map<List<Integer>, long[]>> c : t.counts.entrySet()) {
+				Map<List<Integer>, long[]> valueCounts = counts.computeIfAbsent(c.getKey(), k -> new HashMap<>());
+				for (Map.Entry<List<Integer>, long[]> e : c.getValue().entrySet()) {
+					valueCounts.computeIfAbsent(e.getKey(), k -> new long[1])[0] += e.getValue()[0];
+				}
+			}
+			samples += t.samples;
+			correctGuesses += t.correctGuesses;
+			nonTerminating += t.nonTerminating;
+		}
+		
+	}
+	
+	// the count for one class and combination of initial variable values in a Tally, and whether it's the round's guess
+	private static class Outcome {
+		
+		private final long[] count;
+		private final boolean correct;
+		
+		private Outcome(long[] count, boolean correct) {
+			this.count = count;
+			this.correct = correct;
+		}
+		
+	}
+	
+	private static final int INITIAL_ROUND_SIZE = 1 << 10;
+	private static final int MAXIMUM_ROUND_SIZE = 1 << 20;
+	
+	// the number of ProgramExecutionContexts whose successors each thread caches
+	private static final int CACHE_CAPACITY = 1 << 16;
+	
+	private PRISMModelGenerator schimpModelGenerator;
+	private Program program;
+	private int threads;
+	private int maxSteps;
+	private CachingSampler[] samplers;
+	
+	private Tally total = new Tally();
+	private double confidence;
+	private double lowerBound = 0;
+	private double upperBound = 1;
+	private long elapsedMillis = 0;
+	
+	public MonteCarloSimulator(PRISMModelGenerator schimpModelGenerator, int threads, long seed, int maxSteps) {
+		this.schimpModelGenerator = schimpModelGenerator;
+		this.threads = threads;
+		this.maxSteps = maxSteps;
+		program = schimpModelGenerator.getProgram();
+		
+		SplittableRandom random = new SplittableRandom(seed);
+		samplers = new CachingSampler[threads];
+		for (int i = 0; i < threads; i++) samplers[i] = new CachingSampler(random.split(), CACHE_CAPACITY);
+	}
+	
+	/**
+	 * Samples executions of the program until the vulnerability is known to within the given precision (i.e., the
+	 * confidence interval is no wider than twice the precision) with the given confidence, or until the given number of
+	 * executions have been sampled, and returns the estimated vulnerability.
+	 */
+	public BayesVulnerability run(double precision, double confidence, long maxSamples) throws ProgramExecutionException {
+		this.confidence = confidence;
+		long start = System.currentTimeMillis();
+		
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			int roundSize = INITIAL_ROUND_SIZE;
+			while (total.samples < maxSamples && upperBound - lowerBound > 2 * precision) {
+				Map<List<Object>, List<Integer>> guesses = chooseGuesses();
+				
+				// the round is divided between the threads as evenly as possible
+				long remaining = Math.min((long)roundSize * threads, maxSamples - total.samples);
+				List<Future<Tally>> tallies = new ArrayList<>();
+				for (int i = 0; i < threads; i++) {
+					CachingSampler sampler = samplers[i];
+					long samples = remaining / threads + (i < remaining % threads ? 1 : 0);
+					tallies.add(pool.submit(() -> sample(samples, sampler, guesses)));
+				}
+				for (Future<Tally> t : tallies) total.add(t.get());
+				
+				computeBounds();
+				roundSize = Math.min(roundSize * 2, MAXIMUM_ROUND_SIZE);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ProgramExecutionException("simulation was interrupted");
+		} catch (ExecutionException e) {
+			// exceptions thrown by worker threads may have been wrapped more than once on their way here
+			for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+				if (cause instanceof ProgramExecutionException) throw (ProgramExecutionException)cause;
+			}
+			throw new ProgramExecutionException(e.getCause().toString());
+		} finally {
+			pool.shutdown();
+		}
+		
+		elapsedMillis = System.currentTimeMillis() - start;
+		Map<List<Object>, Map<List<Integer>, BigFraction>> probabilities = new HashMap<>();
+		for (Map.Entry<List<Object>, Map<List<Integer>, long[]>> c : total.counts.entrySet()) {
+			Map<List<Integer>, BigFraction> valueProbabilities = probabilities.computeIfAbsent(c.getKey(), k -> new HashMap<>());
+			for (Map.Entry<List<Integer>, long[]> e : c.getValue().entrySet()) {
+				valueProbabilities.put(e.getKey(), new BigFraction(e.getValue()[0]).divide(total.samples));
+			}
+		}
+		return BayesVulnerability.fromSampledProbabilities(probabilities, schimpModelGenerator);
+	}
+	
+	// the most frequent initial variable values in each class sampled so far
+	private Map<List<Object>, List<Integer>> chooseGuesses() {
+		Map<List<Object>, List<Integer>> guesses = new HashMap<>();
+		for (Map.Entry<List<Object>, Map<List<Integer>, long[]>> c : total.counts.entrySet()) {
+			long bestCount = -1;
+			for (Map.Entry<List<Integer>, long[]> e : c.getValue().entrySet()) {
+				if (e.getValue()[0] > bestCount) {
+					bestCount = e.getValue()[0];
+					guesses.put(c.getKey(), e.getKey());
+				}
+			}
+		}
+		return guesses;
+	}
+	
+	// runs on a worker thread
+	private Tally sample(long samples, CachingSampler sampler, Map<List<Object>, List<Integer>> guesses) throws ProgramExecutionException {
+		Tally tally = new Tally();
+		tally.samples = samples;
+		
+		// executions ending in a terminating ProgramExecutionContext in the sampler's cache are only counted by its index
+		// while the round is sampled, and the outcome of each of those contexts is worked out once at the end of the round
+		long[] cachedCounts = new long[Math.max(1, sampler.getTerminatingContextCount())];
+		
+		for (long s = 0; s < samples; s++) {
+			ProgramExecutionContext context = sampler.sampleExecution(program, maxSteps);
+			if (context == null) {
+				tally.nonTerminating++;
+				continue;
+			}
+			
+			int index = sampler.getTerminatingIndex();
+			if (index >= 0) {
+				if (index >= cachedCounts.length) cachedCounts = Arrays.copyOf(cachedCounts, Math.max(index + 1, 2 * cachedCounts.length));
+				cachedCounts[index]++;
+				continue;
+			}
+			
+			Outcome outcome = outcome(context, tally, guesses);
+			outcome.count[0]++;
+			if (outcome.correct) tally.correctGuesses++;
+		}
+		
+		for (int i = 0; i < cachedCounts.length; i++) {
+			if (cachedCounts[i] == 0) continue;
+			Outcome outcome = outcome(sampler.getTerminatingContext(i), tally, guesses);
+			outcome.count[0] += cachedCounts[i];
+			if (outcome.correct) tally.correctGuesses += cachedCounts[i];
+		}
+		
+		return tally;
+	}
+	
+	private Outcome outcome(ProgramExecutionContext context, Tally tally, Map<List<Object>, List<Integer>> guesses) {
+		int initialVariableCount = schimpModelGenerator.stateInitialVariableNames().size();
+		List<Object> key = Arrays.asList(
+			context.observations,
+			schimpModelGenerator.stateHasTime() ? context.elapsedTime : -1,
+			schimpModelGenerator.stateHasPower() ? context.totalPowerConsumption : -1
+		);
+		List<Integer> values = new ArrayList<>(initialVariableCount);
+		for (int v = 0; v < initialVariableCount; v++) {
+			values.add(schimpModelGenerator.getInitialVariableValue(context, v));
+		}
+		
+		return new Outcome(
+			tally.counts.computeIfAbsent(key, k -> new HashMap<>()).computeIfAbsent(values, k -> new long[1]),
+			values.equals(guesses.get(key))
+		);
+	}
+	
+	private void computeBounds() {
+		long mostFrequent = 0;
+		for (Map<List<Integer>, long[]> valueCounts : total.counts.values()) {
+			long classMostFrequent = 0;
+			for (long[] count : valueCounts.values()) classMostFrequent = Math.max(classMostFrequent, count[0]);
+			mostFrequent += classMostFrequent;
+		}
+		
+		double n = total.samples;
+		double margin = Math.sqrt(Math.log(4 / (1 - confidence)) / (2 * n));
+		lowerBound = Math.max(0, total.correctGuesses / n - margin);
+		upperBound = Math.min(1, mostFrequent / n + margin);
+	}
+	
+	// the wilson score interval for a proportion of the given number of samples, at the given confidence
+	private static double[] wilsonInterval(long successes, long samples, double confidence) {
+		double z = new NormalDistribution().inverseCumulativeProbability(1 - (1 - confidence) / 2);
+		double n = samples;
+		double p = successes / n;
+		double centre = (p + z * z / (2 * n)) / (1 + z * z / n);
+		double margin = z / (1 + z * z / n) * Math.sqrt(p * (1 - p) / n + z * z / (4 * n * n));
+		return new double[] { Math.max(0, centre - margin), Math.min(1, centre + margin) };
+	}
+	
+	//==========================================================================
+	
+	public long getSamples() {
+		return total.samples;
+	}
+	
+	public double getLowerBound() {
+		return lowerBound;
+	}
+	
+	public double getUpperBound() {
+		return upperBound;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder();
+		s.append("Sampled " + total.samples + " executions in " + elapsedMillis + " ms");
+		if (elapsedMillis > 0) s.append(" (" + Math.round(total.samples * 1000.0 / elapsedMillis) + " per second)");
+		s.append("\n");
+		s.append("Observation classes sampled: " + total.counts.size() + "\n");
+		
+		double[] termination = wilsonInterval(total.samples - total.nonTerminating, total.samples, confidence);
+		s.append(
+			"Termination within " + maxSteps + " steps: " + (double)(total.samples - total.nonTerminating) / total.samples +
+			" (" + confidence * 100 + "% confidence interval [" + termination[0] + ", " + termination[1] + "])\n"
+		);
+		s.append("Vulnerability " + confidence * 100 + "% confidence interval: [" + lowerBound + ", " + upperBound + "]\n");
+		return s.toString();
+	}
+	
+}
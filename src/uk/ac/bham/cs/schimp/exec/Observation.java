@@ -0,0 +1,135 @@
+package uk.ac.bham.cs.schimp.exec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import uk.ac.bham.cs.schimp.lang.expression.arith.ArithmeticConstant;
+
+/**
+ * The observation made at one time point of a schimp program's execution: the total power consumption observed at that
+ * time point, and the values output at it. Each observation is linked to the observation made at the previous time
+ * point (or null, if there was none), so an observation also represents the whole history of observations made up to
+ * and including its time point.
+ *
+ * Observations are immutable, so histories are shared between ProgramExecutionContexts rather than copied, and making a
+ * new observation only creates one new Observation object. Two Observations are equal if their histories are equal.
+ */
+public class Observation {
+	
+	final Observation previous;
+	final int time;
+	final int power;
+	final ArithmeticConstant[] outputs;
+	
+	// the running fingerprint of the outputs made at this time point, and the fingerprint of the whole history
+	private final long outputsFingerprint;
+	final long fingerprint;
+	
+	// the id of this observation in the ObservationTrie that interned it, or 0 if it hasn't been interned
+	final int id;
+	
+	Observation(Observation previous, int time, int power) {
+		this(previous, time, power, new ArithmeticConstant[0], 0, 0);
+	}
+	
+	Observation(Observation previous, int time, int power, ArithmeticConstant[] outputs, long outputsFingerprint, int id) {
+		this.previous = previous;
+		this.time = time;
+		this.power = power;
+		this.outputs = outputs;
+		this.outputsFingerprint = outputsFingerprint;
+		this.id = id;
+		fingerprint = Fingerprint.combine(
+			previous == null ? 0 : previous.fingerprint,
+			Fingerprint.combine(Fingerprint.combine(time, power), outputsFingerprint)
+		);
+	}
+	
+	// returns a copy of this observation with a different observed power consumption
+	Observation withPower(int power) {
+		return new Observation(previous, time, power, outputs, outputsFingerprint, 0);
+	}
+	
+	// returns a copy of this observation with the given values appended to its outputs
+	Observation withOutputs(List<ArithmeticConstant> outputs) {
+		ArithmeticConstant[] extendedOutputs = Arrays.copyOf(this.outputs, this.outputs.length + outputs.size());
+		long extendedOutputsFingerprint = outputsFingerprint;
+		for (int i = 0; i < outputs.size(); i++) {
+			extendedOutputs[this.outputs.length + i] = outputs.get(i);
+			extendedOutputsFingerprint = Fingerprint.combine(extendedOutputsFingerprint, outputs.get(i).fingerprint());
+		}
+		return new Observation(previous, time, power, extendedOutputs, extendedOutputsFingerprint, 0);
+	}
+	
+	// returns the given history of observations followed by this history (which must begin at time 0 with no power
+	// consumed) offset by the given time and power consumption, as if the observations in this history had been made
+	// after the given ones; an observation made at the same time point as the given history's latest one is combined
+	// with it
+	Observation appendTo(Observation history, int time, int power) {
+		List<Observation> observations = new ArrayList<>();
+		for (Observation o = this; o != null; o = o.previous) {
+			observations.add(o);
+		}
+		
+		Observation appended = history;
+		for (int i = observations.size() - 1; i >= 0; i--) {
+			Observation o = observations.get(i);
+			appended = appended != null && appended.time == o.time + time ?
+				appended.withPower(o.power + power) :
+				new Observation(appended, o.time + time, o.power + power);
+			appended = appended.withOutputs(Arrays.asList(o.outputs));
+		}
+		return appended;
+	}
+	
+	// returns a copy of this observation linked to the given (equal) history of previous observations, for interning
+	Observation withPrevious(Observation previous, int id) {
+		return new Observation(previous, time, power, outputs, outputsFingerprint, id);
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof Observation)) return false;
+		
+		// histories frequently share their earlier observations, so the comparison stops as soon as they converge
+		Observation o1 = this;
+		Observation o2 = (Observation)o;
+		while (o1 != o2) {
+			if (o1 == null || o2 == null) return false;
+			if (o1.fingerprint != o2.fingerprint) return false;
+			if (o1.time != o2.time || o1.power != o2.power || !Arrays.equals(o1.outputs, o2.outputs)) return false;
+			o1 = o1.previous;
+			o2 = o2.previous;
+		}
+		return true;
+	}
+	
+	@Override
+	public int hashCode() {
+		return Fingerprint.toHashCode(fingerprint);
+	}
+	
+	/**
+	 * Returns a string representation of the whole history of observations, from the earliest time point to this one.
+	 */
+	@Override
+	public String toString() {
+		List<Observation> history = new ArrayList<>();
+		for (Observation o = this; o != null; o = o.previous) {
+			history.add(o);
+		}
+		
+		StringBuilder s = new StringBuilder();
+		for (int i = history.size() - 1; i >= 0; i--) {
+			Observation o = history.get(i);
+			s.append(o.time + "=[p=" + o.power + ",o=<");
+			s.append(Arrays.stream(o.outputs).map(ac -> ac.toSourceString()).collect(Collectors.joining(",")));
+			s.append(">]");
+			if (i != 0) s.append(",");
+		}
+		return s.toString();
+	}
+	
+}
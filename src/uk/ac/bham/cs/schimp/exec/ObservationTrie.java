@@ -0,0 +1,78 @@
+package uk.ac.bham.cs.schimp.exec;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Interns histories of Observations into a trie, in which each node is an observation made at one time point whose
+ * parent is the history of observations made before it. Each node is assigned an id (beginning at 1, in the order in
+ * which the nodes were interned); the empty history has id 0.
+ *
+ * Equal histories are always interned as the same node, so two histories are equal if and only if their ids are.
+ *
+ * Histories may be interned by several threads at once, and concurrently with nodes being retrieved by id.
+ */
+public class ObservationTrie {
+	
+	// the interned nodes, each mapped to itself, and indexed by id - 1 (nodesByID is replaced rather than modified when
+	// it's full, so that threads retrieving nodes never see it half-copied); both are only modified while holding the
+	// trie's lock
+	private Map<Observation, Observation> nodes = new HashMap<>();
+	private volatile Observation[] nodesByID = new Observation[16];
+	private int size = 0;
+	
+	/**
+	 * Returns the node representing the given history of observations, adding it (and any of the earlier observations
+	 * in it that aren't already in the trie) if necessary.
+	 */
+	public Observation intern(Observation observation) {
+		// observations that were previously interned don't need to be looked up again (or locked)
+		if (observation == null || observation.id != 0) return observation;
+		synchronized (this) {
+			return internUninterned(observation);
+		}
+	}
+	
+	private Observation internUninterned(Observation observation) {
+		// an observation's history can only be interned once all of the observations before it have been
+		if (observation == null || observation.id != 0) return observation;
+		Observation previous = internUninterned(observation.previous);
+		
+		// nodes are compared by the previous observations they're linked to (which are now interned) before anything
+		// else, so looking a node up only compares the most recent observation in the history
+		Observation node = observation.previous == previous ? observation : observation.withPrevious(previous, 0);
+		Observation internedNode = nodes.get(node);
+		if (internedNode == null) {
+			internedNode = node.withPrevious(previous, size + 1);
+			nodes.put(internedNode, internedNode);
+			if (size == nodesByID.length) nodesByID = Arrays.copyOf(nodesByID, size * 2);
+			nodesByID[size++] = internedNode;
+		}
+		return internedNode;
+	}
+	
+	/**
+	 * Returns the id of the node representing the given history of observations, adding it to the trie if necessary.
+	 */
+	public int getID(Observation observation) {
+		Observation node = intern(observation);
+		return node == null ? 0 : node.id;
+	}
+	
+	/**
+	 * Returns the node with the given id (or null for the empty history), which must have been interned by this thread,
+	 * or before something that this thread has synchronized with (e.g., storing a context that it retrieves).
+	 */
+	public Observation get(int id) {
+		return id == 0 ? null : nodesByID[id - 1];
+	}
+	
+	/**
+	 * Returns the number of nodes in the trie (excluding the empty history).
+	 */
+	public synchronized int size() {
+		return size;
+	}
+	
+}
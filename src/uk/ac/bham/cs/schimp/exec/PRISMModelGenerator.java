@@ -1,13 +1,18 @@
 package uk.ac.bham.cs.schimp.exec;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 
+import org.apache.commons.math3.fraction.BigFraction;
+
 import parser.State;
 import parser.Values;
 import parser.VarList;
@@ -20,8 +25,11 @@ import prism.ModelGenerator;
 import prism.ModelType;
 import prism.PrismException;
 import prism.PrismLangException;
+import uk.ac.bham.cs.schimp.DoubleProbabilityMassFunction;
 import uk.ac.bham.cs.schimp.ProbabilityMassFunction;
 import uk.ac.bham.cs.schimp.lang.Program;
+import uk.ac.bham.cs.schimp.lang.command.InitialCommand;
+import uk.ac.bham.cs.schimp.lang.expression.arith.ArithmeticConstant;
 
 public class PRISMModelGenerator implements ModelGenerator {
 	
@@ -39,19 +47,53 @@ public class PRISMModelGenerator implements ModelGenerator {
 	private List<String> stateInitialVars;
 	private int stateInitialVarsOffset = 2;
 	
+	// the slots allocated to the initial variables whose values should be tracked in prism State objects (in the same
+	// order as stateInitialVars), or -1 for any names that aren't initial variables in the schimp program
+	private int[] stateInitialVarSlots;
+	
+	// the combinations of values of the initial variables tracked in prism State objects, built when first needed
+	private VariableValueCartesianProduct stateInitialVarValueProduct;
+	
 	// if set to true, deterministic transitions between states are not represented in the generated model
 	private boolean collapseDeterministicTransitions;
 	
-	// a map from ids to unique schimp ProgramExecutionContext objects
-	private Map<Integer, ProgramExecutionContext> schimpExecutionContexts = new HashMap<>();
-	private int lastContextID = 0;
-	// a reverse map for schimpExecutionContexts, but based on (much shorter) hashes of ProgramExecutionContext strings
+	// the unique schimp ProgramExecutionContexts discovered so far, stored in a compact encoding and identified by ids
+	// beginning at 1; ProgramExecutionContexts are deduplicated based on their structural equality
+	private ProgramExecutionContextStore schimpExecutionContexts;
+	// if set to true, ProgramExecutionContexts are instead deduplicated based on (much shorter) hashes of their strings;
+	// this is far slower, and is only useful for debugging the structural equality of ProgramExecutionContext objects
+	private boolean debugContextHashes;
 	private Map<String, Integer> schimpExecutionContextHashes = new HashMap<>();
 	
-	// a map from unique (stringified) schimp program observations to ids, and another map for the reverse
-	private Map<String, Integer> schimpExecutionContextObservationsIDs = new HashMap<>();
-	private Map<Integer, String> schimpExecutionContextObservations = new HashMap<>();
-	private int lastObservationsID = 0;
+	// the number of threads to explore the state space with; if more than one thread is used, the whole state space is
+	// explored by a ParallelStateSpaceExplorer as soon as prism asks for the initial state, and each call to
+	// exploreState() just looks up the result
+	private int threads;
+	private ParallelStateSpaceExplorer parallelExplorer = null;
+	
+	// if set to true, buildExplicitModel() performs a sweep-line exploration (see buildExplicitModelSweepLine()), after
+	// which schimpExecutionContexts only holds terminating ProgramExecutionContexts, and sweepLineTerminalContextIDs maps
+	// the ids of their states' ProgramExecutionContexts to their ids in schimpExecutionContexts
+	private boolean sweepLine;
+	private Map<Integer, Integer> sweepLineTerminalContextIDs = new HashMap<>();
+	
+	// if non-null, function invocations are executed using (and recorded in) these summaries
+	private FunctionSummaries functionSummaries;
+	
+	// if greater than 0, buildExplicitModel() diverts each transition into an undiscovered ProgramExecutionContext that
+	// would carry less than this much probability mass into a sink state, instead of exploring it (see
+	// ExplicitSCHIMPModel.getSinkState()); prunedTransitions is the number of transitions diverted
+	private double pruningThreshold;
+	private int prunedTransitions = 0;
+	
+	// if set to true, buildExplicitModel() builds a model whose transition probabilities are doubles, merging the
+	// probabilities of ProgramExecutionContexts with the same id in floating-point arithmetic, so that its termination
+	// probabilities are computed in floating-point arithmetic too (see ExplicitSCHIMPModel)
+	private boolean floatingPoint;
+	
+	// if set to true, probability mass is propagated around the model's cycles iteratively (see AbsorptionProbabilities)
+	private boolean iterateCycles;
+	
 	
 	// the prism State object that is currently being explored
 	private State exploringState;
@@ -74,10 +116,116 @@ public class PRISMModelGenerator implements ModelGenerator {
 	
 	//==========================================================================
 	
+	/**
+	 * Options controlling how a PRISMModelGenerator explores a schimp program's state space, and how buildExplicitModel()
+	 * builds the model of its execution. Each option is set by a method of the same name, which returns the options so
+	 * that calls can be chained; an option that isn't set keeps its default, which leaves the corresponding feature off
+	 * (apart from reduceDeadVariables, which is on by default).
+	 */
+	public static class ExplorationOptions {
+		
+		private boolean debugContextHashes = false;
+		private int threads = 1;
+		private File contextStoreDirectory = null;
+		private boolean sweepLine = false;
+		private boolean reduceDeadVariables = true;
+		private boolean summariseFunctions = false;
+		private double pruningThreshold = 0;
+		private boolean floatingPoint = false;
+		private boolean iterateCycles = false;
+		
+		// deduplicate ProgramExecutionContexts by hashes of their strings rather than by their structure (forcing
+		// sequential exploration)
+		public ExplorationOptions debugContextHashes(boolean debugContextHashes) {
+			this.debugContextHashes = debugContextHashes;
+			return this;
+		}
+		
+		public ExplorationOptions threads(int threads) {
+			this.threads = threads;
+			return this;
+		}
+		
+		// if non-null, explored ProgramExecutionContexts are stored off the heap, in memory-mapped files in this directory
+		public ExplorationOptions contextStoreDirectory(File contextStoreDirectory) {
+			this.contextStoreDirectory = contextStoreDirectory;
+			return this;
+		}
+		
+		// only affects buildExplicitModel(), and is exclusive of debugContextHashes, more than one thread and pruning
+		public ExplorationOptions sweepLine(boolean sweepLine) {
+			this.sweepLine = sweepLine;
+			return this;
+		}
+		
+		// merge ProgramExecutionContexts that only differ in the values of variables that will never be read again into
+		// one state (see LiveVariables); the variables that are dead in a state are 0 in the ProgramExecutionContext
+		// returned for it by getSCHIMPExecutionContext() (and so in anything displaying it), whatever values they had in
+		// the contexts merged into it
+		public ExplorationOptions reduceDeadVariables(boolean reduceDeadVariables) {
+			this.reduceDeadVariables = reduceDeadVariables;
+			return this;
+		}
+		
+		// return from function invocations in a single transition wherever possible (see FunctionSummaries)
+		public ExplorationOptions summariseFunctions(boolean summariseFunctions) {
+			this.summariseFunctions = summariseFunctions;
+			return this;
+		}
+		
+		// if greater than 0, buildExplicitModel() prunes transitions carrying less probability mass than this (forcing
+		// sequential exploration)
+		public ExplorationOptions pruningThreshold(double pruningThreshold) {
+			this.pruningThreshold = pruningThreshold;
+			return this;
+		}
+		
+		// build a model with floating-point transition probabilities (see ExplicitSCHIMPModel)
+		public ExplorationOptions floatingPoint(boolean floatingPoint) {
+			this.floatingPoint = floatingPoint;
+			return this;
+		}
+		
+		// compute the probabilities of the program terminating in each state by propagating probability mass around the
+		// model's cycles iteratively, rather than by solving for it directly (see AbsorptionProbabilities)
+		public ExplorationOptions iterateCycles(boolean iterateCycles) {
+			this.iterateCycles = iterateCycles;
+			return this;
+		}
+		
+	}
+	
 	public PRISMModelGenerator(Program program, boolean stateTime, boolean statePower, List<String> stateInitialVars, boolean collapseDeterministicTransitions) {
+		this(program, stateTime, statePower, stateInitialVars, collapseDeterministicTransitions, new ExplorationOptions());
+	}
+	
+	public PRISMModelGenerator(Program program, boolean stateTime, boolean statePower, List<String> stateInitialVars, boolean collapseDeterministicTransitions, ExplorationOptions options) {
 		this.program = program;
 		this.stateInitialVars = stateInitialVars;
 		this.collapseDeterministicTransitions = collapseDeterministicTransitions;
+		this.debugContextHashes = options.debugContextHashes;
+		// the parallel explorer always deduplicates ProgramExecutionContexts by their structure, so debugging context
+		// hashes forces sequential exploration; so does pruning, which depends on the order in which states are explored
+		this.threads = options.debugContextHashes || options.pruningThreshold > 0 ? 1 : options.threads;
+		this.sweepLine = options.sweepLine;
+		this.pruningThreshold = options.pruningThreshold;
+		this.floatingPoint = options.floatingPoint;
+		this.iterateCycles = options.iterateCycles;
+		
+		functionSummaries = options.summariseFunctions ? new FunctionSummaries(program) : null;
+		
+		LiveVariables liveVariables = options.reduceDeadVariables ? new LiveVariables(program) : null;
+		schimpExecutionContexts = options.contextStoreDirectory == null ?
+			new ProgramExecutionContextStore(program, liveVariables) :
+			new ProgramExecutionContextStore(program, options.contextStoreDirectory, liveVariables);
+		
+		stateInitialVarSlots = stateInitialVars.stream()
+			.mapToInt(v -> program.getInitialCommands().stream()
+				.filter(c -> c.getVariableReference().getName().equals(v))
+				.mapToInt(c -> c.getVariableReference().getSlot())
+				.findFirst()
+				.orElse(-1))
+			.toArray();
 		
 		// the variables defined in each prism State object are:
 		int varIndex = 1; // 0 = "_cid", 1 = "_oid"; always present
@@ -137,14 +285,46 @@ public class PRISMModelGenerator implements ModelGenerator {
 		return stateInitialVars;
 	}
 	
+	public int getStateInitialVariablesOffset() {
+		return stateInitialVarsOffset;
+	}
+	
+	// the combinations of values that the program's initial commands can give the initial variables tracked in prism
+	// State objects (i.e., the attacker's possible guesses)
+	synchronized VariableValueCartesianProduct getStateInitialVariableValueProduct() {
+		if (stateInitialVarValueProduct == null) {
+			stateInitialVarValueProduct = new VariableValueCartesianProduct(
+				program.getInitialCommands().stream()
+					.filter(c -> stateInitialVars.indexOf(c.getVariableReference().getName()) != -1)
+					.collect(Collectors.toList())
+			);
+		}
+		return stateInitialVarValueProduct;
+	}
+	
+	// after a sweep-line exploration, only terminating ProgramExecutionContexts are available (null is returned for any
+	// others); unless dead variables were kept (see ExplorationOptions.reduceDeadVariables()), the variables that are
+	// dead in the returned ProgramExecutionContext are 0
 	public ProgramExecutionContext getSCHIMPExecutionContext(int i) {
+		if (sweepLine) {
+			Integer terminalContextID = sweepLineTerminalContextIDs.get(i);
+			return terminalContextID == null ? null : schimpExecutionContexts.get(terminalContextID);
+		}
 		return schimpExecutionContexts.get(i);
 	}
 	
+	boolean iteratesCycles() {
+		return iterateCycles;
+	}
+	
 	public int getMaximumTimeStep() {
 		return maximumTimeStep;
 	}
 	
+	public int getPrunedTransitions() {
+		return prunedTransitions;
+	}
+	
 	//==========================================================================
 	// the execution of schimp programs is modelled as a discrete-time markov chain
 	
@@ -155,10 +335,10 @@ public class PRISMModelGenerator implements ModelGenerator {
 	
 	//==========================================================================
 	// the prism State object representing a schimp program execution contains the following variables (all integers):
-	// - "_cid": a unique id that maps to a ProgramExecutionContext object (stored in schimpExecutionContexts)
+	// - "_cid": a unique id that maps to a ProgramExecutionContext (stored in schimpExecutionContexts)
 	//           describing the state of the schimp program in more detail
-	// - "_oid": a unique id representing (stringified) observations (stored in schimpExecutionContextObservations)
-	//           that the schimp program has produced so far
+	// - "_oid": a unique id representing the observations that the schimp program has produced so far (the id of their
+	//           node in the ObservationTrie of schimpExecutionContexts)
 	// - "_time": the cumulative elapsed time of the schimp program (if stateTime is true)
 	// - "_power": the cumulative power consumption of the schimp program (if statePower is true)
 	// - "i1".."in": one variable representing the value of each initial variable declared in the schimp program whose
@@ -268,11 +448,25 @@ public class PRISMModelGenerator implements ModelGenerator {
 	
 	@Override
 	public State getInitialState() throws PrismException {
-		// this method is expected to return a fresh copy of the initial state, so create a new ProgramExecutionContext
-		// object to tie to the prism State object
-		int initialContextID = getProgramExecutionContextID(ProgramExecutionContext.initialContext(program));
+		int initialContextID = getInitialContextID();
 		stateTimeSteps.put(initialContextID, 1);
-		return createStateFromProgramExecutionContextID(initialContextID);
+		return createStateFromProgramExecutionContext(initialContextID, schimpExecutionContexts.get(initialContextID));
+	}
+	
+	private int getInitialContextID() throws PrismException {
+		if (threads > 1) {
+			// explore the whole state space up front; the ids assigned by the parallel explorer are the ones that
+			// sequential exploration would have assigned, and the initial ProgramExecutionContext's id is always 1
+			if (parallelExplorer == null) {
+				parallelExplorer = new ParallelStateSpaceExplorer(this::succeedingContexts, threads, schimpExecutionContexts);
+				parallelExplorer.explore(ProgramExecutionContext.initialContext(program));
+			}
+			return 1;
+		} else {
+			// the initial state is expected to be a fresh copy, so create a new ProgramExecutionContext object to tie to
+			// it
+			return getProgramExecutionContextID(ProgramExecutionContext.initialContext(program));
+		}
 	}
 	
 	@Override
@@ -295,57 +489,10 @@ public class PRISMModelGenerator implements ModelGenerator {
 			succeedingStates = new State[] { new State(exploreState) };
 			succeedingStateProbabilities = new double[] { 1 };
 		} else {
-			// discover the probability distribution over the ProgramExecutionContexts succeeding this one - this process
-			// differs depending on whether we need to collapse deterministic transitions between ProgramExecutionContexts:
-			ProbabilityMassFunction<ProgramExecutionContext> succeedingContexts;
-			// - if we need to collapse deterministic transitions, discover the succeeding ProgramExecutionContexts by
-			//   executing the commands in as many deterministic succeeding ProgramExecutionContexts as possible, or until a
-			//   terminating ProgramExecutionContext is reached
-			if (collapseDeterministicTransitions) {
-				//int advancedStates = 0;
-				succeedingContexts = new ProbabilityMassFunction<>();
-				succeedingContexts.add(exploringContext, 1);
-				
-				while (succeedingContexts.elements().size() == 1) {
-					ProgramExecutionContext c = succeedingContexts.elements().toArray(new ProgramExecutionContext[1])[0];
-					if (c.isTerminating()) break;
-					
-					//System.out.println("executing: " + c.executingCommand.toString());
-					try {
-						succeedingContexts = c.executingCommand.execute(c);
-					} catch (ProgramExecutionException e) {
-						// TODO: wrap this properly
-						e.printStackTrace(System.err);
-						throw new PrismException(e.getMessage());
-					}
-					//System.out.println("succeeding states:");
-					//System.out.println(succeedingContexts.toString());
-					
-					//advancedStates++;
-				}
-				
-				//System.out.println(exploringStateID + ": advanced " + advancedStates + " state(s)");
-				//System.out.println(exploringStateID + ": succeeding states:");
-				//System.out.println(succeedingContexts.toString());
-			// - if we don't need to collapse deterministic transitions, discover the succeeding ProgramExecutionContexts by
-			//   executing the next command in the current ProgramExecutionContext
-			} else {
-				try {
-					succeedingContexts = exploringContext.executingCommand.execute(exploringContext);
-				} catch (ProgramExecutionException e) {
-					// TODO: wrap this properly
-					e.printStackTrace(System.err);
-					throw new PrismException(e.getMessage());
-				}
-				
-				// now that this State has been explored and its succeeding states can be mapped, its corresponding
-				// ProgramExecutionContext object isn't needed any more - remove it from schimpExecutionContexts to free up
-				// some memory
-				//schimpExecutionContexts.remove(exploringStateID);
-			}
+			ProbabilityMassFunction<Integer> succeedingContextIDs = getSucceedingContextIDs(exploringContextID, exploringContext);
 			
 			// create a State from each succeeding ProgramExecutionContext
-			int succeedingContextTotal = succeedingContexts.elements().size();
+			int succeedingContextTotal = succeedingContextIDs.elements().size();
 			succeedingStates = new State[succeedingContextTotal];
 			succeedingStateProbabilities = new double[succeedingContextTotal];
 			
@@ -354,11 +501,11 @@ public class PRISMModelGenerator implements ModelGenerator {
 			if (succeedingStateTimeStep > maximumTimeStep) maximumTimeStep = succeedingStateTimeStep;
 			
 			int index = 0;
-			for (ProgramExecutionContext c : succeedingContexts.elements()) {
-				int succeedingContextID = getProgramExecutionContextID(c);
+			for (int succeedingContextID : succeedingContextIDs.elements()) {
+				ProgramExecutionContext c = schimpExecutionContexts.get(succeedingContextID);
 				
-				succeedingStates[index] = createStateFromProgramExecutionContextID(succeedingContextID);
-				succeedingStateProbabilities[index] = succeedingContexts.probabilityOf(c).doubleValue();
+				succeedingStates[index] = createStateFromProgramExecutionContext(succeedingContextID, c);
+				succeedingStateProbabilities[index] = succeedingContextIDs.probabilityOf(succeedingContextID).doubleValue();
 				
 				stateTimeSteps.put(succeedingContextID, succeedingStateTimeStep);
 				
@@ -373,59 +520,177 @@ public class PRISMModelGenerator implements ModelGenerator {
 		}
 	}
 	
-	private State createStateFromProgramExecutionContextID(int contextID) {
-		ProgramExecutionContext context = schimpExecutionContexts.get(contextID);
+	// returns the ids of the ProgramExecutionContexts succeeding the given non-terminating one, either from the state
+	// space that has already been explored in parallel or by executing the program now
+	private ProbabilityMassFunction<Integer> getSucceedingContextIDs(int contextID, ProgramExecutionContext context) throws PrismException {
+		if (parallelExplorer != null) return parallelExplorer.getSucceedingContextIDs(contextID);
 		
+		ProbabilityMassFunction<ProgramExecutionContext> succeedingContexts = succeedingContexts(context);
+		ProbabilityMassFunction<Integer> succeedingContextIDs = new ProbabilityMassFunction<>();
+		for (ProgramExecutionContext c : succeedingContexts.elements()) {
+			succeedingContextIDs.add(getProgramExecutionContextID(c), succeedingContexts.probabilityOf(c));
+		}
+		return succeedingContextIDs;
+	}
+	
+	// as getSucceedingContextIDs(), but the probabilities of succeeding ProgramExecutionContexts with the same id are
+	// accumulated in floating-point arithmetic
+	private DoubleProbabilityMassFunction<Integer> getApproximateSucceedingContextIDs(int contextID, ProgramExecutionContext context) throws PrismException {
+		if (parallelExplorer != null) {
+			return DoubleProbabilityMassFunction.fromProbabilityMassFunction(parallelExplorer.getSucceedingContextIDs(contextID));
+		}
+		
+		ProbabilityMassFunction<ProgramExecutionContext> succeedingContexts = succeedingContexts(context);
+		DoubleProbabilityMassFunction<Integer> succeedingContextIDs = new DoubleProbabilityMassFunction<>();
+		for (ProgramExecutionContext c : succeedingContexts.elements()) {
+			succeedingContextIDs.add(getProgramExecutionContextID(c), succeedingContexts.probabilityOf(c));
+		}
+		return succeedingContextIDs;
+	}
+	
+	// returns the probability distribution over the ProgramExecutionContexts succeeding the given non-terminating one;
+	// this is called concurrently by the parallel explorer, so it must not modify any of this model generator's state
+	private ProbabilityMassFunction<ProgramExecutionContext> succeedingContexts(ProgramExecutionContext context) throws PrismException {
+		// discover the probability distribution over the ProgramExecutionContexts succeeding the given one by executing
+		// its next command
+		ProbabilityMassFunction<ProgramExecutionContext> succeedingContexts = executeCommand(context);
+		
+		// if we need to collapse deterministic transitions, advance each succeeding ProgramExecutionContext through as
+		// many deterministic succeeding ProgramExecutionContexts as possible, or until a terminating
+		// ProgramExecutionContext is reached; different branches may converge on structurally equal
+		// ProgramExecutionContexts while doing so (e.g., if they only differed in the value of a variable that has
+		// since been overwritten), in which case they are merged - and if every branch converges on the same
+		// non-terminating ProgramExecutionContext, the transition into it was deterministic after all, so execution
+		// continues from there
+		if (collapseDeterministicTransitions) {
+			while (true) {
+				ProbabilityMassFunction<ProgramExecutionContext> advancedContexts = new ProbabilityMassFunction<>();
+				for (ProgramExecutionContext c : succeedingContexts.elements()) {
+					advancedContexts.add(advanceDeterministicTransitions(c), succeedingContexts.probabilityOf(c));
+				}
+				succeedingContexts = advancedContexts;
+				
+				if (succeedingContexts.elements().size() > 1) break;
+				ProgramExecutionContext c = succeedingContexts.elements().iterator().next();
+				if (c.isTerminating()) break;
+				succeedingContexts = executeCommand(c);
+			}
+		}
+		
+		return succeedingContexts;
+	}
+	
+	private ProbabilityMassFunction<ProgramExecutionContext> executeCommand(ProgramExecutionContext context) throws PrismException {
+		try {
+			return functionSummaries != null ?
+				functionSummaries.execute(context) :
+				context.executingCommand.execute(context);
+		} catch (ProgramExecutionException e) {
+			// TODO: wrap this properly
+			e.printStackTrace(System.err);
+			throw new PrismException(e.getMessage());
+		}
+	}
+	
+	// executes commands starting from the given ProgramExecutionContext for as long as each command has exactly one
+	// succeeding ProgramExecutionContext, and returns the last ProgramExecutionContext reached (which is either
+	// terminating or about to execute a command with more than one succeeding ProgramExecutionContext)
+	private ProgramExecutionContext advanceDeterministicTransitions(ProgramExecutionContext context) throws PrismException {
+		while (!context.isTerminating()) {
+			ProbabilityMassFunction<ProgramExecutionContext> succeedingContexts = executeCommand(context);
+			if (succeedingContexts.elements().size() != 1) break;
+			context = succeedingContexts.elements().iterator().next();
+		}
+		return context;
+	}
+	
+	private State createStateFromProgramExecutionContext(int contextID, ProgramExecutionContext context) {
 		State state = new State(prismVarTypes.size());
 		int nextIndex = 0;
 		
 		// - "[cid]"
 		state.setValue(nextIndex++, contextID);
 		// - "[oid]"
-		state.setValue(nextIndex++, getObservationsID(context.observationsToString()));
+		state.setValue(nextIndex++, getObservationsID(context));
 		// - "[time]" (if stateTime is true)
 		if (stateTimeIndex != -1) state.setValue(nextIndex++, context.elapsedTime);
 		// - "[power]" (if statePower is true)
 		if (statePowerIndex != -1) state.setValue(nextIndex++, context.totalPowerConsumption);
 		// - "i1".."in"
-		for (int i = nextIndex; i < prismVarNames.size(); i++) {
-			try {
-				state.setValue(i, context.initialVariableBindings.evaluate(prismVarNames.get(i)).toFraction().intValue());
-			} catch (ProgramExecutionException e) {
-				// evaluate() throws a ProgramExecutionException if the given string is not a defined variable name - in
-				// this case, set the value of this variable to Integer.MIN_VALUE, indicating that the variable is
-				// undefined at this point
-				state.setValue(i, Integer.MIN_VALUE);
-			}
+		for (int i = 0; i < stateInitialVarSlots.length; i++) {
+			state.setValue(nextIndex + i, getInitialVariableValue(context, i));
 		}
 		
 		return state;
 	}
 	
-	private int getProgramExecutionContextID(ProgramExecutionContext context) {
-		String contextHash = context.toHash();
+	int getInitialVariableValue(ProgramExecutionContext context, int i) {
+		// if the initial variable is undefined at this point, its value is Integer.MIN_VALUE
+		ArithmeticConstant value = stateInitialVarSlots[i] == -1 ? null : context.initialVariableBindings.evaluate(stateInitialVarSlots[i]);
+		return value == null ? Integer.MIN_VALUE : value.intValue();
+	}
+	
+	// returns the joint distribution of the tracked initial variables' values (in the order in which they're tracked) once
+	// the program's initial commands have been executed, which is the attacker's prior distribution; it's computed
+	// without exploring the rest of the program, so it's exact however much of the state space is later pruned
+	Map<List<Integer>, BigFraction> computeInitialVariableDistribution() {
+		ProbabilityMassFunction<ProgramExecutionContext> contexts = new ProbabilityMassFunction<>();
+		contexts.add(ProgramExecutionContext.initialContext(program), BigFraction.ONE);
+		while (contexts.elements().iterator().next().executingCommand instanceof InitialCommand) {
+			ProbabilityMassFunction<ProgramExecutionContext> succeedingContexts = new ProbabilityMassFunction<>();
+			for (ProgramExecutionContext context : contexts.elements()) {
+				ProbabilityMassFunction<ProgramExecutionContext> pmf = context.executingCommand.execute(context);
+				for (ProgramExecutionContext c : pmf.elements()) {
+					succeedingContexts.add(c, contexts.probabilityOf(context).multiply(pmf.probabilityOf(c)));
+				}
+			}
+			contexts = succeedingContexts;
+		}
 		
-		if (schimpExecutionContextHashes.containsKey(contextHash)) {
-			return schimpExecutionContextHashes.get(contextHash);
-		} else {
-			schimpExecutionContexts.put(++lastContextID, context);
-			schimpExecutionContextHashes.put(contextHash, lastContextID);
-			return lastContextID;
+		Map<List<Integer>, BigFraction> distribution = new LinkedHashMap<>();
+		for (ProgramExecutionContext context : contexts.elements()) {
+			List<Integer> values = new ArrayList<>(stateInitialVarSlots.length);
+			for (int i = 0; i < stateInitialVarSlots.length; i++) {
+				values.add(getInitialVariableValue(context, i));
+			}
+			distribution.merge(values, contexts.probabilityOf(context), BigFraction::add);
+		}
+		return distribution;
+	}
+	
+	private int getProgramExecutionContextID(ProgramExecutionContext context) {
+		if (debugContextHashes) {
+			String contextHash = context.toHash();
+			
+			if (schimpExecutionContextHashes.containsKey(contextHash)) {
+				return schimpExecutionContextHashes.get(contextHash);
+			} else {
+				int contextID = schimpExecutionContexts.add(context);
+				schimpExecutionContextHashes.put(contextHash, contextID);
+				return contextID;
+			}
 		}
+		
+		return schimpExecutionContexts.putIfAbsent(context);
 	}
 	
+	// the observations are only converted to a string here, when they're needed for display
 	public String getObservations(int observationsID) {
-		return schimpExecutionContextObservations.get(observationsID);
+		ObservationTrie observations = schimpExecutionContexts.getObservations();
+		if (observationsID < 0 || observationsID > observations.size()) return null;
+		Observation o = observations.get(observationsID);
+		return o == null ? "" : o.toString();
 	}
 	
-	private int getObservationsID(String observationsString) {
-		if (schimpExecutionContextObservationsIDs.containsKey(observationsString)) {
-			return schimpExecutionContextObservationsIDs.get(observationsString);
-		} else {
-			schimpExecutionContextObservationsIDs.put(observationsString, ++lastObservationsID);
-			schimpExecutionContextObservations.put(lastObservationsID, observationsString);
-			return lastObservationsID;
-		}
+	private int getObservationsID(ProgramExecutionContext context) {
+		// contexts retrieved from schimpExecutionContexts already hold interned observations, so this is just a lookup
+		return getObservationsID(context.observations);
+	}
+	
+	// interns the given observations (e.g., ones made in a sampled execution of the program) if necessary; this must not
+	// be called concurrently with state space exploration
+	int getObservationsID(Observation observations) {
+		return schimpExecutionContexts.getObservations().getID(observations);
 	}
 	
 	//==========================================================================
@@ -476,6 +741,254 @@ public class PRISMModelGenerator implements ModelGenerator {
 		return getTransitionAction(i);
 	}
 	
+	//==========================================================================
+	// as well as being driven by prism one state at a time, this model generator can build the whole model itself,
+	// without creating a prism State object for every transition or going through prism's per-state callbacks: states
+	// are explored in the same order as prism would explore them, so the resulting model's ProgramExecutionContext
+	// and observation ids are the same ones that prism would end up with
+	
+	public ExplicitSCHIMPModel buildExplicitModel() throws PrismException {
+		if (sweepLine) return buildExplicitModelSweepLine();
+		
+		ExplicitSCHIMPModel model = new ExplicitSCHIMPModel(stateTimeIndex != -1, statePowerIndex != -1, stateInitialVarSlots.length, !floatingPoint, iterateCycles);
+		int[] initialVarValues = new int[stateInitialVarSlots.length];
+		
+		// the time step at which each state was most recently reached (see exploreState())
+		int[] timeSteps = new int[1024];
+		int initialContextID = getInitialContextID();
+		timeSteps[initialContextID - 1] = 1;
+		
+		// when pruning, the probability mass that has reached each state through the states explored so far, and the
+		// transitions into the sink state (whose number isn't known until every other state has been explored)
+		double[] masses = pruningThreshold > 0 ? new double[1024] : null;
+		if (masses != null) masses[initialContextID - 1] = 1;
+		List<Integer> sinkTransitions = new ArrayList<>();
+		
+		// prism explores states breadth-first, in the order in which they were discovered; this is also the order in
+		// which ProgramExecutionContexts are assigned ids, so exploring them in id order is equivalent (and new
+		// ProgramExecutionContexts are assigned ids while this loop runs)
+		for (int contextID = initialContextID; contextID <= schimpExecutionContexts.size(); contextID++) {
+			ProgramExecutionContext context = schimpExecutionContexts.get(contextID);
+			
+			for (int i = 0; i < stateInitialVarSlots.length; i++) {
+				initialVarValues[i] = getInitialVariableValue(context, i);
+			}
+			model.addState(getObservationsID(context), context.elapsedTime, context.totalPowerConsumption, initialVarValues);
+			
+			if (context.isTerminating()) {
+				model.addTransition(contextID - 1, BigFraction.ONE);
+				continue;
+			}
+			
+			// the succeeding ProgramExecutionContexts' ids, with either exact or floating-point probabilities
+			BigFraction prunedProbability = BigFraction.ZERO;
+			ProbabilityMassFunction<Integer> succeedingContextIDs = null;
+			DoubleProbabilityMassFunction<Integer> approximateSucceedingContextIDs = null;
+			if (masses != null) {
+				if (floatingPoint) {
+					approximateSucceedingContextIDs = new DoubleProbabilityMassFunction<>();
+				} else {
+					succeedingContextIDs = new ProbabilityMassFunction<>();
+				}
+				ProbabilityMassFunction<ProgramExecutionContext> succeedingContexts = succeedingContexts(context);
+				for (ProgramExecutionContext c : succeedingContexts.elements()) {
+					BigFraction p = succeedingContexts.probabilityOf(c);
+					// pruning a transition into a state that has already been discovered wouldn't save any exploration
+					if (masses[contextID - 1] * p.doubleValue() < pruningThreshold && !isDiscovered(c)) {
+						prunedProbability = prunedProbability.add(p);
+						prunedTransitions++;
+					} else if (floatingPoint) {
+						approximateSucceedingContextIDs.add(getProgramExecutionContextID(c), p);
+					} else {
+						succeedingContextIDs.add(getProgramExecutionContextID(c), p);
+					}
+				}
+			} else if (floatingPoint) {
+				approximateSucceedingContextIDs = getApproximateSucceedingContextIDs(contextID, context);
+			} else {
+				succeedingContextIDs = getSucceedingContextIDs(contextID, context);
+			}
+			
+			int succeedingStateTimeStep = timeSteps[contextID - 1] + 1;
+			if (succeedingStateTimeStep > maximumTimeStep) maximumTimeStep = succeedingStateTimeStep;
+			if (schimpExecutionContexts.size() > timeSteps.length) timeSteps = Arrays.copyOf(timeSteps, Math.max(schimpExecutionContexts.size(), timeSteps.length * 2));
+			if (masses != null && schimpExecutionContexts.size() > masses.length) masses = Arrays.copyOf(masses, timeSteps.length);
+			
+			for (int succeedingContextID : floatingPoint ? approximateSucceedingContextIDs.elements() : succeedingContextIDs.elements()) {
+				if (floatingPoint) {
+					model.addTransition(
+						succeedingContextID - 1,
+						approximateSucceedingContextIDs.probabilityOf(succeedingContextID),
+						approximateSucceedingContextIDs.relativeErrorOf(succeedingContextID)
+					);
+				} else {
+					model.addTransition(succeedingContextID - 1, succeedingContextIDs.probabilityOf(succeedingContextID));
+				}
+				timeSteps[succeedingContextID - 1] = succeedingStateTimeStep;
+				if (masses != null) masses[succeedingContextID - 1] += masses[contextID - 1] * model.getTransitionProbability(model.getNumTransitions() - 1);
+			}
+			
+			// all of the probability pruned from this state's transitions goes into the sink state in one transition
+			if (!prunedProbability.equals(BigFraction.ZERO)) {
+				sinkTransitions.add(model.getNumTransitions());
+				model.addTransition(-1, prunedProbability);
+			}
+		}
+		
+		if (!sinkTransitions.isEmpty()) {
+			int sinkState = model.addSinkState();
+			for (int t : sinkTransitions) model.setTransitionTarget(t, sinkState);
+		}
+		
+		return model;
+	}
+	
+	private boolean isDiscovered(ProgramExecutionContext context) {
+		return debugContextHashes ?
+			schimpExecutionContextHashes.containsKey(context.toHash()) :
+			schimpExecutionContexts.getID(context) != 0;
+	}
+	
+	//==========================================================================
+	// AnytimeExplorer explores the program's state space in its own order, one ProgramExecutionContext at a time; it
+	// needs sequential exploration, so the model generator must have been constructed with one thread and without
+	// sweepLine
+	
+	// returns the id of the initial ProgramExecutionContext, assigning it one if necessary
+	int exploreInitialContext() throws PrismException {
+		return getInitialContextID();
+	}
+	
+	// returns the ids of the ProgramExecutionContexts succeeding the given non-terminating one, assigning ids to any new
+	// ones
+	ProbabilityMassFunction<Integer> exploreSucceedingContexts(int contextID) throws PrismException {
+		return getSucceedingContextIDs(contextID, schimpExecutionContexts.get(contextID));
+	}
+	
+	//==========================================================================
+	// in sweep-line mode, the model is built in order of elapsed time, which never decreases from one state to the
+	// next: the states whose ProgramExecutionContexts have the same elapsed time form a layer, and once every state in a
+	// layer has been explored, none of them can be reached again, so the layer's ProgramExecutionContexts (apart from
+	// terminating ones) and their deduplication index are discarded; only the layers that have been reached but not yet
+	// fully explored are kept in memory, so the memory used depends on the size of the widest layers rather than of the
+	// whole state space
+	//
+	// states are numbered in the order in which they are explored (layer by layer, and breadth-first within each
+	// layer), and each ProgramExecutionContext's id is its state's number + 1, as usual; a transition into a layer that
+	// hasn't been fully explored yet refers to its target by the target's id within the layer until then
+	
+	private static class SweepLineLayer {
+		
+		// the ProgramExecutionContexts reached in this layer, with ids local to the layer
+		private ProgramExecutionContextStore contexts;
+		
+		// the state number of each explored ProgramExecutionContext and the time step at which each
+		// ProgramExecutionContext was most recently reached (see exploreState()), indexed by local id - 1
+		private int[] states = new int[16];
+		private int[] timeSteps = new int[16];
+		
+		// the transitions into this layer whose targets are still local ids
+		private int[] pendingTransitions = new int[16];
+		private int pendingTransitionCount = 0;
+		
+		private SweepLineLayer(ProgramExecutionContextStore contexts) {
+			this.contexts = contexts;
+		}
+		
+		private int add(ProgramExecutionContext context, int timeStep) {
+			int localID = contexts.putIfAbsent(context);
+			if (localID > states.length) {
+				states = Arrays.copyOf(states, states.length * 2);
+				timeSteps = Arrays.copyOf(timeSteps, timeSteps.length * 2);
+			}
+			timeSteps[localID - 1] = timeStep;
+			return localID;
+		}
+		
+		private void addPendingTransition(int transition) {
+			if (pendingTransitionCount == pendingTransitions.length) {
+				pendingTransitions = Arrays.copyOf(pendingTransitions, pendingTransitionCount * 2);
+			}
+			pendingTransitions[pendingTransitionCount++] = transition;
+		}
+		
+	}
+	
+	private ExplicitSCHIMPModel buildExplicitModelSweepLine() throws PrismException {
+		ExplicitSCHIMPModel model = new ExplicitSCHIMPModel(stateTimeIndex != -1, statePowerIndex != -1, stateInitialVarSlots.length, !floatingPoint, iterateCycles);
+		int[] initialVarValues = new int[stateInitialVarSlots.length];
+		
+		// the layers that have been reached but not fully explored, by elapsed time
+		TreeMap<Integer, SweepLineLayer> layers = new TreeMap<>();
+		ProgramExecutionContext initialContext = ProgramExecutionContext.initialContext(program);
+		SweepLineLayer initialLayer = new SweepLineLayer(new ProgramExecutionContextStore(schimpExecutionContexts));
+		initialLayer.add(initialContext, 1);
+		layers.put(initialContext.elapsedTime, initialLayer);
+		
+		int state = 0;
+		while (!layers.isEmpty()) {
+			int elapsedTime = layers.firstKey();
+			SweepLineLayer layer = layers.get(elapsedTime);
+			
+			// ProgramExecutionContexts may be added to this layer while this loop runs
+			for (int localID = 1; localID <= layer.contexts.size(); localID++, state++) {
+				ProgramExecutionContext context = layer.contexts.get(localID);
+				layer.states[localID - 1] = state;
+				
+				for (int i = 0; i < stateInitialVarSlots.length; i++) {
+					initialVarValues[i] = getInitialVariableValue(context, i);
+				}
+				model.addState(getObservationsID(context), context.elapsedTime, context.totalPowerConsumption, initialVarValues);
+				
+				if (context.isTerminating()) {
+					model.addTransition(state, BigFraction.ONE);
+					sweepLineTerminalContextIDs.put(state + 1, schimpExecutionContexts.add(context));
+					continue;
+				}
+				
+				ProbabilityMassFunction<ProgramExecutionContext> succeedingContexts = succeedingContexts(context);
+				
+				int succeedingStateTimeStep = layer.timeSteps[localID - 1] + 1;
+				if (succeedingStateTimeStep > maximumTimeStep) maximumTimeStep = succeedingStateTimeStep;
+				
+				// distinct succeeding ProgramExecutionContexts may be stored as the same one in their layer (e.g., if they
+				// only differ in dead variables), so their probabilities are accumulated by layer and local id before any
+				// transitions are added, as in getSucceedingContextIDs()
+				Map<SweepLineLayer, ProbabilityMassFunction<Integer>> succeedingLocalIDs = new LinkedHashMap<>();
+				for (ProgramExecutionContext c : succeedingContexts.elements()) {
+					if (c.elapsedTime < elapsedTime) {
+						throw new PrismException("Sweep-line exploration requires elapsed time never to decrease, but it decreased from " + elapsedTime + " to " + c.elapsedTime);
+					}
+					SweepLineLayer succeedingLayer = layers.get(c.elapsedTime);
+					if (succeedingLayer == null) {
+						succeedingLayer = new SweepLineLayer(new ProgramExecutionContextStore(schimpExecutionContexts));
+						layers.put(c.elapsedTime, succeedingLayer);
+					}
+					
+					succeedingLocalIDs.computeIfAbsent(succeedingLayer, l -> new ProbabilityMassFunction<>())
+						.add(succeedingLayer.add(c, succeedingStateTimeStep), succeedingContexts.probabilityOf(c));
+				}
+				
+				for (Map.Entry<SweepLineLayer, ProbabilityMassFunction<Integer>> e : succeedingLocalIDs.entrySet()) {
+					for (int succeedingLocalID : e.getValue().elements()) {
+						e.getKey().addPendingTransition(model.getNumTransitions());
+						model.addTransition(succeedingLocalID, e.getValue().probabilityOf(succeedingLocalID));
+					}
+				}
+			}
+			
+			// every state in this layer has now been explored (and numbered), so the transitions into it can refer to
+			// their targets by state number, and nothing else refers to the layer
+			for (int i = 0; i < layer.pendingTransitionCount; i++) {
+				int transition = layer.pendingTransitions[i];
+				model.setTransitionTarget(transition, layer.states[model.getTransitionTarget(transition) - 1]);
+			}
+			layers.remove(elapsedTime);
+		}
+		
+		return model;
+	}
+	
 	//==========================================================================
 	// reward structures are used to represent the elapsed time and power consumption of schimp programs:
 	// 0 -> elapsed time
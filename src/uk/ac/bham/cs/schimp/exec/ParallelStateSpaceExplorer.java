@@ -0,0 +1,174 @@
+package uk.ac.bham.cs.schimp.exec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import org.apache.commons.math3.fraction.BigFraction;
+
+import prism.PrismException;
+import uk.ac.bham.cs.schimp.ProbabilityMassFunction;
+
+/**
+ * Explores the state space of a schimp program breadth-first, computing the succeeding ProgramExecutionContexts of
+ * every ProgramExecutionContext in a layer of the search concurrently on a fork-join pool. The worker threads also add
+ * the succeeding ProgramExecutionContexts to a ProgramExecutionContextStore themselves, which finds the duplicates among
+ * them concurrently (see ProgramExecutionContextStore.putRecordIfAbsent()).
+ *
+ * Once a layer has been explored, the unique ProgramExecutionContexts reached from it are assigned ids in the order in
+ * which a sequential breadth-first search would discover them (i.e., the order in which prism explores the states of a
+ * model), regardless of the number of threads used or the order in which they added the ProgramExecutionContexts, so
+ * the explored state space is always numbered identically.
+ */
+public class ParallelStateSpaceExplorer {
+	
+	@FunctionalInterface
+	public interface SuccessorFunction {
+		public ProbabilityMassFunction<ProgramExecutionContext> succeedingContexts(ProgramExecutionContext context) throws PrismException;
+	}
+	
+	private SuccessorFunction successorFunction;
+	private int threads;
+	
+	// the store holding the explored ProgramExecutionContexts: the worker threads decode ProgramExecutionContexts from it
+	// and add records to it, and only the thread coordinating the search assigns ids to the records (while the worker
+	// threads are idle)
+	private ProgramExecutionContextStore contexts;
+	
+	// the ids and probabilities of the ProgramExecutionContexts succeeding each explored ProgramExecutionContext, in
+	// compressed sparse row form: the ProgramExecutionContexts succeeding the one with id i are at indices
+	// succeedingContextOffsets[i - 1] (inclusive) to succeedingContextOffsets[i] (exclusive) of succeedingContextIDs and
+	// succeedingContextProbabilities (terminating ProgramExecutionContexts have no succeeding ProgramExecutionContexts)
+	private int[] succeedingContextOffsets = new int[1024];
+	private int[] succeedingContextIDs = new int[1024];
+	private BigFraction[] succeedingContextProbabilities = new BigFraction[1024];
+	private int succeedingContextCount = 0;
+	
+	public ParallelStateSpaceExplorer(SuccessorFunction successorFunction, int threads, ProgramExecutionContextStore contexts) {
+		this.successorFunction = successorFunction;
+		this.threads = threads;
+		this.contexts = contexts;
+	}
+	
+	/**
+	 * Explores the state space from the given initial ProgramExecutionContext, which must be the first
+	 * ProgramExecutionContext added to the store.
+	 */
+	public void explore(ProgramExecutionContext initialContext) throws PrismException {
+		List<Integer> layer = new ArrayList<>();
+		layer.add(contexts.putIfAbsent(initialContext));
+		
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			while (!layer.isEmpty()) {
+				List<Integer> exploringLayer = layer;
+				List<SucceedingRecords> succeedingLayer = pool.submit(() ->
+					exploringLayer.parallelStream()
+						.map(id -> succeedingRecords(id))
+						.collect(Collectors.toList())
+				).get();
+				
+				// assign ids to the succeeding ProgramExecutionContexts in the order in which a sequential search would
+				// have discovered them, and make the new ones the next layer of the search
+				layer = new ArrayList<>();
+				for (int i = 0; i < exploringLayer.size(); i++) {
+					SucceedingRecords succeedingRecords = succeedingLayer.get(i);
+					succeedingLayer.set(i, null);
+					
+					ensureCapacity(exploringLayer.get(i), succeedingRecords == null ? 0 : succeedingRecords.records.length);
+					if (succeedingRecords != null) {
+						for (int j = 0; j < succeedingRecords.records.length; j++) {
+							int knownContexts = contexts.size();
+							int id = contexts.assignID(succeedingRecords.records[j]);
+							if (id > knownContexts) layer.add(id);
+							
+							succeedingContextIDs[succeedingContextCount] = id;
+							succeedingContextProbabilities[succeedingContextCount] = succeedingRecords.probabilities[j];
+							succeedingContextCount++;
+						}
+					}
+					succeedingContextOffsets[exploringLayer.get(i)] = succeedingContextCount;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PrismException("state space exploration was interrupted");
+		} catch (ExecutionException e) {
+			// exceptions thrown by worker threads may have been wrapped more than once on their way here
+			for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+				if (cause instanceof PrismException) throw (PrismException)cause;
+			}
+			throw new PrismException(e.getCause().toString());
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	// makes room for the given number of ProgramExecutionContexts succeeding the one with the given id (ids are
+	// explored in order, so this is always the next ProgramExecutionContext whose succeeding ProgramExecutionContexts
+	// are recorded)
+	private void ensureCapacity(int id, int count) {
+		if (id >= succeedingContextOffsets.length) {
+			succeedingContextOffsets = Arrays.copyOf(succeedingContextOffsets, Math.max(id + 1, succeedingContextOffsets.length * 2));
+		}
+		
+		if (succeedingContextCount + count > succeedingContextIDs.length) {
+			int capacity = Math.max(succeedingContextCount + count, succeedingContextIDs.length * 2);
+			succeedingContextIDs = Arrays.copyOf(succeedingContextIDs, capacity);
+			succeedingContextProbabilities = Arrays.copyOf(succeedingContextProbabilities, capacity);
+		}
+	}
+	
+	// the records in the store of the ProgramExecutionContexts succeeding one ProgramExecutionContext, and their
+	// probabilities
+	private static class SucceedingRecords {
+		
+		private final int[] records;
+		private final BigFraction[] probabilities;
+		
+		private SucceedingRecords(int count) {
+			records = new int[count];
+			probabilities = new BigFraction[count];
+		}
+		
+	}
+	
+	// runs on a worker thread: adds the ProgramExecutionContexts succeeding the one with the given id to the store, and
+	// returns their records, or null if it's terminating
+	private SucceedingRecords succeedingRecords(int id) {
+		ProgramExecutionContext context = contexts.get(id);
+		if (context.isTerminating()) return null;
+		
+		ProbabilityMassFunction<ProgramExecutionContext> succeedingContexts;
+		try {
+			succeedingContexts = successorFunction.succeedingContexts(context);
+		} catch (PrismException e) {
+			throw new RuntimeException(e);
+		}
+		
+		SucceedingRecords succeedingRecords = new SucceedingRecords(succeedingContexts.elements().size());
+		int i = 0;
+		for (ProgramExecutionContext c : succeedingContexts.elements()) {
+			succeedingRecords.records[i] = contexts.putRecordIfAbsent(c);
+			succeedingRecords.probabilities[i] = succeedingContexts.probabilityOf(c);
+			i++;
+		}
+		return succeedingRecords;
+	}
+	
+	/**
+	 * Returns the ids of the ProgramExecutionContexts succeeding the ProgramExecutionContext with the given id (which
+	 * are empty if that ProgramExecutionContext is terminating).
+	 */
+	public ProbabilityMassFunction<Integer> getSucceedingContextIDs(int id) {
+		ProbabilityMassFunction<Integer> ids = new ProbabilityMassFunction<>();
+		for (int i = succeedingContextOffsets[id - 1]; i < succeedingContextOffsets[id]; i++) {
+			ids.add(succeedingContextIDs[i], succeedingContextProbabilities[i]);
+		}
+		return ids;
+	}
+	
+}
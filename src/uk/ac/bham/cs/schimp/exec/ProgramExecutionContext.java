@@ -1,16 +1,13 @@
 package uk.ac.bham.cs.schimp.exec;
 
 import java.util.ArrayDeque;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.stream.Collectors;
 
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.javatuples.Pair;
 
 import uk.ac.bham.cs.schimp.lang.Program;
 import uk.ac.bham.cs.schimp.lang.command.Command;
@@ -26,7 +23,9 @@ public class ProgramExecutionContext implements Cloneable {
 	public VariableScopeFrame initialVariableBindings = new VariableScopeFrame(VariableScopeFrame.Type.BLOCK);
 	public int elapsedTime = 0;
 	public int totalPowerConsumption = 0;
-	public Map<Integer, Pair<Integer, List<ArithmeticConstant>>> observations = new LinkedHashMap<>();
+	// the observation made at the latest observed time point, linked to the observations made before it (or null, if
+	// nothing has been observed yet); observations are immutable, so they're shared between cloned contexts
+	public Observation observations = null;
 	
 	public static ProgramExecutionContext initialContext(Program program) {
 		ProgramExecutionContext context = new ProgramExecutionContext();
@@ -36,7 +35,7 @@ public class ProgramExecutionContext implements Cloneable {
 		return context;
 	}
 	
-	private ProgramExecutionContext() {}
+	ProgramExecutionContext() {}
 	
 	public boolean isTerminating() {
 		return executingCommand == null;
@@ -66,6 +65,31 @@ public class ProgramExecutionContext implements Cloneable {
 		}
 	}
 	
+	// observations are only ever made at the current (i.e., latest) time point: if the latest observation was made at
+	// an earlier time point, a new (empty) observation is started at the current one
+	private Observation currentObservation() {
+		if (observations == null || observations.time != elapsedTime) {
+			observations = new Observation(observations, elapsedTime, totalPowerConsumption);
+		}
+		return observations;
+	}
+	
+	public void observePowerConsumption() {
+		// the power consumption observed at the current time point is replaced by the current total power consumption
+		// (Observations are immutable, so the observation itself must be replaced)
+		observations = currentObservation().withPower(totalPowerConsumption);
+	}
+	
+	public void observeOutputs(List<ArithmeticConstant> outputs) {
+		observations = currentObservation().withOutputs(outputs);
+	}
+	
+	/**
+	 * Returns a copy of this context that shares its variable bindings, copying them only when it modifies them. Cloning
+	 * doesn't modify this context, so contexts that several threads can see (e.g., in ParallelStateSpaceExplorer) can be
+	 * cloned concurrently; in return, a context must not be modified once it has been cloned. Command.execute() only
+	 * ever modifies the clones it creates, and Command.sample() must not be given a context that has been cloned.
+	 */
 	@Override
 	public ProgramExecutionContext clone() {
 		ProgramExecutionContext clonedContext = new ProgramExecutionContext();
@@ -77,30 +101,75 @@ public class ProgramExecutionContext implements Cloneable {
 		clonedContext.initialVariableBindings = initialVariableBindings.clone();
 		clonedContext.elapsedTime = elapsedTime;
 		clonedContext.totalPowerConsumption = totalPowerConsumption;
-		observations.entrySet().stream().forEach(x -> {
-			clonedContext.observations.put(
-				x.getKey(),
-				// we can shallow-clone ArithmeticConstant objects, because they're never supposed to change
-				new Pair<>(x.getValue().getValue0(), new LinkedList<>(x.getValue().getValue1()))
-			);
-		});
+		clonedContext.observations = observations;
 		
 		return clonedContext;
 	}
 	
+	/**
+	 * Returns an MD5 hash of the string representation of this context. This is much slower to compute than
+	 * fingerprint(), and is only retained for debugging context deduplication.
+	 */
 	public String toHash() {
 		return DigestUtils.md5Hex(toString());
 	}
 	
+	public long observationsFingerprint() {
+		return observations == null ? 0 : observations.fingerprint;
+	}
+	
+	/**
+	 * Returns a 64-bit fingerprint of the structure of this context; contexts that are equal have the same fingerprint.
+	 * The fingerprints of variable scope frames and observations are maintained incrementally as they change, so
+	 * computing this is proportional only to the depth of the invocation stack and the number of scope frames.
+	 */
+	public long fingerprint() {
+		long f = executingCommand == null ? -1 : executingCommand.getID();
+		for (InvokeCommand i : invocationStack) {
+			f = Fingerprint.combine(f, i.getID());
+		}
+		f = Fingerprint.combine(f, invocationStack.size());
+		f = Fingerprint.combine(f, executingNonAtomicFunction ? 1 : 0);
+		f = Fingerprint.combine(f, variableBindings.fingerprint());
+		f = Fingerprint.combine(f, initialVariableBindings.fingerprint());
+		f = Fingerprint.combine(f, elapsedTime);
+		f = Fingerprint.combine(f, totalPowerConsumption);
+		f = Fingerprint.combine(f, observationsFingerprint());
+		return f;
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof ProgramExecutionContext)) return false;
+		ProgramExecutionContext c = (ProgramExecutionContext)o;
+		
+		// commands are unique within a program, so they can be compared by identity
+		if (executingCommand != c.executingCommand) return false;
+		if (executingNonAtomicFunction != c.executingNonAtomicFunction) return false;
+		if (elapsedTime != c.elapsedTime || totalPowerConsumption != c.totalPowerConsumption) return false;
+		if (observationsFingerprint() != c.observationsFingerprint()) return false;
+		
+		if (invocationStack.size() != c.invocationStack.size()) return false;
+		Iterator<InvokeCommand> i1 = invocationStack.iterator();
+		Iterator<InvokeCommand> i2 = c.invocationStack.iterator();
+		while (i1.hasNext()) {
+			if (i1.next() != i2.next()) return false;
+		}
+		
+		return
+			variableBindings.equals(c.variableBindings) &&
+			initialVariableBindings.equals(c.initialVariableBindings) &&
+			(observations == null ? c.observations == null : observations.equals(c.observations));
+	}
+	
+	@Override
+	public int hashCode() {
+		return Fingerprint.toHashCode(fingerprint());
+	}
+	
 	public String observationsToString() {
-		return observations.keySet().stream()
-			.map(t ->
-				t + "=[p=" + observations.get(t).getValue0() + ",o=<" +
-				observations.get(t).getValue1().stream()
-					.map(ac -> ac.toSourceString())
-					.collect(Collectors.joining(",")) +
-				">]")
-			.collect(Collectors.joining(","));
+		return observations == null ? "" : observations.toString();
 	}
 	
 	@Override
@@ -153,12 +222,7 @@ public class ProgramExecutionContext implements Cloneable {
 		
 		s.append(indentation(indent + 1));
 		s.append("observations: {");
-		s.append(observations.keySet().stream()
-			.map(t -> t + "=[p=" + observations.get(t).getValue0() + ",o=<" + observations.get(t).getValue1().stream()
-				.map(ac -> ac.toSourceString())
-				.collect(Collectors.joining(","))
-				+ ">]")
-			.collect(Collectors.joining(",")));
+		s.append(observationsToString());
 		s.append("}\n");
 		
 		s.append(indentation(indent));
@@ -0,0 +1,820 @@
+package uk.ac.bham.cs.schimp.exec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.math3.fraction.BigFraction;
+
+import uk.ac.bham.cs.schimp.lang.Program;
+import uk.ac.bham.cs.schimp.lang.command.InvokeCommand;
+import uk.ac.bham.cs.schimp.lang.expression.arith.ArithmeticConstant;
+
+/**
+ * Stores unique ProgramExecutionContexts in a compact binary encoding, and assigns each of them an id (beginning at 1,
+ * in the order in which they were added). ProgramExecutionContexts are only decoded (into new objects) when they are
+ * retrieved.
+ *
+ * Each ProgramExecutionContext is encoded as a sequence of variable-length integers:
+ * - the id of the executing command (0 if the context is terminating)
+ * - the size of the invocation stack, followed by the id of each InvokeCommand on it (from the top downwards)
+ * - 1 if a non-atomic function is executing, or 0 otherwise
+ * - the elapsed time and total power consumption
+ * - the id of the context's observations in the store's ObservationTrie
+ * - the initial variable bindings, as a scope frame
+ * - the number of function and block scope frames, followed by each of these scope frames (from the innermost one
+ *   outwards) and then the global scope frame
+ *
+ * The names of the variables in a scope frame rarely vary between contexts, so they are stored only once: a scope frame
+ * is encoded as the id of its layout (its type and the names of the variables in each of its slots) followed by the
+ * value of each variable defined in it.
+ *
+ * Contexts that are equal always have identical encodings, so duplicate contexts are found by comparing encodings. If
+ * the store is given a LiveVariables analysis of the program, the value of every variable that is dead in a context is
+ * encoded as 0, so contexts that only differ in the values of dead variables also have identical encodings (and
+ * retrieving either of them returns a context in which those variables are 0).
+ *
+ * The encoded contexts and the index used to find duplicates are either kept on the heap, or (for state spaces too large
+ * to fit in it) in memory-mapped files in a scratch directory, in which case they're paged in and out by the operating
+ * system. Only buffers of at least a megabyte are mapped, and the index's buffers are unmapped as soon as it outgrows
+ * them. Failures to create or map these files are thrown as UncheckedIOExceptions.
+ *
+ * Several threads may add contexts at once with putRecordIfAbsent(), which stores each unique context as a numbered
+ * record without giving it an id: the index used to find duplicates is divided into stripes that are locked
+ * independently, so threads only wait for each other when their contexts' hash codes fall in the same stripe, or while a
+ * record is being appended. Ids are then assigned to the records by a single thread with assignID(), in whatever
+ * (deterministic) order that thread chooses, so the ids don't depend on how the threads' additions were interleaved.
+ */
+public class ProgramExecutionContextStore {
+	
+	// the number of stripes the index is divided into (a power of 2), and the number of slots each of them has initially
+	private static final int STRIPES = 64;
+	private static final int STRIPE_BITS = Integer.numberOfTrailingZeros(STRIPES);
+	private static final int INITIAL_STRIPE_SLOTS = 32;
+	
+	private final Program program;
+	private final LiveVariables liveVariables;
+	
+	private final Memory memory;
+	
+	// encoded contexts are stored as records in pages that double in size up to memory.pageSize bytes (or larger, for
+	// contexts whose encodings don't fit in one), so that small stores stay small; currentPage is a view of the last page
+	// whose position is where the next record will be written. records are numbered from 1 in the order in which they're
+	// appended, which is only synchronized on appendLock: pages is replaced rather than modified when a page is added, so
+	// that threads reading records never see it half-updated
+	private final Object appendLock = new Object();
+	private volatile ByteBuffer[] pages = new ByteBuffer[0];
+	private ByteBuffer currentPage = null;
+	private int recordCount = 0;
+	
+	// the location of each record (the index of its page in the upper 32 bits, and its offset within the page in the
+	// lower 32 bits), indexed by record number - 1
+	private final LongArray recordLocations;
+	
+	// the id assigned to each record (or 0, if it hasn't been assigned one yet), indexed by record number - 1, and the
+	// record assigned each id, indexed by id - 1; these are only modified by assignID()
+	private final LongArray recordIDs;
+	private final LongArray idRecords;
+	private int size = 0;
+	
+	private final Stripe[] stripes = new Stripe[STRIPES];
+	
+	// interned scope frame layouts and observations, which may be shared with other stores
+	private final ScopeFrameLayouts scopeFrameLayouts;
+	private final ObservationTrie observations;
+	
+	// each thread encodes contexts into its own buffer before they are stored
+	private final ThreadLocal<Encoder> encoders = ThreadLocal.withInitial(Encoder::new);
+	
+	// allocates the buffers that encoded contexts, their locations and the index are stored in
+	private static abstract class Memory {
+		
+		protected final int pageSize;
+		protected final int longChunkSize;
+		
+		protected Memory(int pageSize, int longChunkSize) {
+			this.pageSize = pageSize;
+			this.longChunkSize = longChunkSize;
+		}
+		
+		protected abstract ByteBuffer allocateBytes(int capacity);
+		
+		protected abstract LongBuffer allocateLongs(int capacity);
+		
+		// called with a buffer returned by allocateLongs() once nothing will read or write it again
+		protected void release(LongBuffer buffer) {}
+		
+	}
+	
+	private static class HeapMemory extends Memory {
+		
+		private HeapMemory() {
+			super(1 << 22, 1 << 13);
+		}
+		
+		@Override
+		protected ByteBuffer allocateBytes(int capacity) {
+			return ByteBuffer.allocate(capacity);
+		}
+		
+		@Override
+		protected LongBuffer allocateLongs(int capacity) {
+			return LongBuffer.allocate(capacity);
+		}
+		
+	}
+	
+	// each buffer is mapped from its own file in the scratch directory; the file is deleted as soon as it has been mapped
+	// (where the operating system allows it; otherwise, when the jvm exits), but its contents remain accessible through
+	// the mapping until the buffer is released or garbage-collected. buffers smaller than MINIMUM_MAPPING bytes are kept
+	// on the heap instead, because mapping them would waste far more address space (and mappings) than they save
+	private static class MappedMemory extends Memory {
+		
+		private static final int MINIMUM_MAPPING = 1 << 20;
+		
+		// sun.misc.Unsafe.invokeCleaner() (which exists from java 9) and the object it's invoked on, used to unmap buffers
+		// as soon as they're released; if they're unavailable, released buffers are unmapped when they're garbage-collected
+		private static final Method INVOKE_CLEANER;
+		private static final Object UNSAFE;
+		static {
+			Method invokeCleaner = null;
+			Object unsafe = null;
+			try {
+				Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+				Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+				theUnsafe.setAccessible(true);
+				unsafe = theUnsafe.get(null);
+				invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				invokeCleaner = null;
+			}
+			INVOKE_CLEANER = invokeCleaner;
+			UNSAFE = unsafe;
+		}
+		
+		private final File directory;
+		
+		// the mapped buffer underlying each mapped LongBuffer, so that it can be unmapped when the LongBuffer is released
+		private final Map<LongBuffer, ByteBuffer> mappings = new IdentityHashMap<>();
+		
+		private MappedMemory(File directory) {
+			// fewer, larger mappings than pages on the heap, because the number of mappings a process may have is limited
+			super(1 << 28, 1 << 24);
+			this.directory = directory;
+		}
+		
+		private ByteBuffer map(long capacity) {
+			try {
+				File file = File.createTempFile("schimp-contexts-", ".bin", directory);
+				ByteBuffer buffer;
+				try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+					buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+				}
+				if (!file.delete()) file.deleteOnExit();
+				return buffer;
+			} catch (IOException e) {
+				throw new UncheckedIOException("unable to map context store file in " + directory, e);
+			}
+		}
+		
+		@Override
+		protected ByteBuffer allocateBytes(int capacity) {
+			return capacity < MINIMUM_MAPPING ? ByteBuffer.allocate(capacity) : map(capacity);
+		}
+		
+		@Override
+		protected LongBuffer allocateLongs(int capacity) {
+			if ((long)capacity * Long.BYTES < MINIMUM_MAPPING) return LongBuffer.allocate(capacity);
+			
+			ByteBuffer mapping = map((long)capacity * Long.BYTES);
+			LongBuffer buffer = mapping.asLongBuffer();
+			synchronized (mappings) {
+				mappings.put(buffer, mapping);
+			}
+			return buffer;
+		}
+		
+		@Override
+		protected void release(LongBuffer buffer) {
+			ByteBuffer mapping;
+			synchronized (mappings) {
+				mapping = mappings.remove(buffer);
+			}
+			if (mapping == null || INVOKE_CLEANER == null) return;
+			try {
+				INVOKE_CLEANER.invoke(UNSAFE, mapping);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				// the buffer will be unmapped when it's garbage-collected instead
+			}
+		}
+		
+	}
+	
+	// an array of longs made up of equal-sized chunks (whose size is a power of 2); elements are 0 until they are set.
+	// while the array is no longer than memory.longChunkSize it has a single chunk sized to it, which is replaced by a
+	// copy at least twice the size when the array outgrows it; after that, chunks of memory.longChunkSize longs are
+	// added, so that the array can grow without being copied (and beyond the size of a single buffer). the array of
+	// chunks is replaced rather than modified when the array grows, so one thread may grow the array while others read
+	// the elements it already had (which is also why a replaced chunk is left to the garbage collector rather than being
+	// released)
+	private static class LongArray {
+		
+		private static final int MINIMUM_CHUNK_SIZE = 256;
+		
+		private final Memory memory;
+		private volatile LongBuffer[] chunks;
+		
+		private LongArray(Memory memory, long length) {
+			this.memory = memory;
+			chunks = new LongBuffer[] { memory.allocateLongs(chunkSize(length)) };
+			ensureLength(length);
+		}
+		
+		// the size of a single chunk holding at least the given number of elements, if one isn't too large
+		private int chunkSize(long length) {
+			int size = MINIMUM_CHUNK_SIZE;
+			while (size < length && size < memory.longChunkSize) size *= 2;
+			return size;
+		}
+		
+		private void ensureLength(long length) {
+			LongBuffer[] c = chunks;
+			int chunkSize = c[0].capacity();
+			if ((long)c.length * chunkSize >= length) return;
+			
+			if (chunkSize < memory.longChunkSize) {
+				// the only chunk is replaced by a larger copy
+				LongBuffer chunk = memory.allocateLongs(chunkSize(length));
+				LongBuffer elements = c[0].duplicate();
+				elements.clear();
+				chunk.duplicate().put(elements);
+				c = new LongBuffer[] { chunk };
+				chunkSize = chunk.capacity();
+			}
+			
+			int count = (int)((length + chunkSize - 1) / chunkSize);
+			if (count > c.length) {
+				int chunkCount = c.length;
+				c = Arrays.copyOf(c, count);
+				for (int i = chunkCount; i < count; i++) {
+					c[i] = memory.allocateLongs(chunkSize);
+				}
+			}
+			chunks = c;
+		}
+		
+		private long get(long i) {
+			LongBuffer[] c = chunks;
+			int chunkBits = Integer.numberOfTrailingZeros(c[0].capacity());
+			return c[(int)(i >>> chunkBits)].get((int)i & ((1 << chunkBits) - 1));
+		}
+		
+		private void set(long i, long value) {
+			LongBuffer[] c = chunks;
+			int chunkBits = Integer.numberOfTrailingZeros(c[0].capacity());
+			c[(int)(i >>> chunkBits)].put((int)i & ((1 << chunkBits) - 1), value);
+		}
+		
+		// releases the array's chunks (see Memory.release()), once nothing will read or write the array again
+		private void release() {
+			for (LongBuffer chunk : chunks) {
+				memory.release(chunk);
+			}
+		}
+		
+	}
+	
+	// one stripe of the index used to find duplicate contexts: an open-addressing hash table in which each non-empty slot
+	// holds the hash code of a record's encoding in its upper 32 bits and the record's number in its lower 32 bits (0
+	// indicates an empty slot). the stripe a hash code belongs to is chosen by its upper bits, and its slot within the
+	// stripe by its lower bits; a stripe is only accessed while holding its lock
+	private static class Stripe {
+		
+		private LongArray slots;
+		private long slotCount = INITIAL_STRIPE_SLOTS;
+		private long size = 0;
+		
+		private Stripe(Memory memory) {
+			slots = new LongArray(memory, slotCount);
+		}
+		
+	}
+	
+	// the scope frame layouts interned by a store (and the stores created from it), which are assigned ids beginning at 1;
+	// layouts may be interned by several threads at once, and concurrently with being retrieved
+	private static class ScopeFrameLayouts {
+		
+		private final Map<ScopeFrameLayout, Integer> ids = new ConcurrentHashMap<>();
+		
+		// indexed by id - 1, and replaced rather than modified when a layout is added
+		private volatile ScopeFrameLayout[] layouts = new ScopeFrameLayout[0];
+		
+		private int getID(VariableScopeFrame.Type type, String[] names) {
+			Integer id = ids.get(new ScopeFrameLayout(type, names));
+			if (id != null) return id;
+			
+			synchronized (this) {
+				// the scope frame's names array may be modified later, so the stored layout needs its own copy
+				ScopeFrameLayout layout = new ScopeFrameLayout(type, names.clone());
+				id = ids.get(layout);
+				if (id != null) return id;
+				
+				ScopeFrameLayout[] added = Arrays.copyOf(layouts, layouts.length + 1);
+				added[layouts.length] = layout;
+				layouts = added;
+				ids.put(layout, added.length);
+				return added.length;
+			}
+		}
+		
+		private ScopeFrameLayout get(int id) {
+			return layouts[id - 1];
+		}
+		
+	}
+	
+	private static class ScopeFrameLayout {
+		
+		private final VariableScopeFrame.Type type;
+		private final String[] names;
+		private final int hashCode;
+		
+		private ScopeFrameLayout(VariableScopeFrame.Type type, String[] names) {
+			this.type = type;
+			this.names = names;
+			hashCode = 31 * type.hashCode() + Arrays.hashCode(names);
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof ScopeFrameLayout)) return false;
+			ScopeFrameLayout l = (ScopeFrameLayout)o;
+			return type == l.type && Arrays.equals(names, l.names);
+		}
+		
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+		
+	}
+	
+	/**
+	 * Creates a store that keeps ProgramExecutionContexts on the heap.
+	 */
+	public ProgramExecutionContextStore(Program program) {
+		this(program, (LiveVariables)null);
+	}
+	
+	/**
+	 * Creates a store that keeps ProgramExecutionContexts on the heap, and treats contexts that only differ in the values
+	 * of variables that are dead according to the given analysis (if it's non-null) as equal.
+	 */
+	public ProgramExecutionContextStore(Program program, LiveVariables liveVariables) {
+		this(program, new HeapMemory(), liveVariables);
+	}
+	
+	/**
+	 * Creates a store that keeps ProgramExecutionContexts in memory-mapped files in the given scratch directory.
+	 */
+	public ProgramExecutionContextStore(Program program, File directory) {
+		this(program, directory, null);
+	}
+	
+	/**
+	 * Creates a store that keeps ProgramExecutionContexts in memory-mapped files in the given scratch directory, and
+	 * treats contexts that only differ in the values of variables that are dead according to the given analysis (if it's
+	 * non-null) as equal.
+	 */
+	public ProgramExecutionContextStore(Program program, File directory, LiveVariables liveVariables) {
+		this(program, new MappedMemory(directory), liveVariables);
+	}
+	
+	/**
+	 * Creates an empty store that keeps ProgramExecutionContexts in the same kind of memory as the given store, uses the
+	 * same liveness analysis, and shares its interned scope frame layouts and observations (so the observation ids of
+	 * contexts in both stores are comparable).
+	 */
+	ProgramExecutionContextStore(ProgramExecutionContextStore store) {
+		this(store.program, store.memory, store.liveVariables, store.scopeFrameLayouts, store.observations);
+	}
+	
+	private ProgramExecutionContextStore(Program program, Memory memory, LiveVariables liveVariables) {
+		this(program, memory, liveVariables, new ScopeFrameLayouts(), new ObservationTrie());
+	}
+	
+	private ProgramExecutionContextStore(Program program, Memory memory, LiveVariables liveVariables, ScopeFrameLayouts scopeFrameLayouts, ObservationTrie observations) {
+		this.program = program;
+		this.liveVariables = liveVariables;
+		this.memory = memory;
+		this.scopeFrameLayouts = scopeFrameLayouts;
+		this.observations = observations;
+		recordLocations = new LongArray(memory, 0);
+		recordIDs = new LongArray(memory, 0);
+		idRecords = new LongArray(memory, 0);
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Stripe(memory);
+		}
+	}
+	
+	/**
+	 * Returns the trie in which the observations of the contexts in this store are interned.
+	 */
+	public ObservationTrie getObservations() {
+		return observations;
+	}
+	
+	/**
+	 * Returns the number of contexts in this store.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Adds the given context to this store if an equal context isn't already stored, and returns the id of the stored
+	 * context. Like assignID(), this must only be called by one thread at a time.
+	 */
+	public int putIfAbsent(ProgramExecutionContext context) {
+		return assignID(putRecordIfAbsent(context));
+	}
+	
+	/**
+	 * Adds the given context to this store if an equal context isn't already stored, and returns the number of the
+	 * stored context's record, without assigning it an id (see assignID()). This may be called concurrently by multiple
+	 * threads, and concurrently with get().
+	 */
+	public int putRecordIfAbsent(ProgramExecutionContext context) {
+		Encoder encoder = encoders.get();
+		encoder.encode(context);
+		int hashCode = encoder.encodingHashCode();
+		
+		Stripe stripe = stripes[hashCode >>> (32 - STRIPE_BITS)];
+		synchronized (stripe) {
+			long i = findSlot(stripe, hashCode, encoder);
+			long slot = stripe.slots.get(i);
+			if (slot != 0) return (int)slot;
+			
+			int record = append(encoder);
+			stripe.slots.set(i, ((long)hashCode << 32) | record);
+			if (++stripe.size * 2 > stripe.slotCount) resize(stripe);
+			return record;
+		}
+	}
+	
+	/**
+	 * Returns the id of the context stored in the given record, first assigning it the next id if it hasn't been
+	 * assigned one yet. This must only be called by one thread at a time, and not concurrently with get(), so that the
+	 * order in which ids are assigned is determined by that thread alone.
+	 */
+	public int assignID(int record) {
+		recordIDs.ensureLength(record);
+		int id = (int)recordIDs.get(record - 1);
+		if (id != 0) return id;
+		
+		id = ++size;
+		recordIDs.set(record - 1, id);
+		idRecords.ensureLength(id);
+		idRecords.set(id - 1, record);
+		return id;
+	}
+	
+	/**
+	 * Returns the id of the stored context equal to the given one, or 0 if there isn't one (or it hasn't been assigned
+	 * an id yet). Like assignID(), this must only be called by one thread at a time.
+	 */
+	public int getID(ProgramExecutionContext context) {
+		Encoder encoder = encoders.get();
+		encoder.encode(context);
+		int hashCode = encoder.encodingHashCode();
+		
+		Stripe stripe = stripes[hashCode >>> (32 - STRIPE_BITS)];
+		int record;
+		synchronized (stripe) {
+			record = (int)stripe.slots.get(findSlot(stripe, hashCode, encoder));
+		}
+		if (record == 0) return 0;
+		recordIDs.ensureLength(record);
+		return (int)recordIDs.get(record - 1);
+	}
+	
+	/**
+	 * Adds the given context to this store without checking whether an equal context is already stored, and returns its
+	 * id. Like assignID(), this must only be called by one thread at a time.
+	 */
+	public int add(ProgramExecutionContext context) {
+		Encoder encoder = encoders.get();
+		encoder.encode(context);
+		return assignID(append(encoder));
+	}
+	
+	/**
+	 * Returns a new ProgramExecutionContext equal to the one with the given id. This may be called concurrently by
+	 * multiple threads, and concurrently with putRecordIfAbsent() (but not with anything that assigns ids).
+	 */
+	public ProgramExecutionContext get(int id) {
+		long location = recordLocations.get(idRecords.get(id - 1) - 1);
+		return new Decoder(pages[(int)(location >>> 32)], (int)location).decodeContext();
+	}
+	
+	//==========================================================================
+	
+	// appends the encoding in the given Encoder as a new record, and returns its number
+	private int append(Encoder encoder) {
+		synchronized (appendLock) {
+			// the encoding is preceded by its length
+			int length = encoder.length + varIntLength(encoder.length);
+			if (currentPage == null || currentPage.remaining() < length) {
+				int pageSize = currentPage == null ? 1 << 16 : Math.min(currentPage.capacity() * 2, memory.pageSize);
+				ByteBuffer page = memory.allocateBytes(Math.max(pageSize, length));
+				ByteBuffer[] added = Arrays.copyOf(pages, pages.length + 1);
+				added[pages.length] = page;
+				pages = added;
+				currentPage = page.duplicate();
+			}
+			
+			recordLocations.ensureLength(recordCount + 1);
+			recordLocations.set(recordCount, ((long)(pages.length - 1) << 32) | currentPage.position());
+			
+			int encodingLength = encoder.length;
+			while ((encodingLength & ~0x7f) != 0) {
+				currentPage.put((byte)((encodingLength & 0x7f) | 0x80));
+				encodingLength >>>= 7;
+			}
+			currentPage.put((byte)encodingLength);
+			currentPage.put(encoder.buffer, 0, encoder.length);
+			
+			return ++recordCount;
+		}
+	}
+	
+	// the slot in the given stripe holding the number of the record whose encoding is in the given Encoder, or the empty
+	// slot where it would be held
+	private long findSlot(Stripe stripe, int hashCode, Encoder encoder) {
+		long mask = stripe.slotCount - 1;
+		long i = hashCode & mask;
+		for (long slot = stripe.slots.get(i); slot != 0; slot = stripe.slots.get(i)) {
+			if ((int)(slot >>> 32) == hashCode && encodingEquals((int)slot, encoder)) return i;
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+	
+	private boolean encodingEquals(int record, Encoder encoder) {
+		long location = recordLocations.get(record - 1);
+		ByteBuffer page = pages[(int)(location >>> 32)];
+		int offset = (int)location;
+		
+		// read the length of the stored encoding
+		int length = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = page.get(offset++);
+			length |= (b & 0x7f) << shift;
+			if (b >= 0) break;
+		}
+		if (length != encoder.length) return false;
+		
+		for (int i = 0; i < length; i++) {
+			if (page.get(offset + i) != encoder.buffer[i]) return false;
+		}
+		return true;
+	}
+	
+	private void resize(Stripe stripe) {
+		long resizedSlotCount = stripe.slotCount * 2;
+		LongArray resizedSlots = new LongArray(memory, resizedSlotCount);
+		long mask = resizedSlotCount - 1;
+		for (long i = 0; i < stripe.slotCount; i++) {
+			long slot = stripe.slots.get(i);
+			if (slot == 0) continue;
+			long j = (int)(slot >>> 32) & mask;
+			while (resizedSlots.get(j) != 0) j = (j + 1) & mask;
+			resizedSlots.set(j, slot);
+		}
+		// the stripe's slots are only ever accessed while holding its lock, so nothing can still be reading them
+		stripe.slots.release();
+		stripe.slots = resizedSlots;
+		stripe.slotCount = resizedSlotCount;
+	}
+	
+	//==========================================================================
+	// encoding
+	
+	// encodes contexts into a buffer of its own, so that each thread needs one
+	private class Encoder {
+		
+		private byte[] buffer = new byte[256];
+		private int length;
+		
+		private void encode(ProgramExecutionContext context) {
+			length = 0;
+			
+			writeVarInt(context.isTerminating() ? 0 : context.executingCommand.getID());
+			writeVarInt(context.invocationStack.size());
+			for (InvokeCommand i : context.invocationStack) {
+				writeVarInt(i.getID());
+			}
+			writeVarInt(context.executingNonAtomicFunction ? 1 : 0);
+			writeVarInt(zigZag(context.elapsedTime));
+			writeVarInt(zigZag(context.totalPowerConsumption));
+			writeVarInt(observations.getID(context.observations));
+			
+			// the initial variable bindings are never read by the program, but are always kept
+			encodeScopeFrame(context.initialVariableBindings, null);
+			VariableScopeFrame[] scopeFrames = context.variableBindings.getScopeFrames();
+			BitSet[] liveSlots = liveVariables == null ? null : liveVariables.liveSlots(context, scopeFrames);
+			writeVarInt(scopeFrames.length - 1);
+			for (int i = 0; i < scopeFrames.length; i++) {
+				encodeScopeFrame(scopeFrames[i], liveSlots == null ? null : liveSlots[i]);
+			}
+		}
+		
+		// if liveSlots is non-null, the values of variables in the other slots are encoded as 0
+		private void encodeScopeFrame(VariableScopeFrame frame, BitSet liveSlots) {
+			// a slot in a scope frame has a name if and only if it contains a value
+			writeVarInt(scopeFrameLayouts.getID(frame.getType(), frame.getSlotNames()));
+			
+			ArithmeticConstant[] values = frame.getSlotValues();
+			for (int i = 0; i < values.length; i++) {
+				if (values[i] == null) continue;
+				if (liveSlots == null || liveSlots.get(i)) {
+					encodeArithmeticConstant(values[i]);
+				} else {
+					// the encoding of 0
+					writeVarLong(0);
+				}
+			}
+		}
+		
+		// integers in (roughly) the range of a long are encoded as a single variable-length integer (with the lowest bit
+		// clear); anything else is encoded as 1 followed by the numerator and denominator of the fraction
+		private void encodeArithmeticConstant(ArithmeticConstant value) {
+			if (value.isLong()) {
+				long l = value.longValue();
+				if (l >= -(1L << 61) && l < (1L << 61)) {
+					writeVarLong(zigZag(l) << 1);
+					return;
+				}
+			}
+			
+			writeVarLong(1);
+			BigFraction fraction = value.toFraction();
+			writeBytes(fraction.getNumerator().toByteArray());
+			writeBytes(fraction.getDenominator().toByteArray());
+		}
+		
+		private int encodingHashCode() {
+			long h = length;
+			for (int i = 0; i < length; i++) {
+				h = h * 0x100000001b3L + buffer[i];
+			}
+			return Fingerprint.toHashCode(Fingerprint.mix(h));
+		}
+		
+		private void ensureCapacity(int additionalBytes) {
+			if (length + additionalBytes > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + additionalBytes));
+			}
+		}
+		
+		private void writeVarInt(int value) {
+			writeVarLong(value & 0xffffffffL);
+		}
+		
+		private void writeVarLong(long value) {
+			ensureCapacity(10);
+			while ((value & ~0x7fL) != 0) {
+				buffer[length++] = (byte)((value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			buffer[length++] = (byte)value;
+		}
+		
+		private void writeBytes(byte[] bytes) {
+			writeVarInt(bytes.length);
+			ensureCapacity(bytes.length);
+			System.arraycopy(bytes, 0, buffer, length, bytes.length);
+			length += bytes.length;
+		}
+		
+	}
+	
+	private static int varIntLength(int value) {
+		int length = 1;
+		while ((value & ~0x7f) != 0) {
+			length++;
+			value >>>= 7;
+		}
+		return length;
+	}
+	
+	private static int zigZag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+	
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+	
+	//==========================================================================
+	// decoding
+	
+	private class Decoder {
+		
+		private ByteBuffer page;
+		private int offset;
+		
+		private Decoder(ByteBuffer page, int offset) {
+			this.page = page;
+			this.offset = offset;
+			// skip the length of the encoding
+			readVarLong();
+		}
+		
+		private ProgramExecutionContext decodeContext() {
+			ProgramExecutionContext context = new ProgramExecutionContext();
+			
+			int executingCommandID = readVarInt();
+			context.executingCommand = executingCommandID == 0 ? null : program.getCommandTable().getCommand(executingCommandID);
+			int invocationStackSize = readVarInt();
+			for (int i = 0; i < invocationStackSize; i++) {
+				context.invocationStack.addLast((InvokeCommand)program.getCommandTable().getCommand(readVarInt()));
+			}
+			context.executingNonAtomicFunction = readVarInt() == 1;
+			context.elapsedTime = unZigZag(readVarInt());
+			context.totalPowerConsumption = unZigZag(readVarInt());
+			context.observations = observations.get(readVarInt());
+			
+			context.initialVariableBindings = decodeScopeFrame();
+			VariableScopeFrame[] scopeFrames = new VariableScopeFrame[readVarInt() + 1];
+			for (int i = 0; i < scopeFrames.length; i++) {
+				scopeFrames[i] = decodeScopeFrame();
+			}
+			context.variableBindings = VariableBindings.fromScopeFrames(scopeFrames);
+			
+			return context;
+		}
+		
+		private VariableScopeFrame decodeScopeFrame() {
+			ScopeFrameLayout layout = scopeFrameLayouts.get(readVarInt());
+			ArithmeticConstant[] values = new ArithmeticConstant[layout.names.length];
+			for (int i = 0; i < values.length; i++) {
+				if (layout.names[i] != null) values[i] = decodeArithmeticConstant();
+			}
+			return new VariableScopeFrame(layout.type, layout.names, values);
+		}
+		
+		private ArithmeticConstant decodeArithmeticConstant() {
+			long l = readVarLong();
+			if ((l & 1) == 0) return new ArithmeticConstant(unZigZag(l >>> 1));
+			
+			BigInteger numerator = new BigInteger(readBytes());
+			BigInteger denominator = new BigInteger(readBytes());
+			return new ArithmeticConstant(new BigFraction(numerator, denominator));
+		}
+		
+		private int readVarInt() {
+			return (int)readVarLong();
+		}
+		
+		private long readVarLong() {
+			long value = 0;
+			for (int shift = 0; ; shift += 7) {
+				byte b = page.get(offset++);
+				value |= (long)(b & 0x7f) << shift;
+				if (b >= 0) return value;
+			}
+		}
+		
+		private byte[] readBytes() {
+			int length = readVarInt();
+			byte[] bytes = new byte[length];
+			for (int i = 0; i < length; i++) {
+				bytes[i] = page.get(offset++);
+			}
+			return bytes;
+		}
+		
+	}
+	
+	private static int unZigZag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+	
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+	
+}
@@ -7,5 +7,9 @@ public class ProgramExecutionException extends RuntimeException {
 	public ProgramExecutionException(String reason) {
 		super(reason);
 	}
+	
+	public ProgramExecutionException(String reason, Throwable cause) {
+		super(reason, cause);
+	}
 
 }
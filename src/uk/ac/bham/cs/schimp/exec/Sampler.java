@@ -0,0 +1,45 @@
+package uk.ac.bham.cs.schimp.exec;
+
+import java.util.SplittableRandom;
+
+import uk.ac.bham.cs.schimp.AliasTable;
+import uk.ac.bham.cs.schimp.lang.Program;
+
+/**
+ * Makes the random choices needed to sample executions of a schimp program (see Command.sample()). Commands whose
+ * probabilities don't depend on the values of variables choose from an AliasTable via sample(), which subclasses may
+ * override to choose from a different distribution; any other choices are made directly with getRandom().
+ *
+ * A Sampler isn't thread-safe, so each thread sampling executions needs its own.
+ */
+public class Sampler {
+	
+	protected final SplittableRandom random;
+	
+	public Sampler(SplittableRandom random) {
+		this.random = random;
+	}
+	
+	public SplittableRandom getRandom() {
+		return random;
+	}
+	
+	public <T> T sample(AliasTable<T> table) {
+		return table.sample(random);
+	}
+	
+	/**
+	 * Samples one execution of the given program, and returns its terminating ProgramExecutionContext, or null if the
+	 * program doesn't terminate within the given number of steps.
+	 */
+	public ProgramExecutionContext sampleExecution(Program program, int maxSteps) throws ProgramExecutionException {
+		ProgramExecutionContext context = ProgramExecutionContext.initialContext(program);
+		int steps = 0;
+		while (!context.isTerminating()) {
+			if (steps++ == maxSteps) return null;
+			context = context.executingCommand.sample(context, this);
+		}
+		return context;
+	}
+	
+}
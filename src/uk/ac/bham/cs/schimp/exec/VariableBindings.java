@@ -1,9 +1,7 @@
 package uk.ac.bham.cs.schimp.exec;
 
-import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.NoSuchElementException;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
@@ -12,44 +10,63 @@ import uk.ac.bham.cs.schimp.lang.expression.arith.ArithmeticConstant;
 
 public class VariableBindings implements Cloneable {
 	
-	private List<VariableScopeFrame> scopeFrames = new LinkedList<VariableScopeFrame>();
-	private List<VariableScopeFrame> currentScope;
+	// the scope depth of a variable is the number of function and block scope frames between the innermost scope frame
+	// and the scope frame the variable is defined in (0 if it's defined in the innermost scope frame); these values
+	// represent variables defined in the global scope frame and variables that are undefined in the current scope
+	public static final int GLOBAL_SCOPE_DEPTH = -1;
+	public static final int UNDEFINED_SCOPE_DEPTH = -2;
+	
+	// the function and block scope frames are stored in a persistent linked list, from the innermost scope frame
+	// outwards; the global scope frame has no parent, and is stored separately. nodes are never modified after they
+	// are created, and clones of a VariableBindings object share all of their nodes: modifying a scope frame replaces
+	// the nodes between the innermost scope frame and the modified one (and copies the modified scope frame), but
+	// shares everything else. a VariableBindings object that has been cloned is never modified again (see clone()), so
+	// the scope frames in the nodes it owns can't change underneath its clones
+	private static class ScopeFrameNode {
+		
+		private final VariableScopeFrame frame;
+		private final ScopeFrameNode parent;
+		
+		// the VariableBindings object (identified by its owner token) that is allowed to modify this node's scope frame
+		// in place; any other VariableBindings object must copy the node and its scope frame first
+		private final Object owner;
+		
+		private ScopeFrameNode(VariableScopeFrame frame, ScopeFrameNode parent, Object owner) {
+			this.frame = frame;
+			this.parent = parent;
+			this.owner = owner;
+		}
+		
+	}
+	
+	private ScopeFrameNode localScopeFrames = null;
+	private int localScopeFrameCount = 0;
+	private ScopeFrameNode globalScopeFrame;
+	
+	// a token identifying the scope frames that this VariableBindings object is allowed to modify in place; each
+	// VariableBindings object is issued its own token when it's created, so a clone can't modify the scope frames it
+	// shares with the object it was cloned from
+	private final Object owner = new Object();
 	
 	public VariableBindings() {
 		createGlobalScopeFrame();
 	}
 	
-	private VariableBindings(List<VariableScopeFrame> scopeFrames, List<VariableScopeFrame> currentScope) {
-		this.scopeFrames = scopeFrames;
-		this.currentScope = currentScope;
+	private VariableBindings(ScopeFrameNode localScopeFrames, int localScopeFrameCount, ScopeFrameNode globalScopeFrame) {
+		this.localScopeFrames = localScopeFrames;
+		this.localScopeFrameCount = localScopeFrameCount;
+		this.globalScopeFrame = globalScopeFrame;
 	}
 	
 	private void createGlobalScopeFrame() {
 		// the global scope frame has no parent
-		VariableScopeFrame frame = new VariableScopeFrame(VariableScopeFrame.Type.GLOBAL);
-		scopeFrames.add(frame);
-		currentScope = new LinkedList<>(Arrays.asList(frame));
+		globalScopeFrame = new ScopeFrameNode(new VariableScopeFrame(VariableScopeFrame.Type.GLOBAL), null, owner);
 	}
 	
-	/*
-	// TODO: nothing else can be called after this method has been called for the first time
-	public void destroyGlobalScopeFrame() {
-		// remove the global scope frame, as well as any remaining function or block scope frames (this should never
-		// happen while executing a schimp program: if it does, there's a bug in some code that uses this class)
-		// TODO: actually handle this possibility by throwing an exception
-		while (scopeFrames.get(0).getType() == VariableScopeFrame.Type.BLOCK) {
-			scopeFrames.remove(0);
-		}
-		scopeFrames.remove(0); // VariableScopeFrame.Type.GLOBAL
-	}
-	*/
-	
 	public void createFunctionScopeFrame() {
-		VariableScopeFrame frame = new VariableScopeFrame(VariableScopeFrame.Type.FUNCTION);
-		scopeFrames.add(0, frame);
-		
 		// creating a new function scope frame changes the current scope to the global scope and the new function scope
-		currentScope = new LinkedList<>(Arrays.asList(frame, scopeFrames.get(scopeFrames.size() - 1)));
+		localScopeFrames = new ScopeFrameNode(new VariableScopeFrame(VariableScopeFrame.Type.FUNCTION), localScopeFrames, owner);
+		localScopeFrameCount++;
 	}
 	
 	public void destroyFunctionScopeFrame() {
@@ -57,84 +74,229 @@ public class VariableBindings implements Cloneable {
 		// should never happen while executing a schimp program: if it does, there's a bug in some code that uses this
 		// class)
 		// TODO: actually handle this possibility by throwing an exception
-		while (scopeFrames.get(0).getType() == VariableScopeFrame.Type.BLOCK) {
-			scopeFrames.remove(0);
+		while (localScopeFrames.frame.getType() == VariableScopeFrame.Type.BLOCK) {
+			localScopeFrames = localScopeFrames.parent;
+			localScopeFrameCount--;
 		}
-		scopeFrames.remove(0); // VariableScopeFrame.Type.FUNCTION
+		localScopeFrames = localScopeFrames.parent; // VariableScopeFrame.Type.FUNCTION
+		localScopeFrameCount--;
 		
 		// destroying the current function scope frame changes the current scope to that of the previously-called
-		// function
-		currentScope = new LinkedList<>();
-		int i = -1;
-		while (scopeFrames.get(++i).getType() == VariableScopeFrame.Type.BLOCK) {
-			currentScope.add(scopeFrames.get(i));
-		}
-		if (scopeFrames.get(i).getType() == VariableScopeFrame.Type.FUNCTION) currentScope.add(scopeFrames.get(i)); // VariableScopeFrame.Type.FUNCTION
-		currentScope.add(scopeFrames.get(scopeFrames.size() - 1)); // VariableScopeFrame.Type.GLOBAL
+		// function; this happens implicitly, because the current scope is found by walking the remaining scope frames
 	}
 	
 	public void createBlockScopeFrame() {
-		VariableScopeFrame frame = new VariableScopeFrame(VariableScopeFrame.Type.BLOCK);
-		scopeFrames.add(0, frame);
-		currentScope.add(0, frame);
+		localScopeFrames = new ScopeFrameNode(new VariableScopeFrame(VariableScopeFrame.Type.BLOCK), localScopeFrames, owner);
+		localScopeFrameCount++;
 	}
 	
 	public void destroyBlockScopeFrame() {
-		scopeFrames.remove(0);
-		currentScope.remove(0);
+		localScopeFrames = localScopeFrames.parent;
+		localScopeFrameCount--;
+	}
+	
+	// the current scope consists of the block scope frames belonging to the currently-executing function, that
+	// function's scope frame, and the global scope frame: returns the innermost of these scope frames in which the
+	// given variable is defined, or null if it is undefined in the current scope
+	private ScopeFrameNode findScopeFrame(String variableName) {
+		for (ScopeFrameNode n = localScopeFrames; n != null; n = n.parent) {
+			if (n.frame.isDefined(variableName)) return n;
+			if (n.frame.getType() == VariableScopeFrame.Type.FUNCTION) break;
+		}
+		return globalScopeFrame.frame.isDefined(variableName) ? globalScopeFrame : null;
+	}
+	
+	// returns a scope frame equal to the one in the given node that this object is allowed to modify in place, copying
+	// the given node (and all of the nodes between it and the innermost scope frame) if necessary
+	private VariableScopeFrame modifiableScopeFrame(ScopeFrameNode node) {
+		if (node.owner == owner) return node.frame;
+		
+		if (node == globalScopeFrame) {
+			globalScopeFrame = new ScopeFrameNode(node.frame.clone(), null, owner);
+			return globalScopeFrame.frame;
+		}
+		
+		// copy the path from the innermost scope frame to the given node, sharing the given node's parent; the scope
+		// frames on the path are cloned too (which doesn't copy their variable bindings), because nodes owned by this
+		// object must only contain scope frames that no other object can see
+		ScopeFrameNode[] path = new ScopeFrameNode[localScopeFrameCount];
+		int pathLength = 0;
+		for (ScopeFrameNode n = localScopeFrames; n != node; n = n.parent) {
+			path[pathLength++] = n;
+		}
+		
+		ScopeFrameNode copiedNode = new ScopeFrameNode(node.frame.clone(), node.parent, owner);
+		ScopeFrameNode copiedPath = copiedNode;
+		for (int i = pathLength - 1; i >= 0; i--) {
+			copiedPath = path[i].owner == owner ?
+				new ScopeFrameNode(path[i].frame, copiedPath, owner) :
+				new ScopeFrameNode(path[i].frame.clone(), copiedPath, owner);
+		}
+		localScopeFrames = copiedPath;
+		
+		return copiedNode.frame;
+	}
+	
+	// returns the node containing the scope frame at the given scope depth in the current scope
+	private ScopeFrameNode scopeFrameAt(int scopeDepth) {
+		if (scopeDepth == GLOBAL_SCOPE_DEPTH) return globalScopeFrame;
+		
+		ScopeFrameNode n = localScopeFrames;
+		for (int i = 0; i < scopeDepth; i++) {
+			n = n.parent;
+		}
+		return n;
 	}
 	
 	public boolean isDefined(String variableName) {
-		return currentScope.stream()
-			.filter(f -> f.isDefined(variableName))
-			.findFirst()
-			.isPresent();
+		return findScopeFrame(variableName) != null;
+	}
+	
+	/**
+	 * Returns the scope depth of the variable with the given name in the current scope: either the number of function
+	 * and block scope frames between the innermost scope frame and the one the variable is defined in,
+	 * GLOBAL_SCOPE_DEPTH if the variable is defined in the global scope frame, or UNDEFINED_SCOPE_DEPTH if the variable
+	 * is undefined here.
+	 */
+	public int scopeDepthOf(String variableName) {
+		int scopeDepth = 0;
+		for (ScopeFrameNode n = localScopeFrames; n != null; n = n.parent) {
+			if (n.frame.isDefined(variableName)) return scopeDepth;
+			if (n.frame.getType() == VariableScopeFrame.Type.FUNCTION) break;
+			scopeDepth++;
+		}
+		return globalScopeFrame.frame.isDefined(variableName) ? GLOBAL_SCOPE_DEPTH : UNDEFINED_SCOPE_DEPTH;
+	}
+	
+	/**
+	 * Returns the slot allocated to the variable with the given name in the scope frame it is defined in, or -1 if the
+	 * variable is undefined here.
+	 */
+	public int slotOf(String variableName) {
+		ScopeFrameNode node = findScopeFrame(variableName);
+		return node == null ? -1 : node.frame.slotOf(variableName);
 	}
 	
 	public void define(String variableName, ArithmeticConstant value) throws ProgramExecutionException {
-		currentScope.get(0).define(variableName, value);
+		modifiableScopeFrame(localScopeFrames == null ? globalScopeFrame : localScopeFrames).define(variableName, value);
+	}
+	
+	public void define(int slot, String variableName, ArithmeticConstant value) throws ProgramExecutionException {
+		modifiableScopeFrame(localScopeFrames == null ? globalScopeFrame : localScopeFrames).define(slot, variableName, value);
 	}
 	
 	public void assign(String variableName, ArithmeticConstant value) throws ProgramExecutionException {
-		try {
-			currentScope.stream()
-				.filter(f -> f.isDefined(variableName))
-				.findFirst()
-				.get() // scope frame
-				.assign(variableName, value); // variable mapping within scope frame (String)
-		} catch (NoSuchElementException e) {
+		ScopeFrameNode node = findScopeFrame(variableName);
+		if (node == null) {
 			throw new ProgramExecutionException("cannot assign value to variable '" + variableName + "': variable is undefined here");
 		}
+		modifiableScopeFrame(node).assign(variableName, value);
+	}
+	
+	public void assign(int scopeDepth, int slot, ArithmeticConstant value) throws ProgramExecutionException {
+		modifiableScopeFrame(scopeFrameAt(scopeDepth)).assign(slot, value);
 	}
 	
 	public ArithmeticConstant evaluate(String variableName) throws ProgramExecutionException {
-		try {
-			return currentScope.stream()
-				.filter(f -> f.isDefined(variableName))
-				.findFirst()
-				.get() // scope frame
-				.evaluate(variableName); // variable mapping within scope frame (String)
-		} catch (NoSuchElementException e) {
+		ScopeFrameNode node = findScopeFrame(variableName);
+		if (node == null) {
 			throw new ProgramExecutionException("cannot evaluate variable '" + variableName + "': variable is undefined here");
 		}
+		return node.frame.evaluate(variableName);
 	}
 	
+	/**
+	 * Returns the value of the variable in the given slot of the scope frame at the given scope depth, or null if no
+	 * variable has been declared there.
+	 */
+	public ArithmeticConstant evaluate(int scopeDepth, int slot) {
+		return scopeFrameAt(scopeDepth).frame.evaluate(slot);
+	}
+	
+	/**
+	 * Returns a VariableBindings object that shares all of this object's scope frames, copying them only when it modifies
+	 * them. Cloning doesn't modify this object, so several threads can clone the same object at once; in return, this
+	 * object must not be modified once it has been cloned (the scope frames it owns are shared with the clone).
+	 */
 	@Override
 	public VariableBindings clone() {
-		List<VariableScopeFrame> clonedScopeFrames = new LinkedList<VariableScopeFrame>();
-		List<VariableScopeFrame> clonedCurrentScope = new LinkedList<VariableScopeFrame>();
+		return new VariableBindings(localScopeFrames, localScopeFrameCount, globalScopeFrame);
+	}
+	
+	// returns all of the scope frames, from the innermost scope frame outwards (so the global scope frame is last); the
+	// scope frames must not be modified
+	VariableScopeFrame[] getScopeFrames() {
+		VariableScopeFrame[] scopeFrames = new VariableScopeFrame[localScopeFrameCount + 1];
+		int i = 0;
+		for (ScopeFrameNode n = localScopeFrames; n != null; n = n.parent) {
+			scopeFrames[i++] = n.frame;
+		}
+		scopeFrames[i] = globalScopeFrame.frame;
+		return scopeFrames;
+	}
+	
+	// the inverse of getScopeFrames(): the scope frames are shared with the given array, so the new object must not
+	// modify them in place
+	static VariableBindings fromScopeFrames(VariableScopeFrame[] scopeFrames) {
+		ScopeFrameNode localScopeFrames = null;
+		for (int i = scopeFrames.length - 2; i >= 0; i--) {
+			localScopeFrames = new ScopeFrameNode(scopeFrames[i], localScopeFrames, null);
+		}
+		return new VariableBindings(localScopeFrames, scopeFrames.length - 1, new ScopeFrameNode(scopeFrames[scopeFrames.length - 1], null, null));
+	}
+	
+	private List<VariableScopeFrame> scopeFrames() {
+		List<VariableScopeFrame> scopeFrames = new LinkedList<VariableScopeFrame>();
+		for (ScopeFrameNode n = localScopeFrames; n != null; n = n.parent) {
+			scopeFrames.add(n.frame);
+		}
+		scopeFrames.add(globalScopeFrame.frame);
+		return scopeFrames;
+	}
+	
+	private List<VariableScopeFrame> currentScope() {
+		List<VariableScopeFrame> currentScope = new LinkedList<VariableScopeFrame>();
+		for (ScopeFrameNode n = localScopeFrames; n != null; n = n.parent) {
+			currentScope.add(n.frame);
+			if (n.frame.getType() == VariableScopeFrame.Type.FUNCTION) break;
+		}
+		currentScope.add(globalScopeFrame.frame);
+		return currentScope;
+	}
+	
+	public long fingerprint() {
+		long f = localScopeFrameCount + 1;
+		for (ScopeFrameNode n = localScopeFrames; n != null; n = n.parent) {
+			f = Fingerprint.combine(f, n.frame.fingerprint());
+		}
+		return Fingerprint.combine(f, globalScopeFrame.frame.fingerprint());
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof VariableBindings)) return false;
+		VariableBindings b = (VariableBindings)o;
 		
-		int c = 0;
-		for (int s = 0; s < scopeFrames.size(); s++) {
-			clonedScopeFrames.add(scopeFrames.get(s).clone());
-			
-			if ((c < currentScope.size()) && (scopeFrames.get(s) == currentScope.get(c))) {
-				clonedCurrentScope.add(clonedScopeFrames.get(s));
-				c++;
-			}
+		if (localScopeFrameCount != b.localScopeFrameCount) return false;
+		if (globalScopeFrame != b.globalScopeFrame && !globalScopeFrame.frame.equals(b.globalScopeFrame.frame)) return false;
+		
+		// the current scope is determined entirely by the types of the scope frames, so it doesn't need to be compared;
+		// once both lists reach a shared node, the rest of the lists are identical
+		ScopeFrameNode n1 = localScopeFrames;
+		ScopeFrameNode n2 = b.localScopeFrames;
+		while (n1 != n2) {
+			if (!n1.frame.equals(n2.frame)) return false;
+			n1 = n1.parent;
+			n2 = n2.parent;
 		}
 		
-		return new VariableBindings(clonedScopeFrames, clonedCurrentScope);
+		return true;
+	}
+	
+	@Override
+	public int hashCode() {
+		return Fingerprint.toHashCode(fingerprint());
 	}
 	
 	private String indentation(int indent) {
@@ -154,14 +316,14 @@ public class VariableBindings implements Cloneable {
 		
 		s.append(indentation(indent + 1));
 		s.append("scopeFrames: [\n");
-		s.append(scopeFrames.stream().map(sf -> sf.toString(indent + 2)).collect(Collectors.joining("\n")));
+		s.append(scopeFrames().stream().map(sf -> sf.toString(indent + 2)).collect(Collectors.joining("\n")));
 		s.append("\n");
 		s.append(indentation(indent + 1));
 		s.append("]\n");
 		
 		s.append(indentation(indent + 1));
 		s.append("currentScope: [\n");
-		s.append(currentScope.stream().map(sf -> sf.toString(indent + 2)).collect(Collectors.joining("\n")));
+		s.append(currentScope().stream().map(sf -> sf.toString(indent + 2)).collect(Collectors.joining("\n")));
 		s.append("\n");
 		s.append(indentation(indent + 1));
 		s.append("]\n");
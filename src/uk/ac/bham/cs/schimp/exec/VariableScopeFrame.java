@@ -1,8 +1,9 @@
 package uk.ac.bham.cs.schimp.exec;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import org.apache.commons.lang3.StringUtils;
 
@@ -16,64 +17,190 @@ public class VariableScopeFrame implements Cloneable {
 		BLOCK
 	}
 	
+	private static final String[] NO_NAMES = new String[0];
+	private static final ArithmeticConstant[] NO_VALUES = new ArithmeticConstant[0];
+	
 	private Type type;
-	private Map<String, ArithmeticConstant> scopeFrame = new HashMap<String, ArithmeticConstant>();
+	
+	// variables are stored in slots, which are allocated to variables when the program is syntax-checked (a variable
+	// is allocated the next free slot in the scope frame it's declared in): slot i contains the value of the variable
+	// allocated to it (or null if that variable hasn't been declared yet) and its name. the arrays only extend as far as
+	// the highest slot containing a declared variable
+	private String[] names = NO_NAMES;
+	private ArithmeticConstant[] values = NO_VALUES;
+	
+	// a cloned scope frame initially shares the slot arrays of the scope frame it was cloned from, and copies them when
+	// it's about to be modified (ArithmeticConstants are immutable, so they never need to be copied); the scope frame
+	// it was cloned from is never modified again, so it never needs to copy them
+	private boolean sharedSlots = false;
+	
+	// an order-independent fingerprint of the variable bindings in this scope frame, maintained incrementally as
+	// variables are defined and assigned: each binding contributes its own fingerprint, and the contributions are
+	// combined with xor so that a binding can be replaced without revisiting the others
+	private long bindingsFingerprint = 0;
 	
 	public VariableScopeFrame(Type type) {
 		this.type = type;
 	}
 	
-	private VariableScopeFrame(Type type, Map<String, ArithmeticConstant> scopeFrame) {
+	private VariableScopeFrame(Type type, String[] names, ArithmeticConstant[] values, long bindingsFingerprint) {
 		this.type = type;
-		this.scopeFrame = scopeFrame;
+		this.names = names;
+		this.values = values;
+		this.bindingsFingerprint = bindingsFingerprint;
+		this.sharedSlots = true;
+	}
+	
+	// creates a scope frame from slot arrays that may be shared with other objects (they are copied before this scope
+	// frame is modified)
+	VariableScopeFrame(Type type, String[] names, ArithmeticConstant[] values) {
+		this(type, names, values, 0);
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null) bindingsFingerprint ^= bindingFingerprint(i, values[i]);
+		}
+	}
+	
+	private void unshareSlots(int minimumSlots) {
+		if (sharedSlots || values.length < minimumSlots) {
+			int slots = Math.max(values.length, minimumSlots);
+			names = Arrays.copyOf(names, slots);
+			values = Arrays.copyOf(values, slots);
+			sharedSlots = false;
+		}
 	}
 	
 	public Type getType() {
 		return type;
 	}
 	
+	// the slot arrays are exposed (without being copied) so that scope frames can be encoded compactly: they must not be
+	// modified
+	String[] getSlotNames() {
+		return names;
+	}
+	
+	ArithmeticConstant[] getSlotValues() {
+		return values;
+	}
+	
+	/**
+	 * Returns the slot allocated to the variable with the given name in this scope frame, or -1 if no variable with
+	 * this name is defined in this scope frame.
+	 */
+	public int slotOf(String variableName) {
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null && names[i].equals(variableName)) return i;
+		}
+		return -1;
+	}
+	
 	public boolean isDefined(String variableName) {
-		return scopeFrame.containsKey(variableName);
+		return slotOf(variableName) != -1;
+	}
+	
+	public boolean isDefined(int slot) {
+		return slot < values.length && values[slot] != null;
 	}
 	
 	public void define(String variableName, ArithmeticConstant value) throws ProgramExecutionException {
-		if (scopeFrame.containsKey(variableName)) {
+		if (isDefined(variableName)) {
+			throw new ProgramExecutionException("cannot declare variable '" + variableName + "': variable is already defined in this scope");
+		} else {
+			define(values.length, variableName, value);
+		}
+	}
+	
+	public void define(int slot, String variableName, ArithmeticConstant value) throws ProgramExecutionException {
+		if (isDefined(slot)) {
 			throw new ProgramExecutionException("cannot declare variable '" + variableName + "': variable is already defined in this scope");
 		} else {
-			scopeFrame.put(variableName, value);
+			unshareSlots(slot + 1);
+			names[slot] = variableName;
+			values[slot] = value;
+			bindingsFingerprint ^= bindingFingerprint(slot, value);
 		}
 	}
 	
 	public void assign(String variableName, ArithmeticConstant value) throws ProgramExecutionException {
-		if (scopeFrame.containsKey(variableName)) {
-			scopeFrame.put(variableName, value);
+		int slot = slotOf(variableName);
+		if (slot != -1) {
+			assign(slot, value);
 		} else {
 			throw new ProgramExecutionException("cannot assign value to variable '" + variableName + "': variable is undefined here");
 		}
 	}
 	
+	public void assign(int slot, ArithmeticConstant value) throws ProgramExecutionException {
+		if (isDefined(slot)) {
+			unshareSlots(0);
+			bindingsFingerprint ^= bindingFingerprint(slot, values[slot]) ^ bindingFingerprint(slot, value);
+			values[slot] = value;
+		} else {
+			throw new ProgramExecutionException("cannot assign value to variable in slot " + slot + ": variable is undefined here");
+		}
+	}
+	
 	public void clear() {
-		scopeFrame.clear();
+		names = NO_NAMES;
+		values = NO_VALUES;
+		sharedSlots = false;
+		bindingsFingerprint = 0;
 	}
 	
 	public ArithmeticConstant evaluate(String variableName) throws ProgramExecutionException {
-		if (scopeFrame.containsKey(variableName)) {
-			return scopeFrame.get(variableName);
+		int slot = slotOf(variableName);
+		if (slot != -1) {
+			return values[slot];
 		} else {
 			throw new ProgramExecutionException("cannot assign value to variable '" + variableName + "': variable is undefined here");
 		}
 	}
 	
+	/**
+	 * Returns the value of the variable in the given slot, or null if no variable has been declared in that slot.
+	 */
+	public ArithmeticConstant evaluate(int slot) {
+		return slot < values.length ? values[slot] : null;
+	}
+	
+	/**
+	 * Returns a scope frame that shares this one's slot arrays until it's modified. As with VariableBindings.clone(),
+	 * cloning doesn't modify this scope frame, and this scope frame must not be modified once it has been cloned.
+	 */
 	@Override
 	public VariableScopeFrame clone() {
-		return new VariableScopeFrame(
-			type, // VariableScopeFrame.Type - safe to reuse reference
-			scopeFrame.entrySet().stream()
-				.collect(Collectors.<Map.Entry<String, ArithmeticConstant>, String, ArithmeticConstant>toMap(
-					e -> e.getKey(), // String - safe to reuse reference
-					e -> e.getValue().clone() // ArithmeticConstant - needs to be cloned
-				))
-		);
+		return new VariableScopeFrame(type, names, values, bindingsFingerprint);
+	}
+	
+	// the name of the variable in a slot is fixed when the program is syntax-checked, so it doesn't need to contribute
+	// to the fingerprint or be compared in equals()
+	private static long bindingFingerprint(int slot, ArithmeticConstant value) {
+		return Fingerprint.combine(slot, value.fingerprint());
+	}
+	
+	public long fingerprint() {
+		return Fingerprint.combine(type.ordinal(), bindingsFingerprint);
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof VariableScopeFrame)) return false;
+		VariableScopeFrame f = (VariableScopeFrame)o;
+		return type == f.type && bindingsFingerprint == f.bindingsFingerprint && Arrays.equals(values, f.values);
+	}
+	
+	@Override
+	public int hashCode() {
+		return Fingerprint.toHashCode(fingerprint());
+	}
+	
+	private Stream<String> sortedBindingStrings() {
+		return IntStream.range(0, values.length)
+			.filter(i -> values[i] != null)
+			.boxed()
+			.sorted((i, j) -> names[i].compareTo(names[j]))
+			.map(i -> names[i] + "=" + values[i].toSourceString());
 	}
 	
 	private String indentation(int indent) {
@@ -90,24 +217,14 @@ public class VariableScopeFrame implements Cloneable {
 		
 		s.append(indentation(indent));
 		s.append("VariableScopeFrame[" + type + "]: {");
-		s.append(
-			scopeFrame.keySet().stream()
-				.sorted()
-				.map(v -> v + "=" + scopeFrame.get(v).toSourceString())
-				.collect(Collectors.joining(" "))
-		);
+		s.append(sortedBindingStrings().collect(Collectors.joining(" ")));
 		s.append("}");
 		
 		return s.toString();
 	}
 	
 	public String toShortString() {
-		return "{" +
-			scopeFrame.keySet().stream()
-				.sorted()
-				.map(v -> v + "=" + scopeFrame.get(v).toSourceString())
-				.collect(Collectors.joining(" "))
-			+ "}";
+		return "{" + sortedBindingStrings().collect(Collectors.joining(" ")) + "}";
 	}
 
 }
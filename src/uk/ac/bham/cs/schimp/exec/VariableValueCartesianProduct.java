@@ -4,7 +4,9 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import uk.ac.bham.cs.schimp.lang.Program;
@@ -18,13 +20,23 @@ import uk.ac.bham.cs.schimp.source.SyntaxException;
 public class VariableValueCartesianProduct {
 	
 	private List<String> varNames;
+	private List<Integer> varSlots;
 	private List<List<ArithmeticExpression>> aexps;
 	private int size;
 	private int[] dividends;
 	private int[] moduli;
 	
+	// if each variable's arithmetic expressions are constant (and each variable only appears once), the position of the
+	// first of them that evaluates to each value, so that the index of the first element in which the variables take
+	// particular values can be computed directly; otherwise null
+	private List<Map<Integer, Integer>> positionsByValue;
+	
+	// the result of getIndicesByValues() for each list of names it has been given
+	private Map<List<String>, Map<List<Integer>, Integer>> indicesByValues = new HashMap<>();
+	
 	public VariableValueCartesianProduct(List<? extends VariableAssignmentCommand> assignmentCommands) {
 		varNames = assignmentCommands.stream().map(c -> c.getVariableReference().getName()).collect(Collectors.toList());
+		varSlots = assignmentCommands.stream().map(c -> c.getVariableReference().getSlot()).collect(Collectors.toList());
 		aexps = new ArrayList<>(Collections.nCopies(assignmentCommands.size(), null));
 		dividends = new int[assignmentCommands.size()];
 		moduli = new int[assignmentCommands.size()];
@@ -38,6 +50,25 @@ public class VariableValueCartesianProduct {
 		}
 		
 		size = dividend;
+		
+		positionsByValue = new ArrayList<>(varNames.size());
+		try {
+			for (int i = 0; i < varNames.size(); i++) {
+				if (varNames.indexOf(varNames.get(i)) != i) {
+					positionsByValue = null;
+					break;
+				}
+				// an expression that refers to a variable can't be evaluated in an empty scope frame
+				VariableScopeFrame empty = new VariableScopeFrame(VariableScopeFrame.Type.BLOCK);
+				Map<Integer, Integer> positions = new HashMap<>();
+				for (int j = 0; j < aexps.get(i).size(); j++) {
+					positions.putIfAbsent(aexps.get(i).get(j).evaluate(empty).intValue(), j);
+				}
+				positionsByValue.add(positions);
+			}
+		} catch (EvaluationException e) {
+			positionsByValue = null;
+		}
 	}
 	
 	public int size() {
@@ -50,7 +81,10 @@ public class VariableValueCartesianProduct {
 		try {
 			for (int j = 0; j < varNames.size(); j++) {
 				int aexpIndex = Math.floorDiv(i, dividends[j]) % moduli[j];
+				// each variable is defined in the same slot that it occupies in the program's global scope frame, so that
+				// any references to these variables in the arithmetic expressions resolve correctly
 				frame.define(
+					varSlots.get(j),
 					varNames.get(j),
 					aexps.get(j).get(aexpIndex).evaluate(frame)
 				);
@@ -63,6 +97,74 @@ public class VariableValueCartesianProduct {
 		return frame;
 	}
 	
+	// the position in this product's variables of each of the given variables, or null unless the given variables are
+	// exactly this product's variables (in any order)
+	private int[] positionsOf(List<String> names) {
+		if (names.size() != varNames.size()) return null;
+		int[] positions = new int[names.size()];
+		for (int i = 0; i < names.size(); i++) {
+			positions[i] = varNames.indexOf(names.get(i));
+			if (positions[i] == -1) return null;
+		}
+		return positions;
+	}
+	
+	// returns the index of the first element of this product in which the given variables (in the given order) take the
+	// given values, or -1 if there isn't one; if the variables' values are all constant, this is computed directly from
+	// the positions of the values among each variable's possible values, without enumerating the product
+	public int indexOf(List<String> names, List<Integer> values) {
+		int[] positions = positionsByValue == null ? null : positionsOf(names);
+		if (positions == null) {
+			Integer index = getIndicesByValues(names).get(values);
+			return index == null ? -1 : index;
+		}
+		
+		int index = 0;
+		for (int i = 0; i < positions.length; i++) {
+			Integer position = positionsByValue.get(positions[i]).get(values.get(i));
+			if (position == null) return -1;
+			index += position * dividends[positions[i]];
+		}
+		return index;
+	}
+	
+	// returns the number of distinct combinations of values that the given variables take in this product
+	public int countValues(List<String> names) {
+		if (positionsByValue == null || positionsOf(names) == null) return getIndicesByValues(names).size();
+		
+		int count = 1;
+		for (Map<Integer, Integer> positions : positionsByValue) {
+			count *= positions.size();
+		}
+		return count;
+	}
+	
+	// maps each combination of values of the given variables (in the given order) to the index of the first element of
+	// this product in which they take those values; values may be computed from the values of other variables, so this
+	// can't be done by inverting get(), and it's computed by enumerating the whole product (once for each list of names)
+	public synchronized Map<List<Integer>, Integer> getIndicesByValues(List<String> names) {
+		Map<List<Integer>, Integer> cached = indicesByValues.get(names);
+		if (cached != null) return cached;
+		
+		Map<List<Integer>, Integer> indices = new HashMap<>();
+		for (int i = 0; i < size; i++) {
+			VariableScopeFrame frame = get(i);
+			List<Integer> values = new ArrayList<>(names.size());
+			try {
+				for (String name : names) {
+					values.add(frame.evaluate(name).intValue());
+				}
+			} catch (ProgramExecutionException e) {
+				// evaluate() throws a ProgramExecutionException if the given string is not a defined variable name, but the
+				// names given here are always names of variables in this product
+			}
+			indices.putIfAbsent(values, i);
+		}
+		indices = Collections.unmodifiableMap(indices);
+		indicesByValues.put(new ArrayList<>(names), indices);
+		return indices;
+	}
+	
 	public static void main(String[] args) throws IOException, SyntaxException {
 		SourceFile source = new SourceFile(new File("examples/simple.schimp"));
 		Program p = source.parse(null);
@@ -35,8 +35,11 @@ public class SCHIMPModelStateDecorator implements Decorator {
 		// - the prism State id and unique SCHIMPExecutionContext id
 		label.append("P: " + state + " / C: " + schimpExecutionContextID + "\n");
 		
-		// - the id of the command being executed
-		if (context.isTerminating()) {
+		// - the id of the command being executed (unless the SCHIMPExecutionContext was discarded after a sweep-line
+		//   exploration, in which case only the information in the prism State is available)
+		if (context == null) {
+			label.append("→ ?\n");
+		} else if (context.isTerminating()) {
 			// give prism States representing terminating SCHIMPExecutionContexts a double outline
 			d.attributes().put("peripheries", "2");
 		} else {
@@ -63,7 +66,7 @@ public class SCHIMPModelStateDecorator implements Decorator {
 		}
 		
 		// - the elapsed time and power consumption by the time this SCHIMPExecutionContext is reached
-		label.append("◷ " + context.elapsedTime + "  ⚡ " + context.totalPowerConsumption);
+		if (context != null) label.append("◷ " + context.elapsedTime + "  ⚡ " + context.totalPowerConsumption);
 		
 		d.setLabel(label.toString());
 		
@@ -15,6 +15,11 @@ public class Block extends CommandList {
 		super(commands);
 	}
 	
+	// returns a copy of this Block that hasn't been checked (see Command.copy())
+	public Block copy() {
+		return new Block(commands.stream().map(Command::copy).collect(Collectors.toList()));
+	}
+	
 	@Override
 	public void check(SyntaxCheckContext context) throws SyntaxException {
 		// a Block is a special type of CommandList that creates a new scope frame before its commands are executed and
@@ -7,6 +7,7 @@ import java.util.stream.Collectors;
 
 import org.javatuples.Pair;
 
+import uk.ac.bham.cs.schimp.AliasTable;
 import uk.ac.bham.cs.schimp.ProbabilityMassFunction;
 import uk.ac.bham.cs.schimp.exec.FunctionModel;
 import uk.ac.bham.cs.schimp.exec.ProgramExecutionException;
@@ -65,6 +66,19 @@ public class Function extends Block {
 		}
 	}
 	
+	public AliasTable<Pair<Integer, Integer>> getResourceConsumptionAliasTable(List<ArithmeticConstant> invokeParameters) {
+		if (type == ResourceConsumptionType.ATOMIC) {
+			return AliasTable.fromProbabilityMassFunction(getAtomicFunctionModel());
+		} else {
+			return resourceConsumptionModel.getResourceConsumptionAliasTable(invokeParameters);
+		}
+	}
+	
+	// null if this function is atomic
+	public FunctionModel getResourceConsumptionModel() {
+		return resourceConsumptionModel;
+	}
+	
 	public void setResourceConsumptionModel(FunctionModel model) {
 		resourceConsumptionModel = model;
 		
@@ -18,6 +18,10 @@ public class FunctionReference extends Syntax {
 		this.arity = arity;
 	}
 	
+	public String getName() {
+		return name;
+	}
+	
 	@Override
 	public void check(SyntaxCheckContext context) throws SyntaxException {
 		// find the function with the given name and arity in context.functions (which was populated when the top-level
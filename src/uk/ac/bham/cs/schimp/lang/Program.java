@@ -1,6 +1,7 @@
 package uk.ac.bham.cs.schimp.lang;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -60,6 +61,18 @@ public class Program extends Block {
 		return initialCommands;
 	}
 	
+	public List<NewCommand> getNewCommands() {
+		return newCommands;
+	}
+	
+	public Collection<Function> getFunctions() {
+		return functions.values();
+	}
+	
+	public InvokeCommand getInitialInvokeCommand() {
+		return initialInvokeCommand;
+	}
+	
 	public List<String> getInitialVariableNames() {
 		return initialCommands.stream()
 			.map(i -> i.getVariableReference().getName())
@@ -44,6 +44,11 @@ public class AssignCommand extends VariableAssignmentCommand {
 		return pmf;
 	}
 	
+	@Override
+	public Command copy() {
+		return new AssignCommand(new VariableReference(v.getName()), pmf.copy());
+	}
+	
 	@Override
 	public void check(SyntaxCheckContext context) throws SyntaxException {
 		super.check(context);
@@ -64,6 +69,11 @@ public class AssignCommand extends VariableAssignmentCommand {
 		}
 	}
 	
+	@Override
+	protected void assign(ProgramExecutionContext context, ArithmeticConstant value) {
+		context.variableBindings.assign(v.getScopeDepth(), v.getSlot(), value);
+	}
+	
 	@Override
 	public ProbabilityMassFunction<ProgramExecutionContext> execute(ProgramExecutionContext context) throws ProgramExecutionException {
 		ProbabilityMassFunction<ProgramExecutionContext> succeedingPMF = new ProbabilityMassFunction<>();
@@ -73,7 +83,7 @@ public class AssignCommand extends VariableAssignmentCommand {
 			
 			BigFraction succeedingContextProbability;
 			try {
-				succeedingContext.variableBindings.assign(v.getName(), e.evaluate(succeedingContext));
+				succeedingContext.variableBindings.assign(v.getScopeDepth(), v.getSlot(), e.evaluate(succeedingContext));
 				succeedingContextProbability = pmf.probabilityOf(e).evaluate(context).toFraction();
 			} catch (EvaluationException ex) {
 				// TODO: wrap this exception properly
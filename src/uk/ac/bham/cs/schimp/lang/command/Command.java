@@ -1,9 +1,19 @@
 package uk.ac.bham.cs.schimp.lang.command;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 import uk.ac.bham.cs.schimp.ProbabilityMassFunction;
 import uk.ac.bham.cs.schimp.exec.ProgramExecutionContext;
 import uk.ac.bham.cs.schimp.exec.ProgramExecutionException;
+import uk.ac.bham.cs.schimp.exec.Sampler;
+import uk.ac.bham.cs.schimp.lang.Block;
 import uk.ac.bham.cs.schimp.lang.Syntax;
+import uk.ac.bham.cs.schimp.lang.expression.arith.ArithmeticConstant;
+import uk.ac.bham.cs.schimp.lang.expression.arith.VariableReference;
 import uk.ac.bham.cs.schimp.source.ControlFlowContext;
 import uk.ac.bham.cs.schimp.source.SyntaxCheckContext;
 import uk.ac.bham.cs.schimp.source.SyntaxException;
@@ -43,6 +53,47 @@ public abstract class Command extends Syntax {
 		}
 	}
 	
+	/**
+	 * Returns the commands that may be executed immediately after this one in the function that this command belongs
+	 * to, once its control flow has been resolved; a null element means that the function may return after this command
+	 * (an InvokeCommand's successor is the command executed when the invoked function returns)
+	 */
+	public List<Command> getSuccessors() {
+		return Arrays.asList(nextCommand);
+	}
+	
+	/**
+	 * Returns the Blocks nested directly inside this command
+	 */
+	public List<Block> getBlocks() {
+		return Collections.emptyList();
+	}
+	
+	// adds every VariableReference whose value is read when this command is executed to the given collection
+	public void collectReadVariableReferences(Collection<VariableReference> references) {}
+	
+	// partially evaluates every expression this command evaluates, replacing the given variables with their values
+	// (see ArithmeticExpression.partiallyEvaluate())
+	public void partiallyEvaluate(Map<VariableReference, ArithmeticConstant> constants) {}
+	
+	/**
+	 * Returns a copy of this command (including the Blocks and expressions in it) that hasn't been checked. Only the
+	 * commands that can appear in a function's body can be copied.
+	 */
+	public Command copy() {
+		throw new UnsupportedOperationException(getClass().getSimpleName() + " can't be copied");
+	}
+	
 	public abstract ProbabilityMassFunction<ProgramExecutionContext> execute(ProgramExecutionContext context) throws ProgramExecutionException;
 	
+	/**
+	 * Executes this command and returns one of the succeeding ProgramExecutionContexts, chosen at random by the given
+	 * Sampler (usually according to their probabilities). The given ProgramExecutionContext may be modified and returned
+	 * rather than cloned, so it must not be used again afterwards (nor may it be a ProgramExecutionContext that has been
+	 * cloned, see ProgramExecutionContext.clone()).
+	 */
+	public ProgramExecutionContext sample(ProgramExecutionContext context, Sampler sampler) throws ProgramExecutionException {
+		return execute(context).sample(sampler.getRandom());
+	}
+	
 }
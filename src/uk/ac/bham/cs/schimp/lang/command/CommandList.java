@@ -1,5 +1,6 @@
 package uk.ac.bham.cs.schimp.lang.command;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -23,6 +24,18 @@ public abstract class CommandList extends Syntax {
 		this.commands = Arrays.asList(commands);
 	}
 	
+	public List<Command> getCommands() {
+		return commands;
+	}
+	
+	// replaces the commands in this list in place, since the list may be shared (e.g., by a FunctionCommand and its
+	// Function)
+	public void setCommands(List<Command> commands) {
+		List<Command> replacement = new ArrayList<>(commands);
+		this.commands.clear();
+		this.commands.addAll(replacement);
+	}
+	
 	public Command getFirstCommand() {
 		// TODO: make sure commands isn't empty (it never should be)
 		return commands.get(0);
@@ -1,13 +1,20 @@
 package uk.ac.bham.cs.schimp.lang.command;
 
 import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import uk.ac.bham.cs.schimp.ProbabilityMassFunction;
 import uk.ac.bham.cs.schimp.exec.EvaluationException;
 import uk.ac.bham.cs.schimp.exec.ProgramExecutionContext;
 import uk.ac.bham.cs.schimp.exec.ProgramExecutionException;
+import uk.ac.bham.cs.schimp.exec.Sampler;
 import uk.ac.bham.cs.schimp.lang.Block;
+import uk.ac.bham.cs.schimp.lang.expression.arith.ArithmeticConstant;
+import uk.ac.bham.cs.schimp.lang.expression.arith.VariableReference;
 import uk.ac.bham.cs.schimp.lang.expression.bool.BooleanConstant;
 import uk.ac.bham.cs.schimp.lang.expression.bool.BooleanExpression;
 import uk.ac.bham.cs.schimp.source.ControlFlowContext;
@@ -70,8 +77,65 @@ public class IfCommand extends Command {
 		}
 	}
 	
+	@Override
+	public List<Command> getSuccessors() {
+		return Arrays.asList(trueNextCommand, falseNextCommand == null ? nextCommand : falseNextCommand);
+	}
+	
+	@Override
+	public List<Block> getBlocks() {
+		return falseBody == null ? Arrays.asList(trueBody) : Arrays.asList(trueBody, falseBody);
+	}
+	
+	@Override
+	public void collectReadVariableReferences(Collection<VariableReference> references) {
+		conditional.collectVariableReferences(references);
+	}
+	
+	@Override
+	public void partiallyEvaluate(Map<VariableReference, ArithmeticConstant> constants) {
+		conditional = conditional.partiallyEvaluate(constants);
+	}
+	
+	@Override
+	public Command copy() {
+		return new IfCommand(conditional.copy(), trueBody.copy(), falseBody == null ? null : falseBody.copy());
+	}
+	
+	public BooleanExpression getConditional() {
+		return conditional;
+	}
+	
+	/**
+	 * Replaces this command's bodies with the one that is executed when its conditional has the given value (which then
+	 * becomes its true body, and must not be null), once the conditional is known to always have that value; this must
+	 * be done before the command's control flow is resolved
+	 */
+	public void keepBranch(boolean conditionalValue) {
+		if (!conditionalValue) trueBody = falseBody;
+		falseBody = null;
+		conditional = new BooleanConstant(true);
+	}
+	
 	@Override
 	public ProbabilityMassFunction<ProgramExecutionContext> execute(ProgramExecutionContext context) throws ProgramExecutionException {
+		ProgramExecutionContext succeedingContext = context.clone();
+		step(succeedingContext);
+		
+		ProbabilityMassFunction<ProgramExecutionContext> pmf = new ProbabilityMassFunction<>();
+		pmf.add(succeedingContext, 1);
+		
+		return pmf;
+	}
+	
+	@Override
+	public ProgramExecutionContext sample(ProgramExecutionContext context, Sampler sampler) throws ProgramExecutionException {
+		step(context);
+		return context;
+	}
+	
+	// enters the branch chosen by the conditional in the given ProgramExecutionContext
+	private void step(ProgramExecutionContext context) throws ProgramExecutionException {
 		BooleanConstant conditionalValue = null;
 		try {
 			conditionalValue = conditional.evaluate(context);
@@ -80,25 +144,18 @@ public class IfCommand extends Command {
 			throw new ProgramExecutionException(e.getMessage());
 		}
 		
-		ProgramExecutionContext succeedingContext = context.clone();
-		
 		if (conditionalValue.toBoolean() == true) {
-			succeedingContext.variableBindings.createBlockScopeFrame();
-			succeedingContext.setNextCommand(trueNextCommand);
+			context.variableBindings.createBlockScopeFrame();
+			context.setNextCommand(trueNextCommand);
 		} else {
 			if (falseNextCommand == null) {
 				if (destroyBlockScopeFrames > 0) context.destroyBlockScopeFrames(destroyBlockScopeFrames);
-				succeedingContext.setNextCommand(nextCommand);
+				context.setNextCommand(nextCommand);
 			} else {
-				succeedingContext.variableBindings.createBlockScopeFrame();
-				succeedingContext.setNextCommand(falseNextCommand);
+				context.variableBindings.createBlockScopeFrame();
+				context.setNextCommand(falseNextCommand);
 			}
 		}
-		
-		ProbabilityMassFunction<ProgramExecutionContext> pmf = new ProbabilityMassFunction<>();
-		pmf.add(succeedingContext, 1);
-		
-		return pmf;
 	}
 	
 	public String toString(int indent) {
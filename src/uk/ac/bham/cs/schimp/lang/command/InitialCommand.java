@@ -75,6 +75,12 @@ public class InitialCommand extends VariableAssignmentCommand {
 		v.check(context);
 	}
 	
+	@Override
+	protected void assign(ProgramExecutionContext context, ArithmeticConstant value) {
+		context.variableBindings.define(v.getSlot(), v.getName(), value);
+		context.initialVariableBindings.define(v.getSlot(), v.getName(), value);
+	}
+	
 	@Override
 	public ProbabilityMassFunction<ProgramExecutionContext> execute(ProgramExecutionContext context) throws ProgramExecutionException {
 		ProbabilityMassFunction<ProgramExecutionContext> succeedingPMF = new ProbabilityMassFunction<>();
@@ -85,8 +91,8 @@ public class InitialCommand extends VariableAssignmentCommand {
 			BigFraction succeedingContextProbability;
 			try {
 				ArithmeticConstant a = e.evaluate(succeedingContext);
-				succeedingContext.variableBindings.define(v.getName(), a);
-				succeedingContext.initialVariableBindings.define(v.getName(), a);
+				succeedingContext.variableBindings.define(v.getSlot(), v.getName(), a);
+				succeedingContext.initialVariableBindings.define(v.getSlot(), v.getName(), a);
 				succeedingContextProbability = pmf.probabilityOf(e).evaluate(context).toFraction();
 			} catch (EvaluationException ex) {
 				// TODO: wrap this exception properly
@@ -1,8 +1,11 @@
 package uk.ac.bham.cs.schimp.lang.command;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import org.javatuples.Pair;
@@ -11,10 +14,12 @@ import uk.ac.bham.cs.schimp.ProbabilityMassFunction;
 import uk.ac.bham.cs.schimp.exec.EvaluationException;
 import uk.ac.bham.cs.schimp.exec.ProgramExecutionContext;
 import uk.ac.bham.cs.schimp.exec.ProgramExecutionException;
+import uk.ac.bham.cs.schimp.exec.Sampler;
 import uk.ac.bham.cs.schimp.lang.Function;
 import uk.ac.bham.cs.schimp.lang.FunctionReference;
 import uk.ac.bham.cs.schimp.lang.expression.arith.ArithmeticConstant;
 import uk.ac.bham.cs.schimp.lang.expression.arith.ArithmeticExpression;
+import uk.ac.bham.cs.schimp.lang.expression.arith.VariableReference;
 import uk.ac.bham.cs.schimp.source.ControlFlowContext;
 import uk.ac.bham.cs.schimp.source.SyntaxCheckContext;
 import uk.ac.bham.cs.schimp.source.SyntaxException;
@@ -37,6 +42,14 @@ public class InvokeCommand extends Command {
 		this.functionRef = new FunctionReference(functionName, this.exps.size());
 	}
 	
+	public Function getFunction() {
+		return functionRef.getFunction();
+	}
+	
+	public List<ArithmeticExpression> getArguments() {
+		return exps;
+	}
+	
 	public Command endInvocation(ProgramExecutionContext context) {
 		context.variableBindings.destroyFunctionScopeFrame();
 		
@@ -49,6 +62,14 @@ public class InvokeCommand extends Command {
 		return nextCommand;
 	}
 	
+	// continues the execution of the given context after this command, once the effects of invoking its function have
+	// been applied to the context directly, without executing the function's body (see FunctionSummaries)
+	public void skipInvocation(ProgramExecutionContext context) {
+		if (destroyBlockScopeFrames > 0) context.destroyBlockScopeFrames(destroyBlockScopeFrames);
+		
+		context.setNextCommand(nextCommand);
+	}
+	
 	@Override
 	public void check(SyntaxCheckContext context) throws SyntaxException {
 		super.check(context);
@@ -70,63 +91,103 @@ public class InvokeCommand extends Command {
 		functionFirstCommand = functionRef.getFunction().getFirstCommand();
 	}
 	
+	@Override
+	public void collectReadVariableReferences(Collection<VariableReference> references) {
+		exps.forEach(e -> e.collectVariableReferences(references));
+	}
+	
+	@Override
+	public void partiallyEvaluate(Map<VariableReference, ArithmeticConstant> constants) {
+		exps.replaceAll(e -> e.partiallyEvaluate(constants));
+	}
+	
+	@Override
+	public Command copy() {
+		return new InvokeCommand(functionRef.getName(), exps.stream().map(ArithmeticExpression::copy).collect(Collectors.toList()));
+	}
+	
 	@Override
 	public ProbabilityMassFunction<ProgramExecutionContext> execute(ProgramExecutionContext context) throws ProgramExecutionException {
+		List<ArithmeticConstant> consts = evaluateArguments(context);
+		
+		ProgramExecutionContext succeedingContext = context.clone();
+		beginInvocation(succeedingContext, consts);
+		
+		ProbabilityMassFunction<ProgramExecutionContext> succeedingPMF = new ProbabilityMassFunction<>();
+		
+		if (functionRef.getFunction().getType() == Function.ResourceConsumptionType.NON_ATOMIC) {
+			ProbabilityMassFunction<Pair<Integer, Integer>> powerConsumptionPMF = functionRef.getFunction().getResourceConsumption(consts);
+			for (Pair<Integer, Integer> tp : powerConsumptionPMF.elements()) {
+				ProgramExecutionContext nonAtomicSucceedingContext = succeedingContext.clone();
+				consumeResources(nonAtomicSucceedingContext, tp);
+				succeedingPMF.add(nonAtomicSucceedingContext, powerConsumptionPMF.probabilityOf(tp));
+			}
+		} else { // functionRef.getFunction().getType() == Function.ResourceConsumptionType.ATOMIC
+			succeedingPMF.add(succeedingContext, 1);
+		}
+		
+		return succeedingPMF;
+	}
+	
+	@Override
+	public ProgramExecutionContext sample(ProgramExecutionContext context, Sampler sampler) throws ProgramExecutionException {
+		List<ArithmeticConstant> consts = evaluateArguments(context);
+		
+		beginInvocation(context, consts);
+		
+		if (functionRef.getFunction().getType() == Function.ResourceConsumptionType.NON_ATOMIC) {
+			consumeResources(context, sampler.sample(functionRef.getFunction().getResourceConsumptionAliasTable(consts)));
+		}
+		
+		return context;
+	}
+	
+	// evaluates the arguments in the invoking ProgramExecutionContext
+	private List<ArithmeticConstant> evaluateArguments(ProgramExecutionContext context) throws ProgramExecutionException {
 		// if the function being invoked is non-atomic, it can only be invoked if a non-atomic function is not already
 		// in the process of being executed (i.e. all the way down the invocation stack)
 		if (context.executingNonAtomicFunction && functionRef.getFunction().getType() == Function.ResourceConsumptionType.NON_ATOMIC) {
 			throw new ProgramExecutionException("Cannot invoke non-atomic function " + functionRef.getFunction().getName() + "/" + functionRef.getFunction().getArity() + " while already executing a non-atomic function");
 		}
 		
-		ProgramExecutionContext succeedingContext = context.clone();
-		
-		succeedingContext.invocationStack.push(this);
-		succeedingContext.variableBindings.createFunctionScopeFrame();
-		succeedingContext.setNextCommand(functionFirstCommand);
-		
-		List<ArithmeticConstant> consts = new LinkedList<>();
-		for (int i = 0; i < exps.size(); i++) {
+		List<ArithmeticConstant> consts = new ArrayList<>(exps.size());
+		for (ArithmeticExpression exp : exps) {
 			try {
-				ArithmeticConstant c = exps.get(i).evaluate(context);
-				consts.add(c);
-				succeedingContext.variableBindings.define(functionRef.getFunction().getParameters().get(i).getName(), c);
+				consts.add(exp.evaluate(context));
 			} catch (EvaluationException e) {
 				// TODO: wrap this exception properly
 				throw new ProgramExecutionException(e.getMessage());
 			}
 		}
+		return consts;
+	}
+	
+	// enters the function in the given ProgramExecutionContext, binding its parameters to the given arguments
+	private void beginInvocation(ProgramExecutionContext context, List<ArithmeticConstant> consts) {
+		context.invocationStack.push(this);
+		context.variableBindings.createFunctionScopeFrame();
+		context.setNextCommand(functionFirstCommand);
 		
-		ProbabilityMassFunction<ProgramExecutionContext> succeedingPMF = new ProbabilityMassFunction<>();
+		Iterator<ArithmeticConstant> c = consts.iterator();
+		for (VariableReference parameter : functionRef.getFunction().getParameters()) {
+			context.variableBindings.define(parameter.getSlot(), parameter.getName(), c.next());
+		}
 		
+		// indicate in the ProgramExecutionContext that we're now executing a non-atomic function; this will be reset to
+		// false when endInvocation() is called for this function invocation
 		if (functionRef.getFunction().getType() == Function.ResourceConsumptionType.NON_ATOMIC) {
-			// indicate in the ProgramExecutionContext that we're now executing a non-atomic function; this will be
-			// reset to false when endInvocation() is called for this function invocation
-			succeedingContext.executingNonAtomicFunction = true;
-			
-			ProbabilityMassFunction<Pair<Integer, Integer>> powerConsumptionPMF = functionRef.getFunction().getResourceConsumption(consts);
-			for (Pair<Integer, Integer> tp : powerConsumptionPMF.elements()) {
-				ProgramExecutionContext nonAtomicSucceedingContext = succeedingContext.clone();
-				
-				nonAtomicSucceedingContext.elapsedTime += tp.getValue0();
-				nonAtomicSucceedingContext.totalPowerConsumption += tp.getValue1();
-				
-				// when a function is invoked, the program observations only need to be updated if invocation of this
-				// function consumes power
-				if (tp.getValue1() > 0) {
-					Pair<Integer, List<ArithmeticConstant>> currentObservations = nonAtomicSucceedingContext.observations.computeIfAbsent(
-						nonAtomicSucceedingContext.elapsedTime,
-						i -> new Pair<>(nonAtomicSucceedingContext.totalPowerConsumption, new LinkedList<>())
-					);
-					currentObservations.setAt0(nonAtomicSucceedingContext.totalPowerConsumption);
-				}
-				
-				succeedingPMF.add(nonAtomicSucceedingContext, powerConsumptionPMF.probabilityOf(tp));
-			}
-		} else { // functionRef.getFunction().getType() == Function.ResourceConsumptionType.ATOMIC
-			succeedingPMF.add(succeedingContext, 1);
+			context.executingNonAtomicFunction = true;
 		}
+	}
+	
+	// adds the given time and power consumed by a non-atomic function to the given ProgramExecutionContext
+	private static void consumeResources(ProgramExecutionContext context, Pair<Integer, Integer> tp) {
+		context.elapsedTime += tp.getValue0();
+		context.totalPowerConsumption += tp.getValue1();
 		
-		return succeedingPMF;
+		// when a function is invoked, the program observations only need to be updated if invocation of this function
+		// consumes power
+		if (tp.getValue1() > 0) context.observePowerConsumption();
 	}
 	
 	public String toString(int indent) {
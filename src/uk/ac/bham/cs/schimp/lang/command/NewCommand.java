@@ -44,6 +44,11 @@ public class NewCommand extends VariableAssignmentCommand {
 		return pmf;
 	}
 	
+	@Override
+	public Command copy() {
+		return new NewCommand(new VariableReference(v.getName()), pmf.copy());
+	}
+	
 	@Override
 	public void check(SyntaxCheckContext context) throws SyntaxException {
 		super.check(context);
@@ -75,6 +80,11 @@ public class NewCommand extends VariableAssignmentCommand {
 		v.check(context);
 	}
 	
+	@Override
+	protected void assign(ProgramExecutionContext context, ArithmeticConstant value) {
+		context.variableBindings.define(v.getSlot(), v.getName(), value);
+	}
+	
 	@Override
 	public ProbabilityMassFunction<ProgramExecutionContext> execute(ProgramExecutionContext context) throws ProgramExecutionException {
 		ProbabilityMassFunction<ProgramExecutionContext> succeedingPMF = new ProbabilityMassFunction<>();
@@ -84,7 +94,7 @@ public class NewCommand extends VariableAssignmentCommand {
 			
 			BigFraction succeedingContextProbability;
 			try {
-				succeedingContext.variableBindings.define(v.getName(), e.evaluate(succeedingContext));
+				succeedingContext.variableBindings.define(v.getSlot(), v.getName(), e.evaluate(succeedingContext));
 				succeedingContextProbability = pmf.probabilityOf(e).evaluate(context).toFraction();
 			} catch (EvaluationException ex) {
 				// TODO: wrap this exception properly
@@ -1,17 +1,18 @@
 package uk.ac.bham.cs.schimp.lang.command;
 
 import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
-import org.javatuples.Pair;
-
 import uk.ac.bham.cs.schimp.ProbabilityMassFunction;
 import uk.ac.bham.cs.schimp.exec.ProgramExecutionContext;
 import uk.ac.bham.cs.schimp.exec.ProgramExecutionException;
+import uk.ac.bham.cs.schimp.exec.Sampler;
 import uk.ac.bham.cs.schimp.lang.expression.arith.ArithmeticConstant;
 import uk.ac.bham.cs.schimp.lang.expression.arith.ArithmeticExpression;
+import uk.ac.bham.cs.schimp.lang.expression.arith.VariableReference;
 import uk.ac.bham.cs.schimp.source.SyntaxCheckContext;
 import uk.ac.bham.cs.schimp.source.SyntaxException;
 
@@ -29,21 +30,25 @@ public class OutputCommand extends Command {
 		this.exps = Arrays.asList(exps);
 	}
 	
+	@Override
+	public void collectReadVariableReferences(Collection<VariableReference> references) {
+		exps.forEach(e -> e.collectVariableReferences(references));
+	}
+	
+	@Override
+	public void partiallyEvaluate(Map<VariableReference, ArithmeticConstant> constants) {
+		exps.replaceAll(e -> e.partiallyEvaluate(constants));
+	}
+	
+	@Override
+	public Command copy() {
+		return new OutputCommand(exps.stream().map(ArithmeticExpression::copy).collect(Collectors.toList()));
+	}
+	
 	@Override
 	public ProbabilityMassFunction<ProgramExecutionContext> execute(ProgramExecutionContext context) throws ProgramExecutionException {
 		ProgramExecutionContext succeedingContext = context.clone();
-		
-		// when an output command is executed, the values need to be associated in the program observations with the
-		// current time point, which may not exist as an observation if no additional power has been consumed since the
-		// previous time point
-		List<ArithmeticConstant> currentOutputs = succeedingContext.observations.computeIfAbsent(
-			succeedingContext.elapsedTime,
-			i -> new Pair<>(succeedingContext.totalPowerConsumption, new LinkedList<>())
-		).getValue1();
-		exps.stream().forEachOrdered(e -> currentOutputs.add(e.evaluate(succeedingContext)));
-		
-		if (destroyBlockScopeFrames > 0) succeedingContext.destroyBlockScopeFrames(destroyBlockScopeFrames);
-		succeedingContext.setNextCommand(nextCommand);
+		step(succeedingContext);
 		
 		ProbabilityMassFunction<ProgramExecutionContext> pmf = new ProbabilityMassFunction<>();
 		pmf.add(succeedingContext, 1);
@@ -51,6 +56,26 @@ public class OutputCommand extends Command {
 		return pmf;
 	}
 	
+	@Override
+	public ProgramExecutionContext sample(ProgramExecutionContext context, Sampler sampler) throws ProgramExecutionException {
+		step(context);
+		return context;
+	}
+	
+	private void step(ProgramExecutionContext context) throws ProgramExecutionException {
+		// when an output command is executed, the values need to be associated in the program observations with the
+		// current time point, which may not exist as an observation if no additional power has been consumed since the
+		// previous time point
+		context.observeOutputs(
+			exps.stream()
+				.map(e -> e.evaluate(context))
+				.collect(Collectors.toList())
+		);
+		
+		if (destroyBlockScopeFrames > 0) context.destroyBlockScopeFrames(destroyBlockScopeFrames);
+		context.setNextCommand(nextCommand);
+	}
+	
 	@Override
 	public void check(SyntaxCheckContext context) throws SyntaxException {
 		super.check(context);
@@ -3,6 +3,7 @@ package uk.ac.bham.cs.schimp.lang.command;
 import uk.ac.bham.cs.schimp.ProbabilityMassFunction;
 import uk.ac.bham.cs.schimp.exec.ProgramExecutionContext;
 import uk.ac.bham.cs.schimp.exec.ProgramExecutionException;
+import uk.ac.bham.cs.schimp.exec.Sampler;
 import uk.ac.bham.cs.schimp.source.SyntaxCheckContext;
 import uk.ac.bham.cs.schimp.source.SyntaxException;
 
@@ -17,12 +18,15 @@ public class SkipCommand extends Command {
 		super.check(context);
 	}
 	
+	@Override
+	public Command copy() {
+		return new SkipCommand();
+	}
+	
 	@Override
 	public ProbabilityMassFunction<ProgramExecutionContext> execute(ProgramExecutionContext context) throws ProgramExecutionException {
 		ProgramExecutionContext succeedingContext = context.clone();
-		
-		if (destroyBlockScopeFrames > 0) succeedingContext.destroyBlockScopeFrames(destroyBlockScopeFrames);
-		succeedingContext.setNextCommand(nextCommand);
+		step(succeedingContext);
 		
 		ProbabilityMassFunction<ProgramExecutionContext> pmf = new ProbabilityMassFunction<>();
 		pmf.add(succeedingContext, 1);
@@ -30,6 +34,17 @@ public class SkipCommand extends Command {
 		return pmf;
 	}
 	
+	@Override
+	public ProgramExecutionContext sample(ProgramExecutionContext context, Sampler sampler) throws ProgramExecutionException {
+		step(context);
+		return context;
+	}
+	
+	private void step(ProgramExecutionContext context) throws ProgramExecutionException {
+		if (destroyBlockScopeFrames > 0) context.destroyBlockScopeFrames(destroyBlockScopeFrames);
+		context.setNextCommand(nextCommand);
+	}
+	
 	public String toString(int indent) {
 		StringBuilder s = new StringBuilder();
 		
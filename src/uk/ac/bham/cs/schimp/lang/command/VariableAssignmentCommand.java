@@ -1,5 +1,15 @@
 package uk.ac.bham.cs.schimp.lang.command;
 
+import java.util.Collection;
+import java.util.Map;
+
+import uk.ac.bham.cs.schimp.AliasTable;
+import uk.ac.bham.cs.schimp.exec.EvaluationException;
+import uk.ac.bham.cs.schimp.exec.ProgramExecutionContext;
+import uk.ac.bham.cs.schimp.exec.ProgramExecutionException;
+import uk.ac.bham.cs.schimp.exec.Sampler;
+import uk.ac.bham.cs.schimp.lang.expression.arith.ArithmeticConstant;
+import uk.ac.bham.cs.schimp.lang.expression.arith.ArithmeticExpression;
 import uk.ac.bham.cs.schimp.lang.expression.arith.ArithmeticExpressionProbabilityMassFunction;
 import uk.ac.bham.cs.schimp.lang.expression.arith.VariableReference;
 
@@ -8,5 +18,41 @@ public abstract class VariableAssignmentCommand extends Command {
 	public abstract VariableReference getVariableReference();
 	
 	public abstract ArithmeticExpressionProbabilityMassFunction getArithmeticExpressionProbabilityMassFunction();
+	
+	// assigns the given value to this command's variable in the given ProgramExecutionContext
+	protected abstract void assign(ProgramExecutionContext context, ArithmeticConstant value);
+	
+	@Override
+	public void collectReadVariableReferences(Collection<VariableReference> references) {
+		// both the expressions in the pmf and their probabilities are evaluated; the variable being assigned to isn't read
+		ArithmeticExpressionProbabilityMassFunction pmf = getArithmeticExpressionProbabilityMassFunction();
+		for (ArithmeticExpression e : pmf.elements()) {
+			e.collectVariableReferences(references);
+			pmf.probabilityOf(e).collectVariableReferences(references);
+		}
+	}
+	
+	@Override
+	public void partiallyEvaluate(Map<VariableReference, ArithmeticConstant> constants) {
+		// the variable being assigned to is never replaced
+		getArithmeticExpressionProbabilityMassFunction().partiallyEvaluate(constants);
+	}
+	
+	@Override
+	public ProgramExecutionContext sample(ProgramExecutionContext context, Sampler sampler) throws ProgramExecutionException {
+		// if the probabilities are constants, only the chosen element of the pmf needs to be evaluated
+		try {
+			AliasTable<ArithmeticExpression> aliasTable = getArithmeticExpressionProbabilityMassFunction().getAliasTable();
+			if (aliasTable == null) return super.sample(context, sampler);
+			assign(context, sampler.sample(aliasTable).evaluate(context));
+		} catch (EvaluationException e) {
+			throw new ProgramExecutionException(e.getMessage(), e);
+		}
+		
+		if (destroyBlockScopeFrames > 0) context.destroyBlockScopeFrames(destroyBlockScopeFrames);
+		context.setNextCommand(nextCommand);
+		
+		return context;
+	}
 
 }
@@ -1,10 +1,18 @@
 package uk.ac.bham.cs.schimp.lang.command;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
 import uk.ac.bham.cs.schimp.ProbabilityMassFunction;
 import uk.ac.bham.cs.schimp.exec.EvaluationException;
 import uk.ac.bham.cs.schimp.exec.ProgramExecutionContext;
 import uk.ac.bham.cs.schimp.exec.ProgramExecutionException;
+import uk.ac.bham.cs.schimp.exec.Sampler;
 import uk.ac.bham.cs.schimp.lang.Block;
+import uk.ac.bham.cs.schimp.lang.expression.arith.ArithmeticConstant;
+import uk.ac.bham.cs.schimp.lang.expression.arith.VariableReference;
 import uk.ac.bham.cs.schimp.lang.expression.bool.BooleanConstant;
 import uk.ac.bham.cs.schimp.lang.expression.bool.BooleanExpression;
 import uk.ac.bham.cs.schimp.source.ControlFlowContext;
@@ -41,8 +49,54 @@ public class WhileCommand extends Command {
 		body.resolveControlFlow(context);
 	}
 	
+	@Override
+	public List<Command> getSuccessors() {
+		return Arrays.asList(bodyNextCommand, nextCommand);
+	}
+	
+	@Override
+	public List<Block> getBlocks() {
+		return Arrays.asList(body);
+	}
+	
+	@Override
+	public void collectReadVariableReferences(Collection<VariableReference> references) {
+		conditional.collectVariableReferences(references);
+	}
+	
+	@Override
+	public void partiallyEvaluate(Map<VariableReference, ArithmeticConstant> constants) {
+		conditional = conditional.partiallyEvaluate(constants);
+	}
+	
+	@Override
+	public Command copy() {
+		return new WhileCommand(conditional.copy(), body.copy());
+	}
+	
+	public BooleanExpression getConditional() {
+		return conditional;
+	}
+	
 	@Override
 	public ProbabilityMassFunction<ProgramExecutionContext> execute(ProgramExecutionContext context) throws ProgramExecutionException {
+		ProgramExecutionContext succeedingContext = context.clone();
+		step(succeedingContext);
+		
+		ProbabilityMassFunction<ProgramExecutionContext> pmf = new ProbabilityMassFunction<>();
+		pmf.add(succeedingContext, 1);
+		
+		return pmf;
+	}
+	
+	@Override
+	public ProgramExecutionContext sample(ProgramExecutionContext context, Sampler sampler) throws ProgramExecutionException {
+		step(context);
+		return context;
+	}
+	
+	// enters the body or leaves the loop in the given ProgramExecutionContext, depending on the conditional
+	private void step(ProgramExecutionContext context) throws ProgramExecutionException {
 		BooleanConstant conditionalValue = null;
 		try {
 			conditionalValue = conditional.evaluate(context);
@@ -51,19 +105,12 @@ public class WhileCommand extends Command {
 			throw new ProgramExecutionException(e.getMessage());
 		}
 		
-		ProgramExecutionContext succeedingContext = context.clone();
-		
 		if (conditionalValue.toBoolean() == true) {
-			succeedingContext.variableBindings.createBlockScopeFrame();
-			succeedingContext.setNextCommand(bodyNextCommand);
+			context.variableBindings.createBlockScopeFrame();
+			context.setNextCommand(bodyNextCommand);
 		} else {
-			succeedingContext.setNextCommand(nextCommand);
+			context.setNextCommand(nextCommand);
 		}
-		
-		ProbabilityMassFunction<ProgramExecutionContext> pmf = new ProbabilityMassFunction<>();
-		pmf.add(succeedingContext, 1);
-		
-		return pmf;
 	}
 	
 	public String toString(int indent) {
@@ -1,6 +1,9 @@
 package uk.ac.bham.cs.schimp.lang.expression;
 
+import java.util.Collection;
+
 import uk.ac.bham.cs.schimp.lang.Syntax;
+import uk.ac.bham.cs.schimp.lang.expression.arith.VariableReference;
 
 public abstract class Expression extends Syntax {
 	
@@ -8,4 +11,8 @@ public abstract class Expression extends Syntax {
 		super();
 	}
 	
+	// adds every VariableReference in this expression (i.e., every variable read when it's evaluated) to the given
+	// collection
+	public abstract void collectVariableReferences(Collection<VariableReference> references);
+	
 }
@@ -1,7 +1,12 @@
 package uk.ac.bham.cs.schimp.lang.expression.arith;
 
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Map;
+
 import org.apache.commons.math3.fraction.BigFraction;
 
+import uk.ac.bham.cs.schimp.exec.Fingerprint;
 import uk.ac.bham.cs.schimp.exec.ProgramExecutionContext;
 import uk.ac.bham.cs.schimp.exec.VariableScopeFrame;
 import uk.ac.bham.cs.schimp.source.SyntaxCheckContext;
@@ -9,21 +14,51 @@ import uk.ac.bham.cs.schimp.source.SyntaxException;
 
 public class ArithmeticConstant extends ArithmeticExpression {
 	
-	private BigFraction constant;
+	private static final BigInteger LONG_MIN_VALUE = BigInteger.valueOf(Long.MIN_VALUE);
+	private static final BigInteger LONG_MAX_VALUE = BigInteger.valueOf(Long.MAX_VALUE);
+	
+	// nearly all constants are integers small enough to fit in a long, so arithmetic is performed on longs whenever
+	// possible: a constant whose value is an integer that fits in a long is always stored in integer (and fraction is
+	// null), and any other constant is stored in fraction. operations on two long-valued constants fall back to
+	// BigFraction arithmetic if their result overflows or isn't an integer
+	private long integer;
+	private BigFraction fraction;
 	
 	public ArithmeticConstant(BigFraction constant) {
 		super();
-		this.constant = constant;
+		BigInteger numerator = constant.getNumerator();
+		if (constant.getDenominator().equals(BigInteger.ONE) && numerator.compareTo(LONG_MIN_VALUE) >= 0 && numerator.compareTo(LONG_MAX_VALUE) <= 0) {
+			this.integer = numerator.longValue();
+		} else {
+			this.fraction = constant;
+		}
 	}
 	
-	public ArithmeticConstant(int integer) {
+	public ArithmeticConstant(long integer) {
 		super();
-		this.constant = new BigFraction(integer);
+		this.integer = integer;
+	}
+	
+	public ArithmeticConstant(int integer) {
+		this((long)integer);
 	}
 	
 	@Override
 	public void check(SyntaxCheckContext context) throws SyntaxException {}
 	
+	@Override
+	public void collectVariableReferences(Collection<VariableReference> references) {}
+	
+	@Override
+	public ArithmeticExpression partiallyEvaluate(Map<VariableReference, ArithmeticConstant> constants) {
+		return this;
+	}
+	
+	@Override
+	public ArithmeticExpression copy() {
+		return this;
+	}
+	
 	@Override
 	public ArithmeticConstant evaluate(ProgramExecutionContext context) {
 		return this;
@@ -35,19 +70,142 @@ public class ArithmeticConstant extends ArithmeticExpression {
 	}
 	
 	public ArithmeticConstant clone() {
-		return new ArithmeticConstant(new BigFraction(constant.getNumerator(), constant.getDenominator()));
+		return fraction == null ? new ArithmeticConstant(integer) : new ArithmeticConstant(fraction);
+	}
+	
+	public boolean isLong() {
+		return fraction == null;
 	}
 	
 	public BigFraction toFraction() {
-		return constant;
+		return fraction == null ? new BigFraction(integer) : fraction;
+	}
+	
+	// the integer part of this constant, truncated towards zero and then to the lowest 64 bits (as with
+	// BigFraction.longValue())
+	public long longValue() {
+		return fraction == null ? integer : fraction.longValue();
+	}
+	
+	// the integer part of this constant, truncated towards zero and then to the lowest 32 bits (as with
+	// BigFraction.intValue())
+	public int intValue() {
+		return fraction == null ? (int)integer : fraction.intValue();
+	}
+	
+	public ArithmeticConstant add(ArithmeticConstant c) {
+		if (fraction == null && c.fraction == null) {
+			try {
+				return new ArithmeticConstant(Math.addExact(integer, c.integer));
+			} catch (ArithmeticException e) {}
+		}
+		return new ArithmeticConstant(toFraction().add(c.toFraction()));
+	}
+	
+	public ArithmeticConstant subtract(ArithmeticConstant c) {
+		if (fraction == null && c.fraction == null) {
+			try {
+				return new ArithmeticConstant(Math.subtractExact(integer, c.integer));
+			} catch (ArithmeticException e) {}
+		}
+		return new ArithmeticConstant(toFraction().subtract(c.toFraction()));
+	}
+	
+	public ArithmeticConstant multiply(ArithmeticConstant c) {
+		if (fraction == null && c.fraction == null) {
+			try {
+				return new ArithmeticConstant(Math.multiplyExact(integer, c.integer));
+			} catch (ArithmeticException e) {}
+		}
+		return new ArithmeticConstant(toFraction().multiply(c.toFraction()));
+	}
+	
+	public ArithmeticConstant divide(ArithmeticConstant c) {
+		// the result is only a long if the division is exact (and doesn't overflow, which only happens when dividing
+		// Long.MIN_VALUE by -1); division by zero is left to BigFraction, so that it fails in the same way as before
+		if (fraction == null && c.fraction == null && c.integer != 0 && integer % c.integer == 0 && !(integer == Long.MIN_VALUE && c.integer == -1)) {
+			return new ArithmeticConstant(integer / c.integer);
+		}
+		return new ArithmeticConstant(toFraction().divide(c.toFraction()));
+	}
+	
+	public ArithmeticConstant mod(ArithmeticConstant c) {
+		// the remainder after subtracting the largest multiple of c that doesn't exceed this constant in magnitude, with
+		// the multiple truncated to an int (as with BigFraction.intValue()); for longs, this is the same as the %
+		// operator as long as the quotient fits in an int
+		if (fraction == null && c.fraction == null && c.integer != 0) {
+			long quotient = (integer == Long.MIN_VALUE && c.integer == -1) ? Long.MIN_VALUE : integer / c.integer;
+			if (quotient >= Integer.MIN_VALUE && quotient <= Integer.MAX_VALUE) {
+				return new ArithmeticConstant(integer % c.integer);
+			}
+		}
+		BigFraction left = toFraction();
+		BigFraction right = c.toFraction();
+		return new ArithmeticConstant(left.subtract(right.multiply(left.divide(right).intValue())));
+	}
+	
+	public ArithmeticConstant xor(ArithmeticConstant c) {
+		// TODO: this operation is only defined for integers, not rational numbers
+		return new ArithmeticConstant(intValue() ^ c.intValue());
+	}
+	
+	public ArithmeticConstant pow(ArithmeticConstant c) {
+		int exponent = c.intValue();
+		if (fraction == null && exponent >= 0) {
+			try {
+				long result = 1;
+				long base = integer;
+				for (int e = exponent; e > 0; e >>= 1) {
+					if ((e & 1) == 1) result = Math.multiplyExact(result, base);
+					if (e > 1) base = Math.multiplyExact(base, base);
+				}
+				return new ArithmeticConstant(result);
+			} catch (ArithmeticException e) {}
+		}
+		return new ArithmeticConstant(toFraction().pow(BigInteger.valueOf(exponent)));
+	}
+	
+	public ArithmeticConstant floor() {
+		if (fraction == null && integer >= Integer.MIN_VALUE && integer <= Integer.MAX_VALUE) return this;
+		return new ArithmeticConstant((int)Math.floor(toFraction().doubleValue()));
+	}
+	
+	public int compareTo(ArithmeticConstant c) {
+		if (fraction == null && c.fraction == null) {
+			return Long.compare(integer, c.integer);
+		}
+		return toFraction().compareTo(c.toFraction());
+	}
+	
+	public long fingerprint() {
+		// constants are always stored in the same way (see above) and BigFractions are always stored in their lowest
+		// terms, so equal constants always have the same fingerprint
+		if (fraction == null) {
+			return Fingerprint.mix(integer);
+		} else {
+			return Fingerprint.combine(fraction.getNumerator().hashCode(), fraction.getDenominator().hashCode());
+		}
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof ArithmeticConstant)) return false;
+		ArithmeticConstant c = (ArithmeticConstant)o;
+		return fraction == null ? (c.fraction == null && integer == c.integer) : fraction.equals(c.fraction);
+	}
+	
+	@Override
+	public int hashCode() {
+		return Fingerprint.toHashCode(fingerprint());
 	}
 	
 	public String toString(int indent) {
-		return indentation(indent) + constant.toString();
+		return indentation(indent) + (fraction == null ? Long.toString(integer) : fraction.toString());
 	}
 
 	public String toSourceString(int indent) {
-		return indentation(indent) + constant.toString();
+		return indentation(indent) + (fraction == null ? Long.toString(integer) : fraction.toString());
 	}
 
 }
@@ -1,5 +1,9 @@
 package uk.ac.bham.cs.schimp.lang.expression.arith;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 import uk.ac.bham.cs.schimp.exec.EvaluationException;
 import uk.ac.bham.cs.schimp.exec.ProgramExecutionContext;
 import uk.ac.bham.cs.schimp.exec.VariableScopeFrame;
@@ -15,4 +19,30 @@ public abstract class ArithmeticExpression extends Expression {
 	
 	public abstract ArithmeticConstant evaluate(VariableScopeFrame frame) throws EvaluationException;
 	
+	/**
+	 * Replaces the VariableReferences in this expression that are keys of the given map with their values, and then
+	 * replaces each subexpression that no longer refers to any variables with its value; returns the resulting
+	 * expression, which is either this (modified) expression or an ArithmeticConstant.
+	 */
+	public abstract ArithmeticExpression partiallyEvaluate(Map<VariableReference, ArithmeticConstant> constants);
+	
+	/**
+	 * Returns a copy of this expression that hasn't been checked (ArithmeticConstants are immutable, so they aren't
+	 * copied).
+	 */
+	public abstract ArithmeticExpression copy();
+	
+	// returns the value of this expression if it doesn't refer to any variables, or this expression if it does or if
+	// evaluating it fails (in which case it will fail in the same way when the program is executed)
+	protected ArithmeticExpression evaluateIfConstant() {
+		List<VariableReference> references = new ArrayList<>();
+		collectVariableReferences(references);
+		if (!references.isEmpty()) return this;
+		try {
+			return evaluate((VariableScopeFrame)null);
+		} catch (RuntimeException e) {
+			return this;
+		}
+	}
+	
 }
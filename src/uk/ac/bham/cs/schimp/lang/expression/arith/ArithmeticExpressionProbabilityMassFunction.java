@@ -1,23 +1,59 @@
 package uk.ac.bham.cs.schimp.lang.expression.arith;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
 
+import uk.ac.bham.cs.schimp.AliasTable;
+import uk.ac.bham.cs.schimp.exec.VariableScopeFrame;
+
 public class ArithmeticExpressionProbabilityMassFunction {
 	
 	private Map<ArithmeticExpression, ArithmeticExpression> pmf;
 	
+	// built the first time it's needed, and empty if any of the probabilities depend on variables (null if it hasn't
+	// been built yet, or the pmf has changed since)
+	private volatile Optional<AliasTable<ArithmeticExpression>> aliasTable = null;
+	
 	public ArithmeticExpressionProbabilityMassFunction() {
 		pmf = new LinkedHashMap<ArithmeticExpression, ArithmeticExpression>();
 	}
 	
 	public void add(ArithmeticExpression aexp, ArithmeticExpression probability) {
-		// TODO: don't allow existing elements to be overwritten: this is a syntax error
-		pmf.put(aexp, probability);
+		// ArithmeticConstants are compared by value, so the same constant may appear more than once as an element (e.g.,
+		// "{ 1 -> 1/2, 1 -> 1/2 }"): its probability is then the sum of the given probabilities
+		pmf.merge(aexp, probability, AddOperation::new);
+		aliasTable = null;
+	}
+	
+	/**
+	 * Partially evaluates the elements of this pmf and their probabilities (see ArithmeticExpression.partiallyEvaluate()),
+	 * so that elements that become the same constant are merged into one.
+	 */
+	public void partiallyEvaluate(Map<VariableReference, ArithmeticConstant> constants) {
+		List<Map.Entry<ArithmeticExpression, ArithmeticExpression>> entries = new ArrayList<>(pmf.entrySet());
+		pmf.clear();
+		for (Map.Entry<ArithmeticExpression, ArithmeticExpression> e : entries) {
+			add(e.getKey().partiallyEvaluate(constants), e.getValue().partiallyEvaluate(constants));
+		}
+		
+		// merged elements' probabilities are sums, which can be folded again
+		pmf.replaceAll((e, p) -> p.partiallyEvaluate(constants));
+		aliasTable = null;
+	}
+	
+	// returns a copy of this pmf whose elements and probabilities are copies of this pmf's (see
+	// ArithmeticExpression.copy())
+	public ArithmeticExpressionProbabilityMassFunction copy() {
+		ArithmeticExpressionProbabilityMassFunction copy = new ArithmeticExpressionProbabilityMassFunction();
+		pmf.forEach((e, p) -> copy.add(e.copy(), p.copy()));
+		return copy;
 	}
 	
 	public Set<ArithmeticExpression> elements() {
@@ -28,6 +64,30 @@ public class ArithmeticExpressionProbabilityMassFunction {
 		return pmf.getOrDefault(element, new ArithmeticConstant(0));
 	}
 	
+	/**
+	 * Returns an AliasTable for sampling the elements of this pmf, or null if any of their probabilities depend on
+	 * variables (in which case they have to be evaluated in each ProgramExecutionContext).
+	 */
+	public AliasTable<ArithmeticExpression> getAliasTable() {
+		Optional<AliasTable<ArithmeticExpression>> table = aliasTable;
+		if (table == null) {
+			List<ArithmeticExpression> elements = new ArrayList<>(pmf.keySet());
+			double[] weights = new double[elements.size()];
+			boolean constant = true;
+			for (int i = 0; i < weights.length && constant; i++) {
+				// probabilities are often written as fractions, which are only folded into constants by partial evaluation
+				ArithmeticExpression p = pmf.get(elements.get(i));
+				List<VariableReference> references = new ArrayList<>();
+				p.collectVariableReferences(references);
+				constant = references.isEmpty();
+				if (constant) weights[i] = p.evaluate((VariableScopeFrame)null).toFraction().doubleValue();
+			}
+			table = constant ? Optional.of(new AliasTable<>(elements, weights)) : Optional.empty();
+			aliasTable = table;
+		}
+		return table.orElse(null);
+	}
+	
 	private String indentation(int indent) {
 		return StringUtils.repeat("  ", indent);
 	}
@@ -1,5 +1,8 @@
 package uk.ac.bham.cs.schimp.lang.expression.arith;
 
+import java.util.Collection;
+import java.util.Map;
+
 import uk.ac.bham.cs.schimp.exec.EvaluationException;
 import uk.ac.bham.cs.schimp.exec.ProgramExecutionContext;
 import uk.ac.bham.cs.schimp.exec.VariableScopeFrame;
@@ -23,14 +26,32 @@ public class DivideOperation extends ArithmeticExpression {
 		right.check(context);
 	}
 	
+	@Override
+	public void collectVariableReferences(Collection<VariableReference> references) {
+		left.collectVariableReferences(references);
+		right.collectVariableReferences(references);
+	}
+	
+	@Override
+	public ArithmeticExpression partiallyEvaluate(Map<VariableReference, ArithmeticConstant> constants) {
+		left = left.partiallyEvaluate(constants);
+		right = right.partiallyEvaluate(constants);
+		return evaluateIfConstant();
+	}
+	
+	@Override
+	public ArithmeticExpression copy() {
+		return new DivideOperation(left.copy(), right.copy());
+	}
+	
 	@Override
 	public ArithmeticConstant evaluate(ProgramExecutionContext context) throws EvaluationException {
-		return new ArithmeticConstant(left.evaluate(context).toFraction().divide(right.evaluate(context).toFraction()));
+		return left.evaluate(context).divide(right.evaluate(context));
 	}
 	
 	@Override
 	public ArithmeticConstant evaluate(VariableScopeFrame frame) throws EvaluationException {
-		return new ArithmeticConstant(left.evaluate(frame).toFraction().divide(right.evaluate(frame).toFraction()));
+		return left.evaluate(frame).divide(right.evaluate(frame));
 	}
 	
 	public String toString(int indent) {
@@ -1,8 +1,7 @@
 package uk.ac.bham.cs.schimp.lang.expression.arith;
 
-import java.math.BigInteger;
-
-import org.apache.commons.math3.fraction.BigFraction;
+import java.util.Collection;
+import java.util.Map;
 
 import uk.ac.bham.cs.schimp.exec.EvaluationException;
 import uk.ac.bham.cs.schimp.exec.ProgramExecutionContext;
@@ -27,18 +26,32 @@ public class ExponentOperation extends ArithmeticExpression {
 		right.check(context);
 	}
 	
+	@Override
+	public void collectVariableReferences(Collection<VariableReference> references) {
+		left.collectVariableReferences(references);
+		right.collectVariableReferences(references);
+	}
+	
+	@Override
+	public ArithmeticExpression partiallyEvaluate(Map<VariableReference, ArithmeticConstant> constants) {
+		left = left.partiallyEvaluate(constants);
+		right = right.partiallyEvaluate(constants);
+		return evaluateIfConstant();
+	}
+	
+	@Override
+	public ArithmeticExpression copy() {
+		return new ExponentOperation(left.copy(), right.copy());
+	}
+	
 	@Override
 	public ArithmeticConstant evaluate(ProgramExecutionContext context) throws EvaluationException {
-		BigFraction leftFraction = left.evaluate(context).toFraction();
-		BigInteger rightAsInteger = new BigInteger(Integer.toString(right.evaluate(context).toFraction().intValue()));
-		return new ArithmeticConstant(leftFraction.pow(rightAsInteger));
+		return left.evaluate(context).pow(right.evaluate(context));
 	}
 	
 	@Override
 	public ArithmeticConstant evaluate(VariableScopeFrame frame) throws EvaluationException {
-		BigFraction leftFraction = left.evaluate(frame).toFraction();
-		BigInteger rightAsInteger = new BigInteger(Integer.toString(right.evaluate(frame).toFraction().intValue()));
-		return new ArithmeticConstant(leftFraction.pow(rightAsInteger));
+		return left.evaluate(frame).pow(right.evaluate(frame));
 	}
 	
 	public String toString(int indent) {
@@ -1,5 +1,8 @@
 package uk.ac.bham.cs.schimp.lang.expression.arith;
 
+import java.util.Collection;
+import java.util.Map;
+
 import uk.ac.bham.cs.schimp.exec.EvaluationException;
 import uk.ac.bham.cs.schimp.exec.ProgramExecutionContext;
 import uk.ac.bham.cs.schimp.exec.VariableScopeFrame;
@@ -20,14 +23,30 @@ public class FloorOperation extends ArithmeticExpression {
 		exp.check(context);
 	}
 	
+	@Override
+	public void collectVariableReferences(Collection<VariableReference> references) {
+		exp.collectVariableReferences(references);
+	}
+	
+	@Override
+	public ArithmeticExpression partiallyEvaluate(Map<VariableReference, ArithmeticConstant> constants) {
+		exp = exp.partiallyEvaluate(constants);
+		return evaluateIfConstant();
+	}
+	
+	@Override
+	public ArithmeticExpression copy() {
+		return new FloorOperation(exp.copy());
+	}
+	
 	@Override
 	public ArithmeticConstant evaluate(ProgramExecutionContext context) throws EvaluationException {
-		return new ArithmeticConstant((int)Math.floor(exp.evaluate(context).toFraction().doubleValue()));
+		return exp.evaluate(context).floor();
 	}
 	
 	@Override
 	public ArithmeticConstant evaluate(VariableScopeFrame frame) throws EvaluationException {
-		return new ArithmeticConstant((int)Math.floor(exp.evaluate(frame).toFraction().doubleValue()));
+		return exp.evaluate(frame).floor();
 	}
 	
 	public String toString(int indent) {
@@ -1,6 +1,7 @@
 package uk.ac.bham.cs.schimp.lang.expression.arith;
 
-import org.apache.commons.math3.fraction.BigFraction;
+import java.util.Collection;
+import java.util.Map;
 
 import uk.ac.bham.cs.schimp.exec.EvaluationException;
 import uk.ac.bham.cs.schimp.exec.ProgramExecutionContext;
@@ -25,30 +26,32 @@ public class ModuloOperation extends ArithmeticExpression {
 		right.check(context);
 	}
 	
+	@Override
+	public void collectVariableReferences(Collection<VariableReference> references) {
+		left.collectVariableReferences(references);
+		right.collectVariableReferences(references);
+	}
+	
+	@Override
+	public ArithmeticExpression partiallyEvaluate(Map<VariableReference, ArithmeticConstant> constants) {
+		left = left.partiallyEvaluate(constants);
+		right = right.partiallyEvaluate(constants);
+		return evaluateIfConstant();
+	}
+	
+	@Override
+	public ArithmeticExpression copy() {
+		return new ModuloOperation(left.copy(), right.copy());
+	}
+	
 	@Override
 	public ArithmeticConstant evaluate(ProgramExecutionContext context) throws EvaluationException {
-		BigFraction leftFraction = left.evaluate(context).toFraction();
-		BigFraction rightFraction = right.evaluate(context).toFraction();
-		return new ArithmeticConstant(
-			leftFraction.subtract(
-				rightFraction.multiply(
-					leftFraction.divide(rightFraction).intValue()
-				)
-			)
-		);
+		return left.evaluate(context).mod(right.evaluate(context));
 	}
 	
 	@Override
 	public ArithmeticConstant evaluate(VariableScopeFrame frame) throws EvaluationException {
-		BigFraction leftFraction = left.evaluate(frame).toFraction();
-		BigFraction rightFraction = right.evaluate(frame).toFraction();
-		return new ArithmeticConstant(
-			leftFraction.subtract(
-				rightFraction.multiply(
-					leftFraction.divide(rightFraction).intValue()
-				)
-			)
-		);
+		return left.evaluate(frame).mod(right.evaluate(frame));
 	}
 	
 	public String toString(int indent) {
@@ -1,8 +1,11 @@
 package uk.ac.bham.cs.schimp.lang.expression.arith;
 
+import java.util.Collection;
+import java.util.Map;
+
 import uk.ac.bham.cs.schimp.exec.EvaluationException;
 import uk.ac.bham.cs.schimp.exec.ProgramExecutionContext;
-import uk.ac.bham.cs.schimp.exec.ProgramExecutionException;
+import uk.ac.bham.cs.schimp.exec.VariableBindings;
 import uk.ac.bham.cs.schimp.exec.VariableScopeFrame;
 import uk.ac.bham.cs.schimp.source.SyntaxCheckContext;
 import uk.ac.bham.cs.schimp.source.SyntaxException;
@@ -11,6 +14,12 @@ public class VariableReference extends ArithmeticExpression {
 	
 	private String name;
 	
+	// the location of the variable this VariableReference refers to, resolved when the VariableReference is checked:
+	// the scope depth of the scope frame containing the variable (see VariableBindings.scopeDepthOf()), and the slot
+	// allocated to the variable in that scope frame
+	private int scopeDepth = VariableBindings.UNDEFINED_SCOPE_DEPTH;
+	private int slot = -1;
+	
 	public VariableReference(String name) {
 		super();
 		this.name = name;
@@ -20,34 +29,60 @@ public class VariableReference extends ArithmeticExpression {
 		return name;
 	}
 	
+	public int getScopeDepth() {
+		return scopeDepth;
+	}
+	
+	public int getSlot() {
+		return slot;
+	}
+	
 	@Override
 	public void check(SyntaxCheckContext context) throws SyntaxException {
 		// a variable with this name must be in scope here
-		if (!context.variableBindings.isDefined(name)) {
+		scopeDepth = context.variableBindings.scopeDepthOf(name);
+		if (scopeDepth == VariableBindings.UNDEFINED_SCOPE_DEPTH) {
 			throw new SyntaxException("variable '" + name + "' is undefined here");
 		}
+		slot = context.variableBindings.slotOf(name);
+	}
+	
+	@Override
+	public void collectVariableReferences(Collection<VariableReference> references) {
+		references.add(this);
+	}
+	
+	@Override
+	public ArithmeticExpression partiallyEvaluate(Map<VariableReference, ArithmeticConstant> constants) {
+		ArithmeticConstant value = constants.get(this);
+		return value == null ? this : value;
+	}
+	
+	@Override
+	public ArithmeticExpression copy() {
+		return new VariableReference(name);
 	}
 	
 	@Override
 	public ArithmeticConstant evaluate(ProgramExecutionContext context) throws EvaluationException {
-		try {
-			return context.variableBindings.evaluate(name);
-		} catch (ProgramExecutionException e) {
+		ArithmeticConstant value = context.variableBindings.evaluate(scopeDepth, slot);
+		if (value == null) {
 			// this should never happen: if the syntax-checking phase succeeds, it guarantees that variables are always
 			// in scope
 			throw new EvaluationException("variable '" + name + "' cannot be evaluated here");
 		}
+		return value;
 	}
 	
 	@Override
 	public ArithmeticConstant evaluate(VariableScopeFrame frame) throws EvaluationException {
-		try {
-			return frame.evaluate(name);
-		} catch (ProgramExecutionException e) {
-			// this should never happen: if the syntax-checking phase succeeds, it guarantees that variables are always
-			// in scope
+		// this is only used to evaluate expressions in initial variable declarations, which can only refer to other
+		// initial variables: these are declared in the global scope frame, in the same slots as in the given frame
+		ArithmeticConstant value = frame.evaluate(slot);
+		if (value == null) {
 			throw new EvaluationException("variable '" + name + "' cannot be evaluated here");
 		}
+		return value;
 	}
 	
 	public String toString(int indent) {
@@ -1,7 +1,12 @@
 package uk.ac.bham.cs.schimp.lang.expression.bool;
 
+import java.util.Collection;
+import java.util.Map;
+
 import uk.ac.bham.cs.schimp.exec.EvaluationException;
 import uk.ac.bham.cs.schimp.exec.ProgramExecutionContext;
+import uk.ac.bham.cs.schimp.lang.expression.arith.ArithmeticConstant;
+import uk.ac.bham.cs.schimp.lang.expression.arith.VariableReference;
 import uk.ac.bham.cs.schimp.source.SyntaxCheckContext;
 import uk.ac.bham.cs.schimp.source.SyntaxException;
 
@@ -22,6 +27,24 @@ public class BooleanAndOperation extends BooleanExpression {
 		right.check(context);
 	}
 	
+	@Override
+	public void collectVariableReferences(Collection<VariableReference> references) {
+		left.collectVariableReferences(references);
+		right.collectVariableReferences(references);
+	}
+	
+	@Override
+	public BooleanExpression partiallyEvaluate(Map<VariableReference, ArithmeticConstant> constants) {
+		left = left.partiallyEvaluate(constants);
+		right = right.partiallyEvaluate(constants);
+		return evaluateIfConstant();
+	}
+	
+	@Override
+	public BooleanExpression copy() {
+		return new BooleanAndOperation(left.copy(), right.copy());
+	}
+	
 	@Override
 	public BooleanConstant evaluate(ProgramExecutionContext context) throws EvaluationException {
 		return new BooleanConstant(left.evaluate(context).toBoolean() && right.evaluate(context).toBoolean());
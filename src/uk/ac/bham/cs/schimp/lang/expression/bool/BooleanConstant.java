@@ -1,7 +1,12 @@
 package uk.ac.bham.cs.schimp.lang.expression.bool;
 
+import java.util.Collection;
+import java.util.Map;
+
 import uk.ac.bham.cs.schimp.exec.EvaluationException;
 import uk.ac.bham.cs.schimp.exec.ProgramExecutionContext;
+import uk.ac.bham.cs.schimp.lang.expression.arith.ArithmeticConstant;
+import uk.ac.bham.cs.schimp.lang.expression.arith.VariableReference;
 import uk.ac.bham.cs.schimp.source.SyntaxCheckContext;
 import uk.ac.bham.cs.schimp.source.SyntaxException;
 
@@ -17,6 +22,19 @@ public class BooleanConstant extends BooleanExpression {
 	@Override
 	public void check(SyntaxCheckContext context) throws SyntaxException {}
 	
+	@Override
+	public void collectVariableReferences(Collection<VariableReference> references) {}
+	
+	@Override
+	public BooleanExpression partiallyEvaluate(Map<VariableReference, ArithmeticConstant> constants) {
+		return this;
+	}
+	
+	@Override
+	public BooleanExpression copy() {
+		return this;
+	}
+	
 	@Override
 	public BooleanConstant evaluate(ProgramExecutionContext context) throws EvaluationException {
 		return this;
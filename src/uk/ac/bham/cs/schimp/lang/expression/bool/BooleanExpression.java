@@ -1,8 +1,14 @@
 package uk.ac.bham.cs.schimp.lang.expression.bool;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 import uk.ac.bham.cs.schimp.exec.EvaluationException;
 import uk.ac.bham.cs.schimp.exec.ProgramExecutionContext;
 import uk.ac.bham.cs.schimp.lang.expression.Expression;
+import uk.ac.bham.cs.schimp.lang.expression.arith.ArithmeticConstant;
+import uk.ac.bham.cs.schimp.lang.expression.arith.VariableReference;
 
 public abstract class BooleanExpression extends Expression {
 	
@@ -12,4 +18,27 @@ public abstract class BooleanExpression extends Expression {
 	
 	public abstract BooleanConstant evaluate(ProgramExecutionContext context) throws EvaluationException;
 	
+	/**
+	 * As ArithmeticExpression.partiallyEvaluate(): returns either this (modified) expression or a BooleanConstant.
+	 */
+	public abstract BooleanExpression partiallyEvaluate(Map<VariableReference, ArithmeticConstant> constants);
+	
+	/**
+	 * As ArithmeticExpression.copy().
+	 */
+	public abstract BooleanExpression copy();
+	
+	// returns the value of this expression if it doesn't refer to any variables, or this expression if it does or if
+	// evaluating it fails
+	protected BooleanExpression evaluateIfConstant() {
+		List<VariableReference> references = new ArrayList<>();
+		collectVariableReferences(references);
+		if (!references.isEmpty()) return this;
+		try {
+			return evaluate((ProgramExecutionContext)null);
+		} catch (RuntimeException e) {
+			return this;
+		}
+	}
+	
 }
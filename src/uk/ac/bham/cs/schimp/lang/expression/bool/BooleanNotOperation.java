@@ -1,7 +1,12 @@
 package uk.ac.bham.cs.schimp.lang.expression.bool;
 
+import java.util.Collection;
+import java.util.Map;
+
 import uk.ac.bham.cs.schimp.exec.EvaluationException;
 import uk.ac.bham.cs.schimp.exec.ProgramExecutionContext;
+import uk.ac.bham.cs.schimp.lang.expression.arith.ArithmeticConstant;
+import uk.ac.bham.cs.schimp.lang.expression.arith.VariableReference;
 import uk.ac.bham.cs.schimp.source.SyntaxCheckContext;
 import uk.ac.bham.cs.schimp.source.SyntaxException;
 
@@ -19,6 +24,22 @@ public class BooleanNotOperation extends BooleanExpression {
 		exp.check(context);
 	}
 	
+	@Override
+	public void collectVariableReferences(Collection<VariableReference> references) {
+		exp.collectVariableReferences(references);
+	}
+	
+	@Override
+	public BooleanExpression partiallyEvaluate(Map<VariableReference, ArithmeticConstant> constants) {
+		exp = exp.partiallyEvaluate(constants);
+		return evaluateIfConstant();
+	}
+	
+	@Override
+	public BooleanExpression copy() {
+		return new BooleanNotOperation(exp.copy());
+	}
+	
 	@Override
 	public BooleanConstant evaluate(ProgramExecutionContext context) throws EvaluationException {
 		return new BooleanConstant(!exp.evaluate(context).toBoolean());
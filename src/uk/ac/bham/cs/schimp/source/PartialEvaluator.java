@@ -0,0 +1,451 @@
+package uk.ac.bham.cs.schimp.source;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.commons.math3.fraction.BigFraction;
+
+import uk.ac.bham.cs.schimp.exec.VariableBindings;
+import uk.ac.bham.cs.schimp.lang.Block;
+import uk.ac.bham.cs.schimp.lang.Function;
+import uk.ac.bham.cs.schimp.lang.Program;
+import uk.ac.bham.cs.schimp.lang.command.AssignCommand;
+import uk.ac.bham.cs.schimp.lang.command.Command;
+import uk.ac.bham.cs.schimp.lang.command.IfCommand;
+import uk.ac.bham.cs.schimp.lang.command.InvokeCommand;
+import uk.ac.bham.cs.schimp.lang.command.NewCommand;
+import uk.ac.bham.cs.schimp.lang.command.SkipCommand;
+import uk.ac.bham.cs.schimp.lang.command.VariableAssignmentCommand;
+import uk.ac.bham.cs.schimp.lang.command.WhileCommand;
+import uk.ac.bham.cs.schimp.lang.expression.arith.ArithmeticConstant;
+import uk.ac.bham.cs.schimp.lang.expression.arith.ArithmeticExpression;
+import uk.ac.bham.cs.schimp.lang.expression.arith.ArithmeticExpressionProbabilityMassFunction;
+import uk.ac.bham.cs.schimp.lang.expression.arith.VariableReference;
+import uk.ac.bham.cs.schimp.lang.expression.bool.BooleanConstant;
+import uk.ac.bham.cs.schimp.lang.expression.bool.BooleanExpression;
+
+/**
+ * Evaluates the parts of a schimp program that don't depend on its initial variables or on any probabilistic choice
+ * before the program is executed, so that its execution doesn't have to:
+ * - a variable declared by a NewCommand that always assigns the same value to it, and that is never assigned to again,
+ *   is a constant: every reference to it is replaced by its value
+ * - every expression is folded (i.e., each subexpression that doesn't refer to any variables is replaced by its value),
+ *   and the elements of a pmf that fold to the same value are merged
+ * - the commands in each function are partially evaluated in order with the values that the variables they read are
+ *   known to have when they're executed (e.g., a loop counter), and a WhileCommand whose conditional can be evaluated
+ *   this way before each of its iterations is unrolled: it is replaced by a copy of its body for each iteration, which
+ *   is partially evaluated with the values known at the start of that iteration (unless the copies would contain more
+ *   than MAXIMUM_UNROLLED_COMMANDS commands)
+ * - a WhileCommand whose conditional is always false is removed, and an IfCommand whose conditional is always true or
+ *   always false is replaced by the commands in the body it executes (or removed, if that body doesn't exist)
+ * These steps are repeated until nothing changes, since each of them can make the others applicable again. A body that
+ * declares variables needs a scope frame of its own, so instead of being inlined it is kept as the only body of an
+ * IfCommand whose conditional is true; a Block whose commands are all removed is replaced by a skip command.
+ *
+ * Unrolling a loop removes the states in which its conditional is evaluated, but those states are removed anyway when
+ * deterministic transitions are collapsed, so it only makes the program's model smaller when they aren't, or when the
+ * values it makes known remove probabilistic choices or function invocations from the loop's body.
+ */
+public class PartialEvaluator implements ProgramTransformation {
+	
+	// the largest number of commands (including nested commands) that the copies of an unrolled loop's body may contain
+	private static final int MAXIMUM_UNROLLED_COMMANDS = 1000;
+	
+	// the value of each constant variable (identified by the NewCommand that declares it), and of each reference to one
+	private Map<Object, ArithmeticConstant> constantVariables = new IdentityHashMap<>();
+	private Map<VariableReference, ArithmeticConstant> constants = new IdentityHashMap<>();
+	
+	// the outermost commands that were removed, in the order in which they were removed
+	private List<Command> removedCommands = new ArrayList<>();
+	private int removedCommandCount = 0;
+	
+	private int unrolledLoopCount = 0;
+	
+	public PartialEvaluator() {}
+	
+	/**
+	 * Returns the number of variables that were found to be constant.
+	 */
+	public int getConstantVariableCount() {
+		return constantVariables.size();
+	}
+	
+	/**
+	 * Returns the outermost commands that were removed from the program (i.e., not including the commands nested inside
+	 * them).
+	 */
+	public List<Command> getRemovedCommands() {
+		return removedCommands;
+	}
+	
+	/**
+	 * Returns the total number of commands that were removed from the program, including nested commands.
+	 */
+	public int getRemovedCommandCount() {
+		return removedCommandCount;
+	}
+	
+	/**
+	 * Returns the number of loops that were unrolled (including loops nested inside the copies of other loops' bodies).
+	 */
+	public int getUnrolledLoopCount() {
+		return unrolledLoopCount;
+	}
+	
+	@Override
+	public void transform(Program program, SyntaxCheckContext context) throws SyntaxException {
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			
+			VariableDeclarations declarations = new VariableDeclarations(program);
+			for (Command c : declarations.getCommands()) c.partiallyEvaluate(constants);
+			
+			for (Command c : declarations.getCommands()) {
+				if (!(c instanceof NewCommand) || constantVariables.containsKey(c)) continue;
+				ArithmeticConstant value = constantValue((NewCommand)c, declarations);
+				if (value != null) {
+					constantVariables.put(c, value);
+					changed = true;
+				}
+			}
+			
+			for (Command c : declarations.getCommands()) {
+				List<VariableReference> references = new ArrayList<>();
+				c.collectReadVariableReferences(references);
+				for (VariableReference v : references) {
+					ArithmeticConstant value = constantVariables.get(declarations.getDeclaration(v));
+					if (value != null) constants.put(v, value);
+				}
+			}
+			
+			List<String> globals = new ArrayList<>();
+			program.getInitialCommands().forEach(c -> globals.add(c.getVariableReference().getName()));
+			program.getNewCommands().forEach(c -> globals.add(c.getVariableReference().getName()));
+			for (Function f : program.getFunctions()) {
+				Values values = new Values(globals);
+				values.push();
+				f.getParameters().forEach(p -> values.declare(p.getName(), null));
+				if (propagate(f, values)) changed = true;
+			}
+			
+			for (Function f : program.getFunctions()) {
+				if (removeDeadBranches(f, context)) changed = true;
+			}
+			
+			// the copies of unrolled loops' bodies haven't been checked yet, and the scope depths of the variables referred
+			// to in inlined blocks have changed, so the whole program has to be checked again
+			if (changed) {
+				context.variableBindings = new VariableBindings();
+				context.functions = new HashMap<>();
+				program.check(context);
+			}
+		}
+	}
+	
+	// the value the given NewCommand assigns to its variable, if it always assigns the same value and the variable is
+	// never assigned to anywhere else, or null otherwise
+	private static ArithmeticConstant constantValue(NewCommand c, VariableDeclarations declarations) {
+		if (declarations.getWriters(c).size() != 1) return null;
+		
+		return value(c.getArithmeticExpressionProbabilityMassFunction());
+	}
+	
+	// the value the given pmf always takes, or null if it doesn't always take the same value
+	private static ArithmeticConstant value(ArithmeticExpressionProbabilityMassFunction pmf) {
+		if (pmf.elements().size() != 1) return null;
+		ArithmeticExpression e = pmf.elements().iterator().next();
+		ArithmeticExpression p = pmf.probabilityOf(e);
+		if (!(e instanceof ArithmeticConstant) || !(p instanceof ArithmeticConstant)) return null;
+		return ((ArithmeticConstant)p).toFraction().equals(BigFraction.ONE) ? (ArithmeticConstant)e : null;
+	}
+	
+	// partially evaluates each command in the given block (and the blocks nested inside it) with the values of the
+	// variables that are known when it is executed, given the values known before the block is executed (which are
+	// updated to the values known afterwards), and unrolls the loops whose iterations are known; returns true if any
+	// loops were unrolled
+	private boolean propagate(Block block, Values values) {
+		boolean unrolled = false;
+		List<Command> commands = new ArrayList<>();
+		for (Command c : block.getCommands()) {
+			List<VariableReference> references = new ArrayList<>();
+			c.collectReadVariableReferences(references);
+			
+			if (c instanceof WhileCommand) {
+				WhileCommand whileCommand = (WhileCommand)c;
+				List<Block> iterations = unroll(whileCommand, values);
+				if (iterations != null) {
+					for (Block b : iterations) {
+						if (declaresVariables(b)) {
+							commands.add(new IfCommand(new BooleanConstant(true), b, null));
+						} else {
+							commands.addAll(b.getCommands());
+						}
+					}
+					unrolledLoopCount++;
+					unrolled = true;
+					continue;
+				}
+				
+				// the values that are still known once the variables the loop may assign to are forgotten are the same in
+				// every iteration
+				Block body = whileCommand.getBlocks().get(0);
+				values.forgetAssignedVariables(body);
+				c.partiallyEvaluate(values.of(references));
+				if (propagate(body, values.copy().push())) unrolled = true;
+				commands.add(c);
+				continue;
+			}
+			
+			c.partiallyEvaluate(values.of(references));
+			
+			if (c instanceof VariableAssignmentCommand) {
+				VariableAssignmentCommand assignment = (VariableAssignmentCommand)c;
+				ArithmeticConstant value = value(assignment.getArithmeticExpressionProbabilityMassFunction());
+				if (c instanceof NewCommand) {
+					values.declare(assignment.getVariableReference().getName(), value);
+				} else {
+					values.assign(assignment.getVariableReference().getName(), value);
+				}
+			} else if (c instanceof InvokeCommand) {
+				values.forgetGlobals();
+			} else if (c instanceof IfCommand) {
+				BooleanExpression conditional = ((IfCommand)c).getConditional();
+				List<Block> blocks = c.getBlocks();
+				if (conditional instanceof BooleanConstant) {
+					// the other body is removed by removeDeadBranches()
+					int executed = isConstant(conditional, true) ? 0 : 1;
+					if (executed < blocks.size()) {
+						if (propagate(blocks.get(executed), values.push())) unrolled = true;
+						values.pop();
+					}
+				} else {
+					Values falseValues = values.copy();
+					if (propagate(blocks.get(0), values.push())) unrolled = true;
+					values.pop();
+					if (blocks.size() == 2) {
+						if (propagate(blocks.get(1), falseValues.push())) unrolled = true;
+						falseValues.pop();
+					}
+					values.merge(falseValues);
+				}
+			}
+			
+			commands.add(c);
+		}
+		
+		block.setCommands(commands);
+		return unrolled;
+	}
+	
+	// returns a copy of the given loop's body for each of its iterations, each partially evaluated with the values known
+	// at the start of that iteration (and updates the given values to those known once the loop ends), or null if the
+	// loop's conditional can't be evaluated before each iteration or the copies would be too large
+	private List<Block> unroll(WhileCommand c, Values values) {
+		Values iterationValues = values.copy();
+		List<Block> iterations = new ArrayList<>();
+		int size = 0;
+		// loops nested inside the copies are only unrolled if this one is
+		int nestedUnrolledLoopCount = unrolledLoopCount;
+		while (true) {
+			BooleanExpression conditional = c.getConditional().copy();
+			List<VariableReference> references = new ArrayList<>();
+			conditional.collectVariableReferences(references);
+			conditional = conditional.partiallyEvaluate(iterationValues.of(references));
+			if (!(conditional instanceof BooleanConstant)) {
+				unrolledLoopCount = nestedUnrolledLoopCount;
+				return null;
+			}
+			if (isConstant(conditional, false)) break;
+			
+			Block iteration = c.getBlocks().get(0).copy();
+			propagate(iteration, iterationValues.push());
+			iterationValues.pop();
+			for (Command d : iteration.getCommands()) size += countCommands(d);
+			if (size > MAXIMUM_UNROLLED_COMMANDS) {
+				unrolledLoopCount = nestedUnrolledLoopCount;
+				return null;
+			}
+			iterations.add(iteration);
+		}
+		
+		values.frames = iterationValues.frames;
+		return iterations;
+	}
+	
+	// whether any variables are declared directly inside the given block (rather than in a block nested inside it)
+	private static boolean declaresVariables(Block block) {
+		return block.getCommands().stream().anyMatch(c -> c instanceof NewCommand);
+	}
+	
+	// removes the commands in the given block (and the blocks nested inside it) that are never executed, and returns
+	// true if any were removed
+	private boolean removeDeadBranches(Block block, SyntaxCheckContext context) throws SyntaxException {
+		boolean changed = false;
+		List<Command> commands = new ArrayList<>();
+		for (Command c : block.getCommands()) {
+			if (c instanceof WhileCommand && isConstant(((WhileCommand)c).getConditional(), false)) {
+				remove(c);
+				changed = true;
+				continue;
+			}
+			
+			if (c instanceof IfCommand && ((IfCommand)c).getConditional() instanceof BooleanConstant) {
+				IfCommand ifCommand = (IfCommand)c;
+				boolean value = isConstant(ifCommand.getConditional(), true);
+				List<Block> blocks = ifCommand.getBlocks();
+				if (!value && blocks.size() == 1) {
+					remove(c);
+					changed = true;
+					continue;
+				}
+				if (blocks.size() == 2) blocks.get(value ? 1 : 0).getCommands().forEach(this::remove);
+				
+				// the body that is executed replaces the command, unless it needs a scope frame of its own for the
+				// variables it declares
+				Block executed = blocks.get(value ? 0 : 1);
+				if (!declaresVariables(executed)) {
+					removeDeadBranches(executed, context);
+					commands.addAll(executed.getCommands());
+					changed = true;
+					continue;
+				}
+				if (blocks.size() == 2) {
+					ifCommand.keepBranch(value);
+					changed = true;
+				}
+			}
+			
+			commands.add(c);
+			for (Block b : c.getBlocks()) {
+				if (removeDeadBranches(b, context)) changed = true;
+			}
+		}
+		
+		if (commands.isEmpty()) {
+			// a Block can't be empty, so it has to do nothing instead
+			SkipCommand skip = new SkipCommand();
+			skip.check(context);
+			commands.add(skip);
+		}
+		block.setCommands(commands);
+		return changed;
+	}
+	
+	private static boolean isConstant(BooleanExpression conditional, boolean value) {
+		return conditional instanceof BooleanConstant && ((BooleanConstant)conditional).toBoolean() == value;
+	}
+	
+	private void remove(Command c) {
+		removedCommands.add(c);
+		removedCommandCount += countCommands(c);
+	}
+	
+	private static int countCommands(Command c) {
+		int count = 1;
+		for (Block b : c.getBlocks()) {
+			for (Command d : b.getCommands()) count += countCommands(d);
+		}
+		return count;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder();
+		s.append("Found " + constantVariables.size() + " constant variable" + (constantVariables.size() == 1 ? "" : "s") + "\n");
+		s.append("Unrolled " + unrolledLoopCount + " loop" + (unrolledLoopCount == 1 ? "" : "s") + "\n");
+		s.append("Removed " + removedCommandCount + " unreachable command" + (removedCommandCount == 1 ? "" : "s") + "\n");
+		for (Command c : removedCommands) {
+			s.append(c.toSourceString(1) + "\n");
+		}
+		return s.toString();
+	}
+	
+	// the variables in scope at a particular point in a function and their values, if they are known, by name in each
+	// scope frame from the global scope frame inwards (a variable whose value isn't known maps to null); variables are
+	// looked up in the same way as VariableReferences are resolved when they're checked, so commands that haven't been
+	// checked yet can be partially evaluated too
+	private static class Values {
+		
+		private List<Map<String, ArithmeticConstant>> frames = new ArrayList<>();
+		
+		private Values() {}
+		
+		private Values(List<String> globals) {
+			Map<String, ArithmeticConstant> globalFrame = new HashMap<>();
+			globals.forEach(g -> globalFrame.put(g, null));
+			frames.add(globalFrame);
+		}
+		
+		private Values copy() {
+			Values copy = new Values();
+			frames.forEach(f -> copy.frames.add(new HashMap<>(f)));
+			return copy;
+		}
+		
+		private Values push() {
+			frames.add(new HashMap<>());
+			return this;
+		}
+		
+		private void pop() {
+			frames.remove(frames.size() - 1);
+		}
+		
+		// the innermost scope frame containing the given variable, or null if it isn't in scope
+		private Map<String, ArithmeticConstant> frameOf(String name) {
+			for (int i = frames.size() - 1; i >= 0; i--) {
+				if (frames.get(i).containsKey(name)) return frames.get(i);
+			}
+			return null;
+		}
+		
+		private void declare(String name, ArithmeticConstant value) {
+			frames.get(frames.size() - 1).put(name, value);
+		}
+		
+		private void assign(String name, ArithmeticConstant value) {
+			Map<String, ArithmeticConstant> frame = frameOf(name);
+			if (frame != null) frame.put(name, value);
+		}
+		
+		// the known values of the variables the given VariableReferences refer to
+		private Map<VariableReference, ArithmeticConstant> of(Collection<VariableReference> references) {
+			Map<VariableReference, ArithmeticConstant> values = new IdentityHashMap<>();
+			for (VariableReference v : references) {
+				Map<String, ArithmeticConstant> frame = frameOf(v.getName());
+				if (frame != null && frame.get(v.getName()) != null) values.put(v, frame.get(v.getName()));
+			}
+			return values;
+		}
+		
+		// an invoked function may assign to any global variable
+		private void forgetGlobals() {
+			frames.get(0).replaceAll((name, value) -> null);
+		}
+		
+		// forgets the values of the variables that may be assigned to while the given block is executed
+		private void forgetAssignedVariables(Block block) {
+			for (Command c : block.getCommands()) {
+				if (c instanceof AssignCommand) assign(((AssignCommand)c).getVariableReference().getName(), null);
+				if (c instanceof InvokeCommand) forgetGlobals();
+				for (Block b : c.getBlocks()) forgetAssignedVariables(b);
+			}
+		}
+		
+		// forgets the values that are different in the given Values, which must have the same scope frames
+		private void merge(Values other) {
+			for (int i = 0; i < frames.size(); i++) {
+				Map<String, ArithmeticConstant> otherFrame = other.frames.get(i);
+				frames.get(i).replaceAll((name, value) -> Objects.equals(value, otherFrame.get(name)) ? value : null);
+			}
+		}
+		
+	}
+	
+}
@@ -0,0 +1,145 @@
+package uk.ac.bham.cs.schimp.source;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import uk.ac.bham.cs.schimp.lang.Block;
+import uk.ac.bham.cs.schimp.lang.Function;
+import uk.ac.bham.cs.schimp.lang.Program;
+import uk.ac.bham.cs.schimp.lang.command.Command;
+import uk.ac.bham.cs.schimp.lang.command.InvokeCommand;
+import uk.ac.bham.cs.schimp.lang.command.OutputCommand;
+import uk.ac.bham.cs.schimp.lang.command.SkipCommand;
+import uk.ac.bham.cs.schimp.lang.command.WhileCommand;
+
+/**
+ * Removes the commands in a schimp program's functions that can't affect anything the attacker observes, i.e. the
+ * program's outputs and the time and power consumed by its non-atomic functions. This is done after the program has
+ * been syntax-checked (so that its VariableReferences are resolved) and before its control flow is resolved.
+ *
+ * The commands that are kept are found from a dependence graph over the program's commands:
+ * - every OutputCommand, every InvokeCommand of a non-atomic function (whose resource consumption depends on its
+ *   arguments) and every WhileCommand (so that the program's termination is unaffected) is kept
+ * - every variable read by a kept command is relevant, and every command that assigns to a relevant variable is kept
+ *   (data dependence, which doesn't distinguish between assignments that do and don't reach a particular read)
+ * - every IfCommand or WhileCommand that a kept command is nested in, and every InvokeCommand of a function that
+ *   contains a kept command, is kept (control dependence)
+ *
+ * The program's top-level commands (including all of its initial variables, whether they are tracked or not) are
+ * always kept. A Block whose commands are all removed is replaced by a skip command.
+ */
+public class ProgramSlicer implements ProgramTransformation {
+	
+	private VariableDeclarations declarations;
+	
+	// the kept commands and relevant variables (identified by the Syntax objects that declare them) whose dependences
+	// haven't been followed yet are on the worklists
+	private Set<Command> keptCommands = Collections.newSetFromMap(new IdentityHashMap<>());
+	private Set<Object> relevantVariables = Collections.newSetFromMap(new IdentityHashMap<>());
+	private Deque<Command> commandWorklist = new ArrayDeque<>();
+	private Deque<Object> variableWorklist = new ArrayDeque<>();
+	
+	// the outermost commands that were removed, in the order in which they appear in the program
+	private List<Command> slicedCommands = new ArrayList<>();
+	private int slicedCommandCount = 0;
+	
+	public ProgramSlicer() {}
+	
+	/**
+	 * Returns the outermost commands that were removed from the program (i.e., not including the commands nested inside
+	 * them).
+	 */
+	public List<Command> getSlicedCommands() {
+		return slicedCommands;
+	}
+	
+	/**
+	 * Returns the total number of commands that were removed from the program, including nested commands.
+	 */
+	public int getSlicedCommandCount() {
+		return slicedCommandCount;
+	}
+	
+	@Override
+	public void transform(Program program, SyntaxCheckContext context) throws SyntaxException {
+		declarations = new VariableDeclarations(program);
+		
+		for (Command c : declarations.getCommands()) {
+			if (
+				c instanceof OutputCommand ||
+				c instanceof WhileCommand ||
+				(c instanceof InvokeCommand && ((InvokeCommand)c).getFunction().getType() == Function.ResourceConsumptionType.NON_ATOMIC)
+			) {
+				keep(c);
+			}
+		}
+		
+		while (!commandWorklist.isEmpty() || !variableWorklist.isEmpty()) {
+			if (!commandWorklist.isEmpty()) {
+				Command c = commandWorklist.pop();
+				declarations.getReadVariables(c).forEach(this::makeRelevant);
+				if (declarations.getEnclosingCommand(c) != null) keep(declarations.getEnclosingCommand(c));
+				declarations.getInvocations(declarations.getFunction(c)).forEach(this::keep);
+			} else {
+				declarations.getWriters(variableWorklist.pop()).forEach(this::keep);
+			}
+		}
+		
+		for (Function f : program.getFunctions()) removeCommands(f, context);
+	}
+	
+	private void keep(Command c) {
+		// the program's top-level commands are always kept
+		if (declarations.getFunction(c) == null) return;
+		if (keptCommands.add(c)) commandWorklist.push(c);
+	}
+	
+	private void makeRelevant(Object variable) {
+		if (relevantVariables.add(variable)) variableWorklist.push(variable);
+	}
+	
+	private void removeCommands(Block block, SyntaxCheckContext context) throws SyntaxException {
+		List<Command> commands = new ArrayList<>();
+		for (Command c : block.getCommands()) {
+			if (keptCommands.contains(c)) {
+				commands.add(c);
+				for (Block b : c.getBlocks()) removeCommands(b, context);
+			} else {
+				slicedCommands.add(c);
+				slicedCommandCount += countCommands(c);
+			}
+		}
+		
+		if (commands.isEmpty()) {
+			// a Block can't be empty, so it has to do nothing instead
+			SkipCommand skip = new SkipCommand();
+			skip.check(context);
+			commands.add(skip);
+		}
+		block.setCommands(commands);
+	}
+	
+	private static int countCommands(Command c) {
+		int count = 1;
+		for (Block b : c.getBlocks()) {
+			for (Command d : b.getCommands()) count += countCommands(d);
+		}
+		return count;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder();
+		s.append("Sliced away " + slicedCommandCount + " command" + (slicedCommandCount == 1 ? "" : "s") + "\n");
+		for (Command c : slicedCommands) {
+			s.append(c.toSourceString(1) + "\n");
+		}
+		return s.toString();
+	}
+	
+}
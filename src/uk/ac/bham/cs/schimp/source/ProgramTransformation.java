@@ -0,0 +1,15 @@
+package uk.ac.bham.cs.schimp.source;
+
+import uk.ac.bham.cs.schimp.lang.Program;
+
+/**
+ * A source-level transformation of a schimp program that preserves everything the attacker observes about its
+ * execution. Transformations are applied by SourceFile.parse() after the program has been syntax-checked (so that its
+ * VariableReferences are resolved) and before its control flow is resolved; the given SyntaxCheckContext can be used to
+ * check any commands the transformation creates.
+ */
+public interface ProgramTransformation {
+	
+	void transform(Program program, SyntaxCheckContext context) throws SyntaxException;
+	
+}
@@ -37,6 +37,11 @@ public class SourceFile {
 	}
 	
 	public Program parse(Map<Pair<String, Integer>, FunctionModel> functionModels) throws IOException, SyntaxException {
+		return parse(functionModels, Collections.emptyList());
+	}
+	
+	// the given transformations are applied in order once the program has been checked
+	public Program parse(Map<Pair<String, Integer>, FunctionModel> functionModels, List<ProgramTransformation> transformations) throws IOException, SyntaxException {
 		CharStream charStream = CharStreams.fromPath(file.toPath());
 		SCHIMPLexer lexer = new SCHIMPLexer(charStream);
 		TokenStream tokens = new CommonTokenStream(lexer);
@@ -49,6 +54,8 @@ public class SourceFile {
 		context.functionModels = functionModels;
 		program.check(context);
 		
+		for (ProgramTransformation t : transformations) t.transform(program, context);
+		
 		program.resolveControlFlow(new ControlFlowContext());
 		
 		return program;
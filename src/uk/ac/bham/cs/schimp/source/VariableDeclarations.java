@@ -0,0 +1,153 @@
+package uk.ac.bham.cs.schimp.source;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import uk.ac.bham.cs.schimp.exec.VariableBindings;
+import uk.ac.bham.cs.schimp.lang.Block;
+import uk.ac.bham.cs.schimp.lang.Function;
+import uk.ac.bham.cs.schimp.lang.Program;
+import uk.ac.bham.cs.schimp.lang.command.Command;
+import uk.ac.bham.cs.schimp.lang.command.InitialCommand;
+import uk.ac.bham.cs.schimp.lang.command.InvokeCommand;
+import uk.ac.bham.cs.schimp.lang.command.NewCommand;
+import uk.ac.bham.cs.schimp.lang.command.VariableAssignmentCommand;
+import uk.ac.bham.cs.schimp.lang.expression.arith.VariableReference;
+
+/**
+ * Resolves every variable that the commands of a syntax-checked schimp program read or write to the Syntax object that
+ * declares it: an InitialCommand or NewCommand, or (for a function's parameters) the VariableReference in the
+ * function's parameter list. Variables with the same name and slot that are declared in different places are therefore
+ * distinct.
+ *
+ * The program's top-level commands (its initial variables, global variables and the initial InvokeCommand) belong to no
+ * function.
+ */
+class VariableDeclarations {
+	
+	// every command, in the order in which it appears in the program (top-level commands first), the function each
+	// command belongs to and the command directly enclosing it (an IfCommand or WhileCommand, or null)
+	private List<Command> commands = new ArrayList<>();
+	private Map<Command, Function> functions = new IdentityHashMap<>();
+	private Map<Command, Command> enclosingCommands = new IdentityHashMap<>();
+	
+	// the declaration of each VariableReference, the commands that write each declared variable, and the InvokeCommands
+	// of each function
+	private Map<VariableReference, Object> declarations = new IdentityHashMap<>();
+	private Map<Object, List<Command>> writers = new IdentityHashMap<>();
+	private Map<Function, List<InvokeCommand>> invocations = new IdentityHashMap<>();
+	
+	VariableDeclarations(Program program) {
+		// the variables declared at the top level of the program, by slot in the global scope frame
+		Map<Integer, Object> globals = new HashMap<>();
+		
+		for (Function f : program.getFunctions()) invocations.put(f, new ArrayList<>());
+		
+		List<Command> topLevelCommands = new ArrayList<>();
+		topLevelCommands.addAll(program.getInitialCommands());
+		topLevelCommands.addAll(program.getNewCommands());
+		topLevelCommands.add(program.getInitialInvokeCommand());
+		for (Command c : topLevelCommands) addCommand(c, null, null, Collections.emptyList(), globals);
+		
+		for (Function f : program.getFunctions()) {
+			// a function's parameters are declared in its function scope frame
+			Map<Integer, Object> functionScopeFrame = new HashMap<>();
+			for (VariableReference p : f.getParameters()) {
+				functionScopeFrame.put(p.getSlot(), p);
+				declarations.put(p, p);
+			}
+			
+			List<Map<Integer, Object>> scopeFrames = new ArrayList<>();
+			scopeFrames.add(functionScopeFrame);
+			addCommands(f, f, null, scopeFrames, globals);
+		}
+	}
+	
+	// adds the commands in the given block, which are executed with the given scope frames (from the outermost one
+	// inwards), each of which maps slots to the variables declared in them
+	private void addCommands(Block block, Function function, Command enclosingCommand, List<Map<Integer, Object>> scopeFrames, Map<Integer, Object> globals) {
+		for (Command c : block.getCommands()) {
+			addCommand(c, function, enclosingCommand, scopeFrames, globals);
+			
+			for (Block b : c.getBlocks()) {
+				scopeFrames.add(new HashMap<>());
+				addCommands(b, function, c, scopeFrames, globals);
+				scopeFrames.remove(scopeFrames.size() - 1);
+			}
+		}
+	}
+	
+	private void addCommand(Command c, Function function, Command enclosingCommand, List<Map<Integer, Object>> scopeFrames, Map<Integer, Object> globals) {
+		commands.add(c);
+		functions.put(c, function);
+		enclosingCommands.put(c, enclosingCommand);
+		
+		List<VariableReference> references = new ArrayList<>();
+		c.collectReadVariableReferences(references);
+		for (VariableReference v : references) declarations.put(v, resolve(v, scopeFrames, globals));
+		
+		if (c instanceof VariableAssignmentCommand) {
+			// a NewCommand declares its variable after evaluating its expressions, which may refer to a variable with the
+			// same name in an enclosing scope frame
+			VariableReference v = ((VariableAssignmentCommand)c).getVariableReference();
+			if (c instanceof NewCommand || c instanceof InitialCommand) {
+				if (v.getScopeDepth() == VariableBindings.GLOBAL_SCOPE_DEPTH) {
+					globals.put(v.getSlot(), c);
+				} else {
+					scopeFrames.get(scopeFrames.size() - 1).put(v.getSlot(), c);
+				}
+			}
+			Object declaration = resolve(v, scopeFrames, globals);
+			declarations.put(v, declaration);
+			writers.computeIfAbsent(declaration, k -> new ArrayList<>()).add(c);
+		}
+		
+		if (c instanceof InvokeCommand) invocations.get(((InvokeCommand)c).getFunction()).add((InvokeCommand)c);
+	}
+	
+	private static Object resolve(VariableReference v, List<Map<Integer, Object>> scopeFrames, Map<Integer, Object> globals) {
+		return v.getScopeDepth() == VariableBindings.GLOBAL_SCOPE_DEPTH ?
+			globals.get(v.getSlot()) :
+			scopeFrames.get(scopeFrames.size() - 1 - v.getScopeDepth()).get(v.getSlot());
+	}
+	
+	//==========================================================================
+	
+	List<Command> getCommands() {
+		return commands;
+	}
+	
+	// null for the program's top-level commands
+	Function getFunction(Command c) {
+		return functions.get(c);
+	}
+	
+	Command getEnclosingCommand(Command c) {
+		return enclosingCommands.get(c);
+	}
+	
+	Object getDeclaration(VariableReference v) {
+		return declarations.get(v);
+	}
+	
+	// the declarations of the variables the given command reads
+	List<Object> getReadVariables(Command c) {
+		List<VariableReference> references = new ArrayList<>();
+		c.collectReadVariableReferences(references);
+		return references.stream().map(declarations::get).collect(Collectors.toList());
+	}
+	
+	List<Command> getWriters(Object declaration) {
+		return writers.getOrDefault(declaration, Collections.emptyList());
+	}
+	
+	List<InvokeCommand> getInvocations(Function f) {
+		return invocations.get(f);
+	}
+	
+}
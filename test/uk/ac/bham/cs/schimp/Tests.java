@@ -0,0 +1,87 @@
+package uk.ac.bham.cs.schimp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Objects;
+
+import org.apache.commons.math3.fraction.BigFraction;
+
+import prism.PrismException;
+import uk.ac.bham.cs.schimp.exec.BayesVulnerability;
+import uk.ac.bham.cs.schimp.exec.ExplicitSCHIMPModel;
+import uk.ac.bham.cs.schimp.exec.PRISMModelGenerator;
+import uk.ac.bham.cs.schimp.lang.Program;
+import uk.ac.bham.cs.schimp.source.FunctionModelSourceFile;
+import uk.ac.bham.cs.schimp.source.ProgramTransformation;
+import uk.ac.bham.cs.schimp.source.SourceFile;
+
+/**
+ * Helpers shared by the tests in this tree. Each test is a class whose name ends in "Test", with a main() method that
+ * throws an exception (usually an AssertionError from check()) as soon as something is wrong; the "test" target in
+ * build.xml runs all of them.
+ */
+public class Tests {
+	
+	// the size of an explored model, and the attacker's success probability in it
+	public static class Exploration {
+		
+		public final int states;
+		public final BigFraction vulnerability;
+		
+		private Exploration(int states, BigFraction vulnerability) {
+			this.states = states;
+			this.vulnerability = vulnerability;
+		}
+		
+	}
+	
+	public static void check(boolean condition, String message) {
+		if (!condition) throw new AssertionError(message);
+	}
+	
+	public static void checkEquals(Object expected, Object actual, String message) {
+		if (!Objects.equals(expected, actual)) throw new AssertionError(message + ": expected " + expected + ", got " + actual);
+	}
+	
+	/**
+	 * Parses the given program source (with the given function model source, if it's non-null), applying the given
+	 * transformations to it.
+	 */
+	public static Program parse(String source, String functionModelSource, ProgramTransformation... transformations) throws Exception {
+		File sourceFile = write(source, ".schimp");
+		File functionModelFile = functionModelSource == null ? null : write(functionModelSource, ".fnmodel");
+		try {
+			return new SourceFile(sourceFile).parse(
+				functionModelFile == null ? null : new FunctionModelSourceFile(functionModelFile).parse(),
+				Arrays.asList(transformations)
+			);
+		} finally {
+			sourceFile.delete();
+			if (functionModelFile != null) functionModelFile.delete();
+		}
+	}
+	
+	private static File write(String source, String suffix) throws IOException {
+		File file = File.createTempFile("schimp-test-", suffix);
+		Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+	
+	/**
+	 * Explores the given program, with the time and power consumed and its initial variables in each state and
+	 * deterministic transitions collapsed, with the given options.
+	 */
+	public static Exploration explore(Program program, PRISMModelGenerator.ExplorationOptions options) throws PrismException {
+		return explore(program, true, options);
+	}
+	
+	public static Exploration explore(Program program, boolean collapseDeterministicTransitions, PRISMModelGenerator.ExplorationOptions options) throws PrismException {
+		PRISMModelGenerator generator = new PRISMModelGenerator(program, true, true, program.getInitialVariableNames(), collapseDeterministicTransitions, options);
+		ExplicitSCHIMPModel model = generator.buildExplicitModel();
+		return new Exploration(model.getNumStates(), BayesVulnerability.fromSCHIMPModel(model, generator).getProbability());
+	}
+	
+}
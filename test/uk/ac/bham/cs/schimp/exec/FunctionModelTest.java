@@ -0,0 +1,85 @@
+package uk.ac.bham.cs.schimp.exec;
+
+import static uk.ac.bham.cs.schimp.Tests.check;
+import static uk.ac.bham.cs.schimp.Tests.checkEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.math3.fraction.BigFraction;
+import org.javatuples.Pair;
+
+import uk.ac.bham.cs.schimp.ProbabilityMassFunction;
+import uk.ac.bham.cs.schimp.lang.expression.arith.ArithmeticConstant;
+
+public class FunctionModelTest {
+	
+	// the resource consumption in each row is distinct, so the row that matched can be told from the result
+	private static ProbabilityMassFunction<Pair<Integer, Integer>> consumption(int row) {
+		ProbabilityMassFunction<Pair<Integer, Integer>> pmf = new ProbabilityMassFunction<>();
+		pmf.add(new Pair<>(row, row), BigFraction.ONE);
+		return pmf;
+	}
+	
+	// null is a wildcard
+	private static List<ArithmeticConstant> parameters(Integer... values) {
+		ArithmeticConstant[] constants = new ArithmeticConstant[values.length];
+		for (int i = 0; i < values.length; i++) constants[i] = values[i] == null ? null : new ArithmeticConstant(values[i]);
+		return Arrays.asList(constants);
+	}
+	
+	private static void checkRow(FunctionModel model, List<ProbabilityMassFunction<Pair<Integer, Integer>>> rows, int row, Integer... values) {
+		// looked up twice, so that the memoised lookup is checked too
+		for (int i = 0; i < 2; i++) {
+			String message = "row matching " + Arrays.toString(values) + (i == 0 ? "" : " (memoised)");
+			if (row == -1) {
+				checkEquals(Pair.with(0, 0), model.getResourceConsumption(parameters(values)).elements().iterator().next(), message);
+				continue;
+			}
+			check(model.getResourceConsumption(parameters(values)) == rows.get(row), message + ": expected row " + row);
+			check(model.getResourceConsumptionAliasTable(parameters(values)) == model.getRowAliasTable(row), message + ": expected row " + row + "'s alias table");
+		}
+	}
+	
+	public static void main(String[] args) {
+		// the first row that matches wins, whether it has wildcards or not
+		FunctionModel model = new FunctionModel("f", 2);
+		List<ProbabilityMassFunction<Pair<Integer, Integer>>> rows = Arrays.asList(
+			consumption(0), consumption(1), consumption(2), consumption(3), consumption(4), consumption(5)
+		);
+		model.add(parameters(0, 0), rows.get(0));
+		model.add(parameters(null, 1), rows.get(1));
+		model.add(parameters(0, 1), rows.get(2));
+		model.add(parameters(0, null), rows.get(3));
+		model.add(parameters(0, 0), rows.get(4));
+		model.add(parameters(null, 2), rows.get(5));
+		
+		checkRow(model, rows, 0, 0, 0);
+		checkRow(model, rows, 1, 0, 1);
+		checkRow(model, rows, 1, 7, 1);
+		checkRow(model, rows, 3, 0, 2);
+		checkRow(model, rows, 3, 0, 7);
+		checkRow(model, rows, 5, 7, 2);
+		checkRow(model, rows, -1, 7, 7);
+		
+		// adding a row discards the memoised lookups that it changes
+		rows = new ArrayList<>(rows);
+		rows.add(consumption(6));
+		model.add(parameters(null, null), rows.get(6));
+		checkRow(model, rows, 6, 7, 7);
+		checkRow(model, rows, 5, 7, 2);
+		
+		// an exact row shadowed by an earlier wildcard row never matches, even after a wildcard row that would match it
+		FunctionModel shadowed = new FunctionModel("g", 3);
+		List<ProbabilityMassFunction<Pair<Integer, Integer>>> shadowedRows = Arrays.asList(consumption(0), consumption(1), consumption(2));
+		shadowed.add(parameters(1, null, 3), shadowedRows.get(0));
+		shadowed.add(parameters(1, 2, 3), shadowedRows.get(1));
+		shadowed.add(parameters(null, 2, null), shadowedRows.get(2));
+		checkRow(shadowed, shadowedRows, 0, 1, 2, 3);
+		checkRow(shadowed, shadowedRows, 2, 4, 2, 3);
+		checkRow(shadowed, shadowedRows, 2, 1, 2, 4);
+		checkRow(shadowed, shadowedRows, -1, 1, 3, 4);
+	}
+	
+}
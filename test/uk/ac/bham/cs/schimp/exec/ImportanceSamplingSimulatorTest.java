@@ -0,0 +1,42 @@
+package uk.ac.bham.cs.schimp.exec;
+
+import static uk.ac.bham.cs.schimp.Tests.check;
+import static uk.ac.bham.cs.schimp.Tests.checkEquals;
+
+import org.apache.commons.math3.fraction.BigFraction;
+
+import uk.ac.bham.cs.schimp.Tests;
+import uk.ac.bham.cs.schimp.lang.Program;
+
+public class ImportanceSamplingSimulatorTest {
+	
+	// the secret is only leaked (as k + 1) with probability 1/64, so the attacker guesses correctly with probability 1/4
+	// of 63/64 when it isn't and always when it is, i.e. 63/256 + 4/256
+	private static final String PROGRAM =
+		"initial s := { 0 -> 1/4, 1 -> 1/4, 2 -> 1/4, 3 -> 1/4 };\n" +
+		"function f(k) {\n" +
+		"	new leak := { 1 -> 1/64, 0 -> 63/64 };\n" +
+		"	output leak * (k + 1)\n" +
+		"};\n" +
+		"f(s)\n";
+	
+	private static final BigFraction VULNERABILITY = new BigFraction(67, 256);
+	
+	public static void main(String[] args) throws Exception {
+		Program program = Tests.parse(PROGRAM, null);
+		checkEquals(VULNERABILITY, Tests.explore(program, new PRISMModelGenerator.ExplorationOptions()).vulnerability, "exact vulnerability");
+		
+		// the simulator is seeded, so this is deterministic
+		for (int threads : new int[] { 1, 2 }) {
+			PRISMModelGenerator generator = new PRISMModelGenerator(program, true, true, program.getInitialVariableNames(), true);
+			ImportanceSamplingSimulator simulator = new ImportanceSamplingSimulator(generator, threads, 42, 1000);
+			simulator.run(3, 20000, 0.005, 0.95, 10000000L);
+			check(
+				simulator.getLowerBound() <= VULNERABILITY.doubleValue() && VULNERABILITY.doubleValue() <= simulator.getUpperBound(),
+				"interval [" + simulator.getLowerBound() + ", " + simulator.getUpperBound() + "] on " + threads + " threads contains " + VULNERABILITY.doubleValue()
+			);
+			check(simulator.getUpperBound() - simulator.getLowerBound() <= 0.01, "interval on " + threads + " threads is as precise as requested");
+		}
+	}
+	
+}
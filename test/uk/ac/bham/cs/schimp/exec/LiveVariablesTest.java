@@ -0,0 +1,49 @@
+package uk.ac.bham.cs.schimp.exec;
+
+import static uk.ac.bham.cs.schimp.Tests.check;
+import static uk.ac.bham.cs.schimp.Tests.checkEquals;
+
+import uk.ac.bham.cs.schimp.Tests;
+import uk.ac.bham.cs.schimp.Tests.Exploration;
+import uk.ac.bham.cs.schimp.lang.Program;
+
+public class LiveVariablesTest {
+	
+	// x is dead once it has been added to the global g, t and u as soon as they've been declared, main()'s parameter after
+	// the loop, and the global r until h() assigns to it (it's only read by the output)
+	private static final String PROGRAM =
+		"initial s := { 0 -> 1/4, 1 -> 1/4, 2 -> 1/4, 3 -> 1/4 };\n" +
+		"new g := 0;\n" +
+		"new r := 0;\n" +
+		"function h(a) {\n" +
+		"	new x := { a -> 1/2, a + 1 -> 1/2 };\n" +
+		"	g := g + x;\n" +
+		"	new t := { 0 -> 1/3, 1 -> 2/3 };\n" +
+		"	r := { g -> 1/2, 0 -> 1/2 }\n" +
+		"};\n" +
+		"function main(a) {\n" +
+		"	new i := 0;\n" +
+		"	while (i < 2) {\n" +
+		"		h(a);\n" +
+		"		i := i + 1\n" +
+		"	};\n" +
+		"	new u := { 0 -> 1/2, 1 -> 1/2 };\n" +
+		"	output r mod 3\n" +
+		"};\n" +
+		"main(s)\n";
+	
+	public static void main(String[] args) throws Exception {
+		Program program = Tests.parse(PROGRAM, null);
+		for (boolean collapse : new boolean[] { true, false }) {
+			Exploration full = Tests.explore(program, collapse, new PRISMModelGenerator.ExplorationOptions().reduceDeadVariables(false));
+			Exploration reduced = Tests.explore(program, collapse, new PRISMModelGenerator.ExplorationOptions().reduceDeadVariables(true));
+			checkEquals(full.vulnerability, reduced.vulnerability, "vulnerability with dead variables reduced (collapse=" + collapse + ")");
+			check(reduced.states < full.states, "reducing dead variables removes states (collapse=" + collapse + "): " + reduced.states + " of " + full.states);
+			
+			Exploration threaded = Tests.explore(program, collapse, new PRISMModelGenerator.ExplorationOptions().reduceDeadVariables(true).threads(2));
+			checkEquals(reduced.vulnerability, threaded.vulnerability, "vulnerability with dead variables reduced on 2 threads (collapse=" + collapse + ")");
+			checkEquals(reduced.states, threaded.states, "states with dead variables reduced on 2 threads (collapse=" + collapse + ")");
+		}
+	}
+	
+}
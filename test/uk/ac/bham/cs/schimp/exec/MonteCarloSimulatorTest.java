@@ -0,0 +1,42 @@
+package uk.ac.bham.cs.schimp.exec;
+
+import static uk.ac.bham.cs.schimp.Tests.check;
+import static uk.ac.bham.cs.schimp.Tests.checkEquals;
+
+import org.apache.commons.math3.fraction.BigFraction;
+
+import uk.ac.bham.cs.schimp.Tests;
+import uk.ac.bham.cs.schimp.lang.Program;
+
+public class MonteCarloSimulatorTest {
+	
+	// the output is s mod 2 + n, so each of its 3 values is output by 2 of the 4 secrets with probability 1/8 each, and the
+	// attacker's success probability is 3 * 1/8
+	private static final String PROGRAM =
+		"initial s := { 0 -> 1/4, 1 -> 1/4, 2 -> 1/4, 3 -> 1/4 };\n" +
+		"function f(k) {\n" +
+		"	new n := { 0 -> 1/2, 1 -> 1/2 };\n" +
+		"	output (k mod 2) + n\n" +
+		"};\n" +
+		"f(s)\n";
+	
+	private static final BigFraction VULNERABILITY = new BigFraction(3, 8);
+	
+	public static void main(String[] args) throws Exception {
+		Program program = Tests.parse(PROGRAM, null);
+		checkEquals(VULNERABILITY, Tests.explore(program, new PRISMModelGenerator.ExplorationOptions()).vulnerability, "exact vulnerability");
+		
+		// the simulator is seeded, so this is deterministic
+		for (int threads : new int[] { 1, 2 }) {
+			PRISMModelGenerator generator = new PRISMModelGenerator(program, true, true, program.getInitialVariableNames(), true);
+			MonteCarloSimulator simulator = new MonteCarloSimulator(generator, threads, 42, 1000);
+			simulator.run(0.005, 0.95, 10000000L);
+			check(
+				simulator.getLowerBound() <= VULNERABILITY.doubleValue() && VULNERABILITY.doubleValue() <= simulator.getUpperBound(),
+				"interval [" + simulator.getLowerBound() + ", " + simulator.getUpperBound() + "] on " + threads + " threads contains " + VULNERABILITY.doubleValue()
+			);
+			check(simulator.getUpperBound() - simulator.getLowerBound() <= 0.01, "interval on " + threads + " threads is as precise as requested");
+		}
+	}
+	
+}
@@ -0,0 +1,107 @@
+package uk.ac.bham.cs.schimp.exec;
+
+import static uk.ac.bham.cs.schimp.Tests.check;
+import static uk.ac.bham.cs.schimp.Tests.checkEquals;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import uk.ac.bham.cs.schimp.Tests;
+import uk.ac.bham.cs.schimp.lang.Program;
+import uk.ac.bham.cs.schimp.lang.expression.arith.ArithmeticConstant;
+
+public class ProgramExecutionContextStoreTest {
+	
+	// big is too large for a long and third isn't an integer, so their values are encoded as fractions; z is never read,
+	// so it's dead as soon as it has been declared
+	private static final String PROGRAM =
+		"initial s := { 0 -> 1/2, 1 -> 1/2 };\n" +
+		"new big := 2 ^ 70;\n" +
+		"new third := 1 / 3;\n" +
+		"function f(a) {\n" +
+		"	new x := { a -> 1/2, a + 1 -> 1/2 };\n" +
+		"	new y := 0;\n" +
+		"	if (x == 1) {\n" +
+		"		y := x + big\n" +
+		"	} else {\n" +
+		"		y := x * third\n" +
+		"	};\n" +
+		"	new z := { 0 -> 1/2, 1 -> 1/2 };\n" +
+		"	output y, s\n" +
+		"};\n" +
+		"f(s)\n";
+	
+	public static void main(String[] args) throws Exception {
+		Program program = Tests.parse(PROGRAM, null);
+		List<ProgramExecutionContext> contexts = reachableContexts(program);
+		
+		roundTrip(new ProgramExecutionContextStore(program), contexts);
+		File directory = Files.createTempDirectory("schimp-test-").toFile();
+		try {
+			roundTrip(new ProgramExecutionContextStore(program, directory), contexts);
+		} finally {
+			directory.delete();
+		}
+		
+		deadVariables(program, contexts);
+	}
+	
+	// every context reachable from the program's initial context, each of them once
+	private static List<ProgramExecutionContext> reachableContexts(Program program) throws ProgramExecutionException {
+		List<ProgramExecutionContext> contexts = new ArrayList<>();
+		Set<ProgramExecutionContext> seen = new HashSet<>();
+		Deque<ProgramExecutionContext> queue = new ArrayDeque<>();
+		queue.add(ProgramExecutionContext.initialContext(program));
+		while (!queue.isEmpty()) {
+			ProgramExecutionContext context = queue.poll();
+			if (!seen.add(context)) continue;
+			contexts.add(context);
+			if (!context.isTerminating()) queue.addAll(context.executingCommand.execute(context).elements());
+		}
+		return contexts;
+	}
+	
+	private static void roundTrip(ProgramExecutionContextStore store, List<ProgramExecutionContext> contexts) {
+		List<Integer> ids = new ArrayList<>();
+		for (ProgramExecutionContext c : contexts) ids.add(store.putIfAbsent(c));
+		checkEquals(contexts.size(), store.size(), "distinct contexts stored");
+		
+		for (int i = 0; i < contexts.size(); i++) {
+			ProgramExecutionContext decoded = store.get(ids.get(i));
+			checkEquals(contexts.get(i), decoded, "decoded context " + ids.get(i));
+			checkEquals(contexts.get(i).toString(), decoded.toString(), "decoded context " + ids.get(i) + " as a string");
+			checkEquals(ids.get(i), store.putIfAbsent(contexts.get(i).clone()), "id of a clone of context " + ids.get(i));
+			checkEquals(ids.get(i), store.getID(decoded), "id of decoded context " + ids.get(i));
+		}
+	}
+	
+	private static void deadVariables(Program program, List<ProgramExecutionContext> contexts) throws ProgramExecutionException {
+		ProgramExecutionContextStore store = new ProgramExecutionContextStore(program);
+		ProgramExecutionContextStore liveStore = new ProgramExecutionContextStore(program, new LiveVariables(program));
+		
+		int zContexts = 0;
+		for (ProgramExecutionContext c : contexts) {
+			int id = liveStore.putIfAbsent(c);
+			ProgramExecutionContext decoded = liveStore.get(id);
+			checkEquals(id, liveStore.putIfAbsent(decoded), "id of decoded context " + id);
+			if (!c.variableBindings.isDefined("z")) continue;
+			zContexts++;
+			
+			// z is dead, so it decodes as 0, and contexts that only differ in its value are the same context
+			checkEquals(new ArithmeticConstant(0), decoded.variableBindings.evaluate("z"), "dead variable z in decoded context " + id);
+			ProgramExecutionContext d = c.clone();
+			d.variableBindings.assign("z", new ArithmeticConstant(1).subtract(c.variableBindings.evaluate("z")));
+			checkEquals(id, liveStore.putIfAbsent(d), "id of context " + id + " with a different value of z");
+			check(store.putIfAbsent(c) != store.putIfAbsent(d), "contexts with different values of z are distinct without liveness");
+		}
+		check(zContexts > 0, "some contexts define z");
+		check(liveStore.size() < contexts.size(), "contexts that only differ in dead variables are merged");
+	}
+	
+}
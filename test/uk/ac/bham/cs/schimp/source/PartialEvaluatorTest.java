@@ -0,0 +1,78 @@
+package uk.ac.bham.cs.schimp.source;
+
+import static uk.ac.bham.cs.schimp.Tests.check;
+import static uk.ac.bham.cs.schimp.Tests.checkEquals;
+
+import uk.ac.bham.cs.schimp.Tests;
+import uk.ac.bham.cs.schimp.Tests.Exploration;
+import uk.ac.bham.cs.schimp.exec.PRISMModelGenerator;
+import uk.ac.bham.cs.schimp.lang.Program;
+
+public class PartialEvaluatorTest {
+	
+	// n, debug and mask are constants; the outer loop runs n times (and its body declares a variable, so each copy of it
+	// keeps a scope frame of its own), the inner loop's bound is only known once the outer one is unrolled, and the last
+	// loop depends on the secret so it can't be unrolled
+	private static final String PROGRAM =
+		"initial s := { 0 -> 1/4, 1 -> 1/4, 2 -> 1/4, 3 -> 1/4 };\n" +
+		"new n := 3;\n" +
+		"new debug := 0;\n" +
+		"new mask := n * 2 - 5;\n" +
+		"new g := 0;\n" +
+		"function bump() {\n" +
+		"	g := g + 1\n" +
+		"};\n" +
+		"function f(k) {\n" +
+		"	new acc := 0;\n" +
+		"	new i := 0;\n" +
+		"	while (i < n) {\n" +
+		"		new j := 0;\n" +
+		"		while (j < i) {\n" +
+		"			new r := { 0 -> 1/2, 1 -> 1/2 };\n" +
+		"			acc := acc + r;\n" +
+		"			j := j + 1\n" +
+		"		};\n" +
+		"		i := i + 1\n" +
+		"	};\n" +
+		"	if (debug == 1) {\n" +
+		"		acc := acc + k\n" +
+		"	} else {\n" +
+		"		acc := acc + (k mod 2)\n" +
+		"	};\n" +
+		"	new m := 0;\n" +
+		"	while (m < k) {\n" +
+		"		bump();\n" +
+		"		m := m + mask\n" +
+		"	};\n" +
+		"	output acc, g\n" +
+		"};\n" +
+		"f(s)\n";
+	
+	public static void main(String[] args) throws Exception {
+		Program program = Tests.parse(PROGRAM, null);
+		PartialEvaluator partialEvaluator = new PartialEvaluator();
+		Program evaluated = Tests.parse(PROGRAM, null, partialEvaluator);
+		// n, debug, mask, and the j in the outer loop's first copy of its body (in which the inner loop doesn't run)
+		checkEquals(4, partialEvaluator.getConstantVariableCount(), "constant variables");
+		// the outer loop, and the inner loop in each of its 3 copies
+		checkEquals(4, partialEvaluator.getUnrolledLoopCount(), "unrolled loops");
+		check(partialEvaluator.getRemovedCommandCount() > 0, "the debug branch is removed: " + partialEvaluator);
+		
+		Program evaluatedAndSliced = Tests.parse(PROGRAM, null, new PartialEvaluator(), new ProgramSlicer());
+		
+		for (boolean collapse : new boolean[] { true, false }) {
+			Exploration full = Tests.explore(program, collapse, new PRISMModelGenerator.ExplorationOptions());
+			Exploration evaluatedExploration = Tests.explore(evaluated, collapse, new PRISMModelGenerator.ExplorationOptions());
+			Exploration evaluatedAndSlicedExploration = Tests.explore(evaluatedAndSliced, collapse, new PRISMModelGenerator.ExplorationOptions());
+			checkEquals(full.vulnerability, evaluatedExploration.vulnerability, "vulnerability of the partially evaluated program (collapse=" + collapse + ")");
+			checkEquals(full.vulnerability, evaluatedAndSlicedExploration.vulnerability, "vulnerability of the partially evaluated and sliced program (collapse=" + collapse + ")");
+			if (!collapse) {
+				check(evaluatedExploration.states < full.states, "partial evaluation removes states: " + evaluatedExploration.states + " of " + full.states);
+			}
+			
+			Exploration reduced = Tests.explore(evaluated, collapse, new PRISMModelGenerator.ExplorationOptions().reduceDeadVariables(true).summariseFunctions(true));
+			checkEquals(full.vulnerability, reduced.vulnerability, "vulnerability of the partially evaluated program with dead variables reduced and functions summarised (collapse=" + collapse + ")");
+		}
+	}
+	
+}
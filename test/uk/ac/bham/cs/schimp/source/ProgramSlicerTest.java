@@ -0,0 +1,58 @@
+package uk.ac.bham.cs.schimp.source;
+
+import static uk.ac.bham.cs.schimp.Tests.check;
+import static uk.ac.bham.cs.schimp.Tests.checkEquals;
+
+import uk.ac.bham.cs.schimp.Tests;
+import uk.ac.bham.cs.schimp.Tests.Exploration;
+import uk.ac.bham.cs.schimp.exec.PRISMModelGenerator;
+import uk.ac.bham.cs.schimp.lang.Program;
+
+public class ProgramSlicerTest {
+	
+	// nothing the attacker observes depends on noise, log or unused, so the commands computing them can be removed; the
+	// while loop and the invocation of the non-atomic function leak() are kept
+	private static final String PROGRAM =
+		"initial s := { 0 -> 1/4, 1 -> 1/4, 2 -> 1/4, 3 -> 1/4 };\n" +
+		"new log := 0;\n" +
+		"function leak(x) {\n" +
+		"	skip\n" +
+		"};\n" +
+		"function f(k) {\n" +
+		"	new noise := { 0 -> 1/2, 1 -> 1/2 };\n" +
+		"	log := log + noise;\n" +
+		"	new unused := { k -> 1/3, k * 3 -> 2/3 };\n" +
+		"	new i := 0;\n" +
+		"	while (i < k mod 2) {\n" +
+		"		leak(i);\n" +
+		"		log := log + i;\n" +
+		"		i := i + 1\n" +
+		"	};\n" +
+		"	output k mod 3\n" +
+		"};\n" +
+		"f(s)\n";
+	
+	private static final String FUNCTION_MODEL =
+		"model leak/1 := {\n" +
+		"	(0) -> { (1, 1) -> 1/2, (2, 1) -> 1/2 },\n" +
+		"	(_) -> (3, 3)\n" +
+		"}\n";
+	
+	public static void main(String[] args) throws Exception {
+		for (String functionModel : new String[] { null, FUNCTION_MODEL }) {
+			Program program = Tests.parse(PROGRAM, functionModel);
+			ProgramSlicer slicer = new ProgramSlicer();
+			Program sliced = Tests.parse(PROGRAM, functionModel, slicer);
+			check(slicer.getSlicedCommandCount() >= 4, "slicer removes noise, log and unused: " + slicer);
+			
+			for (boolean collapse : new boolean[] { true, false }) {
+				String configuration = " (function model=" + (functionModel != null) + ", collapse=" + collapse + ")";
+				Exploration full = Tests.explore(program, collapse, new PRISMModelGenerator.ExplorationOptions());
+				Exploration slicedExploration = Tests.explore(sliced, collapse, new PRISMModelGenerator.ExplorationOptions());
+				checkEquals(full.vulnerability, slicedExploration.vulnerability, "vulnerability of the sliced program" + configuration);
+				check(slicedExploration.states < full.states, "slicing removes states" + configuration + ": " + slicedExploration.states + " of " + full.states);
+			}
+		}
+	}
+	
+}